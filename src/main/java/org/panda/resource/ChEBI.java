@@ -22,7 +22,7 @@ public class ChEBI extends FileServer
 
 	private static ChEBI instance;
 
-	public static ChEBI get()
+	public static synchronized ChEBI get()
 	{
 		if (instance == null) instance = new ChEBI();
 		return instance;
@@ -0,0 +1,129 @@
+package org.panda.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+
+/**
+ * Reads a text stream in large byte chunks that end at line boundaries, and parses the chunks on worker threads. The
+ * parsed chunks are handed to a consumer on the calling thread in their order in the stream, so the output of a
+ * parallel parse is the same as that of a sequential one. The number of chunks in flight is bounded, which keeps the
+ * memory use independent of the stream size.
+ */
+public class ChunkedLineReader
+{
+	private final int chunkBytes;
+	private final int threads;
+
+	public ChunkedLineReader()
+	{
+		this(8 << 20, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ChunkedLineReader(int chunkBytes, int threads)
+	{
+		this.chunkBytes = chunkBytes;
+		this.threads = threads;
+	}
+
+	/**
+	 * Parses the lines in a chunk. Runs on a worker thread.
+	 */
+	public interface ChunkParser<T>
+	{
+		/**
+		 * @param bytes buffer that contains complete lines between from and to, each ending with a newline except
+		 *              possibly the last line of the stream
+		 */
+		T parse(byte[] bytes, int from, int to);
+	}
+
+	/**
+	 * Reads the whole stream, or until the consumer returns false.
+	 *
+	 * @param consumer receives the parsed chunks in order. Returning false stops reading.
+	 */
+	public <T> void read(InputStream in, ChunkParser<T> parser, Predicate<T> consumer) throws IOException
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(threads, r ->
+		{
+			Thread t = new Thread(r, "line-parser");
+			t.setDaemon(true);
+			return t;
+		});
+
+		ArrayDeque<Future<T>> pending = new ArrayDeque<>();
+		byte[] carry = new byte[0];
+
+		try
+		{
+			boolean go = true;
+			while (go)
+			{
+				byte[] buf = Arrays.copyOf(carry, Math.max(chunkBytes, carry.length * 2));
+				int len = carry.length;
+				int n;
+				while (len < buf.length && (n = in.read(buf, len, buf.length - len)) > 0)
+				{
+					len += n;
+				}
+				boolean end = len < buf.length;
+
+				int cut = end ? len : lastLineEnd(buf, len);
+				if (cut < 0)
+				{
+					// A single line is longer than the buffer
+					carry = Arrays.copyOf(buf, len);
+					continue;
+				}
+				carry = Arrays.copyOfRange(buf, cut, len);
+
+				byte[] chunk = buf;
+				int to = cut;
+				if (to > 0) pending.add(pool.submit(() -> parser.parse(chunk, 0, to)));
+
+				while (!pending.isEmpty() && (pending.size() >= threads * 2 || end))
+				{
+					if (!consumer.test(pending.poll().get()))
+					{
+						go = false;
+						break;
+					}
+				}
+				if (end) break;
+			}
+		}
+		catch (InterruptedException | ExecutionException e)
+		{
+			throw new IOException(e);
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return position after the last newline, or -1 if there is none
+	 */
+	private static int lastLineEnd(byte[] buf, int len)
+	{
+		for (int i = len - 1; i >= 0; i--)
+		{
+			if (buf[i] == '\n') return i + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Position of the byte in the range, or the end of the range if it is not there.
+	 */
+	public static int indexOf(byte[] bytes, int from, int to, byte b)
+	{
+		while (from < to && bytes[from] != b) from++;
+		return from;
+	}
+}
@@ -0,0 +1,120 @@
+package org.panda.resource;
+
+import java.util.Arrays;
+
+/**
+ * An immutable bit set that keeps only its non-zero 64-bit words, together with the indices of those words. Gene
+ * sets are sparse over the whole gene index, so this takes a few words per set, while its intersection with a dense
+ * bit set is a single pass over those words.
+ */
+public class CompressedBitSet
+{
+	private final int[] wordIndex;
+	private final long[] words;
+	private final int cardinality;
+
+	/**
+	 * @param sortedBits sorted, distinct, non-negative bit positions
+	 */
+	public CompressedBitSet(int[] sortedBits)
+	{
+		int n = 0;
+		int last = -1;
+		for (int bit : sortedBits)
+		{
+			if ((bit >>> 6) != last)
+			{
+				last = bit >>> 6;
+				n++;
+			}
+		}
+
+		wordIndex = new int[n];
+		words = new long[n];
+
+		int i = -1;
+		last = -1;
+		for (int bit : sortedBits)
+		{
+			if ((bit >>> 6) != last)
+			{
+				last = bit >>> 6;
+				wordIndex[++i] = last;
+			}
+			words[i] |= 1L << bit;
+		}
+
+		cardinality = sortedBits.length;
+	}
+
+	public int cardinality()
+	{
+		return cardinality;
+	}
+
+	public boolean get(int bit)
+	{
+		int w = Arrays.binarySearch(wordIndex, bit >>> 6);
+		return w >= 0 && (words[w] & (1L << bit)) != 0;
+	}
+
+	/**
+	 * Size of the intersection with the given dense bit set.
+	 */
+	public int andCount(long[] dense)
+	{
+		int cnt = 0;
+		for (int i = 0; i < words.length; i++)
+		{
+			int w = wordIndex[i];
+			if (w >= dense.length) break;
+			cnt += Long.bitCount(words[i] & dense[w]);
+		}
+		return cnt;
+	}
+
+	/**
+	 * Sets the bits of this set in the given dense bit set.
+	 */
+	public void orInto(long[] dense)
+	{
+		for (int i = 0; i < words.length; i++)
+		{
+			dense[wordIndex[i]] |= words[i];
+		}
+	}
+
+	/**
+	 * Number of words that a dense bit set needs to cover this set.
+	 */
+	public int getWordLength()
+	{
+		return words.length == 0 ? 0 : wordIndex[words.length - 1] + 1;
+	}
+
+	// Section: Dense bit set helpers
+
+	public static long[] toDense(int[] bits, int wordLength)
+	{
+		long[] dense = new long[wordLength];
+		for (int bit : bits)
+		{
+			if ((bit >>> 6) < wordLength) dense[bit >>> 6] |= 1L << bit;
+		}
+		return dense;
+	}
+
+	public static int cardinality(long[] dense)
+	{
+		int cnt = 0;
+		for (long w : dense) cnt += Long.bitCount(w);
+		return cnt;
+	}
+
+	public static long[] and(long[] a, long[] b)
+	{
+		long[] c = new long[Math.min(a.length, b.length)];
+		for (int i = 0; i < c.length; i++) c[i] = a[i] & b[i];
+		return c;
+	}
+}
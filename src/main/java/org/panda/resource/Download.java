@@ -6,19 +6,87 @@ import org.apache.commons.net.ftp.FTPFile;
 import org.tukaani.xz.XZInputStream;
 
 import java.io.*;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipInputStream;
 
 /**
  * Utility class for downloading files from a URL.
  *
+ * Downloads go to a ".part" file next to the target, and the part file is renamed to the target only after the
+ * transfer completes and its checksum (if given) is verified. An existing part file is resumed with an HTTP Range
+ * request (or an FTP restart offset) instead of being downloaded from scratch. The version of the distant file (its
+ * ETag or Last-Modified, and its length) is saved next to the part file, and a part file is resumed only if the
+ * server confirms the same version and starts its response at the end of the part. Otherwise the download restarts
+ * from the beginning.
+ *
  * @author Ozgun Babur
  */
 public class Download
 {
+	private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.11 " +
+		"(KHTML, like Gecko) Chrome/23.0.1271.95 Safari/537.11";
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Maximum number of bytes per channel transfer call.
+	 */
+	private static final long TRANSFER_CHUNK = 1 << 23;
+
+	private static final int MAX_REDIRECTS = 5;
+
+	private static int connectTimeout = 30000;
+	private static int readTimeout = 120000;
+	private static int maxAttempts = 3;
+	private static int maxParallelDownloads = 4;
+
+	/**
+	 * Whether the transfer statistics of each download are printed. Can be turned on with the system property
+	 * panda.verboseDownloads.
+	 */
+	private static boolean verbose = Boolean.getBoolean("panda.verboseDownloads");
+
+	public static void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis)
+	{
+		connectTimeout = connectTimeoutMillis;
+		readTimeout = readTimeoutMillis;
+	}
+
+	/**
+	 * Number of times a broken transfer is resumed before giving up.
+	 */
+	public static void setMaxAttempts(int maxAttempts)
+	{
+		Download.maxAttempts = maxAttempts;
+	}
+
+	public static void setMaxParallelDownloads(int maxParallelDownloads)
+	{
+		Download.maxParallelDownloads = maxParallelDownloads;
+	}
+
+	public static void setVerbose(boolean verbose)
+	{
+		Download.verbose = verbose;
+	}
+
 	public static boolean downlaodTextFile(String url, String saveFile)
 	{
 		try
@@ -51,171 +119,499 @@ public class Download
 
 	public static boolean downloadAsIs(String address, String saveFile)
 	{
-		if (address.startsWith("ftp://"))
-			return downloadAsIsViaFTP(address, saveFile);
-
 		try
 		{
-			URL url = new URL(address);
-			URLConnection con = url.openConnection();
-			con.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.11 " +
-				"(KHTML, like Gecko) Chrome/23.0.1271.95 Safari/537.11");
-			con.connect();
+			return fetch(address, Paths.get(saveFile), null) != null;
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			return false;
+		}
+	}
 
-			InputStream in = con.getInputStream();
+	public static boolean downloadAndUncompress(String address, String saveFile)
+	{
+		return download(address, saveFile, null) != null;
+	}
 
-			// Open the output file
-			OutputStream out = new FileOutputStream(saveFile);
-			// Transfer bytes from the compressed file to the output file
-			byte[] buf = new byte[1024];
+	/**
+	 * Downloads all the given URLs concurrently.
+	 *
+	 * @param checksums expected checksums of the downloaded (not uncompressed) files in the form "algorithm:hex", like
+	 *                  "sha256:9f86d0...". The array, or any of its elements can be null.
+	 * @return true if all downloads are successful
+	 */
+	public static boolean downloadAll(String[] addresses, String[] saveFiles, String[] checksums)
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+			Math.min(maxParallelDownloads, addresses.length)));
 
-			int total = 0;
-			int len;
-			while ((len = in.read(buf)) > 0)
+		try
+		{
+			List<Future<Stats>> futures = new ArrayList<>();
+			for (int i = 0; i < addresses.length; i++)
 			{
-				out.write(buf, 0, len);
-				total += len;
+				String address = addresses[i];
+				String saveFile = saveFiles[i];
+				String checksum = checksums == null ? null : checksums[i];
+				futures.add(executor.submit(() -> download(address, saveFile, checksum)));
 			}
 
-			// Close the file and stream
-			in.close();
-			out.close();
-
-			return total > 0;
+			boolean success = true;
+			for (int i = 0; i < futures.size(); i++)
+			{
+				if (futures.get(i).get() == null)
+				{
+					System.err.println("Cannot download " + addresses[i]);
+					success = false;
+				}
+			}
+			return success;
 		}
-		catch (IOException e)
+		catch (InterruptedException | ExecutionException e)
 		{
 			e.printStackTrace();
 			return false;
 		}
+		finally
+		{
+			executor.shutdownNow();
+		}
 	}
 
-	public static boolean downloadAndUncompress(String address, String saveFile)
+	/**
+	 * Downloads the given address to the given file, uncompressing it if the address ends with .gz, .xz or .zip.
+	 *
+	 * @param checksum expected checksum of the distant file as "algorithm:hex", or null
+	 * @return transfer statistics, or null if the download failed
+	 */
+	public static Stats download(String address, String saveFile, String checksum)
 	{
-		if (address.startsWith("ftp://"))
-			return downloadAndUncompressViaFTP(address, saveFile);
+		String ext = getCompressionExtension(address);
 
 		try
 		{
-			URL url = new URL(address);
-			URLConnection con = url.openConnection();
-
-			InputStream in;
-
-			if (address.endsWith(".gz"))
-				in = new GZIPInputStream(con.getInputStream());
-			else if (address.endsWith(".xz"))
-				in = new XZInputStream(con.getInputStream());
-			else in = new ZipInputStream(con.getInputStream());
+			if (ext == null)
+			{
+				return fetch(address, Paths.get(saveFile), checksum);
+			}
 
-			// Open the output file
-			OutputStream out = new FileOutputStream(saveFile);
-			// Transfer bytes from the compressed file to the output file
-			byte[] buf = new byte[1024];
+			Path compressed = Paths.get(saveFile + ext);
+			Stats stats = fetch(address, compressed, checksum);
+			if (stats == null) return null;
 
-			int lines = 0;
-			int len;
-			while ((len = in.read(buf)) > 0)
+			Path part = Paths.get(saveFile + ".part");
+			long total;
+			try (InputStream in = openDecompressing(Files.newInputStream(compressed), ext);
+				OutputStream out = Files.newOutputStream(part))
 			{
-				out.write(buf, 0, len);
-				lines++;
+				total = copy(in, out);
 			}
 
-			// Close the file and stream
-			in.close();
-			out.close();
+			if (total <= 0)
+			{
+				Files.deleteIfExists(part);
+				return null;
+			}
 
-			return lines > 0;
+			Files.move(part, Paths.get(saveFile), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Files.delete(compressed);
+			return stats;
 		}
 		catch (IOException e)
 		{
 			e.printStackTrace();
-			return false;
+			return null;
 		}
 	}
 
-	private static boolean downloadAndUncompressViaFTP(String address, String saveFile)
+	/**
+	 * Fetches the distant file as is, resuming a previously broken transfer when possible.
+	 */
+	private static Stats fetch(String address, Path target, String checksum) throws IOException
 	{
-		try
+		Path part = Paths.get(target + ".part");
+		long start = Files.exists(part) ? Files.size(part) : 0;
+		Stats stats = new Stats(address, start);
+
+		for (int attempt = 1; attempt <= maxAttempts; attempt++)
 		{
-			FTPClient fc = new FTPClient();
+			try
+			{
+				transfer(address, part, stats);
+				break;
+			}
+			catch (IOException e)
+			{
+				if (attempt == maxAttempts) throw e;
+				System.err.println("Transfer of " + address + " broke (" + e.getMessage() + "). Resuming.");
+			}
+		}
 
-			String host = address.substring(6, address.indexOf("/", 7));
-			String fileloc = address.substring(address.indexOf("/", 7));
+		Files.deleteIfExists(getVersionFile(part));
 
-			fc.connect(host);
-			fc.enterLocalPassiveMode();
-			fc.setRemoteVerificationEnabled(false);
-			fc.login("anonymous", "");
-			fc.setFileType(FTP.BINARY_FILE_TYPE);
+		if (Files.size(part) == 0)
+		{
+			Files.delete(part);
+			return null;
+		}
 
-			InputStream is = new GZIPInputStream(fc.retrieveFileStream(fileloc));
-			OutputStream out = new FileOutputStream(saveFile);
+		if (checksum != null && !checksumMatches(part, checksum))
+		{
+			System.err.println("Checksum mismatch for " + address);
+			Files.delete(part);
+			return null;
+		}
 
-			int length = 0;
+		Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 
-			byte[] buffer = new byte[65536];
-			int noRead;
+		stats.finish();
+		if (verbose) System.out.println(stats);
+		return stats;
+	}
 
-			while ((noRead = is.read(buffer)) > 0) {
-				out.write(buffer, 0, noRead);
-				length += noRead;
-			}
+	/**
+	 * Continues writing the part file from where it is left, or from the beginning if the server does not resume the
+	 * same version of the distant file there.
+	 */
+	private static void transfer(String address, Path part, Stats stats) throws IOException
+	{
+		long existing = Files.exists(part) ? Files.size(part) : 0;
+		Path versionFile = getVersionFile(part);
+		Version saved = existing > 0 ? Version.read(versionFile) : null;
 
-			is.close();
-			fc.disconnect();
-			out.close();
+		Opened opened = openRaw(address, existing, saved);
+		try (InputStream in = opened.in)
+		{
+			if (opened.offset > 0) stats.resumed = true;
+			if (opened.offset == 0 || saved == null) Version.write(versionFile, opened.version);
 
-			return length > 0;
+			stats.bytes += writeChannel(in, part, opened.offset);
 		}
-		catch (IOException e)
+	}
+
+	private static Path getVersionFile(Path part)
+	{
+		return Paths.get(part + ".version");
+	}
+
+	/**
+	 * Opens the distant file as a stream of its decompressed content, if it is compressed. The content is not
+	 * written to disk, unless a keepFile is given, where the distant file is saved as is after the stream is read to
+	 * the end.
+	 */
+	public static InputStream openStream(String address, String keepFile) throws IOException
+	{
+		return openStream(address, keepFile, null);
+	}
+
+	/**
+	 * Opens the distant file like openStream(address, keepFile), with the same retry logic as the downloads. When the
+	 * transfer breaks, the distant file is opened again at the byte where it broke, up to the maximum number of
+	 * attempts. If a checksum is given, closing the stream reads the distant file to its end and throws an
+	 * IOException when the checksum does not match, so consumers should not commit what they read before the stream
+	 * is closed without an error.
+	 *
+	 * @param checksum expected checksum of the distant file as "algorithm:hex", or null
+	 */
+	public static InputStream openStream(String address, String keepFile, String checksum) throws IOException
+	{
+		InputStream in = new ResumingInputStream(address);
+		if (checksum != null) in = new VerifyingInputStream(in, checksum, address);
+		if (keepFile != null) in = new KeepingInputStream(in, Paths.get(keepFile));
+
+		String ext = getCompressionExtension(address);
+		return ext == null ? new BufferedInputStream(in, BUFFER_SIZE) : openDecompressing(in, ext);
+	}
+
+	/**
+	 * Opens a previously downloaded distant file as a stream of its decompressed content, verifying its checksum
+	 * when the stream is closed, like openStream.
+	 *
+	 * @param checksum expected checksum of the file as "algorithm:hex", or null
+	 */
+	static InputStream openLocal(Path file, String ext, String checksum) throws IOException
+	{
+		InputStream in = Files.newInputStream(file);
+		if (checksum != null) in = new VerifyingInputStream(in, checksum, file.toString());
+		return ext == null ? new BufferedInputStream(in, BUFFER_SIZE) : openDecompressing(in, ext);
+	}
+
+	/**
+	 * Opens the distant file starting from the given offset, if the server can resume the expected version there.
+	 * Otherwise it is opened from the beginning.
+	 *
+	 * @param expected version of the distant file that the offset is for, or null if unknown
+	 */
+	private static Opened openRaw(String address, long offset, Version expected) throws IOException
+	{
+		return address.startsWith("ftp://") ? openFTP(address, offset) : openURL(address, offset, expected);
+	}
+
+	private static Opened openURL(String address, long offset, Version expected) throws IOException
+	{
+		URLConnection con = new URL(address).openConnection();
+
+		for (int i = 0; con instanceof HttpURLConnection && i < MAX_REDIRECTS; i++)
 		{
-//			e.printStackTrace();
-			return false;
+			HttpURLConnection http = (HttpURLConnection) con;
+			http.setRequestProperty("User-Agent", USER_AGENT);
+			http.setConnectTimeout(connectTimeout);
+			http.setReadTimeout(readTimeout);
+			if (offset > 0)
+			{
+				http.setRequestProperty("Range", "bytes=" + offset + "-");
+
+				// The server sends the whole file instead of the range if the file changed
+				if (expected != null && expected.tag != null) http.setRequestProperty("If-Range", expected.tag);
+			}
+
+			int code = http.getResponseCode();
+
+			// HttpURLConnection does not follow redirects that change the protocol
+			if (code >= 300 && code < 400 && http.getHeaderField("Location") != null)
+			{
+				URL next = new URL(http.getURL(), http.getHeaderField("Location"));
+				http.disconnect();
+				con = next.openConnection();
+				continue;
+			}
+
+			if ((code == HttpURLConnection.HTTP_PARTIAL || code == 416) && offset > 0)
+			{
+				// Content-Range is "bytes first-last/length" for a range, and "bytes */length" for a 416
+				long[] range = parseContentRange(http.getHeaderField("Content-Range"));
+				Version version = Version.of(http, range[2]);
+				boolean resumable = expected == null || expected.isSame(version);
+
+				if (code == HttpURLConnection.HTTP_PARTIAL && resumable && range[0] == offset)
+				{
+					return new Opened(http.getInputStream(), offset, version);
+				}
+				else if (code == 416 && resumable && range[2] == offset)
+				{
+					// The part file already has all the bytes
+					http.disconnect();
+					return new Opened(new ByteArrayInputStream(new byte[0]), offset, version);
+				}
+
+				http.disconnect();
+				System.err.println("Cannot resume " + address + " at byte " + offset + ". Restarting.");
+				return openURL(address, 0, null);
+			}
+			else if (code != HttpURLConnection.HTTP_OK)
+			{
+				http.disconnect();
+				throw new IOException("HTTP " + code + " for " + address);
+			}
+
+			// The server ignored the range, or the file changed
+			return new Opened(http.getInputStream(), 0, Version.of(http, http.getContentLengthLong()));
 		}
+
+		// Not HTTP, or too many redirects
+		con.setConnectTimeout(connectTimeout);
+		con.setReadTimeout(readTimeout);
+		return new Opened(con.getInputStream(), 0, null);
 	}
 
-	private static boolean downloadAsIsViaFTP(String address, String saveFile)
+	/**
+	 * @return first and last byte positions and the length of the file, -1 for the ones that are not given
+	 */
+	private static long[] parseContentRange(String header)
 	{
+		long[] range = {-1, -1, -1};
+		if (header == null || !header.startsWith("bytes ")) return range;
+
+		String[] t = header.substring(6).trim().split("[-/]");
 		try
 		{
-			FTPClient fc = new FTPClient();
+			if (t.length == 3)
+			{
+				range[0] = Long.parseLong(t[0]);
+				range[1] = Long.parseLong(t[1]);
+			}
+			if (!t[t.length - 1].equals("*")) range[2] = Long.parseLong(t[t.length - 1]);
+		}
+		catch (NumberFormatException e)
+		{
+			// A malformed header does not match any offset
+		}
+		return range;
+	}
+
+	/**
+	 * FTP servers either restart at the offset or fail the transfer, and do not tell the version of the file.
+	 */
+	private static Opened openFTP(String address, long offset) throws IOException
+	{
+		FTPClient fc = new FTPClient();
+		fc.setConnectTimeout(connectTimeout);
+		fc.setDataTimeout(readTimeout);
 
-			String host = address.substring(6, address.indexOf("/", 7));
-			String fileloc = address.substring(address.indexOf("/", 7));
+		String host = address.substring(6, address.indexOf("/", 7));
+		String fileloc = address.substring(address.indexOf("/", 7));
 
+		try
+		{
 			fc.connect(host);
 			fc.enterLocalPassiveMode();
 			fc.setRemoteVerificationEnabled(false);
 			fc.login("anonymous", "");
 			fc.setFileType(FTP.BINARY_FILE_TYPE);
+			fc.setBufferSize(BUFFER_SIZE);
+			if (offset > 0) fc.setRestartOffset(offset);
 
-			InputStream is = fc.retrieveFileStream(fileloc);
-			OutputStream out = new FileOutputStream(saveFile);
+			InputStream in = fc.retrieveFileStream(fileloc);
+			if (in == null) throw new IOException("FTP server replied " + fc.getReplyString().trim());
 
-			int length = 0;
+			return new Opened(new FilterInputStream(in)
+			{
+				@Override
+				public void close() throws IOException
+				{
+					try
+					{
+						super.close();
+						fc.completePendingCommand();
+					}
+					finally
+					{
+						if (fc.isConnected()) fc.disconnect();
+					}
+				}
+			}, offset, null);
+		}
+		catch (IOException e)
+		{
+			if (fc.isConnected()) fc.disconnect();
+			throw e;
+		}
+	}
 
-			byte[] buffer = new byte[65536];
-			int noRead;
+	private static void skipFully(InputStream in, long n) throws IOException
+	{
+		byte[] buf = null;
+		while (n > 0)
+		{
+			long skipped = in.skip(n);
+			if (skipped <= 0)
+			{
+				if (buf == null) buf = new byte[BUFFER_SIZE];
+				int len = in.read(buf, 0, (int) Math.min(buf.length, n));
+				if (len < 0) throw new EOFException();
+				skipped = len;
+			}
+			n -= skipped;
+		}
+	}
 
-			while ((noRead = is.read(buffer)) > 0) {
-				out.write(buffer, 0, noRead);
-				length += noRead;
+	/**
+	 * Writes the stream to the file starting from the given position, discarding anything after that position.
+	 * @return number of bytes written
+	 */
+	private static long writeChannel(InputStream in, Path file, long position) throws IOException
+	{
+		try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			ReadableByteChannel src = Channels.newChannel(in))
+		{
+			out.truncate(position);
+			long pos = position;
+			long n;
+			while ((n = out.transferFrom(src, pos, TRANSFER_CHUNK)) > 0)
+			{
+				pos += n;
 			}
+			return pos - position;
+		}
+	}
 
-			is.close();
-			fc.disconnect();
-			out.close();
+	private static long copy(InputStream in, OutputStream out) throws IOException
+	{
+		byte[] buf = new byte[BUFFER_SIZE];
+		long total = 0;
+		int len;
+		while ((len = in.read(buf)) > 0)
+		{
+			out.write(buf, 0, len);
+			total += len;
+		}
+		return total;
+	}
 
-			return length > 0;
+	/**
+	 * @return the compression extension of the address, or null if it is not compressed
+	 */
+	static String getCompressionExtension(String address)
+	{
+		for (String ext : new String[]{".gz", ".xz", ".zip"})
+		{
+			if (address.endsWith(ext)) return ext;
 		}
-		catch (IOException e)
+		return null;
+	}
+
+	static InputStream openDecompressing(InputStream in, String ext) throws IOException
+	{
+		in = new BufferedInputStream(in, BUFFER_SIZE);
+
+		switch (ext)
 		{
-			e.printStackTrace();
-			return false;
+			case ".gz": return new GZIPInputStream(in, BUFFER_SIZE);
+			case ".xz": return new XZInputStream(in);
+			default:
+				ZipInputStream zin = new ZipInputStream(in);
+				if (zin.getNextEntry() == null) throw new IOException("Empty zip file");
+				return zin;
 		}
 	}
 
+	private static boolean checksumMatches(Path file, String checksum) throws IOException
+	{
+		try (DigestInputStream in = new DigestInputStream(Files.newInputStream(file), createDigest(checksum)))
+		{
+			byte[] buf = new byte[BUFFER_SIZE];
+			while (in.read(buf) > 0);
+
+			return toHex(in.getMessageDigest().digest()).equals(getExpectedDigest(checksum));
+		}
+	}
+
+	/**
+	 * Creates the digest of the algorithm of the checksum, which is SHA-256 if the checksum has no algorithm.
+	 */
+	private static MessageDigest createDigest(String checksum)
+	{
+		int colon = checksum.indexOf(':');
+		String algorithm = colon < 0 ? "SHA-256" : checksum.substring(0, colon).toUpperCase();
+		if (algorithm.startsWith("SHA") && !algorithm.contains("-")) algorithm = "SHA-" + algorithm.substring(3);
+
+		try
+		{
+			return MessageDigest.getInstance(algorithm);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalArgumentException("Unknown checksum algorithm: " + algorithm, e);
+		}
+	}
+
+	private static String getExpectedDigest(String checksum)
+	{
+		return checksum.substring(checksum.indexOf(':') + 1).toLowerCase();
+	}
+
+	private static String toHex(byte[] digest)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest)
+		{
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
 	public static String[] listFtpFiles(String ftpDir) throws IOException
 	{
 		java.util.List<String> list = new ArrayList<String>();
@@ -244,6 +640,386 @@ public class Download
 		return files;
 	}
 
+	/**
+	 * Reads a distant file, and opens it again at the byte where the transfer breaks, up to the maximum number of
+	 * attempts.
+	 */
+	private static class ResumingInputStream extends InputStream
+	{
+		private final String address;
+		private InputStream in;
+		private long position;
+		private int attempt = 1;
+
+		/**
+		 * Version of the distant file given by the first response.
+		 */
+		private Version version;
+
+		ResumingInputStream(String address) throws IOException
+		{
+			this.address = address;
+			in = open();
+		}
+
+		/**
+		 * Opens the distant file at the current position, retrying failed attempts.
+		 */
+		private InputStream open() throws IOException
+		{
+			while (true)
+			{
+				try
+				{
+					Opened opened = openRaw(address, position, version);
+					if (version == null) version = opened.version;
+
+					// Bytes up to the position are already read, so only the same version can be continued
+					if (opened.offset != position)
+					{
+						if (version != null && !version.isSame(opened.version))
+						{
+							opened.in.close();
+							throw new IOException("Distant file changed during the transfer");
+						}
+						skipFully(opened.in, position - opened.offset);
+					}
+					return opened.in;
+				}
+				catch (IOException e)
+				{
+					retryOrThrow(e);
+				}
+			}
+		}
+
+		private void retryOrThrow(IOException e) throws IOException
+		{
+			if (attempt++ >= maxAttempts) throw e;
+			System.err.println("Transfer of " + address + " broke (" + e.getMessage() + "). Resuming.");
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			byte[] b = new byte[1];
+			int n = read(b, 0, 1);
+			return n < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			while (true)
+			{
+				try
+				{
+					int n = in.read(b, off, len);
+					if (n > 0) position += n;
+					return n;
+				}
+				catch (IOException e)
+				{
+					retryOrThrow(e);
+					closeQuietly();
+					in = open();
+				}
+			}
+		}
+
+		private void closeQuietly()
+		{
+			try
+			{
+				in.close();
+			}
+			catch (IOException e)
+			{
+				// The broken connection is dropped
+			}
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * A stream of the distant file, with where it starts in the file.
+	 */
+	private static class Opened
+	{
+		final InputStream in;
+		final long offset;
+		final Version version;
+
+		Opened(InputStream in, long offset, Version version)
+		{
+			this.in = in;
+			this.offset = offset;
+			this.version = version;
+		}
+	}
+
+	/**
+	 * Identifies the version of a distant file by its strong ETag, or else its Last-Modified date, and its length.
+	 */
+	private static class Version
+	{
+		/**
+		 * Value for the If-Range header, or null if the server gives neither.
+		 */
+		final String tag;
+
+		/**
+		 * Length of the file, or -1 if unknown.
+		 */
+		final long length;
+
+		Version(String tag, long length)
+		{
+			this.tag = tag;
+			this.length = length;
+		}
+
+		static Version of(HttpURLConnection http, long length)
+		{
+			String tag = http.getHeaderField("ETag");
+
+			// Weak tags cannot be used in If-Range
+			if (tag == null || tag.startsWith("W/")) tag = http.getHeaderField("Last-Modified");
+			return new Version(tag, length);
+		}
+
+		/**
+		 * Whether the two do not contradict each other. Unknown parts are not compared.
+		 */
+		boolean isSame(Version v)
+		{
+			return v == null || ((tag == null || v.tag == null || tag.equals(v.tag)) &&
+				(length < 0 || v.length < 0 || length == v.length));
+		}
+
+		/**
+		 * Reads the version saved next to a part file.
+		 *
+		 * @return the version, or null if it is not saved
+		 */
+		static Version read(Path file) throws IOException
+		{
+			if (!Files.exists(file)) return null;
+
+			List<String> lines = Files.readAllLines(file);
+			if (lines.size() != 2) return null;
+
+			try
+			{
+				return new Version(lines.get(0).isEmpty() ? null : lines.get(0), Long.parseLong(lines.get(1)));
+			}
+			catch (NumberFormatException e)
+			{
+				return null;
+			}
+		}
+
+		/**
+		 * Saves the version next to a part file, or removes the saved one if the version is null.
+		 */
+		static void write(Path file, Version version) throws IOException
+		{
+			if (version == null) Files.deleteIfExists(file);
+			else Files.write(file, ((version.tag == null ? "" : version.tag) + "\n" + version.length).getBytes());
+		}
+	}
+
+	/**
+	 * Computes the digest of the bytes that pass through it. When closed, it reads the rest of the stream, and throws
+	 * an IOException if the digest does not match the expected checksum.
+	 */
+	private static class VerifyingInputStream extends FilterInputStream
+	{
+		private final String checksum;
+		private final String source;
+
+		VerifyingInputStream(InputStream in, String checksum, String source)
+		{
+			super(new DigestInputStream(in, createDigest(checksum)));
+			this.checksum = checksum;
+			this.source = source;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			// Skipped bytes have to go through the digest
+			byte[] buf = new byte[(int) Math.min(n, BUFFER_SIZE)];
+			int len = read(buf, 0, buf.length);
+			return Math.max(len, 0);
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			try
+			{
+				byte[] buf = new byte[BUFFER_SIZE];
+				while (read(buf, 0, buf.length) >= 0);
+
+				String actual = toHex(((DigestInputStream) in).getMessageDigest().digest());
+				if (!actual.equals(getExpectedDigest(checksum)))
+				{
+					throw new IOException("Checksum mismatch for " + source);
+				}
+			}
+			finally
+			{
+				super.close();
+			}
+		}
+	}
+
+	/**
+	 * Saves the bytes that pass through it to a file. The file appears only after the stream is read to the end.
+	 */
+	private static class KeepingInputStream extends FilterInputStream
+	{
+		private final Path file;
+		private final Path part;
+		private final OutputStream out;
+		private boolean ended;
+
+		KeepingInputStream(InputStream in, Path file) throws IOException
+		{
+			super(in);
+			this.file = file;
+			this.part = Paths.get(file + ".part");
+			this.out = new BufferedOutputStream(Files.newOutputStream(part), BUFFER_SIZE);
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if (b < 0) ended = true;
+			else out.write(b);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int n = super.read(b, off, len);
+			if (n < 0) ended = true;
+			else out.write(b, off, n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			byte[] buf = new byte[(int) Math.min(n, BUFFER_SIZE)];
+			int len = read(buf, 0, buf.length);
+			return Math.max(len, 0);
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			boolean closed = false;
+			try
+			{
+				// Decompressors may stop before the physical end, such as the zip trailer
+				if (!ended)
+				{
+					byte[] buf = new byte[BUFFER_SIZE];
+					while (read(buf, 0, buf.length) >= 0);
+				}
+
+				// Closing the underlying stream may fail the checksum, and then the file is not kept
+				super.close();
+				closed = true;
+			}
+			finally
+			{
+				out.close();
+				if (ended && closed)
+				{
+					Files.move(part, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+				else Files.deleteIfExists(part);
+			}
+		}
+	}
+
+	/**
+	 * Transfer metrics of a single download.
+	 */
+	public static class Stats
+	{
+		private final String address;
+		private final long startTime;
+		private final long startOffset;
+		private long endTime;
+		private long bytes;
+		private boolean resumed;
+
+		Stats(String address, long startOffset)
+		{
+			this.address = address;
+			this.startOffset = startOffset;
+			this.startTime = System.currentTimeMillis();
+		}
+
+		void finish()
+		{
+			endTime = System.currentTimeMillis();
+		}
+
+		/**
+		 * Bytes transferred in this session. Does not include the bytes of a resumed part file.
+		 */
+		public long getBytes()
+		{
+			return bytes;
+		}
+
+		public long getMillis()
+		{
+			return Math.max(1, endTime - startTime);
+		}
+
+		public double getMegabytesPerSecond()
+		{
+			return (bytes / 1048576D) / (getMillis() / 1000D);
+		}
+
+		public boolean isResumed()
+		{
+			return resumed;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("Downloaded %s: %.1f MB in %.1f s (%.2f MB/s)%s", address, bytes / 1048576D,
+				getMillis() / 1000D, getMegabytesPerSecond(), resumed ? ", resumed at byte " + startOffset : "");
+		}
+	}
+
 	public static void main(String[] args)
 	{
 		downloadAsIs("https://www.genenames.org/cgi-bin/download?col=gd_hgnc_id&col=gd_app_sym&col=gd_prev_sym&col=gd_aliases&col=gd_pub_chrom_map&col=family.name&col=md_prot_id&status=Approved&status_opt=2&where=&order_by=gd_app_sym_sort&format=text&limit=&hgnc_dbtag=on&submit=submit",
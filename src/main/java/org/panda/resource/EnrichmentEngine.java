@@ -0,0 +1,294 @@
+package org.panda.resource;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Runs Fisher's exact test based enrichment of query genes in the sets of a GeneSetCollection. Each set is kept as a
+ * CompressedBitSet over the SymbolDictionary IDs, and the query and background are dense bit sets, so an overlap is
+ * a popcount over the few words of the set. P-values are hypergeometric upper tails computed from a shared table of
+ * log-factorials.
+ *
+ * Results are EnrichmentResults, with the p-values and the smallest p-values that are possible for each set, to be
+ * used in FDR control.
+ */
+public class EnrichmentEngine
+{
+	private final GeneSetCollection collection;
+	private final CompressedBitSet[] bits;
+
+	/**
+	 * Union of all sets.
+	 */
+	private final long[] allGenes;
+
+	/**
+	 * True for the sets whose members are identical to a set with a smaller index. Those are not tested.
+	 */
+	private final boolean[] duplicate;
+
+	public EnrichmentEngine(GeneSetCollection collection)
+	{
+		this.collection = collection;
+
+		int n = collection.size();
+		bits = new CompressedBitSet[n];
+		int wordLength = 0;
+		for (int i = 0; i < n; i++)
+		{
+			bits[i] = new CompressedBitSet(collection.getMembers(i));
+			wordLength = Math.max(wordLength, bits[i].getWordLength());
+		}
+
+		allGenes = new long[wordLength];
+		for (CompressedBitSet b : bits)
+		{
+			b.orInto(allGenes);
+		}
+
+		duplicate = new boolean[n];
+		Map<Integer, List<Integer>> byHash = new HashMap<>();
+		for (int i = 0; i < n; i++)
+		{
+			int[] m = collection.getMembers(i);
+			List<Integer> sameHash = byHash.computeIfAbsent(Arrays.hashCode(m), k -> new ArrayList<>());
+			for (int j : sameHash)
+			{
+				if (Arrays.equals(m, collection.getMembers(j)))
+				{
+					duplicate[i] = true;
+					break;
+				}
+			}
+			if (!duplicate[i]) sameHash.add(i);
+		}
+	}
+
+	public GeneSetCollection getCollection()
+	{
+		return collection;
+	}
+
+	/**
+	 * Calculates enrichment of the query in each set, running in parallel over the sets.
+	 *
+	 * @param query genes to test. Genes that are not in the background are ignored.
+	 * @param background null means all the genes in the collection. Otherwise its intersection with the genes in the
+	 *                   collection is used.
+	 * @param minSetSize sets smaller than this are not tested
+	 * @param maxSetSize sets larger than this are not tested
+	 * @return p-values and limits of the tested sets
+	 */
+	public EnrichmentResult test(Collection<String> query, Collection<String> background, int minSetSize,
+		int maxSetSize)
+	{
+		Background bg = new Background(background);
+		return toResult(calculate(query, bg, minSetSize, maxSetSize, true));
+	}
+
+	/**
+	 * Calculates the enrichment for many queries against the same background, running in parallel over the queries.
+	 * @return results in the order of the queries, each in the form of the single query test
+	 */
+	public List<EnrichmentResult> testBatch(List<? extends Collection<String>> queries,
+		Collection<String> background, int minSetSize, int maxSetSize)
+	{
+		Background bg = new Background(background);
+		return queries.parallelStream().map(query -> toResult(calculate(query, bg, minSetSize, maxSetSize, false)))
+			.collect(Collectors.toList());
+	}
+
+	/**
+	 * @return p-values and limits as two arrays indexed by set, with NaN for the sets that are not tested
+	 */
+	private double[][] calculate(Collection<String> query, Background bg, int minSetSize, int maxSetSize,
+		boolean parallel)
+	{
+		long[] q = CompressedBitSet.and(CompressedBitSet.toDense(
+			SymbolDictionary.get().toSortedIDs(query), bg.dense.length), bg.dense);
+		int selected = CompressedBitSet.cardinality(q);
+
+		double[] pvals = new double[bits.length];
+		double[] limits = new double[bits.length];
+
+		IntStream range = IntStream.range(0, bits.length);
+		if (parallel) range = range.parallel();
+
+		range.forEach(i ->
+		{
+			int size = bits[i].cardinality();
+			if (duplicate[i] || size < minSetSize || size > maxSetSize)
+			{
+				pvals[i] = Double.NaN;
+				return;
+			}
+
+			int featuredOverall = bg.counts[i];
+			int featuredSelected = bits[i].andCount(q);
+
+			pvals[i] = upperTail(bg.size, featuredOverall, selected, featuredSelected);
+			limits[i] = upperTail(bg.size, featuredOverall, selected, Math.min(featuredOverall, selected));
+		});
+
+		return new double[][]{pvals, limits};
+	}
+
+	private EnrichmentResult toResult(double[][] result)
+	{
+		Map<String, Double> mapP = new HashMap<>();
+		Map<String, Double> mapL = new HashMap<>();
+
+		for (int i = 0; i < bits.length; i++)
+		{
+			if (Double.isNaN(result[0][i])) continue;
+			mapP.put(collection.getName(i), result[0][i]);
+			mapL.put(collection.getName(i), result[1][i]);
+		}
+		return new EnrichmentResult(mapP, mapL);
+	}
+
+	/**
+	 * The background bits with the overlap of each set, computed once for all queries.
+	 */
+	private class Background
+	{
+		final long[] dense;
+		final int size;
+		final int[] counts;
+
+		Background(Collection<String> background)
+		{
+			if (background == null)
+			{
+				dense = allGenes;
+				counts = Arrays.stream(bits).mapToInt(CompressedBitSet::cardinality).toArray();
+			}
+			else
+			{
+				dense = CompressedBitSet.and(allGenes, CompressedBitSet.toDense(
+					SymbolDictionary.get().toSortedIDs(background), allGenes.length));
+				counts = Arrays.stream(bits).parallel().mapToInt(b -> b.andCount(dense)).toArray();
+			}
+			size = CompressedBitSet.cardinality(dense);
+		}
+	}
+
+	// Section: Hypergeometric test
+
+	private static volatile double[] logFactorials = new double[]{0};
+
+	/**
+	 * Gets a table of log(i!) that covers at least up to n.
+	 */
+	private static double[] getLogFactorials(int n)
+	{
+		double[] lf = logFactorials;
+		if (lf.length > n) return lf;
+
+		synchronized (EnrichmentEngine.class)
+		{
+			lf = logFactorials;
+			if (lf.length > n) return lf;
+
+			int old = lf.length;
+			lf = Arrays.copyOf(lf, Math.max(n + 1, old * 2));
+			for (int i = old; i < lf.length; i++)
+			{
+				lf[i] = lf[i - 1] + Math.log(i);
+			}
+			logFactorials = lf;
+			return lf;
+		}
+	}
+
+	/**
+	 * Probability of seeing at least the given number of featured items in a random selection, which is the
+	 * one-sided Fisher's exact test p-value for enrichment.
+	 *
+	 * @param size total number of items
+	 * @param featured number of featured items
+	 * @param selected number of selected items
+	 * @param featuredSelected number of featured items in the selection
+	 */
+	public static double upperTail(int size, int featured, int selected, int featuredSelected)
+	{
+		int max = Math.min(featured, selected);
+		int min = Math.max(0, selected - (size - featured));
+
+		if (featuredSelected <= min) return 1;
+		if (featuredSelected > max) return 0;
+
+		double[] lf = getLogFactorials(size);
+		double base = lf[featured] + lf[size - featured] + lf[selected] + lf[size - selected] - lf[size];
+
+		double p = 0;
+		for (int i = featuredSelected; i <= max; i++)
+		{
+			p += Math.exp(base - lf[i] - lf[featured - i] - lf[selected - i] - lf[size - featured - selected + i]);
+		}
+		return Math.min(1, p);
+	}
+
+	// Section: Benchmark
+
+	/**
+	 * Compares the engine to the set based counting that the resource classes used before, on random queries drawn
+	 * from the MSigDB genes.
+	 */
+	public static void main(String[] args)
+	{
+		int queryCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int querySize = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+		Map<String, Set<String>> sets = MSigDB.get().getGeneSets();
+		EnrichmentEngine engine = new EnrichmentEngine(MSigDB.get().getGeneSetCollection());
+
+		List<String> genes = new ArrayList<>(MSigDB.get().getAllGenes());
+		Random r = new Random(1);
+		List<Set<String>> queries = new ArrayList<>();
+		for (int i = 0; i < queryCount; i++)
+		{
+			Collections.shuffle(genes, r);
+			queries.add(new HashSet<>(genes.subList(0, querySize)));
+		}
+
+		// Warm up both code paths
+		for (int i = 0; i < Math.min(20, queryCount); i++)
+		{
+			countWithSets(sets, queries.get(i));
+			engine.test(queries.get(i), null, 0, Integer.MAX_VALUE);
+		}
+
+		long t = System.currentTimeMillis();
+		long checksum = 0;
+		for (Set<String> query : queries)
+		{
+			checksum += countWithSets(sets, query).values().stream().mapToInt(Integer::intValue).sum();
+		}
+		long setTime = System.currentTimeMillis() - t;
+
+		t = System.currentTimeMillis();
+		engine.testBatch(queries, null, 0, Integer.MAX_VALUE);
+		long engineTime = System.currentTimeMillis() - t;
+
+		System.out.println(queryCount + " queries of " + querySize + " genes over " + sets.size() + " sets");
+		System.out.println("Set overlap counting only: " + setTime + " ms (checksum " + checksum + ")");
+		System.out.println("Engine with p-values, batch: " + engineTime + " ms");
+	}
+
+	/**
+	 * The overlap counting that the resource classes did for each query, which does not even include p-values.
+	 */
+	private static Map<String, Integer> countWithSets(Map<String, Set<String>> sets, Set<String> query)
+	{
+		Map<String, Integer> cnt = new HashMap<>();
+		for (String name : sets.keySet())
+		{
+			Set<String> mems = new HashSet<>(sets.get(name));
+			mems.retainAll(query);
+			cnt.put(name, mems.size());
+		}
+		return cnt;
+	}
+}
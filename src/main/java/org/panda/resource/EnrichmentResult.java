@@ -0,0 +1,38 @@
+package org.panda.resource;
+
+import java.util.Map;
+
+/**
+ * P-values of the tested sets, with the smallest p-value that is possible for each set, to be used in FDR control.
+ */
+public class EnrichmentResult
+{
+	private final Map<String, Double> pvals;
+	private final Map<String, Double> limits;
+
+	public EnrichmentResult(Map<String, Double> pvals, Map<String, Double> limits)
+	{
+		this.pvals = pvals;
+		this.limits = limits;
+	}
+
+	public Map<String, Double> getPvals()
+	{
+		return pvals;
+	}
+
+	public Map<String, Double> getLimits()
+	{
+		return limits;
+	}
+
+	/**
+	 * @return the two maps in the form of the enrichment methods of the resources, first is for pvals, second is for
+	 * limits
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Double>[] toArray()
+	{
+		return (Map<String, Double>[]) new Map<?, ?>[]{pvals, limits};
+	}
+}
@@ -46,39 +46,126 @@ public abstract class FileServer
 	{
 		if (!localResourceExists())
 		{
-			if (!downloadResources()) return false;
-			if (!processTheDownloadedFiles()) return false;
+			if (streamsDownloads())
+			{
+				if (!streamResources()) return false;
+			}
+			else
+			{
+				if (!downloadResources()) return false;
+				if (!processTheDownloadedFiles()) return false;
+			}
 		}
 
-		return load();
+		if (usesSnapshot() && Snapshot.read(this)) return true;
+
+		if (!load()) return false;
+
+		if (usesSnapshot()) Snapshot.write(this);
+		return true;
+	}
+
+	/**
+	 * Expected checksums of the distant files, in the form "algorithm:hex" (like "sha256:9f86d0..."), in the same
+	 * order with the distant URLs. Null means no verification. Subclasses can override this method, or return null
+	 * for the elements that are not known.
+	 */
+	public String[] getDistantChecksums()
+	{
+		return null;
 	}
 
 	public boolean downloadResources()
 	{
 		String loc = ResourceDirectory.get();
+		String[] url = getDistantURLs();
+		String[] file = Arrays.stream(getLocalFilenames()).map(name -> loc + File.separator + name)
+			.toArray(String[]::new);
+
+		return Download.downloadAll(url, file, getDistantChecksums());
+	}
+
+	/**
+	 * Resource accessors that can consume their distant files in a single pass override this method to return true,
+	 * together with processDownloadStream. Then the distant files are not written to disk in decompressed form, but
+	 * their decompressed content is passed to processDownloadStream while they are being downloaded, replacing both
+	 * downloadResources and processTheDownloadedFiles.
+	 */
+	protected boolean streamsDownloads()
+	{
+		return false;
+	}
+
+	/**
+	 * In pipeline mode, whether to keep the compressed distant files on disk, so that later processing can be done
+	 * without downloading them again. Can be turned on by the system property panda.keepDownloads=true.
+	 */
+	protected boolean keepsCompressedDownloads()
+	{
+		return "true".equals(System.getProperty("panda.keepDownloads"));
+	}
+
+	/**
+	 * Processes the decompressed content of the distant file at the given index. Called in the order of the distant
+	 * URLs. The stream is closed by the caller, and closing it verifies the checksum of the distant file, so the
+	 * processed content should be made permanent only in finishDownloadStreams.
+	 */
+	protected boolean processDownloadStream(int index, InputStream in) throws IOException
+	{
+		throw new UnsupportedOperationException(getClass().getName() + " does not support pipeline mode.");
+	}
+
+	/**
+	 * Called after all the distant files are passed to processDownloadStream, and their streams are closed without an
+	 * error.
+	 */
+	protected boolean finishDownloadStreams() throws IOException
+	{
+		return true;
+	}
+
+	/**
+	 * Pipeline mode counterpart of downloadResources and processTheDownloadedFiles. A compressed original that was
+	 * kept from an earlier run is used instead of downloading it again. Broken transfers are resumed, and the
+	 * checksums of the distant files are verified, as in the downloads.
+	 */
+	public boolean streamResources() throws IOException
+	{
 		String[] url = getDistantURLs();
 		String[] filename = getLocalFilenames();
+		String[] checksums = getDistantChecksums();
 
 		for (int i = 0; i < url.length; i++)
 		{
-			boolean success;
+			String ext = Download.getCompressionExtension(url[i]);
+			String kept = ext == null ? null : locateInBase(filename[i] + ext);
+			String checksum = checksums == null ? null : checksums[i];
 
-			if (url[i].endsWith(".zip") || url[i].endsWith(".gz") || url[i].endsWith(".xz"))
+			InputStream in;
+			if (kept != null && Files.exists(Paths.get(kept)))
 			{
-				success = Download.downloadAndUncompress(url[i], loc + File.separator + filename[i]);
+				in = Download.openLocal(Paths.get(kept), ext, checksum);
 			}
 			else
 			{
-				success = Download.downloadAsIs(url[i], loc + File.separator + filename[i]);
+				in = Download.openStream(url[i], kept != null && keepsCompressedDownloads() ? kept : null, checksum);
+			}
+
+			// Closing the stream verifies the checksum, so the result counts only after the stream is closed
+			boolean processed;
+			try (InputStream is = in)
+			{
+				processed = processDownloadStream(i, is);
 			}
 
-			if (!success)
+			if (!processed)
 			{
-				System.err.println("Cannot download " + url[i]);
+				System.err.println("Cannot process " + url[i]);
 				return false;
 			}
 		}
-		return true;
+
+		return finishDownloadStreams();
 	}
 
 	/**
@@ -93,6 +180,58 @@ public abstract class FileServer
 
 	public abstract boolean load() throws IOException;
 
+	/**
+	 * Resource accessors that can serialize their loaded structures override this method to return true, together
+	 * with the writeSnapshot and readSnapshot methods. Then the structures are written to a binary snapshot after the
+	 * first successful load, and later initializations reconstruct from that snapshot as long as the source files
+	 * did not change.
+	 */
+	protected boolean usesSnapshot()
+	{
+		return false;
+	}
+
+	/**
+	 * Increase this number in the subclass whenever its snapshot layout changes, so that old snapshots are ignored.
+	 */
+	protected int getSnapshotVersion()
+	{
+		return 1;
+	}
+
+	/**
+	 * Writes the loaded structures. Called only after a successful load.
+	 */
+	protected void writeSnapshot(DataOutput out) throws IOException
+	{
+		throw new UnsupportedOperationException(getClass().getName() + " does not support snapshots.");
+	}
+
+	/**
+	 * Reconstructs the structures that the load method would produce, reading what writeSnapshot wrote.
+	 */
+	protected void readSnapshot(DataInput in) throws IOException
+	{
+		throw new UnsupportedOperationException(getClass().getName() + " does not support snapshots.");
+	}
+
+	/**
+	 * The files whose size, modification time and content fingerprint has to match for a snapshot to be valid. By
+	 * default these are the local files.
+	 */
+	protected String[] getSnapshotSourceFiles()
+	{
+		return Arrays.stream(getLocalFilenames()).map(this::locateInBase).toArray(String[]::new);
+	}
+
+	/**
+	 * Location of the binary snapshot of this resource.
+	 */
+	protected String getSnapshotFile()
+	{
+		return locateInBase(getClass().getSimpleName() + ".snapshot");
+	}
+
 	public Stream<String> getResourceAsStream(String filename) throws IOException
 	{
 		return Files.lines(Paths.get(ResourceDirectory.get() + File.separator + filename));
@@ -8,6 +8,8 @@ import org.panda.utility.statistics.FishersExactTest;
 import org.panda.utility.statistics.GeneSetEnrichment;
 
 import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -27,6 +29,9 @@ public class GO extends FileServer
 	private Map<String, Set<String>> geneToGO;
 	private Map<String, Set<String>> goToGene;
 	private Map<String, Set<String>> isAMap;
+	private GODag dag;
+	private GeneSetCollection collection;
+	private EnrichmentEngine engine;
 
 	private static GO instance;
 
@@ -46,7 +51,7 @@ public class GO extends FileServer
 		if (gene == null) return Collections.emptySet();
 		if (gene.length == 1) return getGOIDs(gene[0]);
 
-		Set<String> ids = getGOIDs(gene[0]);
+		Set<String> ids = new HashSet<>(getGOIDs(gene[0]));
 		for (int i = 1; i < gene.length; i++)
 		{
 			ids.retainAll(getGOIDs(gene[i]));
@@ -75,6 +80,63 @@ public class GO extends FileServer
 		return Collections.emptySet();
 	}
 
+	/**
+	 * Int-keyed version of the term-to-gene map, where the genes of a term include the genes of its descendants.
+	 */
+	public synchronized GeneSetCollection getGeneSetCollection()
+	{
+		if (collection == null) collection = new GeneSetCollection(goToGene);
+		return collection;
+	}
+
+	public synchronized EnrichmentEngine getEnrichmentEngine()
+	{
+		if (engine == null) engine = new EnrichmentEngine(getGeneSetCollection());
+		return engine;
+	}
+
+	public GODag getDag()
+	{
+		return dag;
+	}
+
+	/**
+	 * Tells if the first term is an ancestor of the second one through is_a relations.
+	 */
+	public boolean isAncestor(String ancestor, String term)
+	{
+		int a = dag.indexOf(ancestor);
+		int t = dag.indexOf(term);
+		return a >= 0 && t >= 0 && dag.getClosure().isAncestor(a, t);
+	}
+
+	/**
+	 * Gets all ancestors of the term through is_a relations.
+	 */
+	public Set<String> getAncestors(String term)
+	{
+		return toIDs(dag.indexOf(term) < 0 ? new int[0] : dag.getClosure().getAncestors(dag.indexOf(term)));
+	}
+
+	/**
+	 * Gets the common ancestors of the two terms that are not an ancestor of another common ancestor. A term counts as
+	 * its own ancestor here.
+	 */
+	public Set<String> getLowestCommonAncestors(String term1, String term2)
+	{
+		int a = dag.indexOf(term1);
+		int b = dag.indexOf(term2);
+		if (a < 0 || b < 0) return Collections.emptySet();
+		return toIDs(dag.getClosure().getLowestCommonAncestors(a, b));
+	}
+
+	private Set<String> toIDs(int[] terms)
+	{
+		Set<String> set = new HashSet<>();
+		for (int t : terms) set.add(dag.getID(t));
+		return set;
+	}
+
 	public Set<String> getParentTerms(String term)
 	{
 		if (isAMap.containsKey(term)) return isAMap.get(term);
@@ -235,7 +297,7 @@ public class GO extends FileServer
 	}
 
 
-	public static GO get()
+	public static synchronized GO get()
 	{
 		if (instance == null) instance = new GO();
 		return instance;
@@ -259,6 +321,7 @@ public class GO extends FileServer
 	{
 		idToName = new HashMap<>();
 		isAMap = new HashMap<>();
+		GODag.Builder builder = new GODag.Builder();
 		Scanner sc = new Scanner(new File(ResourceDirectory.get() + File.separator + getLocalFilenames()[0]));
 		while (sc.hasNextLine())
 		{
@@ -267,6 +330,7 @@ public class GO extends FileServer
 			{
 				String term = line.substring(4);
 				idToName.put(term, sc.nextLine().substring(6));
+				builder.addTerm(term);
 
 				while (sc.hasNextLine() && !line.startsWith("["))
 				{
@@ -277,16 +341,27 @@ public class GO extends FileServer
 						parent = parent.substring(0, parent.indexOf(" "));
 						if (!isAMap.containsKey(term)) isAMap.put(term, new HashSet<>());
 						isAMap.get(term).add(parent);
+						builder.addRelation(term, "is_a", parent);
+					}
+					else if (line.startsWith("relationship: "))
+					{
+						String[] t = line.split(" ");
+						builder.addRelation(term, t[1], t[2]);
+					}
+					else if (line.startsWith("namespace: "))
+					{
+						builder.setNamespace(term, line.substring(11));
 					}
 				}
 			}
 		}
+		dag = builder.build();
 
 		geneToGO = new HashMap<>();
 		goToGene = new HashMap<>();
 
 		getResourceAsStream(getLocalFilenames()[1]).filter(l -> !l.startsWith("!")).map(l -> l.split("\t")).forEach(t -> {
-			String gene = t[2];
+			String gene = SymbolDictionary.intern(t[2]);
 			String rel = t[3];
 			String go = t[4];
 
@@ -298,39 +373,90 @@ public class GO extends FileServer
 			goToGene.get(go).add(gene);
 		});
 
-		for (String term : new HashSet<>(goToGene.keySet()))
-		{
-			Set<String> genes = goToGene.get(term);
-
-			for (String parent : getParentTerms(term))
-			{
-				addParentsRecursive(parent, genes);
-			}
-		}
+		propagateToAncestors();
+		return true;
+	}
 
+	@Override
+	protected boolean usesSnapshot()
+	{
 		return true;
 	}
 
-	private void addParentsRecursive(String parent, Set<String> genes)
+	@Override
+	protected void writeSnapshot(DataOutput out) throws IOException
 	{
-		if (!goToGene.containsKey(parent)) goToGene.put(parent, new HashSet<>());
-		goToGene.get(parent).addAll(genes);
+		Snapshot.writeStringMap(out, idToName);
+		Snapshot.writeSetMap(out, isAMap);
+		Snapshot.writeSetMap(out, goToGene);
+		dag.write(out);
+	}
 
-		if (genes.contains("SCD") && parent.equals("GO:0046390"))
-		{
-			System.out.println();
-		}
+	@Override
+	protected int getSnapshotVersion()
+	{
+		return 2;
+	}
 
+	/**
+	 * The gene-to-term map is not in the snapshot since it is the inverse of the term-to-gene map.
+	 */
+	@Override
+	protected void readSnapshot(DataInput in) throws IOException
+	{
+		idToName = Snapshot.readStringMap(in);
+		isAMap = Snapshot.readSetMap(in);
+		goToGene = Snapshot.readSetMap(in);
+		goToGene.replaceAll((term, genes) -> SymbolDictionary.internAll(genes));
+		dag = GODag.read(in);
+
+		geneToGO = new HashMap<>();
+		goToGene.forEach((term, genes) -> genes.forEach(gene ->
+			geneToGO.computeIfAbsent(gene, k -> new HashSet<>()).add(term)));
+	}
 
+	/**
+	 * Adds the genes of each term to all ancestors of the term, following is_a relations. Each gene is visited once,
+	 * together with the union of the ancestors of its direct terms.
+	 */
+	private void propagateToAncestors()
+	{
+		GODag.Closure closure = dag.getClosure();
+		int[] stamp = new int[dag.size()];
+		int round = 0;
 
-		for (String gene : genes)
+		for (String gene : geneToGO.keySet())
 		{
-			geneToGO.get(gene).add(parent);
-		}
+			Set<String> terms = geneToGO.get(gene);
+			List<String> added = new ArrayList<>();
+			round++;
 
-		for (String grand : getParentTerms(parent))
-		{
-			addParentsRecursive(grand, genes);
+			for (String term : terms)
+			{
+				int t = dag.indexOf(term);
+				if (t < 0) continue;
+				stamp[t] = round;
+			}
+			for (String term : terms)
+			{
+				int t = dag.indexOf(term);
+				if (t < 0) continue;
+
+				for (int a : closure.getAncestors(t))
+				{
+					if (stamp[a] != round)
+					{
+						stamp[a] = round;
+						added.add(dag.getID(a));
+					}
+				}
+			}
+
+			for (String ancestor : added)
+			{
+				terms.add(ancestor);
+				goToGene.computeIfAbsent(ancestor, k -> new HashSet<>()).add(gene);
+			}
 		}
 	}
 
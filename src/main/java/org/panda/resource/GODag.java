@@ -0,0 +1,430 @@
+package org.panda.resource;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The GO ontology as a compact int-indexed DAG. Terms are indexed from 0, and their parents are kept in int arrays
+ * per relation type. Ancestor closures are computed once per combination of relation types and namespace, in
+ * topological order, and kept as sorted int arrays.
+ */
+public class GODag
+{
+	public enum Relation
+	{
+		IS_A,
+		PART_OF,
+
+		/**
+		 * Includes positively_regulates and negatively_regulates.
+		 */
+		REGULATES
+	}
+
+	public enum Namespace
+	{
+		BIOLOGICAL_PROCESS("biological_process"),
+		MOLECULAR_FUNCTION("molecular_function"),
+		CELLULAR_COMPONENT("cellular_component");
+
+		private final String label;
+
+		Namespace(String label)
+		{
+			this.label = label;
+		}
+
+		public static Namespace get(String label)
+		{
+			for (Namespace ns : values())
+			{
+				if (ns.label.equals(label)) return ns;
+			}
+			return null;
+		}
+	}
+
+	private final String[] ids;
+	private final Map<String, Integer> index;
+	private final Namespace[] namespaces;
+
+	/**
+	 * Relation ordinal to term to parent terms.
+	 */
+	private final int[][][] parents;
+
+	private final Map<String, Closure> closures = new ConcurrentHashMap<>();
+
+	private GODag(String[] ids, Namespace[] namespaces, int[][][] parents)
+	{
+		this.ids = ids;
+		this.namespaces = namespaces;
+		this.parents = parents;
+		index = new HashMap<>((int) (ids.length / 0.75) + 1);
+		for (int i = 0; i < ids.length; i++)
+		{
+			index.put(ids[i], i);
+		}
+	}
+
+	public int size()
+	{
+		return ids.length;
+	}
+
+	/**
+	 * @return index of the term, or -1 if it is not in the ontology
+	 */
+	public int indexOf(String term)
+	{
+		Integer i = index.get(term);
+		return i == null ? -1 : i;
+	}
+
+	public String getID(int term)
+	{
+		return ids[term];
+	}
+
+	public Namespace getNamespace(int term)
+	{
+		return namespaces[term];
+	}
+
+	public int[] getParents(int term, Relation relation)
+	{
+		return parents[relation.ordinal()][term];
+	}
+
+	/**
+	 * Closure over the is_a relations in all namespaces, which is how the gene annotations are propagated.
+	 */
+	public Closure getClosure()
+	{
+		return getClosure(EnumSet.of(Relation.IS_A), null);
+	}
+
+	/**
+	 * Gets the ancestor closure that follows the given relations.
+	 *
+	 * @param namespace when not null, only the terms in this namespace and the relations between them are used
+	 */
+	public Closure getClosure(Set<Relation> relations, Namespace namespace)
+	{
+		String key = relations + "|" + namespace;
+		return closures.computeIfAbsent(key, k -> new Closure(EnumSet.copyOf(relations), namespace));
+	}
+
+	/**
+	 * Ancestors of every term, depths, and a topological order, for a selection of relations.
+	 */
+	public class Closure
+	{
+		private final int[][] ancestors;
+		private final int[] depth;
+		private final int[] order;
+
+		private Closure(EnumSet<Relation> relations, Namespace namespace)
+		{
+			int n = ids.length;
+
+			// Filtered parent lists
+			int[] buf = new int[n];
+			int[][] par = new int[n][];
+			int[][] children;
+			int[] childCount = new int[n];
+			for (int t = 0; t < n; t++)
+			{
+				if (namespace != null && namespaces[t] != namespace)
+				{
+					par[t] = new int[0];
+					continue;
+				}
+
+				int m = 0;
+				for (Relation rel : relations)
+				{
+					for (int q : parents[rel.ordinal()][t])
+					{
+						if (namespace == null || namespaces[q] == namespace) buf[m++] = q;
+					}
+				}
+				par[t] = SymbolDictionary.distinctSorted(Arrays.copyOf(buf, m), m);
+				for (int q : par[t]) childCount[q]++;
+			}
+
+			children = new int[n][];
+			for (int t = 0; t < n; t++)
+			{
+				children[t] = new int[childCount[t]];
+				childCount[t] = 0;
+			}
+			for (int t = 0; t < n; t++)
+			{
+				for (int q : par[t]) children[q][childCount[q]++] = t;
+			}
+
+			// Kahn's algorithm, parents first
+			order = new int[n];
+			int[] remaining = new int[n];
+			int head = 0, tail = 0;
+			for (int t = 0; t < n; t++)
+			{
+				remaining[t] = par[t].length;
+				if (remaining[t] == 0) order[tail++] = t;
+			}
+			while (head < tail)
+			{
+				int t = order[head++];
+				for (int c : children[t])
+				{
+					if (--remaining[c] == 0) order[tail++] = c;
+				}
+			}
+			if (tail < n) throw new IllegalStateException("GO relations contain a cycle.");
+
+			ancestors = new int[n][];
+			depth = new int[n];
+			int[] stamp = new int[n];
+			Arrays.fill(stamp, -1);
+
+			for (int t : order)
+			{
+				int m = 0;
+				for (int q : par[t])
+				{
+					depth[t] = Math.max(depth[t], depth[q] + 1);
+					if (stamp[q] != t)
+					{
+						stamp[q] = t;
+						buf[m++] = q;
+					}
+					for (int a : ancestors[q])
+					{
+						if (stamp[a] != t)
+						{
+							stamp[a] = t;
+							buf[m++] = a;
+						}
+					}
+				}
+				ancestors[t] = Arrays.copyOf(buf, m);
+				Arrays.sort(ancestors[t]);
+			}
+		}
+
+		/**
+		 * Sorted ancestor indices of the term, excluding itself. The returned array should not be modified.
+		 */
+		public int[] getAncestors(int term)
+		{
+			return ancestors[term];
+		}
+
+		public boolean isAncestor(int ancestor, int term)
+		{
+			return Arrays.binarySearch(ancestors[term], ancestor) >= 0;
+		}
+
+		/**
+		 * Length of the longest path from a root to the term.
+		 */
+		public int getDepth(int term)
+		{
+			return depth[term];
+		}
+
+		/**
+		 * Term indices where each term comes after all its ancestors.
+		 */
+		public int[] getTopologicalOrder()
+		{
+			return order;
+		}
+
+		/**
+		 * Sorted indices of the terms that are the same as, or ancestors of both terms.
+		 */
+		public int[] getCommonAncestors(int a, int b)
+		{
+			int[] x = withSelf(a);
+			int[] y = withSelf(b);
+			int[] c = new int[Math.min(x.length, y.length)];
+			int i = 0, j = 0, k = 0;
+			while (i < x.length && j < y.length)
+			{
+				if (x[i] < y[j]) i++;
+				else if (x[i] > y[j]) j++;
+				else
+				{
+					c[k++] = x[i];
+					i++;
+					j++;
+				}
+			}
+			return Arrays.copyOf(c, k);
+		}
+
+		/**
+		 * Common ancestors of the two terms that are not an ancestor of another common ancestor.
+		 */
+		public int[] getLowestCommonAncestors(int a, int b)
+		{
+			int[] common = getCommonAncestors(a, b);
+			int[] lowest = new int[common.length];
+			int k = 0;
+			for (int c : common)
+			{
+				boolean low = true;
+				for (int d : common)
+				{
+					if (d != c && isAncestor(c, d))
+					{
+						low = false;
+						break;
+					}
+				}
+				if (low) lowest[k++] = c;
+			}
+			return Arrays.copyOf(lowest, k);
+		}
+
+		private int[] withSelf(int term)
+		{
+			int[] anc = ancestors[term];
+			int[] s = new int[anc.length + 1];
+			int pos = -Arrays.binarySearch(anc, term) - 1;
+			System.arraycopy(anc, 0, s, 0, pos);
+			s[pos] = term;
+			System.arraycopy(anc, pos, s, pos + 1, anc.length - pos);
+			return s;
+		}
+	}
+
+	// Section: Building and serialization
+
+	/**
+	 * Collects the terms and relations while the ontology file is parsed.
+	 */
+	public static class Builder
+	{
+		private final Map<String, Integer> index = new LinkedHashMap<>();
+		private final List<Namespace> namespaces = new ArrayList<>();
+		private final List<String[]> relations = new ArrayList<>();
+
+		private int get(String term)
+		{
+			Integer i = index.get(term);
+			if (i == null)
+			{
+				i = index.size();
+				index.put(term, i);
+				namespaces.add(null);
+			}
+			return i;
+		}
+
+		public void setNamespace(String term, String namespace)
+		{
+			namespaces.set(get(term), Namespace.get(namespace));
+		}
+
+		public void addTerm(String term)
+		{
+			get(term);
+		}
+
+		/**
+		 * @param type relation name in the OBO file, like "is_a", "part_of" or "negatively_regulates"
+		 */
+		public void addRelation(String term, String type, String parent)
+		{
+			relations.add(new String[]{term, type, parent});
+		}
+
+		public GODag build()
+		{
+			for (String[] r : relations)
+			{
+				get(r[0]);
+				get(r[2]);
+			}
+
+			int n = index.size();
+			int[][][] parents = new int[Relation.values().length][n][];
+			int[][] counts = new int[Relation.values().length][n];
+
+			List<int[]> edges = new ArrayList<>();
+			for (String[] r : relations)
+			{
+				Relation rel = r[1].equals("is_a") ? Relation.IS_A : r[1].equals("part_of") ? Relation.PART_OF :
+					r[1].endsWith("regulates") ? Relation.REGULATES : null;
+				if (rel == null) continue;
+
+				int child = index.get(r[0]);
+				edges.add(new int[]{rel.ordinal(), child, index.get(r[2])});
+				counts[rel.ordinal()][child]++;
+			}
+
+			for (int r = 0; r < parents.length; r++)
+			{
+				for (int t = 0; t < n; t++)
+				{
+					parents[r][t] = new int[counts[r][t]];
+					counts[r][t] = 0;
+				}
+			}
+			for (int[] e : edges)
+			{
+				parents[e[0]][e[1]][counts[e[0]][e[1]]++] = e[2];
+			}
+
+			return new GODag(index.keySet().toArray(new String[0]), namespaces.toArray(new Namespace[0]), parents);
+		}
+	}
+
+	public void write(DataOutput out) throws IOException
+	{
+		out.writeInt(ids.length);
+		for (int t = 0; t < ids.length; t++)
+		{
+			out.writeUTF(ids[t]);
+			out.writeByte(namespaces[t] == null ? -1 : namespaces[t].ordinal());
+		}
+		for (int[][] rel : parents)
+		{
+			for (int[] p : rel)
+			{
+				out.writeShort(p.length);
+				for (int q : p) out.writeInt(q);
+			}
+		}
+	}
+
+	public static GODag read(DataInput in) throws IOException
+	{
+		int n = in.readInt();
+		String[] ids = new String[n];
+		Namespace[] namespaces = new Namespace[n];
+		for (int t = 0; t < n; t++)
+		{
+			ids[t] = in.readUTF();
+			byte ns = in.readByte();
+			namespaces[t] = ns < 0 ? null : Namespace.values()[ns];
+		}
+
+		int[][][] parents = new int[Relation.values().length][n][];
+		for (int[][] rel : parents)
+		{
+			for (int t = 0; t < n; t++)
+			{
+				rel[t] = new int[in.readShort()];
+				for (int i = 0; i < rel[t].length; i++) rel[t][i] = in.readInt();
+			}
+		}
+		return new GODag(ids, namespaces, parents);
+	}
+}
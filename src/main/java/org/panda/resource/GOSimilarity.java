@@ -0,0 +1,359 @@
+package org.panda.resource;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Semantic similarity of GO terms and genes in one GO namespace.
+ *
+ * Information content (IC) of a term is -log of the fraction of the namespace's annotated genes that are annotated
+ * with the term or its descendants. Resnik similarity of two terms is the IC of their most informative common
+ * ancestor, and Lin similarity normalizes that by the ICs of the two terms. Wang similarity uses the DAG topology
+ * with the semantic contribution weights 0.8 for is_a and 0.6 for part_of. Gene similarity is the best-match average
+ * over the most specific terms of the two genes.
+ *
+ * Term pair similarities are kept in a bounded LRU cache that is split into stripes to reduce lock contention.
+ */
+public class GOSimilarity
+{
+	public enum Measure
+	{
+		RESNIK,
+		LIN,
+		WANG
+	}
+
+	private static final double IS_A_WEIGHT = 0.8;
+	private static final double PART_OF_WEIGHT = 0.6;
+
+	private static final int STRIPES = 64;
+
+	private final GO go;
+	private final GODag dag;
+	private final GODag.Namespace namespace;
+	private final Measure measure;
+
+	/**
+	 * Closure of is_a relations, which is how annotations are propagated.
+	 */
+	private final GODag.Closure isA;
+
+	/**
+	 * Closure of is_a and part_of relations, used for Wang similarity.
+	 */
+	private final GODag.Closure isAPartOf;
+
+	/**
+	 * Position of each term in the topological order of isAPartOf.
+	 */
+	private final int[] rank;
+
+	private final double[] ic;
+
+	private final Stripe[] cache;
+
+	public GOSimilarity(GODag.Namespace namespace, Measure measure, int cacheSize)
+	{
+		this(GO.get(), namespace, measure, cacheSize);
+	}
+
+	public GOSimilarity(GO go, GODag.Namespace namespace, Measure measure, int cacheSize)
+	{
+		this.go = go;
+		this.dag = go.getDag();
+		this.namespace = namespace;
+		this.measure = measure;
+
+		isA = dag.getClosure(EnumSet.of(GODag.Relation.IS_A), namespace);
+		isAPartOf = dag.getClosure(EnumSet.of(GODag.Relation.IS_A, GODag.Relation.PART_OF), namespace);
+
+		rank = new int[dag.size()];
+		int[] order = isAPartOf.getTopologicalOrder();
+		for (int i = 0; i < order.length; i++) rank[order[i]] = i;
+
+		ic = new double[dag.size()];
+		int max = 0;
+		int[] counts = new int[dag.size()];
+		for (int t = 0; t < dag.size(); t++)
+		{
+			if (dag.getNamespace(t) != namespace) continue;
+			counts[t] = go.getGenes(dag.getID(t)).size();
+			max = Math.max(max, counts[t]);
+		}
+		for (int t = 0; t < dag.size(); t++)
+		{
+			// Terms without annotation carry no information here
+			ic[t] = counts[t] == 0 ? 0 : -Math.log(counts[t] / (double) max);
+		}
+
+		int stripeCapacity = Math.max(1, cacheSize / STRIPES);
+		cache = new Stripe[STRIPES];
+		for (int i = 0; i < STRIPES; i++) cache[i] = new Stripe(stripeCapacity);
+	}
+
+	/**
+	 * A stripe of the cache, which evicts the least recently used pair when it is full.
+	 */
+	private static class Stripe extends LinkedHashMap<Long, Double>
+	{
+		private final int capacity;
+
+		Stripe(int capacity)
+		{
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Double> eldest)
+		{
+			return size() > capacity;
+		}
+	}
+
+	public double getInformationContent(String term)
+	{
+		int t = dag.indexOf(term);
+		return t < 0 ? 0 : ic[t];
+	}
+
+	// Section: Term similarity
+
+	public double getTermSimilarity(String term1, String term2)
+	{
+		int a = dag.indexOf(term1);
+		int b = dag.indexOf(term2);
+		if (a < 0 || b < 0 || dag.getNamespace(a) != namespace || dag.getNamespace(b) != namespace) return 0;
+		return getTermSimilarity(a, b);
+	}
+
+	private double getTermSimilarity(int a, int b)
+	{
+		long key = a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+		Stripe stripe = cache[(int) ((key ^ (key >>> 29)) & (STRIPES - 1))];
+
+		synchronized (stripe)
+		{
+			Double sim = stripe.get(key);
+			if (sim != null) return sim;
+		}
+
+		double sim;
+		switch (measure)
+		{
+			case RESNIK: sim = resnik(a, b); break;
+			case LIN: sim = lin(a, b); break;
+			default: sim = wang(a, b);
+		}
+
+		synchronized (stripe)
+		{
+			stripe.put(key, sim);
+		}
+		return sim;
+	}
+
+	private double resnik(int a, int b)
+	{
+		double max = 0;
+		for (int c : isA.getCommonAncestors(a, b))
+		{
+			max = Math.max(max, ic[c]);
+		}
+		return max;
+	}
+
+	private double lin(int a, int b)
+	{
+		double denom = ic[a] + ic[b];
+		return denom == 0 ? (a == b ? 1 : 0) : 2 * resnik(a, b) / denom;
+	}
+
+	private double wang(int a, int b)
+	{
+		int[] da = withSelf(a);
+		int[] db = withSelf(b);
+		double[] sa = semanticValues(a, da);
+		double[] sb = semanticValues(b, db);
+
+		double common = 0;
+		int i = 0, j = 0;
+		while (i < da.length && j < db.length)
+		{
+			if (da[i] < db[j]) i++;
+			else if (da[i] > db[j]) j++;
+			else
+			{
+				common += sa[i++] + sb[j++];
+			}
+		}
+
+		double total = 0;
+		for (double v : sa) total += v;
+		for (double v : sb) total += v;
+		return common / total;
+	}
+
+	/**
+	 * S-values of the terms in the DAG of the given term, in the order of the given sorted term array.
+	 */
+	private double[] semanticValues(int term, int[] terms)
+	{
+		double[] s = new double[terms.length];
+		s[Arrays.binarySearch(terms, term)] = 1;
+
+		// Visit descendants before ancestors so that each S-value is final when it is passed up
+		Integer[] byRank = new Integer[terms.length];
+		for (int i = 0; i < terms.length; i++) byRank[i] = i;
+		Arrays.sort(byRank, (x, y) -> Integer.compare(rank[terms[y]], rank[terms[x]]));
+
+		for (int i : byRank)
+		{
+			if (s[i] == 0) continue;
+			passUp(terms, s, i, GODag.Relation.IS_A, IS_A_WEIGHT);
+			passUp(terms, s, i, GODag.Relation.PART_OF, PART_OF_WEIGHT);
+		}
+		return s;
+	}
+
+	private void passUp(int[] terms, double[] s, int i, GODag.Relation relation, double weight)
+	{
+		for (int p : dag.getParents(terms[i], relation))
+		{
+			int j = Arrays.binarySearch(terms, p);
+			if (j >= 0) s[j] = Math.max(s[j], weight * s[i]);
+		}
+	}
+
+	private int[] withSelf(int term)
+	{
+		int[] anc = isAPartOf.getAncestors(term);
+		int[] s = Arrays.copyOf(anc, anc.length + 1);
+		s[anc.length] = term;
+		Arrays.sort(s);
+		return s;
+	}
+
+	// Section: Gene similarity
+
+	/**
+	 * Terms of the gene in this namespace that are not an ancestor of another term of the gene.
+	 */
+	public int[] getMostSpecificTerms(String gene)
+	{
+		Set<String> ids = go.getGOIDs(gene);
+		int[] terms = new int[ids.size()];
+		int n = 0;
+		for (String id : ids)
+		{
+			int t = dag.indexOf(id);
+			if (t >= 0 && dag.getNamespace(t) == namespace) terms[n++] = t;
+		}
+		terms = SymbolDictionary.distinctSorted(terms, n);
+
+		int[] specific = new int[terms.length];
+		int k = 0;
+		for (int t : terms)
+		{
+			boolean leaf = true;
+			for (int u : terms)
+			{
+				if (u != t && isA.isAncestor(t, u))
+				{
+					leaf = false;
+					break;
+				}
+			}
+			if (leaf) specific[k++] = t;
+		}
+		return Arrays.copyOf(specific, k);
+	}
+
+	/**
+	 * Best-match average of the term similarities of the two genes.
+	 * @return similarity, or NaN if one of the genes has no terms in this namespace
+	 */
+	public double getGeneSimilarity(String gene1, String gene2)
+	{
+		return bestMatchAverage(getMostSpecificTerms(gene1), getMostSpecificTerms(gene2));
+	}
+
+	private double bestMatchAverage(int[] t1, int[] t2)
+	{
+		if (t1.length == 0 || t2.length == 0) return Double.NaN;
+
+		double[] best2 = new double[t2.length];
+		double sum = 0;
+		for (int a : t1)
+		{
+			double best = 0;
+			for (int j = 0; j < t2.length; j++)
+			{
+				double sim = getTermSimilarity(a, t2[j]);
+				best = Math.max(best, sim);
+				best2[j] = Math.max(best2[j], sim);
+			}
+			sum += best;
+		}
+		for (double b : best2) sum += b;
+
+		return sum / (t1.length + t2.length);
+	}
+
+	/**
+	 * Receives the gene pairs of the all-pairs mode. Called from multiple threads.
+	 */
+	public interface PairConsumer
+	{
+		void accept(String gene1, String gene2, double similarity);
+	}
+
+	/**
+	 * Calculates the similarity of all pairs of the given genes, in parallel over the first gene of the pairs.
+	 * Genes without terms in the namespace are skipped.
+	 *
+	 * @param minSimilarity pairs below this similarity are not reported
+	 * @param consumer has to be thread-safe
+	 */
+	public void calculateAllPairs(List<String> genes, double minSimilarity, PairConsumer consumer)
+	{
+		String[] g = genes.toArray(new String[0]);
+		int[][] terms = new int[g.length][];
+		for (int i = 0; i < g.length; i++)
+		{
+			terms[i] = getMostSpecificTerms(g[i]);
+		}
+
+		IntStream.range(0, g.length).parallel().filter(i -> terms[i].length > 0).forEach(i ->
+		{
+			for (int j = i + 1; j < g.length; j++)
+			{
+				if (terms[j].length == 0) continue;
+
+				double sim = bestMatchAverage(terms[i], terms[j]);
+				if (sim >= minSimilarity) consumer.accept(g[i], g[j], sim);
+			}
+		});
+	}
+
+	public static void main(String[] args)
+	{
+		GOSimilarity sim = new GOSimilarity(GODag.Namespace.BIOLOGICAL_PROCESS, Measure.LIN, 1 << 22);
+
+		List<String> genes = new ArrayList<>(GO.get().getAllGenes());
+		Collections.sort(genes);
+		genes = genes.subList(0, Math.min(2000, genes.size()));
+
+		long[] cnt = new long[1];
+		long t = System.currentTimeMillis();
+		sim.calculateAllPairs(genes, 0.5, (g1, g2, s) ->
+		{
+			synchronized (cnt)
+			{
+				cnt[0]++;
+			}
+		});
+		System.out.println(genes.size() + " genes, " + cnt[0] + " pairs above 0.5, in " +
+			(System.currentTimeMillis() - t) + " ms");
+	}
+}
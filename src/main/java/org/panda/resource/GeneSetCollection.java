@@ -0,0 +1,195 @@
+package org.panda.resource;
+
+import java.util.*;
+
+/**
+ * An immutable, int-keyed version of a name-to-gene-set map. Genes are the IDs in SymbolDictionary, members of each
+ * set are kept in a sorted int array, and a reverse index gives the sets that contain a gene.
+ */
+public class GeneSetCollection
+{
+	private final String[] names;
+	private final Map<String, Integer> nameToIndex;
+	private final int[][] members;
+
+	/**
+	 * Gene ID to the sorted indices of the sets containing it. Built on first use.
+	 */
+	private volatile int[][] setsOfGene;
+
+	public GeneSetCollection(Map<String, ? extends Collection<String>> sets)
+	{
+		SymbolDictionary dict = SymbolDictionary.get();
+
+		names = sets.keySet().stream().sorted().toArray(String[]::new);
+		nameToIndex = new HashMap<>((int) (names.length / 0.75) + 1);
+		members = new int[names.length][];
+
+		for (int i = 0; i < names.length; i++)
+		{
+			nameToIndex.put(names[i], i);
+
+			Collection<String> genes = sets.get(names[i]);
+			int[] ids = new int[genes.size()];
+			int n = 0;
+			for (String gene : genes)
+			{
+				ids[n++] = dict.getID(gene);
+			}
+			members[i] = SymbolDictionary.distinctSorted(ids, n);
+		}
+	}
+
+	public int size()
+	{
+		return names.length;
+	}
+
+	public String getName(int index)
+	{
+		return names[index];
+	}
+
+	/**
+	 * @return index of the named set, or -1 if there is no such set
+	 */
+	public int getIndex(String name)
+	{
+		Integer index = nameToIndex.get(name);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * Sorted gene IDs of the set at the given index. The returned array should not be modified.
+	 */
+	public int[] getMembers(int index)
+	{
+		return members[index];
+	}
+
+	public Set<String> getGenes(String name)
+	{
+		int index = getIndex(name);
+		if (index < 0) return Collections.emptySet();
+		return SymbolDictionary.get().toSymbols(members[index]);
+	}
+
+	public boolean contains(int index, int geneID)
+	{
+		return Arrays.binarySearch(members[index], geneID) >= 0;
+	}
+
+	/**
+	 * Sorted indices of the sets that contain the given gene. The returned array should not be modified.
+	 */
+	public int[] getSetsContaining(int geneID)
+	{
+		int[][] index = getReverseIndex();
+		return geneID >= 0 && geneID < index.length ? index[geneID] : new int[0];
+	}
+
+	public Set<String> getSetNamesContaining(String gene)
+	{
+		int id = SymbolDictionary.get().lookup(gene);
+		if (id < 0) return Collections.emptySet();
+
+		Set<String> result = new HashSet<>();
+		for (int i : getSetsContaining(id))
+		{
+			result.add(names[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Size of the intersection of the set at the given index with the given sorted array of distinct gene IDs.
+	 */
+	public int countOverlap(int index, int[] sortedGenes)
+	{
+		int[] m = members[index];
+		int i = 0, j = 0, cnt = 0;
+		while (i < m.length && j < sortedGenes.length)
+		{
+			if (m[i] < sortedGenes[j]) i++;
+			else if (m[i] > sortedGenes[j]) j++;
+			else
+			{
+				cnt++;
+				i++;
+				j++;
+			}
+		}
+		return cnt;
+	}
+
+	/**
+	 * Sorted distinct IDs of all genes that are in at least one set.
+	 */
+	public int[] getAllGenes()
+	{
+		int total = 0;
+		for (int[] m : members) total += m.length;
+
+		int[] all = new int[total];
+		int n = 0;
+		for (int[] m : members)
+		{
+			System.arraycopy(m, 0, all, n, m.length);
+			n += m.length;
+		}
+		return SymbolDictionary.distinctSorted(all, n);
+	}
+
+	private int[][] getReverseIndex()
+	{
+		int[][] index = setsOfGene;
+		if (index != null) return index;
+
+		synchronized (this)
+		{
+			if (setsOfGene != null) return setsOfGene;
+
+			int max = -1;
+			for (int[] m : members)
+			{
+				if (m.length > 0) max = Math.max(max, m[m.length - 1]);
+			}
+
+			int[] counts = new int[max + 1];
+			for (int[] m : members)
+			{
+				for (int gene : m) counts[gene]++;
+			}
+
+			index = new int[max + 1][];
+			for (int g = 0; g <= max; g++)
+			{
+				index[g] = new int[counts[g]];
+				counts[g] = 0;
+			}
+
+			// Sets are visited in index order, so each array is filled sorted
+			for (int i = 0; i < members.length; i++)
+			{
+				for (int gene : members[i])
+				{
+					index[gene][counts[gene]++] = i;
+				}
+			}
+
+			setsOfGene = index;
+			return index;
+		}
+	}
+
+	/**
+	 * Approximate heap size of the member arrays and the reverse index, excluding the set names.
+	 */
+	public long estimateBytes()
+	{
+		long bytes = 0;
+		for (int[] m : members) bytes += 16 + 4L * m.length;
+		for (int[] s : getReverseIndex()) bytes += 16 + 4L * s.length;
+		return bytes;
+	}
+}
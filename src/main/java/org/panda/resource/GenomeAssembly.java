@@ -0,0 +1,187 @@
+package org.panda.resource;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Base class of the servers of gene locations of a genome assembly, loaded from an Ensembl GTF file. Each assembly is
+ * a separate resource with its own files, so several assemblies can be loaded side by side. The gene symbols of all
+ * assemblies are interned through the SymbolDictionary, hence a symbol is kept once in memory however many assemblies
+ * are loaded. Genes can be queried by symbol, or by position through a GenomicIntervalIndex.
+ *
+ * Positions are 1-based and inclusive, as in GTF files. Chromosome names are without the "chr" prefix.
+ */
+public abstract class GenomeAssembly extends FileServer
+{
+	private Map<String, int[]> sym2pos;
+	private Map<String, String> sym2chr;
+
+	/**
+	 * Gene records of the GTF file, indexed on their positions.
+	 */
+	private GenomicIntervalIndex index;
+
+	/**
+	 * Gets the assembly with the given name. Both the GRC and the UCSC names are accepted, like "GRCh38" and "hg38".
+	 *
+	 * @throws IllegalArgumentException if the assembly is not supported
+	 */
+	public static GenomeAssembly get(String name)
+	{
+		switch (name.toLowerCase())
+		{
+			case "grch37":
+			case "hg19":
+			case "hg37":
+				return HG37.get();
+			case "grch38":
+			case "hg38":
+				return HG38.get();
+			default:
+				throw new IllegalArgumentException("Unsupported genome assembly: " + name);
+		}
+	}
+
+	/**
+	 * @return the GRC name of the assembly, like "GRCh38"
+	 */
+	public abstract String getName();
+
+	public Set<String> getAllSymbols()
+	{
+		return sym2pos.keySet();
+	}
+
+	public int[] getLocation(String gene)
+	{
+		return sym2pos.get(gene);
+	}
+
+	public String getChromosome(String gene)
+	{
+		return sym2chr.get(gene);
+	}
+
+	public GenomicIntervalIndex getIntervalIndex()
+	{
+		return index;
+	}
+
+	/**
+	 * @return symbols of the genes that overlap the range, in the order of their starts
+	 */
+	public List<String> getOverlappingGenes(String chr, int start, int end)
+	{
+		return index.getOverlapping(chr, start, end);
+	}
+
+	/**
+	 * @return symbol of the gene that contains the position, or else of the closest gene
+	 */
+	public String getNearestGene(String chr, int position)
+	{
+		return index.getNearest(chr, position);
+	}
+
+	/**
+	 * @return symbols of the genes that are within the given distance to the position
+	 */
+	public List<String> getGenesInWindow(String chr, int position, int window)
+	{
+		return index.getWithinWindow(chr, position, window);
+	}
+
+	/**
+	 * Finds the genes within the window around each position, in parallel. Use a window of 0 for the genes that
+	 * contain the positions.
+	 */
+	public String[][] annotate(String[] chrs, int[] positions, int window)
+	{
+		return index.annotate(chrs, positions, window);
+	}
+
+	@Override
+	public boolean load() throws IOException
+	{
+		sym2pos = new HashMap<>();
+		sym2chr = new HashMap<>();
+
+		List<String> chrs = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		int[][] pos = new int[2][1024];
+
+		getResourceAsStream(getLocalFilenames()[0]).forEach(l ->
+		{
+			if (l.startsWith("#")) return;
+
+			// Tab positions of the first eight columns
+			int[] tab = new int[8];
+			int from = 0;
+			for (int i = 0; i < 8; i++)
+			{
+				tab[i] = l.indexOf('\t', from);
+				if (tab[i] < 0) return;
+				from = tab[i] + 1;
+			}
+
+			if (tab[2] - tab[1] != 5 || !l.startsWith("gene", tab[1] + 1)) return;
+
+			String gene = getAttribute(l, tab[7] + 1, "gene_name");
+			if (gene == null) return;
+			gene = SymbolDictionary.intern(gene);
+
+			String chr = GenomicIntervalIndex.normalize(l.substring(0, tab[0]));
+			int start = Integer.parseInt(l.substring(tab[2] + 1, tab[3]));
+			int end = Integer.parseInt(l.substring(tab[3] + 1, tab[4]));
+
+			sym2pos.put(gene, new int[]{start, end});
+			sym2chr.put(gene, chr);
+
+			int n = names.size();
+			if (n == pos[0].length)
+			{
+				pos[0] = Arrays.copyOf(pos[0], n * 2);
+				pos[1] = Arrays.copyOf(pos[1], n * 2);
+			}
+			chrs.add(chr);
+			names.add(gene);
+			pos[0][n] = start;
+			pos[1][n] = end;
+		});
+
+		int n = names.size();
+		index = new GenomicIntervalIndex(chrs.toArray(new String[n]), Arrays.copyOf(pos[0], n),
+			Arrays.copyOf(pos[1], n), names.toArray(new String[n]));
+
+		return true;
+	}
+
+	/**
+	 * Gets the value of an attribute in the GTF attribute column, like gene_name "TP53", without splitting the column.
+	 *
+	 * @return the value without the quotes, or null if the attribute is not there
+	 */
+	static String getAttribute(String line, int from, String key)
+	{
+		int i = from;
+		while ((i = line.indexOf(key, i)) >= 0)
+		{
+			// The key has to start an attribute and be followed by a space
+			int after = i + key.length();
+			boolean starts = i == from || line.charAt(i - 1) == ' ' || line.charAt(i - 1) == ';';
+			if (starts && after < line.length() && line.charAt(after) == ' ')
+			{
+				int s = after + 1;
+				if (s < line.length() && line.charAt(s) == '"')
+				{
+					int e = line.indexOf('"', s + 1);
+					return e < 0 ? null : line.substring(s + 1, e);
+				}
+				int e = line.indexOf(';', s);
+				return line.substring(s, e < 0 ? line.length() : e);
+			}
+			i = after;
+		}
+		return null;
+	}
+}
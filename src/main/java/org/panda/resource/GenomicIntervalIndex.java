@@ -0,0 +1,293 @@
+package org.panda.resource;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Named genomic intervals, like genes, indexed for position queries. The intervals of each chromosome are kept in
+ * arrays sorted on the start, which are read as an implicit binary search tree: the node at index i is at the level of
+ * the trailing 1 bits of i, and its subtree spans the 2^(level+1) - 1 indices centered on it. Each node stores the
+ * largest end in its subtree, so an overlap query skips the subtrees that end before the query start, and a long
+ * interval does not make later queries scan all the earlier ones. Nearest interval queries use the same arrays.
+ *
+ * Coordinates are inclusive on both ends, as in GTF files. Chromosome names are normalized by dropping a leading
+ * "chr", so "chr7" and "7" are the same chromosome.
+ */
+public class GenomicIntervalIndex
+{
+	private final Map<String, Chromosome> chromosomes;
+
+	/**
+	 * @param chrs chromosome of each interval
+	 * @param starts first position of each interval
+	 * @param ends last position of each interval
+	 * @param names name of each interval, like a gene symbol. Names can repeat.
+	 */
+	public GenomicIntervalIndex(String[] chrs, int[] starts, int[] ends, String[] names)
+	{
+		Map<String, List<Integer>> members = new HashMap<>();
+		for (int i = 0; i < chrs.length; i++)
+		{
+			members.computeIfAbsent(normalize(chrs[i]), k -> new ArrayList<>()).add(i);
+		}
+
+		chromosomes = new HashMap<>();
+		members.forEach((chr, list) -> chromosomes.put(chr, new Chromosome(list, starts, ends, names)));
+	}
+
+	/**
+	 * Drops the "chr" prefix of the chromosome name.
+	 */
+	public static String normalize(String chr)
+	{
+		return chr.length() > 3 && chr.regionMatches(true, 0, "chr", 0, 3) ? chr.substring(3) : chr;
+	}
+
+	public Set<String> getChromosomes()
+	{
+		return Collections.unmodifiableSet(chromosomes.keySet());
+	}
+
+	public int size()
+	{
+		return chromosomes.values().stream().mapToInt(c -> c.starts.length).sum();
+	}
+
+	// Section: Queries
+
+	/**
+	 * @return names of the intervals that overlap the range, in the order of their starts
+	 */
+	public List<String> getOverlapping(String chr, int start, int end)
+	{
+		Chromosome c = chromosomes.get(normalize(chr));
+		if (c == null) return Collections.emptyList();
+
+		List<String> list = new ArrayList<>();
+		c.forOverlapping(start, end, i -> list.add(c.names[i]));
+		return list;
+	}
+
+	/**
+	 * @return names of the intervals that contain the position
+	 */
+	public List<String> getOverlapping(String chr, int position)
+	{
+		return getOverlapping(chr, position, position);
+	}
+
+	/**
+	 * @return names of the intervals that are within the given distance to the position
+	 */
+	public List<String> getWithinWindow(String chr, int position, int window)
+	{
+		return getOverlapping(chr, position - window, position + window);
+	}
+
+	/**
+	 * Gets the interval that contains the position, or else the closest one. When several intervals contain the
+	 * position, the one that starts first is returned.
+	 *
+	 * @return name of the interval, or null if the chromosome has no intervals
+	 */
+	public String getNearest(String chr, int position)
+	{
+		Chromosome c = chromosomes.get(normalize(chr));
+		if (c == null) return null;
+
+		int i = c.getNearest(position);
+		return i < 0 ? null : c.names[i];
+	}
+
+	/**
+	 * Distance of the position to the nearest interval, 0 if an interval contains it.
+	 *
+	 * @return the distance, or -1 if the chromosome has no intervals
+	 */
+	public int getDistanceToNearest(String chr, int position)
+	{
+		Chromosome c = chromosomes.get(normalize(chr));
+		if (c == null) return -1;
+
+		int i = c.getNearest(position);
+		return i < 0 ? -1 : Math.max(0, Math.max(c.starts[i] - position, position - c.ends[i]));
+	}
+
+	// Section: Batch queries
+
+	/**
+	 * Finds the intervals within the window around each position, in parallel.
+	 *
+	 * @param window distance to the positions, 0 for the intervals that contain them
+	 * @return names of the intervals of each position, in the order of the positions
+	 */
+	public String[][] annotate(String[] chrs, int[] positions, int window)
+	{
+		String[][] result = new String[positions.length][];
+		IntStream.range(0, positions.length).parallel().forEach(i ->
+		{
+			List<String> list = getWithinWindow(chrs[i], positions[i], window);
+			result[i] = list.toArray(new String[list.size()]);
+		});
+		return result;
+	}
+
+	/**
+	 * Finds the nearest interval of each position, in parallel.
+	 *
+	 * @return name of the nearest interval of each position, null for the positions on unknown chromosomes
+	 */
+	public String[] annotateNearest(String[] chrs, int[] positions)
+	{
+		String[] result = new String[positions.length];
+		IntStream.range(0, positions.length).parallel().forEach(i -> result[i] = getNearest(chrs[i], positions[i]));
+		return result;
+	}
+
+	// Section: Sorted arrays
+
+	/**
+	 * Intervals of a chromosome, sorted on the start.
+	 */
+	private static class Chromosome
+	{
+		final int[] starts;
+		final int[] ends;
+		final String[] names;
+
+		/**
+		 * Largest end in the subtree of each node.
+		 */
+		final int[] subtreeMax;
+
+		/**
+		 * Index of the interval with the largest end among the intervals up to each index.
+		 */
+		final int[] maxEndIndex;
+
+		/**
+		 * Index of the root and its level.
+		 */
+		final int root;
+		final int rootLevel;
+
+		Chromosome(List<Integer> members, int[] allStarts, int[] allEnds, String[] allNames)
+		{
+			Integer[] order = members.toArray(new Integer[0]);
+			Arrays.sort(order, Comparator.comparingInt((Integer i) -> allStarts[i]).thenComparingInt(i -> allEnds[i]));
+
+			int n = order.length;
+			starts = new int[n];
+			ends = new int[n];
+			names = new String[n];
+			maxEndIndex = new int[n];
+
+			for (int i = 0; i < n; i++)
+			{
+				starts[i] = allStarts[order[i]];
+				ends[i] = allEnds[order[i]];
+				names[i] = allNames[order[i]];
+
+				maxEndIndex[i] = i == 0 || ends[i] > ends[maxEndIndex[i - 1]] ? i : maxEndIndex[i - 1];
+			}
+
+			// The smallest tree that spans all indices
+			int level = 0;
+			while ((2 << level) - 1 < n) level++;
+			rootLevel = level;
+			root = (1 << level) - 1;
+
+			subtreeMax = new int[n];
+			if (n > 0) fillSubtreeMax(root, rootLevel);
+		}
+
+		/**
+		 * Computes the largest ends in the subtree of the node, which can be beyond the last index.
+		 *
+		 * @return largest end in the subtree, or Integer.MIN_VALUE if it has no intervals
+		 */
+		private int fillSubtreeMax(int node, int level)
+		{
+			if (node - (1 << level) + 1 >= starts.length) return Integer.MIN_VALUE;
+
+			int max = node < starts.length ? ends[node] : Integer.MIN_VALUE;
+			if (level > 0)
+			{
+				int half = 1 << (level - 1);
+				max = Math.max(max, fillSubtreeMax(node - half, level - 1));
+				max = Math.max(max, fillSubtreeMax(node + half, level - 1));
+			}
+			if (node < starts.length) subtreeMax[node] = max;
+			return max;
+		}
+
+		/**
+		 * @return index of the last interval that starts at or before the position, or -1
+		 */
+		int lastStartingBefore(int position)
+		{
+			int lo = 0, hi = starts.length;
+			while (lo < hi)
+			{
+				int mid = (lo + hi) >>> 1;
+				if (starts[mid] <= position) lo = mid + 1;
+				else hi = mid;
+			}
+			return lo - 1;
+		}
+
+		/**
+		 * Passes the indices of the overlapping intervals to the consumer in the order of the starts.
+		 */
+		void forOverlapping(int start, int end, IntConsumer consumer)
+		{
+			if (starts.length > 0) visit(root, rootLevel, start, end, consumer);
+		}
+
+		/**
+		 * Visits the subtree of the node in order, skipping the subtrees that end before the start, and the right
+		 * subtrees of the nodes that start after the end.
+		 */
+		private void visit(int node, int level, int start, int end, IntConsumer consumer)
+		{
+			int half = level == 0 ? 0 : 1 << (level - 1);
+
+			// Nodes beyond the last index only have intervals in their left subtree
+			if (node >= starts.length)
+			{
+				if (level > 0) visit(node - half, level - 1, start, end, consumer);
+				return;
+			}
+
+			if (subtreeMax[node] < start) return;
+
+			if (level > 0) visit(node - half, level - 1, start, end, consumer);
+			if (starts[node] > end) return;
+
+			if (ends[node] >= start) consumer.accept(node);
+			if (level > 0) visit(node + half, level - 1, start, end, consumer);
+		}
+
+		/**
+		 * @return index of the interval that contains the position or else is the closest, or -1 if there is none
+		 */
+		int getNearest(int position)
+		{
+			if (starts.length == 0) return -1;
+
+			// The first interval that contains the position
+			int[] found = {-1};
+			forOverlapping(position, position, i -> { if (found[0] < 0) found[0] = i; });
+			if (found[0] >= 0) return found[0];
+
+			int last = lastStartingBefore(position);
+			int left = last >= 0 ? maxEndIndex[last] : -1;
+			int right = last + 1 < starts.length ? last + 1 : -1;
+
+			if (left < 0) return right;
+			if (right < 0) return left;
+			return position - ends[left] <= starts[right] - position ? left : right;
+		}
+	}
+}
@@ -1,41 +1,28 @@
 package org.panda.resource;
 
-import java.io.File;
-import java.io.IOException;
 import java.util.*;
-import java.util.stream.Stream;
 
 /**
- * This class provides a mapping between HGNC IDs and approved gene symbols.
+ * Serves the gene locations of the GRCh37 assembly, from the Ensembl GTF file. Genes can be queried by symbol, or by
+ * position through a GenomicIntervalIndex. See HG38 for the newer assembly, and LiftOver for converting positions
+ * between the two.
  *
  * @author Ozgun Babur
  */
-public class HG37 extends FileServer
+public class HG37 extends GenomeAssembly
 {
 	private static HG37 instance;
 
-	private Map<String, int[]> sym2pos;
-	private Map<String, String> sym2chr;
-
 	public static synchronized HG37 get()
 	{
 		if (instance == null) instance = new HG37();
 		return instance;
 	}
 
-	public Set<String> getAllSymbols()
-	{
-		return sym2pos.keySet();
-	}
-
-	public int[] getLocation(String gene)
-	{
-		return sym2pos.get(gene);
-	}
-
-	public String getChromosome(String gene)
+	@Override
+	public String getName()
 	{
-		return sym2chr.get(gene);
+		return "GRCh37";
 	}
 
 	@Override
@@ -50,31 +37,28 @@ public class HG37 extends FileServer
 		return new String[]{"ftp://ftp.ensembl.org/pub/grch37/current/gtf/homo_sapiens/Homo_sapiens.GRCh37.87.gtf.gz"};
 	}
 
-	@Override
-	public boolean load() throws IOException
-	{
-		sym2pos = new HashMap<>();
-		sym2chr = new HashMap<>();
-
-		getResourceAsStream(getLocalFilenames()[0]).map(l -> l.split("\t"))
-			.filter(t -> t.length >= 9 && t[2].equals("gene"))
-			.forEach(t ->
-		{
-			String gene = t[8].split("; ")[2].split(" ")[1].replaceAll("\"", "");
-			String chr = t[0];
-			int start = Integer.valueOf(t[3]);
-			int end = Integer.valueOf(t[4]);
-
-			sym2pos.put(gene, new int[]{start, end});
-			sym2chr.put(gene, chr);
-		});
-
-		return true;
-	}
-
 	public static void main(String[] args)
 	{
 		System.out.println("get().getAllSymbols().size() = " + get().getAllSymbols().size());
 		System.out.println(Arrays.toString(get().getLocation("TP53")));
+		System.out.println("Genes at TP53 locus = " + get().getOverlappingGenes("17", 7572000, 7580000));
+
+		// Time annotating random positions
+		String[] chrs = get().getIntervalIndex().getChromosomes().toArray(new String[0]);
+		Random r = new Random(1);
+		int count = 1000000;
+		String[] c = new String[count];
+		int[] p = new int[count];
+		for (int i = 0; i < count; i++)
+		{
+			c[i] = chrs[r.nextInt(chrs.length)];
+			p[i] = r.nextInt(150000000);
+		}
+
+		long t = System.currentTimeMillis();
+		String[][] genes = get().annotate(c, p, 0);
+		long hits = Arrays.stream(genes).filter(g -> g.length > 0).count();
+		System.out.println(count + " positions annotated in " + (System.currentTimeMillis() - t) + " ms, " + hits +
+			" in genes");
 	}
 }
@@ -0,0 +1,48 @@
+package org.panda.resource;
+
+import java.util.Arrays;
+
+/**
+ * Serves the gene locations of the GRCh38 assembly, from the Ensembl GTF file. The queries are the same with HG37, and
+ * LiftOver converts positions between the two assemblies.
+ */
+public class HG38 extends GenomeAssembly
+{
+	private static HG38 instance;
+
+	public static synchronized HG38 get()
+	{
+		if (instance == null) instance = new HG38();
+		return instance;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "GRCh38";
+	}
+
+	@Override
+	public String[] getLocalFilenames()
+	{
+		return new String[]{"hg38.gtf"};
+	}
+
+	@Override
+	public String[] getDistantURLs()
+	{
+		return new String[]{"ftp://ftp.ensembl.org/pub/release-110/gtf/homo_sapiens/Homo_sapiens.GRCh38.110.gtf.gz"};
+	}
+
+	public static void main(String[] args)
+	{
+		System.out.println("get().getAllSymbols().size() = " + get().getAllSymbols().size());
+		System.out.println(Arrays.toString(get().getLocation("TP53")));
+		System.out.println("Genes at TP53 locus = " + get().getOverlappingGenes("17", 7668000, 7688000));
+
+		// The same gene in both assemblies
+		int[] loc37 = HG37.get().getLocation("TP53");
+		LiftOver.Position p = LiftOver.get("GRCh37", "GRCh38").convert(HG37.get().getChromosome("TP53"), loc37[0]);
+		System.out.println("TP53 start lifted from GRCh37 = " + p + ", GRCh38 start = " + get().getLocation("TP53")[0]);
+	}
+}
@@ -5,6 +5,8 @@ import org.panda.utility.graph.DirectedGraph;
 import org.panda.utility.graph.Graph;
 import org.panda.utility.graph.UndirectedGraph;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.util.*;
 import java.util.stream.Stream;
@@ -202,9 +204,49 @@ public class HGNC extends FileServer
 			}
 
 		});
+		seedSymbolDictionary();
 		return true;
 	}
 
+	/**
+	 * Gives the approved symbols their IDs in the SymbolDictionary.
+	 */
+	private void seedSymbolDictionary()
+	{
+		if (SymbolDictionary.isEnabled()) SymbolDictionary.get().seedApproved(sym2id.keySet());
+	}
+
+	@Override
+	protected boolean usesSnapshot()
+	{
+		return true;
+	}
+
+	@Override
+	protected void writeSnapshot(DataOutput out) throws IOException
+	{
+		Snapshot.writeStringMap(out, sym2id);
+		Snapshot.writeStringMap(out, sym2chr);
+		Snapshot.writeStringMap(out, id2sym);
+		Snapshot.writeStringMap(out, old2new);
+		Snapshot.writeStringMap(out, uniprot2sym);
+		Snapshot.writeStringMap(out, sym2uniprot);
+		Snapshot.writeSetMap(out, families);
+	}
+
+	@Override
+	protected void readSnapshot(DataInput in) throws IOException
+	{
+		sym2id = Snapshot.readStringMap(in);
+		sym2chr = Snapshot.readStringMap(in);
+		id2sym = Snapshot.readStringMap(in);
+		old2new = Snapshot.readStringMap(in);
+		uniprot2sym = Snapshot.readStringMap(in);
+		sym2uniprot = Snapshot.readStringMap(in);
+		families = Snapshot.readSetMap(in);
+		seedSymbolDictionary();
+	}
+
 	public Graph getCompleteClique(boolean directed)
 	{
 		Graph graph = directed ? new DirectedGraph("HGNC complete clique", "clique-edge") :
@@ -0,0 +1,372 @@
+package org.panda.resource;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Proteome-wide background score distributions of the kinase library matrices. Raw scores are products of matrix
+ * values, which are not comparable across kinases, so each score is reported as its percentile among the scores that
+ * the same kinase gets on all S/T sites of the proteome.
+ *
+ * Each distribution is kept as a table of quantiles. The table is built with a single parallel pass over the sites,
+ * which fills a log-scale histogram for each kinase between the lowest and highest scores that the matrix allows.
+ * A percentile lookup is a binary search in the quantile table, with linear interpolation between the quantiles.
+ */
+public class KinaseBackground
+{
+	private static final int MAGIC = 0x4B424731;
+	private static final int VERSION = 2;
+
+	/**
+	 * Number of quantiles in each table, which makes a step of 0.1 percentile.
+	 */
+	public static final int QUANTILES = 1001;
+
+	/**
+	 * Number of histogram bins for each kinase while building the tables.
+	 */
+	private static final int BINS = 4096;
+
+	private final String[] kinases;
+	private final long[] prints;
+	private final Map<String, Integer> kinaseIndex;
+
+	/**
+	 * Fingerprint of the sequences that the background is built on.
+	 */
+	private final long sequencePrint;
+	private final long siteCount;
+
+	/**
+	 * Ascending quantiles of the scores of each kinase. The first is the lowest and the last is the highest score.
+	 */
+	private final float[][] quantiles;
+
+	private KinaseBackground(String[] kinases, long[] prints, long sequencePrint, long siteCount, float[][] quantiles)
+	{
+		this.kinases = kinases;
+		this.prints = prints;
+		this.sequencePrint = sequencePrint;
+		this.siteCount = siteCount;
+		this.quantiles = quantiles;
+
+		kinaseIndex = new HashMap<>();
+		for (int i = 0; i < kinases.length; i++) kinaseIndex.put(kinases[i], i);
+	}
+
+	public long getSiteCount()
+	{
+		return siteCount;
+	}
+
+	/**
+	 * Whether the background is built on the same kinases, matrices and sequences. The kinase indices of the
+	 * background are then the same with the matrix.
+	 */
+	public boolean matches(KinaseMatrix matrix, long sequencePrint)
+	{
+		if (this.sequencePrint != sequencePrint || matrix.getKinaseCount() != kinases.length) return false;
+
+		for (int i = 0; i < kinases.length; i++)
+		{
+			if (!kinases[i].equals(matrix.getKinase(i)) || prints[i] != matrix.fingerprint(i)) return false;
+		}
+		return true;
+	}
+
+	// Section: Lookup
+
+	/**
+	 * @return percentile of the score among the background scores of the kinase, in 0..100, or NaN if the score is
+	 * NaN or the kinase is unknown
+	 */
+	public double percentile(String kinase, double score)
+	{
+		Integer i = kinaseIndex.get(kinase);
+		return i == null ? Double.NaN : percentile(i, score);
+	}
+
+	/**
+	 * @return percentile of the score among the background scores of the kinase at the index, in 0..100
+	 */
+	public double percentile(int kinase, double score)
+	{
+		float[] q = quantiles[kinase];
+		if (Double.isNaN(score) || q == null) return Double.NaN;
+		if (score < q[0]) return 0;
+
+		// Last quantile that is less than or equal to the score
+		int lo = 0, hi = q.length - 1;
+		while (lo < hi)
+		{
+			int mid = (lo + hi + 1) >>> 1;
+			if (q[mid] <= score) lo = mid;
+			else hi = mid - 1;
+		}
+		if (lo == q.length - 1) return 100;
+
+		double frac = q[lo + 1] > q[lo] ? (score - q[lo]) / (q[lo + 1] - q[lo]) : 0;
+		return 100D * (lo + frac) / (q.length - 1);
+	}
+
+	/**
+	 * Converts the scores of a peptide against all kinases, as KinaseMatrix.scoreAll writes them, to percentiles in
+	 * place. The background has to match the matrix.
+	 */
+	public void toPercentiles(double[] scores, int offset)
+	{
+		for (int i = 0; i < kinases.length; i++)
+		{
+			scores[offset + i] = percentile(i, scores[offset + i]);
+		}
+	}
+
+	// Section: Building
+
+	/**
+	 * Scores all S/T sites of the selected proteins against all kinases, and builds the quantile tables.
+	 */
+	public static KinaseBackground build(KinaseMatrix matrix, SequenceStore store, IntPredicate proteinFilter)
+	{
+		int k = matrix.getKinaseCount();
+
+		// Log-scale histogram bounds of each kinase
+		double[] lo = new double[k];
+		double[] scale = new double[k];
+		for (int i = 0; i < k; i++)
+		{
+			double[] range = matrix.getScoreRange(i);
+			double hiLog = Math.log(range[1]);
+			double loLog = range[0] > 0 ? Math.log(range[0]) : hiLog - 50;
+			if (!(hiLog - loLog > 1e-9)) loLog = hiLog - 1;
+			lo[i] = loLog;
+			scale[i] = BINS / (hiLog - loLog);
+		}
+
+		int[] proteins = IntStream.range(0, store.size()).filter(proteinFilter).toArray();
+		int parts = Math.min(proteins.length, Runtime.getRuntime().availableProcessors());
+
+		Histogram total = IntStream.range(0, parts).parallel().mapToObj(part ->
+		{
+			Histogram h = new Histogram(k);
+			int before = matrix.getAcceptorIndex();
+			int after = matrix.getPeptideLength() - before - 1;
+			byte[] window = new byte[matrix.getPeptideLength()];
+			double[] scores = new double[k];
+
+			for (int j = part; j < proteins.length; j += parts)
+			{
+				int p = proteins[j];
+				for (int pos = 1; pos <= store.length(p); pos++)
+				{
+					char aa = store.aminoAcidAt(p, pos);
+					if (aa != 'S' && aa != 'T') continue;
+
+					store.copyWindow(p, pos, before, after, window, 0, KinaseMatrix.PAD);
+					matrix.scoreAll(window, 0, scores, 0);
+					h.add(scores, lo, scale);
+				}
+			}
+			return h;
+		}).reduce(Histogram::merge).orElseGet(() -> new Histogram(k));
+
+		float[][] quantiles = new float[k][];
+		String[] kinases = new String[k];
+		long[] prints = new long[k];
+		for (int i = 0; i < k; i++)
+		{
+			kinases[i] = matrix.getKinase(i);
+			prints[i] = matrix.fingerprint(i);
+			quantiles[i] = total.quantiles(i, lo[i], scale[i]);
+		}
+
+		return new KinaseBackground(kinases, prints, store.fingerprint(proteinFilter), total.sites, quantiles);
+	}
+
+	/**
+	 * Score counts of all kinases in log-scale bins, with the exact lowest and highest scores.
+	 */
+	private static class Histogram
+	{
+		final int k;
+		final int[] counts;
+		final long[] totals;
+		final double[] min;
+		final double[] max;
+		long sites;
+
+		Histogram(int k)
+		{
+			this.k = k;
+			counts = new int[k * BINS];
+			totals = new long[k];
+			min = new double[k];
+			max = new double[k];
+			Arrays.fill(min, Double.POSITIVE_INFINITY);
+			Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		}
+
+		/**
+		 * Adds the scores of a site. A site that no kinase can score, because of a residue that is not in the
+		 * matrices, is not counted.
+		 */
+		void add(double[] scores, double[] lo, double[] scale)
+		{
+			boolean scored = false;
+			for (int i = 0; i < k; i++)
+			{
+				double s = scores[i];
+				if (Double.isNaN(s)) continue;
+				scored = true;
+
+				int b = s > 0 ? (int) ((Math.log(s) - lo[i]) * scale[i]) : 0;
+				if (b < 0) b = 0;
+				else if (b >= BINS) b = BINS - 1;
+
+				counts[i * BINS + b]++;
+				totals[i]++;
+				if (s < min[i]) min[i] = s;
+				if (s > max[i]) max[i] = s;
+			}
+			if (scored) sites++;
+		}
+
+		Histogram merge(Histogram h)
+		{
+			for (int i = 0; i < counts.length; i++) counts[i] += h.counts[i];
+			for (int i = 0; i < k; i++)
+			{
+				totals[i] += h.totals[i];
+				min[i] = Math.min(min[i], h.min[i]);
+				max[i] = Math.max(max[i], h.max[i]);
+			}
+			sites += h.sites;
+			return this;
+		}
+
+		/**
+		 * @return the quantile table of the kinase, or null if it has no scores
+		 */
+		float[] quantiles(int kinase, double lo, double scale)
+		{
+			long n = totals[kinase];
+			if (n == 0) return null;
+
+			float[] q = new float[QUANTILES];
+			int base = kinase * BINS;
+			long cum = 0;
+			int b = 0;
+
+			for (int j = 0; j < QUANTILES; j++)
+			{
+				double target = (double) j * n / (QUANTILES - 1);
+
+				// Move to the bin where the cumulative count reaches the target
+				while (b < BINS - 1 && cum + counts[base + b] < target)
+				{
+					cum += counts[base + b];
+					b++;
+				}
+
+				int c = counts[base + b];
+				double frac = c == 0 ? 0 : Math.min(1, (target - cum) / c);
+				double v = Math.exp(lo + (b + frac) / scale);
+				q[j] = (float) Math.max(min[kinase], Math.min(max[kinase], v));
+			}
+
+			q[0] = (float) min[kinase];
+			q[QUANTILES - 1] = (float) max[kinase];
+			return q;
+		}
+	}
+
+	// Section: Persistence
+
+	public void write(DataOutput out) throws IOException
+	{
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(sequencePrint);
+		out.writeLong(siteCount);
+		out.writeInt(kinases.length);
+
+		for (int i = 0; i < kinases.length; i++)
+		{
+			out.writeUTF(kinases[i]);
+			out.writeLong(prints[i]);
+
+			float[] q = quantiles[i];
+			out.writeInt(q == null ? 0 : q.length);
+			if (q != null) for (float v : q) out.writeFloat(v);
+		}
+	}
+
+	public static KinaseBackground read(DataInput in) throws IOException
+	{
+		if (in.readInt() != MAGIC || in.readInt() != VERSION)
+		{
+			throw new IOException("Not a kinase background file of version " + VERSION);
+		}
+
+		long sequencePrint = in.readLong();
+		long siteCount = in.readLong();
+		int k = in.readInt();
+
+		String[] kinases = new String[k];
+		long[] prints = new long[k];
+		float[][] quantiles = new float[k][];
+
+		for (int i = 0; i < k; i++)
+		{
+			kinases[i] = in.readUTF();
+			prints[i] = in.readLong();
+
+			int n = in.readInt();
+			if (n == 0) continue;
+			quantiles[i] = new float[n];
+			for (int j = 0; j < n; j++) quantiles[i][j] = in.readFloat();
+		}
+
+		return new KinaseBackground(kinases, prints, sequencePrint, siteCount, quantiles);
+	}
+
+	// Section: Benchmark
+
+	/**
+	 * Times building the background over the human proteome, and the percentile lookups of random peptides.
+	 */
+	public static void main(String[] args)
+	{
+		UniProtSequence ups = UniProtSequence.get();
+		KinaseMatrix matrix = new KinaseLibrary().getMatrix();
+
+		long t = System.currentTimeMillis();
+		KinaseBackground bg = build(matrix, ups.getStore(), ups.getHumanFilter());
+		System.out.println("Background of " + bg.getSiteCount() + " sites and " + matrix.getKinaseCount() +
+			" kinases built in " + (System.currentTimeMillis() - t) + " ms");
+
+		String aa = "ACDEFGHIKLMNPQRSTVWY";
+		Random r = new Random(1);
+		int count = 100000;
+		double[][] scores = new double[count][matrix.getKinaseCount()];
+		for (double[] row : scores)
+		{
+			char[] c = new char[matrix.getPeptideLength()];
+			for (int j = 0; j < c.length; j++) c[j] = aa.charAt(r.nextInt(aa.length()));
+			matrix.scoreAll(new String(c), row, 0);
+		}
+
+		t = System.nanoTime();
+		double sum = 0;
+		for (double[] row : scores)
+		{
+			bg.toPercentiles(row, 0);
+			sum += row[0];
+		}
+		long ns = System.nanoTime() - t;
+		System.out.println("Percentile lookup: " + (ns / ((long) count * matrix.getKinaseCount())) +
+			" ns per score (" + (sum / count) + ")");
+	}
+}
@@ -1,9 +1,10 @@
 package org.panda.resource;
 
-import java.io.IOException;
+import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 
@@ -15,6 +16,16 @@ public class KinaseLibrary extends FileServer {
      */
     private Map<String, Map<Integer, Map<String, Double>>> probabilityMap;
 
+    /*
+    The same matrices, compiled into a flat table for fast scoring
+     */
+    private KinaseMatrix matrix;
+
+    /*
+    Proteome-wide score distributions of the kinases, built or read at first use
+     */
+    private KinaseBackground background;
+
     private int maximumSiteVal;
 
     private int minimumSiteVal;
@@ -169,9 +180,60 @@ public class KinaseLibrary extends FileServer {
 
         }
 
+        matrix = new KinaseMatrix(probabilityMap, phosphoAcceptorIndex, validPeptideLength);
+
         return true;
     }
 
+    // Returns the compiled matrices
+    public KinaseMatrix getMatrix() {
+        return matrix;
+    }
+
+    /*
+    Returns the background score distributions over the S/T sites of the human proteome. They are read from
+    KinaseLibraryBackground.bin when that file matches the current matrices and sequences, otherwise they are
+    built and the file is written. If the file cannot be written, the built background is still returned.
+     */
+    public synchronized KinaseBackground getBackground() {
+        if (background == null) {
+            UniProtSequence ups = UniProtSequence.get();
+            long sequencePrint = ups.getStore().fingerprint(ups.getHumanFilter());
+            Path p = Paths.get(locateInBase("KinaseLibraryBackground.bin"));
+
+            if (Files.exists(p)) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(p)))) {
+                    KinaseBackground bg = KinaseBackground.read(in);
+                    if (bg.matches(matrix, sequencePrint)) background = bg;
+                } catch (IOException e) {
+                    // Built again below
+                }
+            }
+
+            if (background == null) {
+                background = KinaseBackground.build(matrix, ups.getStore(), ups.getHumanFilter());
+
+                // A background that cannot be cached is still usable, so write failures are only reported
+                Path temp = null;
+                try {
+                    temp = Files.createTempFile(p.getParent(), "KinaseLibraryBackground", ".tmp");
+                    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                        background.write(out);
+                    }
+                    Files.move(temp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    System.err.println("Cannot write kinase background " + p + ": " + e);
+                    try {
+                        if (temp != null) Files.deleteIfExists(temp);
+                    } catch (IOException ignored) {
+                        // Nothing else to clean up
+                    }
+                }
+            }
+        }
+        return background;
+    }
+
 
     private int findMax(int[] arr) {
         int max = arr[0];
@@ -242,32 +304,77 @@ public class KinaseLibrary extends FileServer {
     findPhosphorylatedResidue must be updated appropriately.
      */
     public HashMap<String, Double> peptideScore(String aminoAcidSequence) {
-        // Process the amino acid sequence by splitting into negative and positive locations
-
         if (!validatePeptideLength(aminoAcidSequence)) {
             throw new IllegalArgumentException("Invalid sequence: sequence must be length 10");
         }
 
-
-        // A hashmap which contains each amino acid in amino acid sequence as values, and the
-        // corresponding key will be the location of that amino acid in the sequence passed as argument
-        HashMap<Integer, Character> locationAminoAcid = processPeptide(aminoAcidSequence);
+        double[] scores = new double[matrix.getKinaseCount()];
+        matrix.scoreAll(aminoAcidSequence, scores, 0);
 
         // Create a hashmap to store the scores for each kinase
         HashMap<String, Double> kinaseScore = new HashMap<String, Double>();
-
-        // Calculate a score for each kinase and put it into the map
-        for (String kinase : probabilityMap.keySet()) {
-            double calculatedScore = calculateScore(kinase, locationAminoAcid);
-            kinaseScore.put(kinase, calculatedScore);
+        for (int i = 0; i < scores.length; i++) {
+            kinaseScore.put(matrix.getKinase(i), scores[i]);
         }
 
         return kinaseScore;
+    }
 
+    /*
+    Same as peptideScore, but the scores are converted to their percentiles in the proteome-wide background of
+    each kinase, which makes them comparable across kinases.
+     */
+    public HashMap<String, Double> peptidePercentiles(String aminoAcidSequence) {
+        if (!validatePeptideLength(aminoAcidSequence)) {
+            throw new IllegalArgumentException("Invalid sequence: sequence must be length 10");
+        }
+
+        double[] scores = new double[matrix.getKinaseCount()];
+        matrix.scoreAll(aminoAcidSequence, scores, 0);
+        getBackground().toPercentiles(scores, 0);
 
+        HashMap<String, Double> kinasePercentile = new HashMap<String, Double>();
+        for (int i = 0; i < scores.length; i++) {
+            kinasePercentile.put(matrix.getKinase(i), scores[i]);
+        }
+
+        return kinasePercentile;
     }
 
+    /*
+    Scores many peptides against all kinases in parallel. Rows of the result are peptides and columns are
+    kinases in the order of the compiled matrix.
+     */
+    public double[][] peptideScores(List<String> aminoAcidSequences) {
+        return matrix.scoreBatch(aminoAcidSequences);
+    }
 
-}
+    /*
+    Returns the k kinases with the highest scores for the peptide, best first
+     */
+    public List<String> topKinases(String aminoAcidSequence, int k) {
+        double[] scores = new double[matrix.getKinaseCount()];
+        matrix.scoreAll(aminoAcidSequence, scores, 0);
+
+        List<String> top = new ArrayList<>();
+        for (int i : KinaseMatrix.topK(scores, k)) {
+            top.add(matrix.getKinase(i));
+        }
+        return top;
+    }
 
+    /*
+    The scoring with the nested maps, kept for comparison with the compiled matrices
+     */
+    HashMap<String, Double> peptideScoreWithMaps(String aminoAcidSequence) {
+        HashMap<Integer, Character> locationAminoAcid = processPeptide(aminoAcidSequence);
 
+        HashMap<String, Double> kinaseScore = new HashMap<String, Double>();
+        for (String kinase : probabilityMap.keySet()) {
+            kinaseScore.put(kinase, calculateScore(kinase, locationAminoAcid));
+        }
+        return kinaseScore;
+    }
+
+
+}
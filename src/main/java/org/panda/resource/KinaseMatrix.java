@@ -0,0 +1,481 @@
+package org.panda.resource;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * The position specific scoring matrices of the kinase library, compiled into a single flat array. The array is laid
+ * out as [position][residue][kinase], so scoring a peptide against all kinases is a product of contiguous rows, one
+ * row for each peptide position, which the JIT compiler can vectorize. The scoring methods do not allocate.
+ *
+ * A peptide is scored as the product of the matrix values of its residues, skipping the phospho-acceptor. Residues
+ * that have no column in the matrices make the scores NaN. The PAD character, which fills the window positions that
+ * fall out of the sequence, is neutral unless the matrices give it values, so sites near the termini are scored on
+ * the residues they have.
+ */
+public class KinaseMatrix
+{
+	/**
+	 * Fills the peptide positions that are out of the sequence.
+	 */
+	public static final byte PAD = '_';
+
+	private final String[] kinases;
+	private final Map<String, Integer> kinaseIndex;
+
+	private final int minLocation;
+	private final int acceptorIndex;
+	private final int peptideLength;
+
+	/**
+	 * Residue character to its index in the table, or -1.
+	 */
+	private final int[] residueIndex = new int[128];
+	private final int residues;
+
+	/**
+	 * Values in the order of [position][residue][kinase].
+	 */
+	private final double[] table;
+
+	/**
+	 * @param matrices kinase to location to residue to value, where location 0 is the phospho-acceptor
+	 * @param acceptorIndex index of the phospho-acceptor in the peptides
+	 * @param peptideLength length of the peptides
+	 */
+	public KinaseMatrix(Map<String, Map<Integer, Map<String, Double>>> matrices, int acceptorIndex,
+		int peptideLength)
+	{
+		this.acceptorIndex = acceptorIndex;
+		this.peptideLength = peptideLength;
+
+		kinases = matrices.keySet().stream().sorted().toArray(String[]::new);
+		kinaseIndex = new HashMap<>();
+		for (int i = 0; i < kinases.length; i++) kinaseIndex.put(kinases[i], i);
+
+		minLocation = -acceptorIndex;
+		int positions = peptideLength;
+
+		Arrays.fill(residueIndex, -1);
+		int n = 0;
+		for (Map<Integer, Map<String, Double>> byLoc : matrices.values())
+		{
+			for (Map<String, Double> byRes : byLoc.values())
+			{
+				for (String res : byRes.keySet())
+				{
+					char c = res.charAt(0);
+					if (res.length() == 1 && c < 128 && residueIndex[c] < 0) residueIndex[c] = n++;
+				}
+			}
+		}
+		if (residueIndex[PAD] < 0) residueIndex[PAD] = n++;
+		residues = n;
+
+		int k = kinases.length;
+		table = new double[positions * residues * k];
+		Arrays.fill(table, Double.NaN);
+
+		for (int ki = 0; ki < k; ki++)
+		{
+			Map<Integer, Map<String, Double>> byLoc = matrices.get(kinases[ki]);
+			for (Integer loc : byLoc.keySet())
+			{
+				int pos = loc - minLocation;
+				if (pos < 0 || pos >= positions) continue;
+
+				for (Map.Entry<String, Double> e : byLoc.get(loc).entrySet())
+				{
+					char c = e.getKey().charAt(0);
+					if (c >= 128 || residueIndex[c] < 0) continue;
+					int r = residueIndex[c];
+					table[(pos * residues + r) * k + ki] = e.getValue();
+				}
+			}
+		}
+
+		// Padded positions do not change the score where the matrix does not say otherwise
+		for (int pos = 0; pos < positions; pos++)
+		{
+			int base = (pos * residues + residueIndex[PAD]) * k;
+			for (int ki = 0; ki < k; ki++)
+			{
+				if (Double.isNaN(table[base + ki])) table[base + ki] = 1;
+			}
+		}
+	}
+
+	public int getKinaseCount()
+	{
+		return kinases.length;
+	}
+
+	public String getKinase(int index)
+	{
+		return kinases[index];
+	}
+
+	/**
+	 * @return index of the kinase, or -1 if it is not in the library
+	 */
+	public int indexOf(String kinase)
+	{
+		Integer i = kinaseIndex.get(kinase);
+		return i == null ? -1 : i;
+	}
+
+	public int getPeptideLength()
+	{
+		return peptideLength;
+	}
+
+	public int getAcceptorIndex()
+	{
+		return acceptorIndex;
+	}
+
+	// Section: Scoring kernels
+
+	/**
+	 * Scores the peptide against all kinases, writing the scores to out, starting at outOffset.
+	 */
+	public void scoreAll(CharSequence peptide, double[] out, int outOffset)
+	{
+		checkLength(peptide.length());
+		int k = kinases.length;
+		Arrays.fill(out, outOffset, outOffset + k, 1D);
+
+		for (int i = 0; i < peptideLength; i++)
+		{
+			if (i == acceptorIndex) continue;
+
+			char c = peptide.charAt(i);
+			int r = c < 128 ? residueIndex[c] : -1;
+			if (!multiplyRow(i, r, out, outOffset)) return;
+		}
+	}
+
+	/**
+	 * Scores the peptide at the given offset of the byte array against all kinases, writing the scores to out,
+	 * starting at outOffset.
+	 */
+	public void scoreAll(byte[] peptide, int offset, double[] out, int outOffset)
+	{
+		int k = kinases.length;
+		Arrays.fill(out, outOffset, outOffset + k, 1D);
+
+		for (int i = 0; i < peptideLength; i++)
+		{
+			if (i == acceptorIndex) continue;
+
+			int c = peptide[offset + i];
+			int r = c >= 0 ? residueIndex[c] : -1;
+			if (!multiplyRow(i, r, out, outOffset)) return;
+		}
+	}
+
+	/**
+	 * @return false if the residue is unknown, in which case the scores are set to NaN
+	 */
+	private boolean multiplyRow(int pos, int r, double[] out, int outOffset)
+	{
+		int k = kinases.length;
+		if (r < 0)
+		{
+			Arrays.fill(out, outOffset, outOffset + k, Double.NaN);
+			return false;
+		}
+
+		int base = (pos * residues + r) * k;
+		for (int j = 0; j < k; j++)
+		{
+			out[outOffset + j] *= table[base + j];
+		}
+		return true;
+	}
+
+	/**
+	 * Score of the peptide for a single kinase.
+	 */
+	public double score(int kinase, CharSequence peptide)
+	{
+		checkLength(peptide.length());
+		int k = kinases.length;
+		double score = 1;
+
+		for (int i = 0; i < peptideLength; i++)
+		{
+			if (i == acceptorIndex) continue;
+
+			char c = peptide.charAt(i);
+			int r = c < 128 ? residueIndex[c] : -1;
+			if (r < 0) return Double.NaN;
+			score *= table[(i * residues + r) * k + kinase];
+		}
+		return score;
+	}
+
+	/**
+	 * Score of the peptide at the given offset of the byte array for a single kinase.
+	 */
+	public double score(int kinase, byte[] peptide, int offset)
+	{
+		int k = kinases.length;
+		double score = 1;
+
+		for (int i = 0; i < peptideLength; i++)
+		{
+			if (i == acceptorIndex) continue;
+
+			int c = peptide[offset + i];
+			int r = c >= 0 ? residueIndex[c] : -1;
+			if (r < 0) return Double.NaN;
+			score *= table[(i * residues + r) * k + kinase];
+		}
+		return score;
+	}
+
+	/**
+	 * A hash of the matrix of the kinase, which does not depend on the other kinases in the library. Used for
+	 * detecting the kinases whose matrices changed between two versions of the library.
+	 */
+	public long fingerprint(int kinase)
+	{
+		int k = kinases.length;
+		long h = 0xCBF29CE484222325L;
+
+		for (int pos = 0; pos < peptideLength; pos++)
+		{
+			for (int c = 0; c < residueIndex.length; c++)
+			{
+				int r = residueIndex[c];
+				if (r < 0) continue;
+
+				double v = table[(pos * residues + r) * k + kinase];
+				if (Double.isNaN(v)) continue;
+
+				h = (h ^ (pos << 8 | c)) * 0x100000001B3L;
+				h = (h ^ Double.doubleToLongBits(v)) * 0x100000001B3L;
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * The lowest and highest scores that a peptide of known residues can get for the kinase.
+	 */
+	public double[] getScoreRange(int kinase)
+	{
+		int k = kinases.length;
+		double min = 1;
+		double max = 1;
+
+		for (int pos = 0; pos < peptideLength; pos++)
+		{
+			if (pos == acceptorIndex) continue;
+
+			double lo = Double.POSITIVE_INFINITY;
+			double hi = Double.NEGATIVE_INFINITY;
+			for (int r = 0; r < residues; r++)
+			{
+				double v = table[(pos * residues + r) * k + kinase];
+				if (Double.isNaN(v)) continue;
+				lo = Math.min(lo, v);
+				hi = Math.max(hi, v);
+			}
+			if (lo > hi) return new double[]{Double.NaN, Double.NaN};
+
+			min *= lo;
+			max *= hi;
+		}
+		return new double[]{min, max};
+	}
+
+	private void checkLength(int length)
+	{
+		if (length != peptideLength) throw new IllegalArgumentException(
+			"Invalid sequence: sequence must be length " + peptideLength);
+	}
+
+	// Section: Batch scoring
+
+	/**
+	 * Scores many peptides against all kinases, in parallel over the peptides.
+	 * @return scores indexed by peptide then kinase
+	 */
+	public double[][] scoreBatch(List<? extends CharSequence> peptides)
+	{
+		double[][] scores = new double[peptides.size()][kinases.length];
+		IntStream.range(0, scores.length).parallel().forEach(i -> scoreAll(peptides.get(i), scores[i], 0));
+		return scores;
+	}
+
+	/**
+	 * Indices of the k kinases with the highest scores, in descending order of score. NaN scores are skipped.
+	 */
+	public static int[] topK(double[] scores, int k)
+	{
+		// A min-heap of the best k so far, as an array of indices
+		int[] heap = new int[Math.min(k, scores.length)];
+		int size = 0;
+
+		for (int i = 0; i < scores.length; i++)
+		{
+			double s = scores[i];
+			if (Double.isNaN(s)) continue;
+
+			if (size < heap.length)
+			{
+				heap[size] = i;
+				siftUp(heap, size++, scores);
+			}
+			else if (size > 0 && s > scores[heap[0]])
+			{
+				heap[0] = i;
+				siftDown(heap, size, scores);
+			}
+		}
+
+		// Pop in ascending order and fill from the end
+		int[] top = new int[size];
+		for (int n = size; n > 0; n--)
+		{
+			top[n - 1] = heap[0];
+			heap[0] = heap[n - 1];
+			siftDown(heap, n - 1, scores);
+		}
+		return top;
+	}
+
+	private static void siftUp(int[] heap, int i, double[] scores)
+	{
+		while (i > 0)
+		{
+			int parent = (i - 1) / 2;
+			if (scores[heap[parent]] <= scores[heap[i]]) break;
+			swap(heap, i, parent);
+			i = parent;
+		}
+	}
+
+	private static void siftDown(int[] heap, int size, double[] scores)
+	{
+		int i = 0;
+		while (true)
+		{
+			int min = i;
+			int l = 2 * i + 1;
+			int r = l + 1;
+			if (l < size && scores[heap[l]] < scores[heap[min]]) min = l;
+			if (r < size && scores[heap[r]] < scores[heap[min]]) min = r;
+			if (min == i) return;
+			swap(heap, i, min);
+			i = min;
+		}
+	}
+
+	private static void swap(int[] a, int i, int j)
+	{
+		int t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+
+	/**
+	 * Converts the scores of a batch to percentile ranks within each kinase, using the batch itself as the reference
+	 * distribution. The rank of a score is the percentage of the batch scores of that kinase that are less than or
+	 * equal to it.
+	 *
+	 * @param scores indexed by peptide then kinase, as scoreBatch returns
+	 * @return ranks in the same layout, NaN where the score is NaN
+	 */
+	public static double[][] percentileRanks(double[][] scores)
+	{
+		int n = scores.length;
+		if (n == 0) return new double[0][];
+		int k = scores[0].length;
+		double[][] ranks = new double[n][k];
+
+		IntStream.range(0, k).parallel().forEach(j ->
+		{
+			double[] col = new double[n];
+			int m = 0;
+			for (double[] row : scores)
+			{
+				if (!Double.isNaN(row[j])) col[m++] = row[j];
+			}
+			Arrays.sort(col, 0, m);
+
+			for (int i = 0; i < n; i++)
+			{
+				double s = scores[i][j];
+				ranks[i][j] = Double.isNaN(s) ? Double.NaN : 100D * upperBound(col, m, s) / m;
+			}
+		});
+		return ranks;
+	}
+
+	/**
+	 * Number of values in the sorted array prefix that are less than or equal to the value.
+	 */
+	static int upperBound(double[] sorted, int length, double value)
+	{
+		int lo = 0, hi = length;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (sorted[mid] <= value) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	// Section: Benchmark
+
+	/**
+	 * Scores random peptides with the map based peptideScore and with the compiled batch, and prints the timings.
+	 */
+	public static void main(String[] args)
+	{
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+		KinaseLibrary lib = new KinaseLibrary();
+		KinaseMatrix matrix = lib.getMatrix();
+
+		String aa = "ACDEFGHIKLMNPQRSTVWY";
+		Random r = new Random(1);
+		List<String> peptides = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+		{
+			char[] c = new char[matrix.getPeptideLength()];
+			for (int j = 0; j < c.length; j++) c[j] = aa.charAt(r.nextInt(aa.length()));
+			c[matrix.getAcceptorIndex()] = r.nextBoolean() ? 's' : 't';
+			peptides.add(new String(c));
+		}
+
+		int mapCount = Math.min(count, 2000);
+		long t = System.currentTimeMillis();
+		double sum = 0;
+		for (String pep : peptides.subList(0, mapCount))
+		{
+			sum += lib.peptideScoreWithMaps(pep).values().stream().mapToDouble(Double::doubleValue).sum();
+		}
+		long mapTime = System.currentTimeMillis() - t;
+
+		t = System.currentTimeMillis();
+		double[][] scores = matrix.scoreBatch(peptides);
+		long batchTime = System.currentTimeMillis() - t;
+
+		t = System.currentTimeMillis();
+		double[][] ranks = percentileRanks(scores);
+		int[] top = topK(scores[0], 5);
+		long rankTime = System.currentTimeMillis() - t;
+
+		System.out.println(matrix.getKinaseCount() + " kinases");
+		System.out.println("Maps: " + (mapTime * 1000 / mapCount) + " us per peptide (" + sum + ")");
+		System.out.println("Compiled batch: " + (batchTime * 1000000 / count) + " ns per peptide, " + count +
+			" peptides in " + batchTime + " ms");
+		System.out.println("Percentile ranks: " + rankTime + " ms, top kinase of the first peptide: " +
+			matrix.getKinase(top[0]) + " at " + ranks[0][top[0]]);
+	}
+}
@@ -0,0 +1,567 @@
+package org.panda.resource;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Scores every S, T and Y of a set of proteins against all kinase library matrices, and writes the best scoring
+ * kinases of each site to a compact binary file, sorted by protein ID and position.
+ *
+ * Proteins are processed in batches, in parallel within a batch, and each batch is written before the next one is
+ * scored, so memory use does not grow with the proteome. Sequence windows are copied from the SequenceStore into
+ * reused byte buffers, and scored with the compiled KinaseMatrix, so no strings are created for the sites.
+ *
+ * For each site the file also keeps a floor, which is the best score among the kinases that are not kept. When only
+ * some matrices change, the update method rescores only the changed kinases, and merges them with the kept scores of
+ * the other kinases. The merge is exact whenever the new k-th best score is not below the floor, because no kinase
+ * that was dropped can then enter the list. The other sites are scored again against all kinases.
+ */
+public class KinaseSitePredictor
+{
+	private static final int MAGIC = 0x4B535031;
+	private static final int VERSION = 2;
+
+	/**
+	 * Number of proteins that are scored in parallel before their results are written.
+	 */
+	private static final int BATCH = 512;
+
+	private final KinaseMatrix matrix;
+	private final SequenceStore store;
+	private final IntPredicate proteinFilter;
+	private final int top;
+
+	private final LongAdder scoredSites = new LongAdder();
+	private final LongAdder mergedSites = new LongAdder();
+
+	/**
+	 * @param proteinFilter selects the indices of the proteins in the store that are scored
+	 * @param top number of kinases to keep for each site
+	 */
+	public KinaseSitePredictor(KinaseMatrix matrix, SequenceStore store, IntPredicate proteinFilter, int top)
+	{
+		if (top < 1 || top > Byte.MAX_VALUE) throw new IllegalArgumentException("top has to be in 1..127. top = " + top);
+
+		this.matrix = matrix;
+		this.store = store;
+		this.proteinFilter = proteinFilter;
+		this.top = top;
+	}
+
+	/**
+	 * Number of sites that were scored against all kinases in the last run.
+	 */
+	public long getScoredSiteCount()
+	{
+		return scoredSites.sum();
+	}
+
+	/**
+	 * Number of sites whose kept scores were reused in the last run.
+	 */
+	public long getMergedSiteCount()
+	{
+		return mergedSites.sum();
+	}
+
+	// Section: Running
+
+	/**
+	 * Brings the result file up to date. If the file is from the same sequences and settings, only the kinases whose
+	 * matrices changed are scored. Otherwise all sites are scored.
+	 *
+	 * @return false if the file was already up to date, true if it is written
+	 */
+	public boolean update(String file) throws IOException
+	{
+		Path path = Paths.get(file);
+		long seqPrint = store.fingerprint(proteinFilter);
+
+		if (Files.exists(path))
+		{
+			Header old;
+			try (DataInputStream in = open(file))
+			{
+				old = Header.read(in);
+			}
+			catch (IOException e)
+			{
+				old = null;
+			}
+
+			if (old != null && old.top == top && old.peptideLength == matrix.getPeptideLength() &&
+				old.acceptorIndex == matrix.getAcceptorIndex() && old.sequencePrint == seqPrint)
+			{
+				Delta delta = new Delta(old);
+				if (delta.changed.length == 0 && delta.removed == 0) return false;
+
+				write(file, seqPrint, delta);
+				return true;
+			}
+		}
+
+		write(file, seqPrint, null);
+		return true;
+	}
+
+	/**
+	 * Scores all sites and writes the result file, whether or not it is up to date.
+	 */
+	public void run(String file) throws IOException
+	{
+		write(file, store.fingerprint(proteinFilter), null);
+	}
+
+	/**
+	 * Writes to a temporary file, which is moved in place at the end. In the incremental mode the existing file is
+	 * read while the new one is written.
+	 */
+	private void write(String file, long seqPrint, Delta delta) throws IOException
+	{
+		scoredSites.reset();
+		mergedSites.reset();
+
+		int[] order = IntStream.range(0, store.size()).filter(proteinFilter).boxed()
+			.sorted(Comparator.comparing(store::getID)).mapToInt(Integer::intValue).toArray();
+
+		Path path = Paths.get(file);
+		Path temp = Paths.get(file + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 20));
+			 OldResults old = delta == null ? null : new OldResults(file))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(top);
+			out.writeInt(matrix.getPeptideLength());
+			out.writeInt(matrix.getAcceptorIndex());
+			out.writeLong(seqPrint);
+			out.writeInt(matrix.getKinaseCount());
+			for (int i = 0; i < matrix.getKinaseCount(); i++)
+			{
+				out.writeUTF(matrix.getKinase(i));
+				out.writeLong(matrix.fingerprint(i));
+			}
+
+			for (int from = 0; from < order.length; from += BATCH)
+			{
+				int to = Math.min(order.length, from + BATCH);
+				int start = from;
+
+				ProteinSites[] previous = new ProteinSites[to - from];
+				if (old != null)
+				{
+					for (int i = from; i < to; i++) previous[i - from] = old.next(store.getID(order[i]));
+				}
+
+				ProteinSites[] results = new ProteinSites[to - from];
+				IntStream.range(from, to).parallel().forEach(i ->
+					results[i - start] = predict(order[i], previous[i - start], delta));
+
+				for (ProteinSites sites : results)
+				{
+					if (sites.size > 0) sites.write(out);
+				}
+			}
+			out.writeUTF("");
+		}
+
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Scores the sites of one protein.
+	 *
+	 * @param old results of the protein in the existing file, or null
+	 * @param delta the difference of the matrices from the existing file, or null
+	 */
+	private ProteinSites predict(int protIdx, ProteinSites old, Delta delta)
+	{
+		int before = matrix.getAcceptorIndex();
+		int after = matrix.getPeptideLength() - before - 1;
+		byte[] window = new byte[matrix.getPeptideLength()];
+		double[] scores = new double[matrix.getKinaseCount()];
+
+		ProteinSites sites = new ProteinSites(store.getID(protIdx), top);
+
+		int o = 0;
+		for (int pos = 1; pos <= store.length(protIdx); pos++)
+		{
+			char aa = store.aminoAcidAt(protIdx, pos);
+			if (aa != 'S' && aa != 'T' && aa != 'Y') continue;
+
+			store.copyWindow(protIdx, pos, before, after, window, 0, KinaseMatrix.PAD);
+
+			if (old != null)
+			{
+				while (o < old.size && old.position[o] < pos) o++;
+				if (o < old.size && old.position[o] == pos && merge(old, o, delta, window, scores, sites))
+				{
+					mergedSites.increment();
+					continue;
+				}
+			}
+
+			matrix.scoreAll(window, 0, scores, 0);
+			sites.add(pos, aa, scores, KinaseMatrix.topK(scores, top + 1), Float.NEGATIVE_INFINITY);
+			scoredSites.increment();
+		}
+		return sites;
+	}
+
+	/**
+	 * Scores the changed kinases for an existing site and merges them with the kept scores of the unchanged kinases.
+	 *
+	 * @return false if the merge cannot be trusted, and the site has to be scored against all kinases
+	 */
+	private boolean merge(ProteinSites old, int o, Delta delta, byte[] window, double[] scores, ProteinSites sites)
+	{
+		Arrays.fill(scores, Double.NaN);
+
+		for (int i = 0; i < old.count[o]; i++)
+		{
+			int kinase = delta.oldToNew[old.kinase[o * top + i]];
+			if (kinase >= 0) scores[kinase] = old.score[o * top + i];
+		}
+		for (int kinase : delta.changed)
+		{
+			scores[kinase] = matrix.score(kinase, window, 0);
+		}
+
+		int[] best = KinaseMatrix.topK(scores, top + 1);
+		float floor = old.floor[o];
+
+		if (floor != Float.NEGATIVE_INFINITY && (best.length < top || (float) scores[best[top - 1]] < floor))
+		{
+			return false;
+		}
+
+		sites.add(old.position[o], (char) old.residue[o], scores, best, floor);
+		return true;
+	}
+
+	private static DataInputStream open(String file) throws IOException
+	{
+		return new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(file)), 1 << 20));
+	}
+
+	// Section: File structures
+
+	/**
+	 * The settings and the kinases that a result file was written with.
+	 */
+	private static class Header
+	{
+		int top;
+		int peptideLength;
+		int acceptorIndex;
+		long sequencePrint;
+		String[] kinases;
+		long[] kinasePrints;
+
+		static Header read(DataInput in) throws IOException
+		{
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+			{
+				throw new IOException("Not a kinase site prediction file of version " + VERSION);
+			}
+
+			Header h = new Header();
+			h.top = in.readInt();
+			h.peptideLength = in.readInt();
+			h.acceptorIndex = in.readInt();
+			h.sequencePrint = in.readLong();
+
+			int n = in.readInt();
+			h.kinases = new String[n];
+			h.kinasePrints = new long[n];
+			for (int i = 0; i < n; i++)
+			{
+				h.kinases[i] = in.readUTF();
+				h.kinasePrints[i] = in.readLong();
+			}
+			return h;
+		}
+	}
+
+	/**
+	 * Which kinases of the existing file can be reused.
+	 */
+	private class Delta
+	{
+		/**
+		 * Kinase index in the existing file to the index in the current matrix, or -1 if the matrix changed or the
+		 * kinase is removed.
+		 */
+		final int[] oldToNew;
+
+		/**
+		 * Indices of the kinases that are new or whose matrix changed.
+		 */
+		final int[] changed;
+
+		/**
+		 * Number of kinases that are no longer in the library.
+		 */
+		final int removed;
+
+		Delta(Header old)
+		{
+			Map<String, Integer> oldIndex = new HashMap<>();
+			for (int i = 0; i < old.kinases.length; i++) oldIndex.put(old.kinases[i], i);
+
+			oldToNew = new int[old.kinases.length];
+			Arrays.fill(oldToNew, -1);
+			List<Integer> changedList = new ArrayList<>();
+
+			for (int i = 0; i < matrix.getKinaseCount(); i++)
+			{
+				Integer o = oldIndex.get(matrix.getKinase(i));
+				if (o != null && old.kinasePrints[o] == matrix.fingerprint(i)) oldToNew[o] = i;
+				else changedList.add(i);
+			}
+
+			changed = changedList.stream().mapToInt(Integer::intValue).toArray();
+			removed = (int) Arrays.stream(old.kinases).filter(k -> matrix.indexOf(k) < 0).count();
+		}
+	}
+
+	/**
+	 * The kept kinases of the sites of a protein, in flat arrays. Kinases of the site i are at i * top onwards.
+	 */
+	private static class ProteinSites
+	{
+		final String id;
+		final int top;
+		int size;
+		int[] position = new int[16];
+		byte[] residue = new byte[16];
+		float[] floor = new float[16];
+		byte[] count = new byte[16];
+		short[] kinase;
+		float[] score;
+
+		ProteinSites(String id, int top)
+		{
+			this.id = id;
+			this.top = top;
+			kinase = new short[16 * top];
+			score = new float[16 * top];
+		}
+
+		/**
+		 * @param best indices of the best scores in descending order, up to top + 1 of them
+		 * @param knownFloor the floor that is already known for the site
+		 */
+		void add(int pos, char aa, double[] scores, int[] best, float knownFloor)
+		{
+			int n = Math.min(top, best.length);
+			if (n == 0) return;
+
+			if (size == position.length)
+			{
+				int cap = size * 2;
+				position = Arrays.copyOf(position, cap);
+				residue = Arrays.copyOf(residue, cap);
+				floor = Arrays.copyOf(floor, cap);
+				count = Arrays.copyOf(count, cap);
+				kinase = Arrays.copyOf(kinase, cap * top);
+				score = Arrays.copyOf(score, cap * top);
+			}
+
+			position[size] = pos;
+			residue[size] = (byte) aa;
+			count[size] = (byte) n;
+			for (int i = 0; i < n; i++)
+			{
+				kinase[size * top + i] = (short) best[i];
+				score[size * top + i] = (float) scores[best[i]];
+			}
+			floor[size] = best.length > top ? Math.max(knownFloor, (float) scores[best[top]]) : knownFloor;
+			size++;
+		}
+
+		void write(DataOutput out) throws IOException
+		{
+			out.writeUTF(id);
+			out.writeInt(size);
+			for (int i = 0; i < size; i++)
+			{
+				out.writeInt(position[i]);
+				out.writeByte(residue[i]);
+				out.writeFloat(floor[i]);
+				out.writeByte(count[i]);
+				for (int j = 0; j < count[i]; j++)
+				{
+					out.writeShort(kinase[i * top + j]);
+					out.writeFloat(score[i * top + j]);
+				}
+			}
+		}
+
+		/**
+		 * @return the next protein, or null at the end of the file
+		 */
+		static ProteinSites read(DataInput in, int top) throws IOException
+		{
+			String id = in.readUTF();
+			if (id.isEmpty()) return null;
+
+			ProteinSites sites = new ProteinSites(id, top);
+			int n = in.readInt();
+			sites.position = new int[n];
+			sites.residue = new byte[n];
+			sites.floor = new float[n];
+			sites.count = new byte[n];
+			sites.kinase = new short[n * top];
+			sites.score = new float[n * top];
+
+			for (int i = 0; i < n; i++)
+			{
+				sites.position[i] = in.readInt();
+				sites.residue[i] = in.readByte();
+				sites.floor[i] = in.readFloat();
+				sites.count[i] = in.readByte();
+				for (int j = 0; j < sites.count[i]; j++)
+				{
+					sites.kinase[i * top + j] = in.readShort();
+					sites.score[i * top + j] = in.readFloat();
+				}
+			}
+			sites.size = n;
+			return sites;
+		}
+	}
+
+	/**
+	 * Walks the proteins of the existing file along with the new ones.
+	 */
+	private static class OldResults implements Closeable
+	{
+		private final DataInputStream in;
+		private final int top;
+		private ProteinSites pending;
+
+		OldResults(String file) throws IOException
+		{
+			in = open(file);
+			top = Header.read(in).top;
+			pending = ProteinSites.read(in, top);
+		}
+
+		/**
+		 * @return results of the protein, or null if the file has none. IDs have to be asked in sorted order.
+		 */
+		ProteinSites next(String id) throws IOException
+		{
+			while (pending != null && pending.id.compareTo(id) < 0) pending = ProteinSites.read(in, top);
+
+			if (pending == null || !pending.id.equals(id)) return null;
+
+			ProteinSites sites = pending;
+			pending = ProteinSites.read(in, top);
+			return sites;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			in.close();
+		}
+	}
+
+	// Section: Reading
+
+	public interface SiteConsumer
+	{
+		void accept(String protein, int position, char residue, String kinase, double score);
+	}
+
+	/**
+	 * Passes the kept kinases of each site in the file to the consumer, in the order of the file, which is by protein
+	 * ID, then by position, then by descending score.
+	 */
+	public static void read(String file, SiteConsumer consumer) throws IOException
+	{
+		try (DataInputStream in = open(file))
+		{
+			Header h = Header.read(in);
+			for (ProteinSites sites = ProteinSites.read(in, h.top); sites != null; sites = ProteinSites.read(in, h.top))
+			{
+				for (int i = 0; i < sites.size; i++)
+				{
+					for (int j = 0; j < sites.count[i]; j++)
+					{
+						consumer.accept(sites.id, sites.position[i], (char) sites.residue[i],
+							h.kinases[sites.kinase[i * h.top + j]], sites.score[i * h.top + j]);
+					}
+				}
+			}
+		}
+	}
+
+	// Section: Benchmark
+
+	/**
+	 * Times a full run over the human proteome, an update without changes, and the per-site getSeqAround and
+	 * peptideScore calls that the pipeline replaces.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		String file = args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir") + "/kinase-sites.bin";
+
+		UniProtSequence ups = UniProtSequence.get();
+		SequenceStore store = ups.getStore();
+		KinaseLibrary lib = new KinaseLibrary();
+		IntPredicate human = ups.getHumanFilter();
+
+		KinaseSitePredictor predictor = new KinaseSitePredictor(lib.getMatrix(), store, human, 10);
+
+		long t = System.currentTimeMillis();
+		predictor.run(file);
+		long full = System.currentTimeMillis() - t;
+		long sites = predictor.getScoredSiteCount();
+		System.out.println("Full run: " + sites + " sites against " + lib.getMatrix().getKinaseCount() +
+			" kinases in " + full + " ms, " + (sites * 1000 / Math.max(1, full)) + " sites/s, " +
+			(new File(file).length() >> 20) + " MB");
+
+		t = System.currentTimeMillis();
+		boolean written = predictor.update(file);
+		System.out.println("Update without changes: " + (written ? "written" : "up to date") + " in " +
+			(System.currentTimeMillis() - t) + " ms");
+
+		// The per-site calls on a sample of the same sites
+		int sample = 0;
+		t = System.currentTimeMillis();
+		for (int p = 0; p < store.size() && sample < 20000; p++)
+		{
+			if (!human.test(p)) continue;
+			String id = store.getID(p);
+			for (int pos = 6; pos <= store.length(p) - 5 && sample < 20000; pos++)
+			{
+				char aa = store.aminoAcidAt(p, pos);
+				if (aa != 'S' && aa != 'T' && aa != 'Y') continue;
+
+				String seq = ups.getSeqAround(id, pos, 11).substring(0, 10);
+				try
+				{
+					lib.peptideScore(seq);
+				}
+				catch (RuntimeException e)
+				{
+					// Residues that are not in the matrices
+				}
+				sample++;
+			}
+		}
+		long perSite = System.currentTimeMillis() - t;
+		System.out.println("Per-site calls: " + (sample * 1000L / Math.max(1, perSite)) + " sites/s");
+	}
+}
@@ -0,0 +1,124 @@
+package org.panda.resource;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Rows of a large matrix file that are read on first access through a MatrixRowIndex, and kept in a cache of bounded
+ * size. When the cache is full, the least recently used row is dropped. Useful when a service reads a small and
+ * changing set of rows from a matrix that is too large to keep in memory.
+ *
+ * @param <T> type of the converted rows, like double[] or byte[]
+ */
+public class LazyRowCache<T>
+{
+	private final MatrixRowIndex index;
+	private final NumericTableReader reader;
+	private final int firstValueColumn;
+	private final RowConverter<T> converter;
+	private final int capacity;
+
+	private final LinkedHashMap<String, T> cache;
+
+	/**
+	 * Converts the parsed values of a line to the row to cache.
+	 */
+	public interface RowConverter<T>
+	{
+		/**
+		 * @param values the numbers in the value columns, where values[j] is from the column firstValueColumn + j
+		 */
+		T convert(double[] values);
+	}
+
+	/**
+	 * @param capacity maximum number of rows in the cache
+	 */
+	public LazyRowCache(MatrixRowIndex index, NumericTableReader reader, int firstValueColumn, int capacity,
+		RowConverter<T> converter)
+	{
+		if (capacity < 1) throw new IllegalArgumentException("Cache capacity has to be positive: " + capacity);
+
+		this.index = index;
+		this.reader = reader;
+		this.firstValueColumn = firstValueColumn;
+		this.capacity = capacity;
+		this.converter = converter;
+
+		cache = new LinkedHashMap<String, T>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, T> eldest)
+			{
+				return size() > LazyRowCache.this.capacity;
+			}
+		};
+	}
+
+	public MatrixRowIndex getIndex()
+	{
+		return index;
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * @return number of the rows in the cache
+	 */
+	public synchronized int size()
+	{
+		return cache.size();
+	}
+
+	/**
+	 * Gets the row of the ID, reading it from the file if it is not in the cache.
+	 *
+	 * @return the row, or null if the ID is not in the file
+	 */
+	public synchronized T get(String id)
+	{
+		T row = cache.get(id);
+		if (row != null || !index.hasID(id)) return row;
+
+		fetch(Collections.singleton(id));
+		return cache.get(id);
+	}
+
+	/**
+	 * Reads the rows of the IDs that are not in the cache with one pass over the file. Calling this before reading
+	 * many rows saves a seek for each row. Only the last rows are kept if there are more IDs than the capacity.
+	 */
+	public synchronized void prefetch(Collection<String> ids)
+	{
+		List<String> missing = new ArrayList<>();
+		for (String id : ids)
+		{
+			if (!cache.containsKey(id) && index.hasID(id)) missing.add(id);
+		}
+		if (!missing.isEmpty()) fetch(missing);
+	}
+
+	private void fetch(Collection<String> ids)
+	{
+		try
+		{
+			index.readRows(ids, reader, firstValueColumn, (labels, values) ->
+			{
+				cache.put(index.getID(labels[0]), converter.convert(values));
+				return true;
+			});
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	public synchronized void clear()
+	{
+		cache.clear();
+	}
+}
@@ -0,0 +1,543 @@
+package org.panda.resource;
+
+import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Converts genomic positions from one assembly to another using a UCSC chain file, like the UCSC liftOver tool does
+ * for single bases. A chain is an alignment between a source and a target chromosome, made of gapless blocks. The
+ * blocks of all chains are indexed per source chromosome in arrays sorted on the block start, augmented with the
+ * running maximum of the block ends, so a position is converted with a binary search. When the blocks of several
+ * chains cover a position, the chain with the highest score is used.
+ *
+ * Positions are 1-based, as in GenomeAssembly. Chromosome names are normalized by dropping a leading "chr", so the
+ * converted positions can be queried on the GenomeAssembly of the target.
+ */
+public abstract class LiftOver extends FileServer
+{
+	/**
+	 * Target chromosome of each chain.
+	 */
+	private String[] chainTargets;
+
+	/**
+	 * Length of the target chromosome of each chain, and whether the chain is on the reverse strand of the target.
+	 */
+	private int[] chainTargetSizes;
+	private boolean[] chainReverse;
+
+	private long[] chainScores;
+
+	/**
+	 * Blocks of the chains on each source chromosome.
+	 */
+	private Map<String, Blocks> blocks;
+
+	/**
+	 * Gets the converter between the given assemblies. Both the GRC and the UCSC names are accepted, like "GRCh37" and
+	 * "hg19".
+	 *
+	 * @throws IllegalArgumentException if there is no chain file for the assemblies
+	 */
+	public static LiftOver get(String from, String to)
+	{
+		String key = canonical(from) + ">" + canonical(to);
+		switch (key)
+		{
+			case "GRCh37>GRCh38": return Hg19ToHg38.get();
+			case "GRCh38>GRCh37": return Hg38ToHg19.get();
+			default: throw new IllegalArgumentException("No liftover from " + from + " to " + to);
+		}
+	}
+
+	private static String canonical(String assembly)
+	{
+		switch (assembly.toLowerCase())
+		{
+			case "grch37": case "hg19": case "hg37": return "GRCh37";
+			case "grch38": case "hg38": return "GRCh38";
+			default: return assembly;
+		}
+	}
+
+	/**
+	 * @return the GRC name of the assembly that is converted from
+	 */
+	public abstract String getSourceAssembly();
+
+	/**
+	 * @return the GRC name of the assembly that is converted to
+	 */
+	public abstract String getTargetAssembly();
+
+	/**
+	 * @return the source chromosomes that have chains
+	 */
+	public Set<String> getChromosomes()
+	{
+		return Collections.unmodifiableSet(blocks.keySet());
+	}
+
+	/**
+	 * A converted position.
+	 */
+	public static class Position
+	{
+		public final String chr;
+		public final int position;
+
+		/**
+		 * Whether the position is on the reverse strand of the target, relative to the source.
+		 */
+		public final boolean reverse;
+
+		public Position(String chr, int position, boolean reverse)
+		{
+			this.chr = chr;
+			this.position = position;
+			this.reverse = reverse;
+		}
+
+		@Override
+		public String toString()
+		{
+			return chr + ":" + position + (reverse ? " (-)" : "");
+		}
+	}
+
+	// Section: Conversion
+
+	/**
+	 * @return the position on the target assembly, or null if the position is not in any chain
+	 */
+	public Position convert(String chr, int position)
+	{
+		Blocks b = blocks.get(GenomicIntervalIndex.normalize(chr));
+		if (b == null) return null;
+
+		int i = b.find(position - 1);
+		return i < 0 ? null : new Position(chainTargets[b.chains[i]], b.getTargetPosition(i, position - 1),
+			chainReverse[b.chains[i]]);
+	}
+
+	/**
+	 * Converts the positions in parallel, without creating objects for the converted positions.
+	 *
+	 * @param targetChrs filled with the target chromosome of each position, null for the positions that cannot be
+	 * converted
+	 * @return the target position of each position, -1 for the positions that cannot be converted
+	 */
+	public int[] convert(String[] chrs, int[] positions, String[] targetChrs)
+	{
+		int[] result = new int[positions.length];
+		IntStream.range(0, positions.length).parallel().forEach(j ->
+		{
+			Blocks b = blocks.get(GenomicIntervalIndex.normalize(chrs[j]));
+			int i = b == null ? -1 : b.find(positions[j] - 1);
+
+			if (i < 0)
+			{
+				result[j] = -1;
+				targetChrs[j] = null;
+			}
+			else
+			{
+				result[j] = b.getTargetPosition(i, positions[j] - 1);
+				targetChrs[j] = chainTargets[b.chains[i]];
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Converts both ends of the range. The range is converted only if both ends are on the same target chromosome and
+	 * strand.
+	 *
+	 * @return start and end of the range on the target, in increasing order, or null if it cannot be converted
+	 */
+	public Position[] convertRange(String chr, int start, int end)
+	{
+		Position s = convert(chr, start);
+		Position e = convert(chr, end);
+		if (s == null || e == null || !s.chr.equals(e.chr) || s.reverse != e.reverse) return null;
+		return s.position <= e.position ? new Position[]{s, e} : new Position[]{e, s};
+	}
+
+	// Section: Loading
+
+	@Override
+	public boolean load() throws IOException
+	{
+		List<String> targets = new ArrayList<>();
+		int[] sizes = new int[1024];
+		boolean[] reverse = new boolean[1024];
+		long[] scores = new long[1024];
+		Map<String, BlockBuilder> builders = new HashMap<>();
+		Map<String, String> targetPool = new HashMap<>();
+
+		try (BufferedReader reader = getResourceReader(getLocalFilenames()[0]))
+		{
+			if (reader == null) return false;
+
+			BlockBuilder current = null;
+			int chain = -1;
+			int source = 0, target = 0;
+			int[] num = new int[3];
+
+			for (String line = reader.readLine(); line != null; line = reader.readLine())
+			{
+				if (line.isEmpty() || line.startsWith("#")) continue;
+
+				if (line.startsWith("chain"))
+				{
+					String[] t = line.split("\\s+");
+					if (t[4].equals("-")) throw new IOException("Chain on the reverse strand of the source: " + line);
+
+					chain = targets.size();
+					if (chain == sizes.length)
+					{
+						sizes = Arrays.copyOf(sizes, chain * 2);
+						reverse = Arrays.copyOf(reverse, chain * 2);
+						scores = Arrays.copyOf(scores, chain * 2);
+					}
+
+					String tChr = GenomicIntervalIndex.normalize(t[7]);
+					targets.add(targetPool.computeIfAbsent(tChr, k -> k));
+					scores[chain] = (long) Double.parseDouble(t[1]);
+					sizes[chain] = Integer.parseInt(t[8]);
+					reverse[chain] = t[9].equals("-");
+
+					current = builders.computeIfAbsent(GenomicIntervalIndex.normalize(t[2]), k -> new BlockBuilder());
+					source = Integer.parseInt(t[5]);
+					target = Integer.parseInt(t[10]);
+					continue;
+				}
+
+				if (current == null) throw new IOException("Alignment data before a chain header: " + line);
+
+				// Block size, then the gaps on the source and the target, except on the last line of the chain
+				int n = parseInts(line, num);
+				current.add(source, source + num[0], target, chain);
+
+				if (n == 3)
+				{
+					source += num[0] + num[1];
+					target += num[0] + num[2];
+				}
+				else current = null;
+			}
+		}
+
+		int n = targets.size();
+		chainTargets = targets.toArray(new String[n]);
+		chainTargetSizes = Arrays.copyOf(sizes, n);
+		chainReverse = Arrays.copyOf(reverse, n);
+		chainScores = Arrays.copyOf(scores, n);
+
+		blocks = new HashMap<>();
+		builders.forEach((chr, builder) -> blocks.put(chr, builder.build()));
+		return true;
+	}
+
+	/**
+	 * Parses up to three whitespace separated non-negative integers.
+	 *
+	 * @return number of the parsed integers
+	 */
+	private static int parseInts(String line, int[] num)
+	{
+		int n = 0;
+		boolean inNumber = false;
+		for (int i = 0; i < line.length() && n < num.length; i++)
+		{
+			char c = line.charAt(i);
+			if (c >= '0' && c <= '9')
+			{
+				if (!inNumber) num[n] = 0;
+				num[n] = num[n] * 10 + (c - '0');
+				inNumber = true;
+			}
+			else if (inNumber)
+			{
+				n++;
+				inNumber = false;
+			}
+		}
+		return inNumber ? n + 1 : n;
+	}
+
+	// Section: Snapshot
+
+	@Override
+	protected boolean usesSnapshot()
+	{
+		return true;
+	}
+
+	@Override
+	protected void writeSnapshot(DataOutput out) throws IOException
+	{
+		out.writeInt(chainTargets.length);
+		for (int i = 0; i < chainTargets.length; i++)
+		{
+			out.writeUTF(chainTargets[i]);
+			out.writeInt(chainTargetSizes[i]);
+			out.writeBoolean(chainReverse[i]);
+			out.writeLong(chainScores[i]);
+		}
+
+		out.writeInt(blocks.size());
+		for (Map.Entry<String, Blocks> entry : blocks.entrySet())
+		{
+			out.writeUTF(entry.getKey());
+			Blocks b = entry.getValue();
+			out.writeInt(b.starts.length);
+			for (int[] col : new int[][]{b.starts, b.ends, b.targets, b.chains})
+			{
+				for (int v : col) out.writeInt(v);
+			}
+		}
+	}
+
+	@Override
+	protected void readSnapshot(DataInput in) throws IOException
+	{
+		int n = in.readInt();
+		chainTargets = new String[n];
+		chainTargetSizes = new int[n];
+		chainReverse = new boolean[n];
+		chainScores = new long[n];
+		Map<String, String> targetPool = new HashMap<>();
+		for (int i = 0; i < n; i++)
+		{
+			chainTargets[i] = targetPool.computeIfAbsent(in.readUTF(), k -> k);
+			chainTargetSizes[i] = in.readInt();
+			chainReverse[i] = in.readBoolean();
+			chainScores[i] = in.readLong();
+		}
+
+		int chrs = in.readInt();
+		blocks = new HashMap<>();
+		for (int c = 0; c < chrs; c++)
+		{
+			String chr = in.readUTF();
+			int size = in.readInt();
+			int[][] cols = new int[4][size];
+			for (int[] col : cols)
+			{
+				for (int i = 0; i < size; i++) col[i] = in.readInt();
+			}
+			blocks.put(chr, new Blocks(cols[0], cols[1], cols[2], cols[3]));
+		}
+	}
+
+	// Section: Block index
+
+	/**
+	 * Collects the blocks of a source chromosome in file order.
+	 */
+	private class BlockBuilder
+	{
+		int[][] cols = new int[4][256];
+		int size;
+
+		void add(int start, int end, int target, int chain)
+		{
+			if (size == cols[0].length)
+			{
+				for (int c = 0; c < cols.length; c++) cols[c] = Arrays.copyOf(cols[c], size * 2);
+			}
+			cols[0][size] = start;
+			cols[1][size] = end;
+			cols[2][size] = target;
+			cols[3][size] = chain;
+			size++;
+		}
+
+		Blocks build()
+		{
+			// Sort on the start, and keep the block index in the lower bits
+			long[] keys = new long[size];
+			for (int i = 0; i < size; i++) keys[i] = ((long) cols[0][i] << 32) | i;
+			Arrays.sort(keys);
+
+			int[][] sorted = new int[4][size];
+			for (int i = 0; i < size; i++)
+			{
+				int j = (int) keys[i];
+				for (int c = 0; c < cols.length; c++) sorted[c][i] = cols[c][j];
+			}
+			return new Blocks(sorted[0], sorted[1], sorted[2], sorted[3]);
+		}
+	}
+
+	/**
+	 * Gapless blocks of the chains on a source chromosome, sorted on the start. Coordinates are 0-based, the ends are
+	 * exclusive, and the target starts are on the strand of the chain, as in the chain file.
+	 */
+	private class Blocks
+	{
+		final int[] starts;
+		final int[] ends;
+		final int[] targets;
+		final int[] chains;
+
+		/**
+		 * Largest end among the blocks up to each index.
+		 */
+		final int[] maxEnds;
+
+		Blocks(int[] starts, int[] ends, int[] targets, int[] chains)
+		{
+			this.starts = starts;
+			this.ends = ends;
+			this.targets = targets;
+			this.chains = chains;
+
+			maxEnds = new int[starts.length];
+			for (int i = 0; i < starts.length; i++)
+			{
+				maxEnds[i] = i == 0 ? ends[i] : Math.max(ends[i], maxEnds[i - 1]);
+			}
+		}
+
+		/**
+		 * @param position 0-based source position
+		 * @return index of the block of the highest scoring chain that covers the position, or -1
+		 */
+		int find(int position)
+		{
+			int lo = 0, hi = starts.length;
+			while (lo < hi)
+			{
+				int mid = (lo + hi) >>> 1;
+				if (starts[mid] <= position) lo = mid + 1;
+				else hi = mid;
+			}
+
+			int found = -1;
+			for (int i = lo - 1; i >= 0 && maxEnds[i] > position; i--)
+			{
+				if (ends[i] > position && (found < 0 || chainScores[chains[i]] > chainScores[chains[found]])) found = i;
+			}
+			return found;
+		}
+
+		/**
+		 * @param position 0-based source position in the block
+		 * @return 1-based position on the forward strand of the target
+		 */
+		int getTargetPosition(int block, int position)
+		{
+			int t = targets[block] + position - starts[block];
+			return chainReverse[chains[block]] ? chainTargetSizes[chains[block]] - t : t + 1;
+		}
+	}
+
+	// Section: Assembly pairs
+
+	/**
+	 * Converts GRCh37 positions to GRCh38.
+	 */
+	public static class Hg19ToHg38 extends LiftOver
+	{
+		private static Hg19ToHg38 instance;
+
+		public static synchronized Hg19ToHg38 get()
+		{
+			if (instance == null) instance = new Hg19ToHg38();
+			return instance;
+		}
+
+		@Override
+		public String getSourceAssembly()
+		{
+			return "GRCh37";
+		}
+
+		@Override
+		public String getTargetAssembly()
+		{
+			return "GRCh38";
+		}
+
+		@Override
+		public String[] getLocalFilenames()
+		{
+			return new String[]{"hg19ToHg38.over.chain"};
+		}
+
+		@Override
+		public String[] getDistantURLs()
+		{
+			return new String[]{"https://hgdownload.soe.ucsc.edu/goldenPath/hg19/liftOver/hg19ToHg38.over.chain.gz"};
+		}
+	}
+
+	/**
+	 * Converts GRCh38 positions to GRCh37.
+	 */
+	public static class Hg38ToHg19 extends LiftOver
+	{
+		private static Hg38ToHg19 instance;
+
+		public static synchronized Hg38ToHg19 get()
+		{
+			if (instance == null) instance = new Hg38ToHg19();
+			return instance;
+		}
+
+		@Override
+		public String getSourceAssembly()
+		{
+			return "GRCh38";
+		}
+
+		@Override
+		public String getTargetAssembly()
+		{
+			return "GRCh37";
+		}
+
+		@Override
+		public String[] getLocalFilenames()
+		{
+			return new String[]{"hg38ToHg19.over.chain"};
+		}
+
+		@Override
+		public String[] getDistantURLs()
+		{
+			return new String[]{"https://hgdownload.soe.ucsc.edu/goldenPath/hg38/liftOver/hg38ToHg19.over.chain.gz"};
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		LiftOver lift = get("hg19", "hg38");
+		System.out.println("TP53 start in GRCh38 = " + lift.convert("17", 7571720));
+
+		// Time converting random positions
+		String[] chrs = lift.getChromosomes().stream().filter(c -> c.matches("\\d+|X|Y")).toArray(String[]::new);
+		Random r = new Random(1);
+		int count = 5000000;
+		String[] c = new String[count];
+		int[] p = new int[count];
+		for (int i = 0; i < count; i++)
+		{
+			c[i] = chrs[r.nextInt(chrs.length)];
+			p[i] = 1 + r.nextInt(150000000);
+		}
+
+		long t = System.currentTimeMillis();
+		String[] targetChrs = new String[count];
+		int[] converted = lift.convert(c, p, targetChrs);
+		long mapped = Arrays.stream(converted).filter(v -> v > 0).count();
+		System.out.println(count + " positions converted in " + (System.currentTimeMillis() - t) + " ms, " + mapped +
+			" mapped");
+	}
+}
@@ -15,7 +15,6 @@ import org.panda.utility.CollectionUtil;
 import org.panda.utility.FileUtil;
 import org.panda.utility.Kronometre;
 import org.panda.utility.statistics.FDR;
-import org.panda.utility.statistics.FishersExactTest;
 
 import java.io.BufferedWriter;
 import java.io.FileInputStream;
@@ -41,6 +40,8 @@ public class MSigDB extends FileServer
 
 	private Map<String, Set<String>> geneSets;
 	private Map<String, String> urls;
+	private GeneSetCollection collection;
+	private EnrichmentEngine engine;
 
 	public static synchronized MSigDB get()
 	{
@@ -67,9 +68,11 @@ public class MSigDB extends FileServer
 
 			urls.put(name, url);
 
-			Set<String> genes = new HashSet<>(Arrays.asList(t).subList(2, t.length));
+			Set<String> genes = SymbolDictionary.internAll(Arrays.asList(t).subList(2, t.length));
 			geneSets.put(name, genes);
 		});
+		collection = null;
+		engine = null;
 
 		return true;
 	}
@@ -80,6 +83,8 @@ public class MSigDB extends FileServer
 		{
 			if (!filter.select(name)) geneSets.remove(name);
 		}
+		collection = null;
+		engine = null;
 	}
 
 	public void crop(Set<String> background, int minCountToKeepASet)
@@ -91,6 +96,8 @@ public class MSigDB extends FileServer
 			if (set.size() < minCountToKeepASet) remove.add(name);
 		});
 		remove.forEach(geneSets::remove);
+		collection = null;
+		engine = null;
 	}
 
 	public Map<String, Set<String>> getSetsNameFiltered(NameFilter filter)
@@ -108,6 +115,21 @@ public class MSigDB extends FileServer
 		return geneSets;
 	}
 
+	/**
+	 * Int-keyed version of the gene sets. Rebuilt after the sets are cropped.
+	 */
+	public synchronized GeneSetCollection getGeneSetCollection()
+	{
+		if (collection == null) collection = new GeneSetCollection(geneSets);
+		return collection;
+	}
+
+	public synchronized EnrichmentEngine getEnrichmentEngine()
+	{
+		if (engine == null) engine = new EnrichmentEngine(getGeneSetCollection());
+		return engine;
+	}
+
 	public Set<String> getAllGenes()
 	{
 		return geneSets.values().stream().flatMap(Set::stream).collect(Collectors.toSet());
@@ -138,48 +160,20 @@ public class MSigDB extends FileServer
 		Set<String> background = geneSets.values().stream().flatMap(Set::stream).collect(Collectors.toSet());
 		selectedGenes.retainAll(background);
 
-		Map<String, Integer> selectionGeneCnt = count(selectedGenes);
-
-		Map<String, Double> mapP = new HashMap<>();
-		Map<String, Double> mapL = new HashMap<>();
-
-		Set<Set<String>> memory = new HashSet<>();
-
-		selectionGeneCnt.keySet().forEach(name ->
-		{
-			// If two gene sets are exactly the same, we don't want to test them multiple times
-			Set<String> geneSet = geneSets.get(name);
-			if (memory.contains(geneSet)) return;
-			else memory.add(geneSet);
-
-			int size = background.size();
-			int featuredOverall = geneSets.get(name).size();
-			int selected = selectedGenes.size();
-			int featuredSelected = selectionGeneCnt.get(name);
-
-			double pval = FishersExactTest.calcEnrichmentPval(size, featuredOverall, selected, featuredSelected);
-
-			int maxPossibleHit = Math.min(featuredOverall, selected);
-
-			double limit = FishersExactTest.calcEnrichmentPval(size, featuredOverall, selected, maxPossibleHit);
-
-			mapP.put(name, pval);
-			mapL.put(name, limit);
-		});
-
-		return new Map[]{mapP, mapL};
+		return getEnrichmentEngine().test(selectedGenes, null, 0, Integer.MAX_VALUE).toArray();
 	}
 
-	private Map<String, Integer> count(Set<String> selectedGenes)
+	/**
+	 * Gets empirical enrichment pvals of gene sets, from random gene selections of the same size.
+	 * @return two maps, first is for pvals, second is for limits
+	 */
+	public Map<String, Double>[] getPermutationEnrichmentPvals(Set<String> selectedGenes, int permutations,
+		long seed)
 	{
-		Map<String, Integer> cnt = new HashMap<>();
-
-		for (String name : geneSets.keySet())
-		{
-			int c = CollectionUtil.countOverlap(geneSets.get(name), selectedGenes);
-			cnt.put(name, c);
-		}
-		return cnt;
+		PermutationEnrichment pe = new PermutationEnrichment(getGeneSetCollection());
+		pe.setMaxPermutations(permutations);
+		pe.setSeed(seed);
+		return pe.testByGenePermutation(selectedGenes, null, 0, Integer.MAX_VALUE).toArray();
 	}
 
 	public void writeEnrichmentResults(Set<String> selected, Set<String> background, int minMemberSize, String filename)
@@ -3,11 +3,7 @@ package org.panda.resource;
 import org.panda.utility.statistics.Histogram;
 import org.panda.utility.statistics.Summary;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.*;
 import java.util.*;
 
 /**
@@ -20,12 +16,12 @@ public class MatrixOfValuesDatasetReader
 {
 	protected String filename;
 
-	protected Map<String, Map<String, Double>> data;
+	protected NumericMatrix data;
 
 	protected boolean logTransform;
 
 	/**
-	 * Regexp for recognizing the separators of columns.
+	 * Regexp for recognizing the separators of columns. Has to match a single character, like "\t" or ",".
 	 */
 	protected String delimiter;
 
@@ -34,7 +30,6 @@ public class MatrixOfValuesDatasetReader
 	public MatrixOfValuesDatasetReader(String filename) throws FileNotFoundException
 	{
 		this.filename = filename;
-		this.data = new HashMap<>();
 		this.logTransform = false;
 		this.delimiter = "\t";
 	}
@@ -56,62 +51,60 @@ public class MatrixOfValuesDatasetReader
 
 	public void load(Set<String> genes) throws IOException
 	{
-		Optional<String> opt = Files.lines(Paths.get(filename)).filter(l -> !l.startsWith("#")).findFirst();
-		if (!opt.isPresent()) throw new RuntimeException("Cannot find file header.");
+		NumericTableReader reader = new NumericTableReader(NumericTableReader.toDelimiterChar(delimiter));
 
-		String[] header = opt.get().split(delimiter);
+		try (InputStream in = new BufferedInputStream(new FileInputStream(filename), 1 << 16))
+		{
+			String[] header = reader.readHeader(in);
+			if (header == null) throw new RuntimeException("Cannot find file header.");
+
+			data = new NumericMatrix(Arrays.copyOfRange(header, 1, header.length), false);
+			int[] cols = data.mapColumns(header, 1);
 
-		Files.lines(Paths.get(filename)).filter(l -> !l.startsWith("#")).skip(1).map(l -> l.split(delimiter))
-			.filter(t -> t.length >= header.length).forEach(t ->
+			reader.readRows(in, 1, labels -> genes == null || genes.contains(labels[0]), (labels, values) ->
 			{
-				if (genes != null && !genes.contains(t[0])) return;
+				// Skip the short lines
+				if (values.length < header.length - 1) return true;
 
-				for (int i = 1; i < header.length; i++)
+				if (logTransform)
 				{
-					Double val = t[i].equals("NA") ? Double.NaN : Double.parseDouble(t[i]);
-
-					if (logTransform) val = Math.log1p(val) / LOG2;
-
-					if (!data.containsKey(t[0])) data.put(t[0], new HashMap<>());
-					data.get(t[0]).put(header[i], val);
+					for (int i = 0; i < values.length; i++) values[i] = Math.log1p(values[i]) / LOG2;
 				}
+
+				int row = data.addRow(labels[0]);
+				data.set(row, values, cols, 1);
+				return true;
 			});
+		}
+	}
+
+	public NumericMatrix getMatrix()
+	{
+		return data;
 	}
 
 	public Set<String> getSamples()
 	{
-		Set<String> samples = new HashSet<>();
-		for (Map<String, Double> map : data.values())
-		{
-			samples.addAll(map.keySet());
-		}
-		return samples;
+		return new HashSet<>(data.getSamples());
 	}
 
 	public Set<String> getGenes()
 	{
-		return data.keySet();
+		return data.getIDs();
 	}
 
 	public boolean hasGene(String gene)
 	{
-		return data.containsKey(gene);
+		return data.hasID(gene);
 	}
 
+	/**
+	 * When the samples are the sample array of the matrix, the returned array is the row of the matrix, which must not
+	 * be modified.
+	 */
 	public double[] getGeneAlterationArray(String id, String[] samples)
 	{
-		if (data.containsKey(id))
-		{
-			double[] d = new double[samples.length];
-
-			for (int i = 0; i < samples.length; i++)
-			{
-				if (data.get(id).containsKey(samples[i])) d[i] = data.get(id).get(samples[i]);
-				else d[i] = Double.NaN;
-			}
-			return d;
-		}
-		return null;
+		return data.getRow(id, samples);
 	}
 
 	public void printStdevHistogram(double binSize)
@@ -119,7 +112,7 @@ public class MatrixOfValuesDatasetReader
 		Histogram h1 = new Histogram(binSize);
 		Histogram h2 = new Histogram(binSize);
 		h1.setBorderAtZero(true);
-		String[] samples = getSamples().toArray(new String[0]);
+		String[] samples = data.getSampleArray();
 		for (String gene : getGenes())
 		{
 			double[] vals = getGeneAlterationArray(gene, samples);
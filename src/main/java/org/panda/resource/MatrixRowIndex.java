@@ -0,0 +1,344 @@
+package org.panda.resource;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Byte offsets of the data lines of a large matrix file, keyed by the row label in the first column. The index is
+ * built with one scan of the file and saved as a sidecar file next to it, so that later loads of a subset of rows
+ * seek straight to those rows instead of scanning the whole file. The sidecar records the length and the modification
+ * time of the matrix file, and is rebuilt when the file changes.
+ *
+ * Like NumericTableReader, the index skips comment lines that start with '#', and empty lines.
+ */
+public class MatrixRowIndex
+{
+	private static final int MAGIC = 0x4D524931;
+	private static final int VERSION = 1;
+
+	/**
+	 * Requested rows that are closer than this are read with a single read, together with the lines between them.
+	 */
+	private static final int MAX_GAP = 64 << 10;
+
+	/**
+	 * Upper limit of the bytes of a single read.
+	 */
+	private static final int MAX_READ = 8 << 20;
+
+	private final File file;
+	private final String[] labels;
+	private final long[] offsets;
+	private final int[] lengths;
+
+	/**
+	 * Row of each ID. When an ID is repeated in the file, its last row is kept, as the readers do.
+	 */
+	private final Map<String, Integer> idIndex;
+
+	private final Function<String, String> idOf;
+
+	private MatrixRowIndex(File file, String[] labels, long[] offsets, int[] lengths, Function<String, String> idOf)
+	{
+		this.file = file;
+		this.labels = labels;
+		this.offsets = offsets;
+		this.lengths = lengths;
+		this.idOf = idOf;
+
+		idIndex = new LinkedHashMap<>();
+		for (int i = 0; i < labels.length; i++)
+		{
+			String id = idOf.apply(labels[i]);
+			if (id != null) idIndex.put(id, i);
+		}
+	}
+
+	/**
+	 * Reads the sidecar index of the file, or builds and saves it if it is missing or out of date. If the sidecar
+	 * cannot be saved, like in a read-only directory, the index is used from memory.
+	 *
+	 * @param headerLines number of lines before the data lines, not counting the comment lines
+	 * @param idOf converts a label in the first column to the row ID, or to null for the rows to leave out
+	 */
+	public static MatrixRowIndex get(String filename, int headerLines, char delimiter, Function<String, String> idOf)
+		throws IOException
+	{
+		File file = new File(filename);
+		File sidecar = getIndexFile(filename);
+
+		if (sidecar.exists())
+		{
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar), 1 << 16)))
+			{
+				MatrixRowIndex index = read(in, file, headerLines, delimiter, idOf);
+				if (index != null) return index;
+			}
+			catch (IOException e)
+			{
+				// An unreadable sidecar is built again
+			}
+		}
+
+		MatrixRowIndex index = build(file, headerLines, (byte) delimiter, idOf);
+
+		try
+		{
+			File tmp = new File(sidecar.getPath() + ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16)))
+			{
+				index.write(out, headerLines, delimiter);
+			}
+			Files.move(tmp.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e)
+		{
+			// The index is still used from memory
+		}
+
+		return index;
+	}
+
+	public static File getIndexFile(String filename)
+	{
+		return new File(filename + ".rowindex");
+	}
+
+	public Set<String> getIDs()
+	{
+		return Collections.unmodifiableSet(idIndex.keySet());
+	}
+
+	public boolean hasID(String id)
+	{
+		return idIndex.containsKey(id);
+	}
+
+	public int size()
+	{
+		return idIndex.size();
+	}
+
+	/**
+	 * @return the row ID of the label in the first column, or null if the row is left out of the index
+	 */
+	public String getID(String label)
+	{
+		return idOf.apply(label);
+	}
+
+	// Section: Building
+
+	private static MatrixRowIndex build(File file, int headerLines, byte delimiter, Function<String, String> idOf)
+		throws IOException
+	{
+		List<String> labels = new ArrayList<>();
+		long[] offsets = new long[1024];
+		int[] lengths = new int[1024];
+
+		try (InputStream in = new FileInputStream(file))
+		{
+			byte[] buf = new byte[8 << 20];
+			int len = 0;
+			long bufStart = 0;
+			int skip = headerLines;
+			boolean end = false;
+
+			while (!end)
+			{
+				int n = in.read(buf, len, buf.length - len);
+				if (n < 0) end = true;
+				else len += n;
+
+				int pos = 0;
+				while (pos < len)
+				{
+					int nl = ChunkedLineReader.indexOf(buf, pos, len, (byte) '\n');
+					if (nl == len && !end) break;
+
+					int lineEnd = nl > pos && buf[nl - 1] == '\r' ? nl - 1 : nl;
+
+					if (lineEnd > pos && buf[pos] != '#')
+					{
+						if (skip > 0) skip--;
+						else
+						{
+							int d = ChunkedLineReader.indexOf(buf, pos, lineEnd, delimiter);
+							int s = pos, e = d;
+							if (e - s > 1 && buf[s] == '"' && buf[e - 1] == '"')
+							{
+								s++;
+								e--;
+							}
+
+							int i = labels.size();
+							if (i == offsets.length)
+							{
+								offsets = Arrays.copyOf(offsets, i * 2);
+								lengths = Arrays.copyOf(lengths, i * 2);
+							}
+							labels.add(new String(buf, s, e - s, StandardCharsets.UTF_8));
+							offsets[i] = bufStart + pos;
+							lengths[i] = lineEnd - pos;
+						}
+					}
+					pos = nl + 1;
+				}
+
+				// Move the incomplete line to the start of the buffer
+				if (pos == 0 && len == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+				else if (pos > 0)
+				{
+					int rest = Math.max(0, len - pos);
+					System.arraycopy(buf, Math.min(pos, len), buf, 0, rest);
+					bufStart += Math.min(pos, len);
+					len = rest;
+				}
+			}
+		}
+
+		int n = labels.size();
+		return new MatrixRowIndex(file, labels.toArray(new String[n]), Arrays.copyOf(offsets, n),
+			Arrays.copyOf(lengths, n), idOf);
+	}
+
+	// Section: Reading rows
+
+	/**
+	 * Reads the rows of the given IDs with seeks, in the order of the file, and passes them to the consumer. IDs that
+	 * are not in the index are ignored. Nearby rows are fetched with a single read.
+	 */
+	public void readRows(Collection<String> ids, NumericTableReader reader, int firstValueColumn,
+		NumericTableReader.RowConsumer consumer) throws IOException
+	{
+		int[] rows = ids.stream().map(idIndex::get).filter(Objects::nonNull).mapToInt(Integer::intValue)
+			.distinct().toArray();
+		if (rows.length == 0) return;
+
+		// Sort the rows by their position in the file
+		Arrays.sort(rows);
+
+		Set<String> wanted = new HashSet<>();
+		for (int row : rows) wanted.add(labels[row]);
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			byte[] buf = new byte[0];
+			int i = 0;
+			while (i < rows.length)
+			{
+				// Extend the read while the next row is near and the read is not too large
+				long start = offsets[rows[i]];
+				long end = start + lengths[rows[i]];
+				int j = i + 1;
+				while (j < rows.length && offsets[rows[j]] - end <= MAX_GAP &&
+					offsets[rows[j]] + lengths[rows[j]] - start <= MAX_READ)
+				{
+					end = offsets[rows[j]] + lengths[rows[j]];
+					j++;
+				}
+
+				int len = (int) (end - start);
+				if (buf.length < len) buf = new byte[Math.max(len, buf.length * 2)];
+				ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+				long position = start;
+				while (bb.hasRemaining())
+				{
+					int n = channel.read(bb, position);
+					if (n < 0) throw new IOException("File is shorter than its row index: " + file);
+					position += n;
+				}
+
+				// Lines between the requested rows are skipped by the label filter
+				if (!reader.readRows(buf, 0, len, firstValueColumn, l -> wanted.contains(l[0]), consumer)) return;
+				i = j;
+			}
+		}
+	}
+
+	// Section: Persistence
+
+	private void write(DataOutputStream out, int headerLines, char delimiter) throws IOException
+	{
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(file.length());
+		out.writeLong(file.lastModified());
+		out.writeInt(headerLines);
+		out.writeChar(delimiter);
+		out.writeInt(labels.length);
+
+		for (int i = 0; i < labels.length; i++)
+		{
+			out.writeUTF(labels[i]);
+			out.writeLong(offsets[i]);
+			out.writeInt(lengths[i]);
+		}
+	}
+
+	/**
+	 * @return the index, or null if it is not of the current version of the file, or of other reading parameters
+	 */
+	private static MatrixRowIndex read(DataInputStream in, File file, int headerLines, char delimiter,
+		Function<String, String> idOf) throws IOException
+	{
+		if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+		if (in.readLong() != file.length() || in.readLong() != file.lastModified()) return null;
+		if (in.readInt() != headerLines || in.readChar() != delimiter) return null;
+
+		int n = in.readInt();
+		String[] labels = new String[n];
+		long[] offsets = new long[n];
+		int[] lengths = new int[n];
+
+		for (int i = 0; i < n; i++)
+		{
+			labels[i] = in.readUTF();
+			offsets[i] = in.readLong();
+			lengths[i] = in.readInt();
+		}
+
+		return new MatrixRowIndex(file, labels, offsets, lengths, idOf);
+	}
+
+	// Section: Benchmark
+
+	/**
+	 * Compares loading a random subset of the rows of a TCGA expression file with a full scan and with the row index.
+	 * The default is a subset of 300 genes.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		String file = args[0];
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+
+		List<String> genes = new ArrayList<>(get(file, 2, '\t', l -> l.split("\\|")[0]).getIDs());
+		Collections.shuffle(genes, new Random(1));
+		Set<String> subset = new HashSet<>(genes.subList(0, Math.min(count, genes.size())));
+
+		long t = System.currentTimeMillis();
+		org.panda.resource.tcga.ExpressionReader reader = new org.panda.resource.tcga.ExpressionReader(file);
+		System.out.println("Full load: " + (System.currentTimeMillis() - t) + " ms, " + reader.getGenes().size() +
+			" genes");
+
+		t = System.currentTimeMillis();
+		reader = new org.panda.resource.tcga.ExpressionReader(file, subset);
+		System.out.println("Indexed subset load: " + (System.currentTimeMillis() - t) + " ms, " +
+			reader.getGenes().size() + " genes");
+
+		t = System.currentTimeMillis();
+		reader = new org.panda.resource.tcga.ExpressionReader(file, 1000);
+		String[] samples = reader.getMatrix().getSampleArray();
+		double sum = 0;
+		for (String gene : subset) sum += reader.getGeneAlterationArray(gene, samples)[0];
+		System.out.println("Lazy reads: " + (System.currentTimeMillis() - t) + " ms (" + sum + ")");
+	}
+}
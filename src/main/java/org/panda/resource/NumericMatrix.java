@@ -0,0 +1,357 @@
+package org.panda.resource;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A matrix of numeric values with row IDs (like genes) and column samples, kept as one dense primitive array per row.
+ * The sample names are stored once in the sample index, instead of once per cell as in a map of maps, and values are
+ * not boxed. Rows are either double rows, where NaN means no data, or byte rows for small integer data like copy
+ * number states, where NO_DATA means no data.
+ *
+ * Rows can be read without copying when the requested samples are in the order of the matrix. Such row views are the
+ * internal arrays, so callers must not modify them.
+ */
+public class NumericMatrix
+{
+	/**
+	 * Marks the missing values in byte rows.
+	 */
+	public static final byte NO_DATA = Byte.MIN_VALUE;
+
+	private final String[] samples;
+	private final Map<String, Integer> sampleIndex;
+
+	private final boolean bytes;
+
+	private String[] ids;
+	private final Map<String, Integer> idIndex;
+	private double[][] doubleRows;
+	private byte[][] byteRows;
+	private int size;
+
+	/**
+	 * @param samples column names. Repeated names share the column of their first occurrence.
+	 * @param bytes whether rows are byte rows instead of double rows
+	 */
+	public NumericMatrix(String[] samples, boolean bytes)
+	{
+		sampleIndex = new LinkedHashMap<>();
+		for (String sample : samples)
+		{
+			if (!sampleIndex.containsKey(sample)) sampleIndex.put(sample, sampleIndex.size());
+		}
+		this.samples = sampleIndex.keySet().toArray(new String[0]);
+		this.bytes = bytes;
+
+		ids = new String[64];
+		idIndex = new HashMap<>();
+		if (bytes) byteRows = new byte[64][];
+		else doubleRows = new double[64][];
+	}
+
+	/**
+	 * Maps the columns of a file header to the matrix columns.
+	 *
+	 * @param header the header columns
+	 * @param from the first header column that is a sample
+	 * @return matrix column of each header column, -1 for the columns before from
+	 */
+	public int[] mapColumns(String[] header, int from)
+	{
+		int[] cols = new int[header.length];
+		for (int i = 0; i < header.length; i++)
+		{
+			cols[i] = i < from ? -1 : sampleIndex.getOrDefault(header[i], -1);
+		}
+		return cols;
+	}
+
+	public boolean isByteMatrix()
+	{
+		return bytes;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public int getSampleCount()
+	{
+		return samples.length;
+	}
+
+	/**
+	 * The samples in the order of the columns. This is the internal array, which must not be modified. Passing it to
+	 * the row getters returns the rows without copying.
+	 */
+	public String[] getSampleArray()
+	{
+		return samples;
+	}
+
+	public Set<String> getSamples()
+	{
+		return Collections.unmodifiableSet(sampleIndex.keySet());
+	}
+
+	public Set<String> getIDs()
+	{
+		return Collections.unmodifiableSet(idIndex.keySet());
+	}
+
+	public boolean hasID(String id)
+	{
+		return idIndex.containsKey(id);
+	}
+
+	/**
+	 * @return the row index of the ID, or -1 if it is not in the matrix
+	 */
+	public int indexOf(String id)
+	{
+		Integer i = idIndex.get(id);
+		return i == null ? -1 : i;
+	}
+
+	/**
+	 * @return the column index of the sample, or -1 if it is not in the matrix
+	 */
+	public int sampleIndexOf(String sample)
+	{
+		Integer i = sampleIndex.get(sample);
+		return i == null ? -1 : i;
+	}
+
+	public String getID(int row)
+	{
+		return ids[row];
+	}
+
+	// Section: Filling
+
+	/**
+	 * Adds a row that has no data yet, or finds the existing row of the ID.
+	 *
+	 * @return the row index
+	 */
+	public int addRow(String id)
+	{
+		Integer existing = idIndex.get(id);
+		if (existing != null) return existing;
+
+		if (size == ids.length)
+		{
+			ids = Arrays.copyOf(ids, size * 2);
+			if (bytes) byteRows = Arrays.copyOf(byteRows, size * 2);
+			else doubleRows = Arrays.copyOf(doubleRows, size * 2);
+		}
+
+		if (bytes)
+		{
+			byteRows[size] = new byte[samples.length];
+			Arrays.fill(byteRows[size], NO_DATA);
+		}
+		else
+		{
+			doubleRows[size] = new double[samples.length];
+			Arrays.fill(doubleRows[size], Double.NaN);
+		}
+
+		ids[size] = id;
+		idIndex.put(id, size);
+		return size++;
+	}
+
+	public void set(int row, int col, double value)
+	{
+		if (bytes) byteRows[row][col] = Double.isNaN(value) ? NO_DATA : (byte) value;
+		else doubleRows[row][col] = value;
+	}
+
+	/**
+	 * Sets the values that are parsed from a line of a file, where values[j] is from the file column from + j.
+	 *
+	 * @param cols matrix column of each file column, as mapColumns returns. Columns that map to -1 are skipped.
+	 */
+	public void set(int row, double[] values, int[] cols, int from)
+	{
+		int n = Math.min(values.length, cols.length - from);
+		for (int j = 0; j < n; j++)
+		{
+			int col = cols[from + j];
+			if (col >= 0) set(row, col, values[j]);
+		}
+	}
+
+	// Section: Reading
+
+	/**
+	 * @return the value, or NaN if there is no data
+	 */
+	public double get(int row, int col)
+	{
+		if (bytes)
+		{
+			byte b = byteRows[row][col];
+			return b == NO_DATA ? Double.NaN : b;
+		}
+		return doubleRows[row][col];
+	}
+
+	/**
+	 * @return the value, or NaN if the ID or the sample is not in the matrix, or there is no data
+	 */
+	public double get(String id, String sample)
+	{
+		int row = indexOf(id);
+		int col = sampleIndexOf(sample);
+		return row < 0 || col < 0 ? Double.NaN : get(row, col);
+	}
+
+	/**
+	 * The internal double row, in the order of the sample array. Must not be modified.
+	 */
+	public double[] getRow(int row)
+	{
+		return doubleRows[row];
+	}
+
+	/**
+	 * The internal byte row, in the order of the sample array. Must not be modified.
+	 */
+	public byte[] getByteRow(int row)
+	{
+		return byteRows[row];
+	}
+
+	/**
+	 * Values of the ID for the given samples, NaN for the samples that are not in the matrix. If the samples are the
+	 * ones of the matrix in the same order, the internal row is returned without copying, which must not be modified.
+	 *
+	 * @return the values, or null if the ID is not in the matrix
+	 */
+	public double[] getRow(String id, String[] samples)
+	{
+		int row = indexOf(id);
+		if (row < 0) return null;
+
+		if (!bytes && isMatrixOrder(samples)) return doubleRows[row];
+
+		double[] d = new double[samples.length];
+		for (int i = 0; i < samples.length; i++)
+		{
+			int col = sampleIndexOf(samples[i]);
+			d[i] = col < 0 ? Double.NaN : get(row, col);
+		}
+		return d;
+	}
+
+	/**
+	 * Values of a double row that is in the order of the sample array, like a row that is kept outside the matrix,
+	 * for the given samples. The row itself is returned if the samples are in the matrix order.
+	 */
+	public double[] project(double[] row, String[] samples)
+	{
+		if (isMatrixOrder(samples)) return row;
+
+		double[] d = new double[samples.length];
+		for (int i = 0; i < samples.length; i++)
+		{
+			int col = sampleIndexOf(samples[i]);
+			d[i] = col < 0 ? Double.NaN : row[col];
+		}
+		return d;
+	}
+
+	/**
+	 * Whether the samples are the ones of the matrix, in the same order.
+	 */
+	public boolean isMatrixOrder(String[] samples)
+	{
+		return samples == this.samples || Arrays.equals(samples, this.samples);
+	}
+
+	/**
+	 * Approximate heap size of the matrix in bytes, not counting the ID and sample strings.
+	 */
+	public long estimateBytes()
+	{
+		long cell = bytes ? 1 : 8;
+		return size * (16 + cell * samples.length) + 64L * (size + samples.length);
+	}
+
+	// Section: Benchmark
+
+	/**
+	 * Writes a random expression file of the given size in the TCGA layout, unless a file is given, then loads it
+	 * with ExpressionReader and prints the load time and the heap use. The default size is a pan-cancer matrix of
+	 * 20000 genes and 10000 samples, which needs a few GB of disk.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		String file = args.length > 0 ? args[0] : null;
+
+		if (file == null || !new File(file).exists())
+		{
+			int genes = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+			int samples = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+			if (file == null) file = System.getProperty("java.io.tmpdir") + "/expression-benchmark.txt";
+			writeRandomExpression(file, genes, samples);
+		}
+
+		Runtime rt = Runtime.getRuntime();
+		System.gc();
+		long before = rt.totalMemory() - rt.freeMemory();
+
+		long t = System.currentTimeMillis();
+		org.panda.resource.tcga.ExpressionReader reader = new org.panda.resource.tcga.ExpressionReader(file);
+		long loadTime = System.currentTimeMillis() - t;
+
+		System.gc();
+		long used = rt.totalMemory() - rt.freeMemory() - before;
+
+		NumericMatrix m = reader.getMatrix();
+		long cells = (long) m.size() * m.getSampleCount();
+		System.out.println(m.size() + " genes x " + m.getSampleCount() + " samples loaded in " + loadTime + " ms");
+		System.out.println("Heap used: " + (used >> 20) + " MB, estimate " + (m.estimateBytes() >> 20) +
+			" MB. A map of maps with boxed values needs about " + (cells * 56 >> 20) + " MB.");
+
+		t = System.nanoTime();
+		double sum = 0;
+		for (String gene : reader.getGenes()) sum += reader.getGeneAlterationRow(gene)[0];
+		System.out.println("Row views: " + ((System.nanoTime() - t) / Math.max(1, m.size())) + " ns per gene (" +
+			sum + ")");
+
+		t = System.nanoTime();
+		String[] order = m.getSampleArray();
+		for (String gene : reader.getGenes()) sum += reader.getGeneAlterationArray(gene, order)[0];
+		System.out.println("Log transformed copies: " + ((System.nanoTime() - t) / Math.max(1, m.size())) +
+			" ns per gene (" + sum + ")");
+	}
+
+	private static void writeRandomExpression(String file, int genes, int samples) throws IOException
+	{
+		Random r = new Random(1);
+		try (Writer w = new BufferedWriter(new FileWriter(file), 1 << 20))
+		{
+			w.write("Hybridization REF");
+			for (int j = 0; j < samples; j++) w.write(String.format("\tTCGA-%02d-%04d-01", j / 10000, j % 10000));
+			w.write("\ngene_id");
+			for (int j = 0; j < samples; j++) w.write("\tnormalized_count");
+			w.write("\n");
+
+			for (int i = 0; i < genes; i++)
+			{
+				w.write("G" + i + "|" + i);
+				for (int j = 0; j < samples; j++)
+				{
+					w.write('\t');
+					w.write(r.nextInt(50) == 0 ? "NA" : Float.toString((float) Math.exp(r.nextGaussian() * 3 + 5)));
+				}
+				w.write('\n');
+			}
+		}
+	}
+}
@@ -0,0 +1,410 @@
+package org.panda.resource;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+/**
+ * Reads delimited text tables of numbers, like TSV and CSV matrices, at byte level. Lines are tokenized in place in
+ * large byte chunks, and numbers are parsed directly from the bytes without creating substrings. Chunks are parsed in
+ * parallel with a ChunkedLineReader, and the rows are passed to the consumer in the file order.
+ *
+ * Each data line is a few label columns, like a gene ID, followed by value columns. "NA" and empty values are NaN.
+ * Surrounding quotes of fields are removed, but quoted fields cannot contain the delimiter. Lines that start with '#'
+ * are comments and are skipped, as are empty lines.
+ */
+public class NumericTableReader
+{
+	private final byte delimiter;
+	private final ChunkedLineReader reader;
+
+	/**
+	 * Powers of ten that are exact in double precision.
+	 */
+	private static final double[] POW10 = new double[23];
+	static
+	{
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) POW10[i] = POW10[i - 1] * 10;
+	}
+
+	public NumericTableReader(char delimiter)
+	{
+		this(delimiter, Runtime.getRuntime().availableProcessors());
+	}
+
+	public NumericTableReader(char delimiter, int threads)
+	{
+		if (delimiter > 127) throw new IllegalArgumentException("Delimiter has to be an ASCII character.");
+		this.delimiter = (byte) delimiter;
+		this.reader = new ChunkedLineReader(8 << 20, threads);
+	}
+
+	/**
+	 * Converts a delimiter regular expression, as used with String.split, to the character it matches.
+	 *
+	 * @throws IllegalArgumentException if the expression is not a single, possibly escaped, character
+	 */
+	public static char toDelimiterChar(String regex)
+	{
+		if (regex.length() == 1) return regex.charAt(0);
+		if (regex.equals("\\t")) return '\t';
+		if (regex.length() == 2 && regex.charAt(0) == '\\' && !Character.isLetterOrDigit(regex.charAt(1)))
+		{
+			return regex.charAt(1);
+		}
+		throw new IllegalArgumentException("Only single character delimiters are supported: " + regex);
+	}
+
+	// Section: Header
+
+	/**
+	 * Reads a line from the stream, without the line end. The stream should be buffered.
+	 *
+	 * @return the line, or null at the end of the stream
+	 */
+	public static String readLine(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+		int b = in.read();
+		if (b < 0) return null;
+
+		while (b >= 0 && b != '\n')
+		{
+			line.write(b);
+			b = in.read();
+		}
+
+		byte[] bytes = line.toByteArray();
+		int len = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+		return new String(bytes, 0, len, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Skips the comment lines and reads the header line, split at the delimiter, with the quotes removed.
+	 *
+	 * @return the header columns, or null if the stream has no header
+	 */
+	public String[] readHeader(InputStream in) throws IOException
+	{
+		String line = readLine(in);
+		while (line != null && line.startsWith("#")) line = readLine(in);
+		return line == null ? null : split(line);
+	}
+
+	/**
+	 * Splits the line at the delimiter, with the quotes removed.
+	 */
+	public String[] split(String line)
+	{
+		List<String> fields = new ArrayList<>();
+		int from = 0;
+		while (true)
+		{
+			int to = line.indexOf(delimiter, from);
+			if (to < 0) to = line.length();
+			fields.add(unquote(line.substring(from, to)));
+			if (to == line.length()) break;
+			from = to + 1;
+		}
+		return fields.toArray(new String[0]);
+	}
+
+	private static String unquote(String s)
+	{
+		return s.length() > 1 && s.startsWith("\"") && s.endsWith("\"") ? s.substring(1, s.length() - 1) : s;
+	}
+
+	// Section: Rows
+
+	public interface RowConsumer
+	{
+		/**
+		 * @param labels the columns before the first value column
+		 * @param values the numbers in the value columns, where values[j] is from the column firstValueColumn + j
+		 * @return false to stop reading
+		 */
+		boolean accept(String[] labels, double[] values);
+	}
+
+	/**
+	 * Reads the rest of the stream as data lines.
+	 *
+	 * @param firstValueColumn index of the first column that has numbers
+	 * @param rowFilter decides on the labels whether a row is parsed and passed to the consumer, can be null. Called
+	 *                  on worker threads.
+	 * @param consumer receives the rows in the file order, on the calling thread
+	 */
+	public void readRows(InputStream in, int firstValueColumn, Predicate<String[]> rowFilter, RowConsumer consumer)
+		throws IOException
+	{
+		reader.read(in, (b, from, to) -> parseRows(b, from, to, firstValueColumn, rowFilter), rows ->
+		{
+			for (int i = 0; i < rows.size; i++)
+			{
+				if (!consumer.accept(rows.labels[i], rows.values[i])) return false;
+			}
+			return true;
+		});
+	}
+
+	/**
+	 * Parses the data lines in the byte range on the calling thread. Used for the rows that are read with a seek, which
+	 * are too few to parse in parallel.
+	 *
+	 * @return false if the consumer stopped reading
+	 */
+	public boolean readRows(byte[] b, int from, int to, int firstValueColumn, Predicate<String[]> rowFilter,
+		RowConsumer consumer)
+	{
+		Rows rows = parseRows(b, from, to, firstValueColumn, rowFilter);
+		for (int i = 0; i < rows.size; i++)
+		{
+			if (!consumer.accept(rows.labels[i], rows.values[i])) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Parsed rows of a chunk.
+	 */
+	private static class Rows
+	{
+		String[][] labels = new String[1024][];
+		double[][] values = new double[1024][];
+		int size;
+
+		void add(String[] l, double[] v)
+		{
+			if (size == labels.length)
+			{
+				labels = Arrays.copyOf(labels, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			labels[size] = l;
+			values[size++] = v;
+		}
+	}
+
+	private Rows parseRows(byte[] b, int from, int to, int firstValueColumn, Predicate<String[]> rowFilter)
+	{
+		Rows rows = new Rows();
+		int pos = from;
+
+		while (pos < to)
+		{
+			int nl = ChunkedLineReader.indexOf(b, pos, to, (byte) '\n');
+			int end = nl > pos && b[nl - 1] == '\r' ? nl - 1 : nl;
+
+			if (end > pos && b[pos] != '#')
+			{
+				// Labels
+				String[] labels = new String[firstValueColumn];
+				int f = pos;
+				int col = 0;
+				while (col < firstValueColumn && f <= end)
+				{
+					int d = ChunkedLineReader.indexOf(b, f, end, delimiter);
+					int s = f, e = d;
+					if (e - s > 1 && b[s] == '"' && b[e - 1] == '"')
+					{
+						s++;
+						e--;
+					}
+					labels[col++] = new String(b, s, e - s, StandardCharsets.UTF_8);
+					f = d + 1;
+				}
+
+				if (col == firstValueColumn && (rowFilter == null || rowFilter.test(labels)))
+				{
+					// Count the value columns, then parse them
+					int n = 0;
+					if (f <= end)
+					{
+						n = 1;
+						for (int i = f; i < end; i++) if (b[i] == delimiter) n++;
+					}
+
+					double[] values = new double[n];
+					for (int j = 0; j < n; j++)
+					{
+						int d = ChunkedLineReader.indexOf(b, f, end, delimiter);
+						values[j] = parseDouble(b, f, d);
+						f = d + 1;
+					}
+					rows.add(labels, values);
+				}
+			}
+
+			pos = nl + 1;
+		}
+		return rows;
+	}
+
+	// Section: Number parsing
+
+	/**
+	 * Parses a decimal number from the bytes. Numbers with at most 15 significant digits and small exponents, which
+	 * covers nearly all data files, are converted exactly with one multiplication or division by an exact power of
+	 * ten (Clinger's fast path). Others fall back to Double.parseDouble.
+	 *
+	 * @return the number, NaN for "NA", "NaN" and empty fields, and infinities for "Inf" and "-Inf"
+	 * @throws NumberFormatException if the field is not a number
+	 */
+	public static double parseDouble(byte[] b, int from, int to)
+	{
+		while (from < to && (b[from] == ' ' || b[from] == '"')) from++;
+		while (to > from && (b[to - 1] == ' ' || b[to - 1] == '"')) to--;
+		if (from == to) return Double.NaN;
+
+		int i = from;
+		boolean negative = false;
+		if (b[i] == '-')
+		{
+			negative = true;
+			i++;
+		}
+		else if (b[i] == '+') i++;
+
+		long mantissa = 0;
+		int digits = 0;
+		int exp = 0;
+		boolean any = false;
+
+		for (; i < to && b[i] >= '0' && b[i] <= '9'; i++)
+		{
+			any = true;
+			if (digits < 18)
+			{
+				mantissa = mantissa * 10 + (b[i] - '0');
+				if (mantissa != 0) digits++;
+			}
+			else exp++;
+		}
+
+		if (i < to && b[i] == '.')
+		{
+			for (i++; i < to && b[i] >= '0' && b[i] <= '9'; i++)
+			{
+				any = true;
+				if (digits < 18)
+				{
+					mantissa = mantissa * 10 + (b[i] - '0');
+					if (mantissa != 0) digits++;
+					exp--;
+				}
+			}
+		}
+
+		if (any && i < to && (b[i] == 'e' || b[i] == 'E'))
+		{
+			i++;
+			boolean negExp = false;
+			if (i < to && (b[i] == '-' || b[i] == '+')) negExp = b[i++] == '-';
+
+			int e = 0;
+			boolean anyE = false;
+			for (; i < to && b[i] >= '0' && b[i] <= '9'; i++)
+			{
+				anyE = true;
+				if (e < 10000) e = e * 10 + (b[i] - '0');
+			}
+			if (!anyE) return parseSlow(b, from, to);
+			exp += negExp ? -e : e;
+		}
+
+		if (!any || i != to) return parseSlow(b, from, to);
+
+		if (mantissa <= (1L << 53) && exp >= -22 && exp <= 22)
+		{
+			double d = mantissa;
+			d = exp < 0 ? d / POW10[-exp] : d * POW10[exp];
+			return negative ? -d : d;
+		}
+		return parseSlow(b, from, to);
+	}
+
+	private static double parseSlow(byte[] b, int from, int to)
+	{
+		String s = new String(b, from, to - from, StandardCharsets.US_ASCII);
+		switch (s)
+		{
+			case "NA": return Double.NaN;
+			case "Inf": return Double.POSITIVE_INFINITY;
+			case "-Inf": return Double.NEGATIVE_INFINITY;
+			default: return Double.parseDouble(s);
+		}
+	}
+
+	// Section: Benchmark
+
+	/**
+	 * Parses the given table, or a generated one, with one thread and with all cores, and compares the throughput to
+	 * reading with String.split and Double.parseDouble.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		String file = args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir") + "/numeric-table.tsv";
+		if (!new File(file).exists())
+		{
+			Random r = new Random(1);
+			try (Writer w = new BufferedWriter(new FileWriter(file), 1 << 20))
+			{
+				w.write("gene");
+				for (int j = 0; j < 1000; j++) w.write("\tS" + j);
+				w.write("\n");
+				for (int i = 0; i < 20000; i++)
+				{
+					w.write("G" + i);
+					for (int j = 0; j < 1000; j++)
+					{
+						w.write('\t');
+						w.write(r.nextInt(50) == 0 ? "NA" : Double.toString(r.nextGaussian() * 100));
+					}
+					w.write('\n');
+				}
+			}
+		}
+		double mb = new File(file).length() / (double) (1 << 20);
+
+		for (int threads : new int[]{1, Runtime.getRuntime().availableProcessors()})
+		{
+			long t = System.currentTimeMillis();
+			double[] sum = new double[1];
+			try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16))
+			{
+				NumericTableReader reader = new NumericTableReader('\t', threads);
+				reader.readHeader(in);
+				reader.readRows(in, 1, null, (labels, values) ->
+				{
+					sum[0] += values[0];
+					return true;
+				});
+			}
+			double sec = (System.currentTimeMillis() - t) / 1000D;
+			System.out.printf("Byte level, %d threads: %.1f s, %.0f MB/s (%f)%n", threads, sec, mb / sec, sum[0]);
+		}
+
+		long t = System.currentTimeMillis();
+		double sum = 0;
+		try (BufferedReader reader = new BufferedReader(new FileReader(file), 1 << 16))
+		{
+			reader.readLine();
+			for (String line = reader.readLine(); line != null; line = reader.readLine())
+			{
+				String[] token = line.split("\t");
+				for (int i = 1; i < token.length; i++)
+				{
+					double v = token[i].equals("NA") ? Double.NaN : Double.parseDouble(token[i]);
+					if (i == 1) sum += v;
+				}
+			}
+		}
+		double sec = (System.currentTimeMillis() - t) / 1000D;
+		System.out.printf("String.split and Double.parseDouble: %.1f s, %.0f MB/s (%f)%n", sec, mb / sec, sum);
+	}
+}
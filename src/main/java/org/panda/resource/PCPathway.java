@@ -40,6 +40,8 @@ public class PCPathway extends FileServer
 	private Map<String, Set<String>> pathway2chem;
 	private Map<String, String> pathway2name;
 	private Map<String, String> pathway2resource;
+	private GeneSetCollection collection;
+	private EnrichmentEngine engine;
 
 	public static synchronized PCPathway get()
 	{
@@ -80,7 +82,7 @@ public class PCPathway extends FileServer
 					.filter(s -> s.startsWith("CHEBI:")).collect(Collectors.toSet());
 
 				Set<String> genes = Arrays.asList(token).subList(3, token.length).stream()
-					.filter(s -> !s.startsWith("CHEBI:")).collect(Collectors.toSet());
+					.filter(s -> !s.startsWith("CHEBI:")).map(SymbolDictionary::intern).collect(Collectors.toSet());
 
 				pathway2gene.put(token[0], genes);
 				pathway2chem.put(token[0], chems);
@@ -116,6 +118,23 @@ public class PCPathway extends FileServer
 			chem2pathway.get(chem).add(id);
 		}
 		pathway2resource.put(id, "Custom");
+		collection = null;
+		engine = null;
+	}
+
+	/**
+	 * Int-keyed version of the pathway genes. Rebuilt after a custom pathway is added.
+	 */
+	public synchronized GeneSetCollection getGeneSetCollection()
+	{
+		if (collection == null) collection = new GeneSetCollection(pathway2gene);
+		return collection;
+	}
+
+	public synchronized EnrichmentEngine getEnrichmentEngine()
+	{
+		if (engine == null) engine = new EnrichmentEngine(getGeneSetCollection());
+		return engine;
 	}
 
 	public Set<String> getPathways(String gene)
@@ -188,6 +207,12 @@ public class PCPathway extends FileServer
 			System.out.println("Using " + mols.size() + ": " + mols);
 		}
 
+		// Gene-only queries are counted over bit sets
+		if (chems.isEmpty())
+		{
+			return getEnrichmentEngine().test(genes, background, minMemberSize, maxMemberSize).toArray();
+		}
+
 		Map<String, Integer> selectionGeneCnt = count(genes, pathway2gene);
 		Map<String, Integer> backgroundGeneCnt = count(background, pathway2gene);
 		Map<String, Integer> selectionChemCnt = count(chems, pathway2chem);
@@ -245,7 +270,7 @@ public class PCPathway extends FileServer
 			mapL.put(pathway, limit);
 		});
 
-		return new Map[]{mapP, mapL};
+		return new EnrichmentResult(mapP, mapL).toArray();
 	}
 
 	private Map<String, Integer> count(Collection<String> mols, Map<String, Set<String>> pathway2X)
@@ -279,6 +304,28 @@ public class PCPathway extends FileServer
 		return FDR.select(map[0], map[1], fdrThr).stream().collect(Collectors.toList());
 	}
 
+	/**
+	 * Gets empirical enrichment pvals of pathways for the given genes, from random gene selections of the same size.
+	 * @param background pass null to use all genes in pathways
+	 * @return two maps, first is for pvals, second is for limits
+	 */
+	public Map<String, Double>[] getPermutationEnrichmentPvals(Collection<String> genes,
+		Collection<String> background, int minMemberSize, int maxMemberSize, int permutations, long seed)
+	{
+		PermutationEnrichment pe = new PermutationEnrichment(getGeneSetCollection());
+		pe.setMaxPermutations(permutations);
+		pe.setSeed(seed);
+		return pe.testByGenePermutation(genes, background, minMemberSize, maxMemberSize).toArray();
+	}
+
+	public Map<String, Double> getPermutationEnrichmentQvals(Collection<String> genes,
+		Collection<String> background, int minMemberSize, int maxMemberSize, int permutations, long seed)
+	{
+		Map<String, Double>[] map = getPermutationEnrichmentPvals(genes, background, minMemberSize, maxMemberSize,
+			permutations, seed);
+		return FDR.getQVals(map[0], map[1]);
+	}
+
 	public Map<String, Double> getEnrichmentQvals(Collection<String> molecules,
 		Collection<String> background, int minMemberSize, int maxMemberSize)
 	{
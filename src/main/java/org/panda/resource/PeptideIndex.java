@@ -0,0 +1,432 @@
+package org.panda.resource;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * A proteome-wide index for finding the proteins and positions that contain a peptide, and for scanning sequences
+ * with motifs.
+ *
+ * The index is a sampled k-mer index over a SequenceStore. Only the k-mers that start at every step-th position of a
+ * sequence are indexed, and each occurrence of a peptide that is at least k + step - 1 long contains exactly one of
+ * those k-mers in its first step positions. So looking up the first step k-mers of the peptide and verifying the
+ * candidates finds all occurrences, with an index that is 1/step of the proteome size. Shorter peptides are searched
+ * with a scan over the proteome.
+ *
+ * Positions are 1-based.
+ */
+public class PeptideIndex
+{
+	/**
+	 * Residue letters are encoded with 5 bits.
+	 */
+	private static final int BITS = 5;
+
+	private final SequenceStore store;
+	private final int k;
+	private final int step;
+
+	/**
+	 * Start of the postings of each k-mer in the positions array.
+	 */
+	private final int[] bucket;
+
+	/**
+	 * Residue file positions of the sampled k-mers, grouped by k-mer.
+	 */
+	private final int[] positions;
+
+	public PeptideIndex(SequenceStore store)
+	{
+		this(store, 4, 4);
+	}
+
+	/**
+	 * @param k length of the indexed k-mers, at most 5
+	 * @param step distance between indexed positions
+	 */
+	public PeptideIndex(SequenceStore store, int k, int step)
+	{
+		if (k < 1 || k > 5) throw new IllegalArgumentException("k has to be in 1..5. k = " + k);
+
+		this.store = store;
+		this.k = k;
+		this.step = step;
+
+		// Count, then fill, so that the postings take a single array
+		bucket = new int[(1 << (BITS * k)) + 1];
+		for (int p = 0; p < store.size(); p++)
+		{
+			forEachSampledKmer(p, (kmer, pos) -> bucket[kmer + 1]++);
+		}
+		for (int i = 1; i < bucket.length; i++) bucket[i] += bucket[i - 1];
+
+		positions = new int[bucket[bucket.length - 1]];
+		int[] fill = Arrays.copyOf(bucket, bucket.length - 1);
+		for (int p = 0; p < store.size(); p++)
+		{
+			forEachSampledKmer(p, (kmer, pos) -> positions[fill[kmer]++] = pos);
+		}
+	}
+
+	private interface KmerVisitor
+	{
+		void visit(int kmer, int filePos);
+	}
+
+	private void forEachSampledKmer(int protIdx, KmerVisitor visitor)
+	{
+		int off = store.getOffset(protIdx);
+		int len = store.length(protIdx);
+
+		for (int i = 0; i + k <= len; i += step)
+		{
+			int kmer = encode(off + i);
+			if (kmer >= 0) visitor.visit(kmer, off + i);
+		}
+	}
+
+	/**
+	 * @return code of the k-mer at the residue file position, or -1 if it has a character that is not a letter
+	 */
+	private int encode(int filePos)
+	{
+		int code = 0;
+		for (int i = 0; i < k; i++)
+		{
+			int c = letterCode(store.residueAt(filePos + i));
+			if (c < 0) return -1;
+			code = (code << BITS) | c;
+		}
+		return code;
+	}
+
+	private static int letterCode(int c)
+	{
+		c = c & 0xDF; // upper case
+		return c >= 'A' && c <= 'Z' ? c - 'A' : -1;
+	}
+
+	/**
+	 * An occurrence of a peptide or a motif.
+	 */
+	public static class Match
+	{
+		public final int protein;
+		public final int position;
+
+		Match(int protein, int position)
+		{
+			this.protein = protein;
+			this.position = position;
+		}
+
+		@Override
+		public String toString()
+		{
+			return protein + ":" + position;
+		}
+	}
+
+	public SequenceStore getStore()
+	{
+		return store;
+	}
+
+	// Section: Peptide search
+
+	/**
+	 * Finds all occurrences of the peptide, ordered by protein and position.
+	 */
+	public List<Match> find(String peptide)
+	{
+		byte[] pep = peptide.toUpperCase().getBytes();
+		int[] codes = new int[pep.length];
+		for (int i = 0; i < pep.length; i++)
+		{
+			codes[i] = letterCode(pep[i]);
+			if (codes[i] < 0) return Collections.emptyList();
+		}
+
+		if (pep.length < k + step - 1) return scan(pep);
+
+		List<Match> matches = new ArrayList<>();
+
+		for (int o = 0; o < step; o++)
+		{
+			int kmer = 0;
+			for (int i = 0; i < k; i++) kmer = (kmer << BITS) | codes[o + i];
+
+			for (int b = bucket[kmer]; b < bucket[kmer + 1]; b++)
+			{
+				int start = positions[b] - o;
+				int prot = store.proteinAt(positions[b]);
+				int local = start - store.getOffset(prot);
+
+				if (local >= 0 && local + pep.length <= store.length(prot) && matchesAt(pep, start))
+				{
+					matches.add(new Match(prot, local + 1));
+				}
+			}
+		}
+
+		if (step > 1) matches.sort(Comparator.<Match>comparingInt(m -> m.protein).thenComparingInt(m -> m.position));
+		return matches;
+	}
+
+	private boolean matchesAt(byte[] pep, int filePos)
+	{
+		for (int i = 0; i < pep.length; i++)
+		{
+			if ((store.residueAt(filePos + i) & 0xDF) != pep[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Searches all sequences, in parallel over the proteins.
+	 */
+	private List<Match> scan(byte[] pep)
+	{
+		return IntStream.range(0, store.size()).parallel().boxed().flatMap(p ->
+		{
+			int off = store.getOffset(p);
+			List<Match> list = new ArrayList<>(0);
+			for (int i = 0; i + pep.length <= store.length(p); i++)
+			{
+				if (matchesAt(pep, off + i)) list.add(new Match(p, i + 1));
+			}
+			return list.stream();
+		}).collect(Collectors.toList());
+	}
+
+	/**
+	 * Finds the occurrences of many peptides, in parallel over the peptides.
+	 */
+	public Map<String, List<Match>> findAll(Collection<String> peptides)
+	{
+		Map<String, List<Match>> map = new HashMap<>();
+		new ArrayList<>(new HashSet<>(peptides)).parallelStream()
+			.map(pep -> new AbstractMap.SimpleEntry<>(pep, find(pep)))
+			.collect(Collectors.toList())
+			.forEach(e -> map.put(e.getKey(), e.getValue()));
+		return map;
+	}
+
+	// Section: Motif search
+
+	/**
+	 * Finds the positions that match a motif, in parallel over the proteins. The motif syntax is a subset of regular
+	 * expressions: a residue letter, "." or "x" for any residue, "[ST]" for any of the listed residues, "[^P]" for any
+	 * residue but the listed ones, and "{n}" or "{m,n}" after any of these for n, or m to n, repeats. A repeat can be
+	 * 0. For example, "R.R..[ST]" is the basophilic kinase motif, and "R.{0,1}[ST]" matches both "RS" and "RAS".
+	 *
+	 * @return matches, where the position is that of the first motif residue, ordered by protein and position. A
+	 * position is reported once, even if the motif matches there with several repeat counts.
+	 */
+	public List<Match> findMotif(String motif)
+	{
+		List<int[]> alternatives = compileMotif(motif);
+
+		// Check the most selective positions of each alternative first
+		List<int[]> checks = new ArrayList<>();
+		for (int[] masks : alternatives)
+		{
+			Integer[] order = new Integer[masks.length];
+			for (int i = 0; i < order.length; i++) order[i] = i;
+			Arrays.sort(order, Comparator.comparingInt(i -> Integer.bitCount(masks[i])));
+			checks.add(Arrays.stream(order).mapToInt(Integer::intValue).toArray());
+		}
+
+		return IntStream.range(0, store.size()).parallel().boxed().flatMap(p ->
+		{
+			int off = store.getOffset(p);
+			int len = store.length(p);
+			List<Match> list = new ArrayList<>(0);
+			for (int i = 0; i < len; i++)
+			{
+				for (int a = 0; a < alternatives.size(); a++)
+				{
+					if (matchesAt(alternatives.get(a), checks.get(a), off, len, i))
+					{
+						list.add(new Match(p, i + 1));
+						break;
+					}
+				}
+			}
+			return list.stream();
+		}).collect(Collectors.toList());
+	}
+
+	/**
+	 * Whether the motif of fixed length matches the protein at the offset at the local position.
+	 */
+	private boolean matchesAt(int[] masks, int[] checks, int off, int len, int i)
+	{
+		if (i + masks.length > len) return false;
+
+		for (int j : checks)
+		{
+			int c = letterCode(store.residueAt(off + i + j));
+			if (c < 0 || (masks[j] & (1 << c)) == 0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Most fixed length alternatives that a motif with variable repeats can expand to.
+	 */
+	private static final int MAX_ALTERNATIVES = 1024;
+
+	/**
+	 * Converts the motif to bit masks of the allowed letters for each position. A motif with variable repeats
+	 * expands to a fixed length alternative for each combination of the repeat counts.
+	 *
+	 * @throws IllegalArgumentException if the motif is malformed, can match an empty sequence, or has too many
+	 * alternatives
+	 */
+	static List<int[]> compileMotif(String motif)
+	{
+		int all = (1 << 26) - 1;
+		String m = motif.toUpperCase();
+
+		// Each element is a mask with its smallest and largest repeat counts
+		List<int[]> elements = new ArrayList<>();
+
+		for (int i = 0; i < m.length(); i++)
+		{
+			char c = m.charAt(i);
+			int mask;
+
+			if (c == '.' || c == 'X') mask = all;
+			else if (c == '[')
+			{
+				int end = m.indexOf(']', i);
+				if (end < 0) throw new IllegalArgumentException("Unclosed bracket in motif " + motif);
+
+				boolean negate = m.charAt(i + 1) == '^';
+				mask = 0;
+				for (int j = negate ? i + 2 : i + 1; j < end; j++)
+				{
+					mask |= 1 << letter(m.charAt(j), motif);
+				}
+				if (negate) mask = all & ~mask;
+				i = end;
+			}
+			else if (c == '{')
+			{
+				int end = m.indexOf('}', i);
+				if (end < 0 || elements.isEmpty()) throw new IllegalArgumentException("Bad repeat in motif " + motif);
+
+				int[] last = elements.get(elements.size() - 1);
+				String[] t = m.substring(i + 1, end).split(",", -1);
+				try
+				{
+					last[1] = Integer.parseInt(t[0].trim());
+					last[2] = t.length == 1 ? last[1] : Integer.parseInt(t[1].trim());
+				}
+				catch (NumberFormatException e)
+				{
+					throw new IllegalArgumentException("Bad repeat in motif " + motif);
+				}
+				if (t.length > 2 || last[1] < 0 || last[2] < last[1])
+				{
+					throw new IllegalArgumentException("Bad repeat in motif " + motif);
+				}
+				i = end;
+				continue;
+			}
+			else mask = 1 << letter(c, motif);
+
+			elements.add(new int[]{mask, 1, 1});
+		}
+
+		List<int[]> alternatives = new ArrayList<>();
+		expand(elements, 0, new ArrayList<>(), alternatives, motif);
+		return alternatives;
+	}
+
+	/**
+	 * Adds the alternatives for each repeat count of the element at the index, followed by those of the next ones.
+	 */
+	private static void expand(List<int[]> elements, int index, List<Integer> prefix, List<int[]> alternatives,
+		String motif)
+	{
+		if (index == elements.size())
+		{
+			if (prefix.isEmpty()) throw new IllegalArgumentException("Motif can match an empty sequence: " + motif);
+			if (alternatives.size() == MAX_ALTERNATIVES)
+			{
+				throw new IllegalArgumentException("Too many repeat combinations in motif " + motif);
+			}
+			alternatives.add(prefix.stream().mapToInt(Integer::intValue).toArray());
+			return;
+		}
+
+		int[] e = elements.get(index);
+		for (int n = e[1]; n <= e[2]; n++)
+		{
+			for (int j = 0; j < n; j++) prefix.add(e[0]);
+			expand(elements, index + 1, prefix, alternatives, motif);
+			for (int j = 0; j < n; j++) prefix.remove(prefix.size() - 1);
+		}
+	}
+
+	private static int letter(char c, String motif)
+	{
+		int code = letterCode(c);
+		if (code < 0) throw new IllegalArgumentException("Unexpected character '" + c + "' in motif " + motif);
+		return code;
+	}
+
+	/**
+	 * Approximate heap size of the index in bytes.
+	 */
+	public long estimateBytes()
+	{
+		return 4L * bucket.length + 4L * positions.length;
+	}
+
+	// Section: Benchmark
+
+	/**
+	 * Times the index build, single peptide lookups against the per-protein search, a batch lookup, and a motif scan,
+	 * using random peptides from the loaded sequences.
+	 */
+	public static void main(String[] args)
+	{
+		SequenceStore store = UniProtSequence.get().getStore();
+
+		long t = System.currentTimeMillis();
+		PeptideIndex index = UniProtSequence.get().getPeptideIndex();
+		System.out.println("Index of " + store.getResidueCount() + " residues built in " +
+			(System.currentTimeMillis() - t) + " ms, " + (index.estimateBytes() >> 20) + " MB");
+
+		Random r = new Random(1);
+		List<String> peptides = new ArrayList<>();
+		while (peptides.size() < 20000)
+		{
+			int p = r.nextInt(store.size());
+			int len = 7 + r.nextInt(15);
+			if (store.length(p) <= len) continue;
+			int start = 1 + r.nextInt(store.length(p) - len);
+			peptides.add(store.getSequence(p).substring(start - 1, start - 1 + len));
+		}
+
+		long hits = 0;
+		t = System.nanoTime();
+		for (String pep : peptides.subList(0, 1000)) hits += index.find(pep).size();
+		System.out.println("Single lookup: " + ((System.nanoTime() - t) / 1000 / 1000) + " us per peptide (" +
+			hits + " hits)");
+
+		t = System.currentTimeMillis();
+		Map<String, List<Match>> batch = index.findAll(peptides);
+		System.out.println("Batch of " + peptides.size() + " peptides: " + (System.currentTimeMillis() - t) + " ms, " +
+			batch.values().stream().mapToInt(List::size).sum() + " hits");
+
+		t = System.currentTimeMillis();
+		int motifHits = index.findMotif("R.R..[ST]").size();
+		System.out.println("Motif R.R..[ST]: " + motifHits + " matches in " + (System.currentTimeMillis() - t) + " ms");
+	}
+}
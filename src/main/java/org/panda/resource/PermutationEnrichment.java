@@ -0,0 +1,272 @@
+package org.panda.resource;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Calculates empirical enrichment p-values of the query genes in a gene set collection, by comparing the observed
+ * overlap of each set with the overlaps of randomized queries. Randomized queries are either random gene selections
+ * of the same size (gene permutation), or are produced by a given NullGenerator, such as one that permutes sample
+ * labels and reselects the genes.
+ *
+ * Permutations run in chunks on a fork-join pool. Each chunk has its own random stream split from a seeded master
+ * generator in a fixed order, so the results depend only on the seed, not on the number of threads. A set stops
+ * being tested once it reaches the exceedance limit, and its p-value is then estimated as in Besag and Clifford's
+ * sequential Monte Carlo test, which keeps the runtime low for the sets that are clearly not significant.
+ */
+public class PermutationEnrichment
+{
+	private final GeneSetCollection collection;
+	private final CompressedBitSet[] bits;
+
+	/**
+	 * Sorted IDs of the genes that are in at least one set.
+	 */
+	private final int[] universe;
+
+	private int maxPermutations = 100000;
+	private int exceedanceLimit = 10;
+	private int chunkSize = 250;
+	private int chunksPerRound = 16;
+	private long seed = 0;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	public PermutationEnrichment(Map<String, ? extends Collection<String>> sets)
+	{
+		this(new GeneSetCollection(sets));
+	}
+
+	public PermutationEnrichment(GeneSetCollection collection)
+	{
+		this.collection = collection;
+		bits = new CompressedBitSet[collection.size()];
+		for (int i = 0; i < bits.length; i++)
+		{
+			bits[i] = new CompressedBitSet(collection.getMembers(i));
+		}
+		universe = collection.getAllGenes();
+	}
+
+	/**
+	 * Produces a randomized query for the null distribution.
+	 */
+	public interface NullGenerator
+	{
+		Collection<String> generate(SplittableRandom random);
+	}
+
+	public void setMaxPermutations(int maxPermutations)
+	{
+		this.maxPermutations = maxPermutations;
+	}
+
+	/**
+	 * A set is not tested further after this many randomized overlaps are at least as large as its observed overlap.
+	 */
+	public void setExceedanceLimit(int exceedanceLimit)
+	{
+		this.exceedanceLimit = exceedanceLimit;
+	}
+
+	public void setSeed(long seed)
+	{
+		this.seed = seed;
+	}
+
+	/**
+	 * Sets the number of permutations that a task runs with a single random stream. Results depend on this value.
+	 */
+	public void setChunkSize(int chunkSize)
+	{
+		this.chunkSize = chunkSize;
+	}
+
+	public void setPool(ForkJoinPool pool)
+	{
+		this.pool = pool;
+	}
+
+	/**
+	 * Tests against random gene selections of the query size from the background.
+	 *
+	 * @param background null means all genes in the collection
+	 * @return p-values and limits of the tested sets
+	 */
+	public EnrichmentResult testByGenePermutation(Collection<String> query, Collection<String> background,
+		int minSetSize, int maxSetSize)
+	{
+		int[] bg = background == null ? universe :
+			intersect(universe, SymbolDictionary.get().toSortedIDs(background));
+		int[] q = intersect(bg, SymbolDictionary.get().toSortedIDs(query));
+		int words = wordLength(bg);
+
+		Supplier<Sampler> sampler = () ->
+		{
+			int[] genes = bg.clone();
+			long[] dense = new long[words];
+
+			// Partial Fisher-Yates shuffle. The order left from the previous draw does not bias the next one.
+			return random ->
+			{
+				Arrays.fill(dense, 0);
+				for (int j = 0; j < q.length; j++)
+				{
+					int k = j + random.nextInt(genes.length - j);
+					int g = genes[k];
+					genes[k] = genes[j];
+					genes[j] = g;
+					dense[g >>> 6] |= 1L << g;
+				}
+				return dense;
+			};
+		};
+
+		return run(CompressedBitSet.toDense(q, words), sampler, minSetSize, maxSetSize);
+	}
+
+	/**
+	 * Tests against the randomized queries of the given generator. Genes outside of the collection are ignored.
+	 *
+	 * @return p-values and limits of the tested sets
+	 */
+	public EnrichmentResult test(Collection<String> query, NullGenerator generator, int minSetSize,
+		int maxSetSize)
+	{
+		int words = wordLength(universe);
+		SymbolDictionary dict = SymbolDictionary.get();
+
+		Supplier<Sampler> sampler = () -> random ->
+			CompressedBitSet.toDense(dict.toSortedIDs(generator.generate(random)), words);
+
+		return run(CompressedBitSet.toDense(intersect(universe, dict.toSortedIDs(query)), words), sampler,
+			minSetSize, maxSetSize);
+	}
+
+	/**
+	 * Fills a dense bit set with a randomized query. A sampler is used by a single thread.
+	 */
+	private interface Sampler
+	{
+		long[] sample(SplittableRandom random);
+	}
+
+	private EnrichmentResult run(long[] query, Supplier<Sampler> samplerFactory, int minSetSize,
+		int maxSetSize)
+	{
+		int n = bits.length;
+		int[] observed = new int[n];
+		int[] exceed = new int[n];
+		int[] performed = new int[n];
+
+		List<Integer> active = new ArrayList<>();
+		Map<String, Double> mapP = new HashMap<>();
+		Map<String, Double> mapL = new HashMap<>();
+		double limit = 1D / (maxPermutations + 1);
+
+		for (int i = 0; i < n; i++)
+		{
+			int size = bits[i].cardinality();
+			if (size < minSetSize || size > maxSetSize) continue;
+
+			observed[i] = bits[i].andCount(query);
+			if (observed[i] > 0) active.add(i);
+			else mapP.put(collection.getName(i), 1D);
+			mapL.put(collection.getName(i), limit);
+		}
+
+		SplittableRandom master = new SplittableRandom(seed);
+		int done = 0;
+
+		while (done < maxPermutations && !active.isEmpty())
+		{
+			int[] act = active.stream().mapToInt(Integer::intValue).toArray();
+			int start = done;
+			int chunks = Math.min(chunksPerRound, (maxPermutations - start + chunkSize - 1) / chunkSize);
+
+			SplittableRandom[] randoms = new SplittableRandom[chunks];
+			for (int c = 0; c < chunks; c++)
+			{
+				randoms[c] = master.split();
+			}
+
+			int[][] counts = new int[chunks][];
+
+			try
+			{
+				pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(c ->
+				{
+					int perms = Math.min(chunkSize, maxPermutations - start - c * chunkSize);
+					int[] cnt = new int[act.length];
+					Sampler sampler = samplerFactory.get();
+
+					for (int p = 0; p < perms; p++)
+					{
+						long[] random = sampler.sample(randoms[c]);
+						for (int a = 0; a < act.length; a++)
+						{
+							if (bits[act[a]].andCount(random) >= observed[act[a]]) cnt[a]++;
+						}
+					}
+					counts[c] = cnt;
+				})).get();
+			}
+			catch (InterruptedException | ExecutionException e)
+			{
+				throw new RuntimeException(e);
+			}
+
+			done = Math.min(maxPermutations, start + chunks * chunkSize);
+
+			active.clear();
+			for (int a = 0; a < act.length; a++)
+			{
+				int i = act[a];
+				for (int[] cnt : counts) exceed[i] += cnt[a];
+				performed[i] = done;
+
+				if (exceed[i] < exceedanceLimit && done < maxPermutations) active.add(i);
+			}
+		}
+
+		for (int i = 0; i < n; i++)
+		{
+			if (performed[i] == 0) continue;
+
+			double p = exceed[i] >= exceedanceLimit ? exceed[i] / (double) performed[i] :
+				(exceed[i] + 1) / (double) (performed[i] + 1);
+
+			mapP.put(collection.getName(i), Math.min(1, p));
+		}
+
+		return new EnrichmentResult(mapP, mapL);
+	}
+
+	private static int wordLength(int[] sortedIDs)
+	{
+		return sortedIDs.length == 0 ? 0 : (sortedIDs[sortedIDs.length - 1] >>> 6) + 1;
+	}
+
+	/**
+	 * Intersection of two sorted arrays of distinct values.
+	 */
+	private static int[] intersect(int[] a, int[] b)
+	{
+		int[] c = new int[Math.min(a.length, b.length)];
+		int i = 0, j = 0, k = 0;
+		while (i < a.length && j < b.length)
+		{
+			if (a[i] < b[j]) i++;
+			else if (a[i] > b[j]) j++;
+			else
+			{
+				c[k++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(c, k);
+	}
+}
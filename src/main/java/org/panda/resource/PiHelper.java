@@ -23,7 +23,7 @@ public class PiHelper extends FileServer
 	private Set<String> nutraceutical;
 
 	private static PiHelper instance;
-	public static PiHelper get()
+	public static synchronized PiHelper get()
 	{
 		if (instance == null) instance = new PiHelper();
 		return instance;
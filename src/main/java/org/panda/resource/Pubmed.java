@@ -13,7 +13,7 @@ public class Pubmed extends FileServer
 
 	private static Pubmed instance;
 
-	public static Pubmed get()
+	public static synchronized Pubmed get()
 	{
 		if (instance == null) instance = new Pubmed();
 		return instance;
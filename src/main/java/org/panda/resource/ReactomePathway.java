@@ -39,6 +39,7 @@ public class ReactomePathway extends FileServer
 	private Map<String, Set<String>> gene2pathway;
 	private Map<String, Set<String>> pathway2gene;
 	private Map<String, String> pathway2name;
+	private EnrichmentEngine engine;
 
 	public static synchronized ReactomePathway get()
 	{
@@ -73,7 +74,7 @@ public class ReactomePathway extends FileServer
 			String name = t[1].substring(t[1].indexOf(" ") + 1, t[1].indexOf(";"));
 			pathway2name.put(id, name);
 
-			Set<String> group = new HashSet<>(Arrays.asList(t).subList(2, t.length));
+			Set<String> group = SymbolDictionary.internAll(Arrays.asList(t).subList(2, t.length));
 			if (groups.contains(group))
 			{
 //				System.err.println("Duplicate pathway: " + name);
@@ -128,6 +129,23 @@ public class ReactomePathway extends FileServer
 		return pathway2gene;
 	}
 
+	public synchronized EnrichmentEngine getEnrichmentEngine()
+	{
+		if (engine == null) engine = new EnrichmentEngine(new GeneSetCollection(pathway2gene));
+		return engine;
+	}
+
+	/**
+	 * Gets the enrichment pvals and pval limits of pathways.
+	 * @param background pass null to use all genes in pathways
+	 * @return two maps, first is for pvals, second is for limits
+	 */
+	public Map<String, Double>[] getEnrichmentPvals(Collection<String> genes, Collection<String> background,
+		int minMemberSize, int maxMemberSize)
+	{
+		return getEnrichmentEngine().test(genes, background, minMemberSize, maxMemberSize).toArray();
+	}
+
 	public String getName(String id)
 	{
 		return pathway2name.get(id);
@@ -13,7 +13,7 @@ public class ResourceDirectory
 
 	private static String directory;
 
-	public static String get()
+	public static synchronized String get()
 	{
 		if (directory == null)
 		{
@@ -33,7 +33,7 @@ public class ResourceDirectory
 		return directory;
 	}
 
-	public static void set(String directory)
+	public static synchronized void set(String directory)
 	{
 		ResourceDirectory.directory = directory;
 	}
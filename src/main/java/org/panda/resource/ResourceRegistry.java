@@ -0,0 +1,233 @@
+package org.panda.resource;
+
+import org.panda.resource.network.*;
+import org.panda.resource.siteeffect.PhosphoSitePlus;
+import org.panda.resource.siteeffect.Signor;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Knows the resource singletons and their load dependencies, and warms them up concurrently. A resource is loaded
+ * only after the resources it uses during its load are ready, so the loading threads never wait on each other.
+ * Resources that intern gene symbols depend on HGNC, so that the approved symbols take the first SymbolDictionary IDs.
+ *
+ * Example: ResourceRegistry.preload(HGNC.class, NetworKIN.class, GO.class).join();
+ */
+public class ResourceRegistry
+{
+	private static final Map<Class<? extends FileServer>, Supplier<? extends FileServer>> accessors =
+		new LinkedHashMap<>();
+
+	private static final Map<Class<? extends FileServer>, Set<Class<? extends FileServer>>> dependencies =
+		new HashMap<>();
+
+	private static final Map<Class<? extends FileServer>, CompletableFuture<FileServer>> futures = new HashMap<>();
+
+	private static final Map<Class<? extends FileServer>, LoadReport> reports = new ConcurrentHashMap<>();
+
+	private static int parallelism = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+	private static ExecutorService executor;
+
+	static
+	{
+		register(HGNC.class, HGNC::get);
+		register(UniProtSequence.class, UniProtSequence::get);
+		register(GO.class, GO::get, HGNC.class);
+		register(MSigDB.class, MSigDB::get, HGNC.class);
+		register(ChEBI.class, ChEBI::get);
+		register(PCPathway.class, PCPathway::get, HGNC.class);
+		register(ReactomePathway.class, ReactomePathway::get, HGNC.class);
+		register(HG37.class, HG37::get, HGNC.class);
+		register(HG38.class, HG38::get, HGNC.class);
+		register(LiftOver.Hg19ToHg38.class, LiftOver.Hg19ToHg38::get);
+		register(LiftOver.Hg38ToHg19.class, LiftOver.Hg38ToHg19::get);
+		register(PathwayCommons.class, PathwayCommons::get);
+		register(SignedPC.class, SignedPC::get);
+		register(IPTMNet.class, IPTMNet::get);
+		register(PhosphoNetworks.class, PhosphoNetworks::get);
+		register(Signor.class, Signor::get, HGNC.class);
+		register(PhosphoSitePlus.class, PhosphoSitePlus::get, HGNC.class);
+		register(NetworKIN.class, NetworKIN::get, HGNC.class, UniProtSequence.class);
+		register(KinaseLibraryNetwork.class, KinaseLibraryNetwork::get, HGNC.class, UniProtSequence.class);
+		register(ActivityNetwork.class, ActivityNetwork::get, SignedPC.class, IPTMNet.class, PhosphoNetworks.class,
+			PhosphoSitePlus.class, Signor.class, HGNC.class);
+	}
+
+	/**
+	 * Registers a resource with the resources that its load method uses.
+	 *
+	 * @param dependsOn FileServer classes
+	 */
+	public static synchronized <T extends FileServer> void register(Class<T> type, Supplier<T> accessor,
+		Class<?>... dependsOn)
+	{
+		accessors.put(type, accessor);
+		dependencies.put(type, asResources(dependsOn));
+	}
+
+	/**
+	 * The varargs methods take plain classes, since an array of Class<? extends FileServer> is not reifiable.
+	 *
+	 * @throws ClassCastException if a class is not a FileServer
+	 */
+	private static Set<Class<? extends FileServer>> asResources(Class<?>[] types)
+	{
+		Set<Class<? extends FileServer>> set = new LinkedHashSet<>();
+		for (Class<?> type : types)
+		{
+			set.add(type.asSubclass(FileServer.class));
+		}
+		return set;
+	}
+
+	/**
+	 * Sets the number of threads for loading. Has effect only before the first load.
+	 */
+	public static synchronized void setParallelism(int parallelism)
+	{
+		ResourceRegistry.parallelism = parallelism;
+	}
+
+	public static synchronized Set<Class<? extends FileServer>> getRegisteredResources()
+	{
+		return new LinkedHashSet<>(accessors.keySet());
+	}
+
+	/**
+	 * Starts loading the given resource, after its dependencies.
+	 * @return future of the loaded resource
+	 */
+	@SuppressWarnings("unchecked")
+	public static synchronized <T extends FileServer> CompletableFuture<T> load(Class<T> type)
+	{
+		return (CompletableFuture<T>) load(type, new LinkedHashSet<>());
+	}
+
+	private static CompletableFuture<FileServer> load(Class<? extends FileServer> type,
+		Set<Class<? extends FileServer>> visiting)
+	{
+		if (futures.containsKey(type)) return futures.get(type);
+
+		Supplier<? extends FileServer> accessor = accessors.get(type);
+		if (accessor == null) throw new IllegalArgumentException(type.getName() + " is not registered.");
+
+		if (!visiting.add(type)) throw new IllegalStateException("Circular dependency: " + visiting + " -> " + type);
+
+		CompletableFuture<?>[] deps = dependencies.get(type).stream().map(dep -> load(dep, visiting))
+			.toArray(CompletableFuture[]::new);
+
+		visiting.remove(type);
+
+		CompletableFuture<FileServer> future = CompletableFuture.allOf(deps)
+			.thenApplyAsync(v -> measure(type, accessor), getExecutor());
+
+		futures.put(type, future);
+		return future;
+	}
+
+	/**
+	 * Loads the given resources concurrently.
+	 *
+	 * @param types FileServer classes
+	 * @return a future that completes when all of them are loaded
+	 */
+	public static synchronized CompletableFuture<Void> preload(Class<?>... types)
+	{
+		return CompletableFuture.allOf(asResources(types).stream().map(ResourceRegistry::load)
+			.toArray(CompletableFuture[]::new));
+	}
+
+	/**
+	 * Loads all registered resources concurrently.
+	 */
+	public static synchronized CompletableFuture<Void> preloadAll()
+	{
+		return CompletableFuture.allOf(accessors.keySet().stream().map(ResourceRegistry::load)
+			.toArray(CompletableFuture[]::new));
+	}
+
+	private static FileServer measure(Class<? extends FileServer> type, Supplier<? extends FileServer> accessor)
+	{
+		Runtime rt = Runtime.getRuntime();
+		long heapBefore = rt.totalMemory() - rt.freeMemory();
+		long start = System.currentTimeMillis();
+
+		FileServer server = accessor.get();
+
+		long time = System.currentTimeMillis() - start;
+		long heapAfter = rt.totalMemory() - rt.freeMemory();
+
+		reports.put(type, new LoadReport(type, time, heapAfter - heapBefore));
+		return server;
+	}
+
+	private static synchronized ExecutorService getExecutor()
+	{
+		if (executor == null)
+		{
+			executor = Executors.newFixedThreadPool(parallelism, r ->
+			{
+				Thread t = new Thread(r, "resource-loader");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return executor;
+	}
+
+	public static LoadReport getReport(Class<? extends FileServer> type)
+	{
+		return reports.get(type);
+	}
+
+	public static void printReports()
+	{
+		reports.values().stream().sorted(Comparator.comparing(r -> -r.millis)).forEach(System.out::println);
+	}
+
+	/**
+	 * Load time and heap growth of a resource. The heap growth is approximate when other resources are loading at
+	 * the same time, or when a garbage collection happens during the load. Use parallelism 1 for exact numbers.
+	 */
+	public static class LoadReport
+	{
+		private final Class<? extends FileServer> type;
+		private final long millis;
+		private final long heapBytes;
+
+		LoadReport(Class<? extends FileServer> type, long millis, long heapBytes)
+		{
+			this.type = type;
+			this.millis = millis;
+			this.heapBytes = heapBytes;
+		}
+
+		public long getMillis()
+		{
+			return millis;
+		}
+
+		public long getHeapBytes()
+		{
+			return heapBytes;
+		}
+
+		@Override
+		public String toString()
+		{
+			return type.getSimpleName() + "\t" + millis + " ms\t" + (heapBytes / 1048576) + " MB";
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		long start = System.currentTimeMillis();
+		preload(HGNC.class, UniProtSequence.class, PhosphoSitePlus.class, Signor.class, SignedPC.class, GO.class,
+			MSigDB.class, PCPathway.class).join();
+		System.out.println("Total: " + (System.currentTimeMillis() - start) + " ms");
+		printReports();
+	}
+}
@@ -0,0 +1,315 @@
+package org.panda.resource;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Protein sequences packed into a single file with one byte per residue, which is memory-mapped. Each sequence is
+ * identified by its index in the store, and an in-memory index keeps the offset and length of each sequence. Reads
+ * use absolute positions on the mapped buffer, so they are safe from multiple threads and do not allocate.
+ *
+ * Positions in sequences are 1-based, as in the rest of the resources.
+ */
+public class SequenceStore
+{
+	private final String[] ids;
+	private final Map<String, Integer> index;
+	private final int[] offset;
+	private final int[] length;
+	private final MappedByteBuffer residues;
+
+	private SequenceStore(String[] ids, int[] offset, int[] length, String residueFile) throws IOException
+	{
+		this.ids = ids;
+		this.offset = offset;
+		this.length = length;
+
+		index = new HashMap<>((int) (ids.length / 0.75) + 1);
+		for (int i = 0; i < ids.length; i++)
+		{
+			index.put(ids[i], i);
+		}
+
+		long total = ids.length == 0 ? 0 : (long) offset[ids.length - 1] + length[ids.length - 1];
+
+		try (FileChannel channel = FileChannel.open(Paths.get(residueFile), StandardOpenOption.READ))
+		{
+			if (channel.size() != total) throw new IOException("Residue file " + residueFile + " has " +
+				channel.size() + " bytes, but the index expects " + total);
+
+			residues = channel.map(FileChannel.MapMode.READ_ONLY, 0, total);
+		}
+	}
+
+	public int size()
+	{
+		return ids.length;
+	}
+
+	/**
+	 * @return index of the sequence, or -1 if it is not in the store
+	 */
+	public int indexOf(String id)
+	{
+		Integer i = index.get(id);
+		return i == null ? -1 : i;
+	}
+
+	public String getID(int protIdx)
+	{
+		return ids[protIdx];
+	}
+
+	public int length(int protIdx)
+	{
+		return length[protIdx];
+	}
+
+	/**
+	 * @param pos 1-based position
+	 * @return the residue letter, or 0 if the position is out of the sequence
+	 */
+	public char aminoAcidAt(int protIdx, int pos)
+	{
+		if (pos < 1 || pos > length[protIdx]) return 0;
+		return (char) residues.get(offset[protIdx] + pos - 1);
+	}
+
+	/**
+	 * Copies the residues from pos - before to pos + after into the buffer. Positions that are out of the sequence
+	 * are filled with the pad byte.
+	 *
+	 * @return number of residues that are in the sequence
+	 */
+	public int copyWindow(int protIdx, int pos, int before, int after, byte[] buf, int bufOffset, byte pad)
+	{
+		int from = pos - before;
+		int to = pos + after;
+		int len = length[protIdx];
+		int base = offset[protIdx] - 1;
+		int copied = 0;
+
+		for (int p = from, i = bufOffset; p <= to; p++, i++)
+		{
+			if (p < 1 || p > len) buf[i] = pad;
+			else
+			{
+				buf[i] = residues.get(base + p);
+				copied++;
+			}
+		}
+		return copied;
+	}
+
+	/**
+	 * Copies the whole sequence into the buffer.
+	 */
+	public void copySequence(int protIdx, byte[] buf, int bufOffset)
+	{
+		int off = offset[protIdx];
+		for (int i = 0; i < length[protIdx]; i++)
+		{
+			buf[bufOffset + i] = residues.get(off + i);
+		}
+	}
+
+	public String getSequence(int protIdx)
+	{
+		byte[] b = new byte[length[protIdx]];
+		copySequence(protIdx, b, 0);
+		return new String(b, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @return 1-based start position of the first occurrence of the peptide in the sequence, or 0 if it does not occur
+	 */
+	public int find(int protIdx, String peptide)
+	{
+		int off = offset[protIdx];
+		int n = length[protIdx] - peptide.length();
+
+		for (int i = 0; i <= n; i++)
+		{
+			int j = 0;
+			while (j < peptide.length() && residues.get(off + i + j) == peptide.charAt(j)) j++;
+			if (j == peptide.length()) return i + 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Position of the first residue of the sequence in the residue file.
+	 */
+	public int getOffset(int protIdx)
+	{
+		return offset[protIdx];
+	}
+
+	/**
+	 * Residue at the given position of the residue file.
+	 */
+	public byte residueAt(int filePos)
+	{
+		return residues.get(filePos);
+	}
+
+	/**
+	 * Index of the sequence that contains the given position of the residue file.
+	 */
+	public int proteinAt(int filePos)
+	{
+		int i = Arrays.binarySearch(offset, filePos);
+		if (i < 0) i = -i - 2;
+
+		// Skip empty sequences that share the offset
+		while (i + 1 < offset.length && offset[i + 1] == filePos) i++;
+		return i;
+	}
+
+	/**
+	 * Total number of residues in the store.
+	 */
+	public long getResidueCount()
+	{
+		return residues.capacity();
+	}
+
+	/**
+	 * A hash of the IDs and residues of the selected sequences, for detecting changes in them.
+	 */
+	public long fingerprint(IntPredicate filter)
+	{
+		long h = 0xCBF29CE484222325L;
+		for (int p = 0; p < ids.length; p++)
+		{
+			if (!filter.test(p)) continue;
+
+			h = h * 31 + ids[p].hashCode();
+			for (int i = offset[p]; i < offset[p] + length[p]; i++)
+			{
+				h = (h ^ residues.get(i)) * 0x100000001B3L;
+			}
+		}
+		return h;
+	}
+
+	// Section: Persistence
+
+	/**
+	 * Writes the index. The residues are already in their file.
+	 */
+	public void writeIndex(DataOutput out) throws IOException
+	{
+		out.writeInt(ids.length);
+		for (int i = 0; i < ids.length; i++)
+		{
+			out.writeUTF(ids[i]);
+			out.writeInt(offset[i]);
+			out.writeInt(length[i]);
+		}
+	}
+
+	/**
+	 * Reads an index that writeIndex wrote, and maps the residue file.
+	 */
+	public static SequenceStore read(DataInput in, String residueFile) throws IOException
+	{
+		int n = in.readInt();
+		String[] ids = new String[n];
+		int[] offset = new int[n];
+		int[] length = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			ids[i] = in.readUTF();
+			offset[i] = in.readInt();
+			length[i] = in.readInt();
+		}
+		return new SequenceStore(ids, offset, length, residueFile);
+	}
+
+	/**
+	 * Writes sequences to a residue file while they are parsed. The file is written to a temporary location and moved
+	 * in place on close, so a store that is mapped from the previous file stays valid.
+	 */
+	public static class Writer implements Closeable
+	{
+		private final Path file;
+		private final Path temp;
+		private final OutputStream out;
+
+		private String[] ids = new String[1024];
+		private int[] offset = new int[1024];
+		private int[] length = new int[1024];
+		private int size = 0;
+		private long total = 0;
+
+		public Writer(String residueFile) throws IOException
+		{
+			file = Paths.get(residueFile);
+			temp = Paths.get(residueFile + ".tmp");
+			out = new BufferedOutputStream(Files.newOutputStream(temp), 1 << 20);
+		}
+
+		/**
+		 * Starts a new sequence. Following appends go to this sequence.
+		 */
+		public void start(String id)
+		{
+			if (size == ids.length)
+			{
+				ids = Arrays.copyOf(ids, size * 2);
+				offset = Arrays.copyOf(offset, size * 2);
+				length = Arrays.copyOf(length, size * 2);
+			}
+			ids[size] = id;
+			offset[size] = (int) total;
+			size++;
+		}
+
+		/**
+		 * Appends residue letters, such as a line of a FASTA record, to the current sequence.
+		 */
+		public void append(CharSequence residues) throws IOException
+		{
+			if (size == 0) throw new IllegalStateException("No sequence is started.");
+
+			int n = residues.length();
+			if (total + n > Integer.MAX_VALUE) throw new IOException("Sequences exceed the 2 GB store limit.");
+
+			for (int i = 0; i < n; i++)
+			{
+				out.write(residues.charAt(i));
+			}
+			length[size - 1] += n;
+			total += n;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			out.close();
+		}
+
+		/**
+		 * Closes the file, moves it in place, and maps it.
+		 */
+		public SequenceStore finish() throws IOException
+		{
+			close();
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return new SequenceStore(Arrays.copyOf(ids, size), Arrays.copyOf(offset, size),
+				Arrays.copyOf(length, size), file.toString());
+		}
+	}
+}
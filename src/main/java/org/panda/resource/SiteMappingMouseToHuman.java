@@ -16,7 +16,7 @@ public class SiteMappingMouseToHuman extends FileServer
 	Map<String, Map<String, String>> mouseToHumanSiteMap;
 
 	private static SiteMappingMouseToHuman instance;
-	public static SiteMappingMouseToHuman get()
+	public static synchronized SiteMappingMouseToHuman get()
 	{
 		if (instance == null) instance = new SiteMappingMouseToHuman();
 		return instance;
@@ -12,7 +12,7 @@ public class SiteMappingRatToHuman  extends SiteMappingMouseToHuman
 {
 	private static SiteMappingRatToHuman instance;
 
-	public static SiteMappingRatToHuman get()
+	public static synchronized SiteMappingRatToHuman get()
 	{
 		if (instance == null) instance = new SiteMappingRatToHuman();
 		return instance;
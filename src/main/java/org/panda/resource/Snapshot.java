@@ -0,0 +1,323 @@
+package org.panda.resource;
+
+import org.panda.resource.network.SignedPC;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the versioned binary snapshots of FileServer structures. A snapshot starts with a header that
+ * records the format version, the resource class and its snapshot version, and the size, modification time and a
+ * content fingerprint of each source file. The snapshot is used only if all of those still match.
+ *
+ * The static helper methods serialize the map types that are common in resource classes, sharing the string
+ * instances through a string table.
+ */
+public class Snapshot
+{
+	private static final int MAGIC = 0x50534E50;
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Number of bytes from the head and the tail of a source file that go into the fingerprint.
+	 */
+	private static final int FINGERPRINT_SAMPLE = 1 << 20;
+
+	private static boolean enabled = !"false".equals(System.getProperty("panda.snapshot"));
+
+	public static void setEnabled(boolean enabled)
+	{
+		Snapshot.enabled = enabled;
+	}
+
+	public static boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * Reconstructs the given server from its snapshot, if there is a valid one.
+	 * @return true if the server is loaded from the snapshot
+	 */
+	static boolean read(FileServer server)
+	{
+		if (!enabled) return false;
+
+		File file = new File(server.getSnapshotFile());
+		if (!file.exists()) return false;
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			DataInputStream in = new DataInputStream(new ByteBufferInputStream(buf));
+
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) return false;
+			if (!in.readUTF().equals(server.getClass().getName())) return false;
+			if (in.readInt() != server.getSnapshotVersion()) return false;
+
+			String[] sources = server.getSnapshotSourceFiles();
+			if (in.readInt() != sources.length) return false;
+
+			for (String source : sources)
+			{
+				File src = new File(source);
+				if (!src.exists()) return false;
+				if (in.readLong() != src.length()) return false;
+				if (in.readLong() != src.lastModified()) return false;
+				if (in.readLong() != fingerprint(src)) return false;
+			}
+
+			server.readSnapshot(in);
+			return true;
+		}
+		catch (IOException | RuntimeException e)
+		{
+			System.err.println("Ignoring unreadable snapshot " + file + ": " + e);
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the snapshot of the given loaded server. The file is first written to a temporary location and then
+	 * moved, so a partially written snapshot is never picked up.
+	 */
+	static void write(FileServer server)
+	{
+		if (!enabled) return;
+
+		Path path = Paths.get(server.getSnapshotFile());
+		Path temp = Paths.get(server.getSnapshotFile() + ".tmp");
+
+		try
+		{
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				Files.newOutputStream(temp), 1 << 16)))
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(server.getClass().getName());
+				out.writeInt(server.getSnapshotVersion());
+
+				String[] sources = server.getSnapshotSourceFiles();
+				out.writeInt(sources.length);
+				for (String source : sources)
+				{
+					File src = new File(source);
+					out.writeLong(src.length());
+					out.writeLong(src.lastModified());
+					out.writeLong(fingerprint(src));
+				}
+
+				server.writeSnapshot(out);
+			}
+
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			System.err.println("Cannot write snapshot " + path + ": " + e);
+			try
+			{
+				Files.deleteIfExists(temp);
+			}
+			catch (IOException ignored){}
+		}
+	}
+
+	/**
+	 * CRC32 of the head and tail of the file. Together with the size and modification time this is enough to detect
+	 * replaced resource files without reading them completely.
+	 */
+	static long fingerprint(File file) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		byte[] b = new byte[FINGERPRINT_SAMPLE];
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+		{
+			long size = raf.length();
+			int n = (int) Math.min(size, FINGERPRINT_SAMPLE);
+			raf.readFully(b, 0, n);
+			crc.update(b, 0, n);
+
+			if (size > FINGERPRINT_SAMPLE)
+			{
+				raf.seek(size - FINGERPRINT_SAMPLE);
+				raf.readFully(b);
+				crc.update(b);
+			}
+		}
+		return crc.getValue();
+	}
+
+	// Section: Serialization helpers
+
+	public static void writeStringMap(DataOutput out, Map<String, String> map) throws IOException
+	{
+		Map<String, Integer> pool = new LinkedHashMap<>();
+		map.forEach((k, v) ->
+		{
+			pool.putIfAbsent(k, pool.size());
+			pool.putIfAbsent(v, pool.size());
+		});
+		writePool(out, pool);
+
+		out.writeInt(map.size());
+		for (Map.Entry<String, String> entry : map.entrySet())
+		{
+			out.writeInt(pool.get(entry.getKey()));
+			out.writeInt(pool.get(entry.getValue()));
+		}
+	}
+
+	public static Map<String, String> readStringMap(DataInput in) throws IOException
+	{
+		String[] pool = readPool(in);
+
+		int size = in.readInt();
+		Map<String, String> map = new HashMap<>(capacity(size));
+		for (int i = 0; i < size; i++)
+		{
+			map.put(pool[in.readInt()], pool[in.readInt()]);
+		}
+		return map;
+	}
+
+	public static void writeSetMap(DataOutput out, Map<String, Set<String>> map) throws IOException
+	{
+		Map<String, Integer> pool = new LinkedHashMap<>();
+		map.forEach((k, set) ->
+		{
+			pool.putIfAbsent(k, pool.size());
+			set.forEach(v -> pool.putIfAbsent(v, pool.size()));
+		});
+		writePool(out, pool);
+
+		out.writeInt(map.size());
+		for (Map.Entry<String, Set<String>> entry : map.entrySet())
+		{
+			out.writeInt(pool.get(entry.getKey()));
+			out.writeInt(entry.getValue().size());
+			for (String v : entry.getValue())
+			{
+				out.writeInt(pool.get(v));
+			}
+		}
+	}
+
+	public static Map<String, Set<String>> readSetMap(DataInput in) throws IOException
+	{
+		String[] pool = readPool(in);
+
+		int size = in.readInt();
+		Map<String, Set<String>> map = new HashMap<>(capacity(size));
+		for (int i = 0; i < size; i++)
+		{
+			String key = pool[in.readInt()];
+			int n = in.readInt();
+			Set<String> set = new HashSet<>(capacity(n));
+			for (int j = 0; j < n; j++)
+			{
+				set.add(pool[in.readInt()]);
+			}
+			map.put(key, set);
+		}
+		return map;
+	}
+
+	private static void writePool(DataOutput out, Map<String, Integer> pool) throws IOException
+	{
+		out.writeInt(pool.size());
+		for (String s : pool.keySet())
+		{
+			out.writeUTF(s);
+		}
+	}
+
+	private static String[] readPool(DataInput in) throws IOException
+	{
+		String[] pool = new String[in.readInt()];
+		for (int i = 0; i < pool.length; i++)
+		{
+			pool[i] = in.readUTF();
+		}
+		return pool;
+	}
+
+	private static int capacity(int size)
+	{
+		return (int) (size / 0.75) + 1;
+	}
+
+	/**
+	 * Lets a DataInputStream read directly from a memory-mapped buffer.
+	 */
+	private static class ByteBufferInputStream extends InputStream
+	{
+		private final ByteBuffer buf;
+
+		ByteBufferInputStream(ByteBuffer buf)
+		{
+			this.buf = buf;
+		}
+
+		@Override
+		public int read()
+		{
+			return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len)
+		{
+			if (!buf.hasRemaining()) return -1;
+			len = Math.min(len, buf.remaining());
+			buf.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public int available()
+		{
+			return buf.remaining();
+		}
+	}
+
+	// Section: Startup time comparison
+
+	public static void main(String[] args) throws IOException
+	{
+		compareStartupTimes(HGNC.get());
+		compareStartupTimes(GO.get());
+		compareStartupTimes(SignedPC.get());
+	}
+
+	/**
+	 * Prints the time it takes to load the given resource from its text files and from its snapshot.
+	 */
+	private static void compareStartupTimes(FileServer server) throws IOException
+	{
+		long t = System.currentTimeMillis();
+		server.load();
+		long textTime = System.currentTimeMillis() - t;
+
+		write(server);
+
+		t = System.currentTimeMillis();
+		boolean success = read(server);
+		long snapTime = System.currentTimeMillis() - t;
+
+		System.out.println(server.getClass().getSimpleName() + "\ttext load = " + textTime + " ms\tsnapshot load = " +
+			(success ? snapTime + " ms" : "failed") + "\tsnapshot size = " +
+			new File(server.getSnapshotFile()).length() / 1024 + " KB");
+	}
+}
@@ -0,0 +1,229 @@
+package org.panda.resource;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A global dictionary of gene symbols that is shared by all resources. Each symbol gets a dense int ID, and a single
+ * String instance that the resources keep instead of their own copies. HGNC seeds the dictionary with the approved
+ * symbols when it loads, and if nothing was interned before that, they take the IDs from 0 in alphabetical order.
+ * ResourceRegistry loads HGNC before the resources that intern symbols, so this holds for its warm-ups. Other
+ * symbols get the following IDs as they are interned. Interning does not load HGNC.
+ *
+ * Interning can be turned off with the system property panda.intern=false, for instance to compare heap usage.
+ */
+public class SymbolDictionary
+{
+	private static SymbolDictionary instance;
+
+	private static boolean enabled = !"false".equals(System.getProperty("panda.intern"));
+
+	/**
+	 * Symbol to its entry. Lookups do not lock.
+	 */
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>(1 << 16);
+
+	/**
+	 * ID to symbol. Replaced when it grows, and always published before the entries that refer to its new slots.
+	 */
+	private volatile String[] symbols = new String[1 << 16];
+
+	private int size;
+
+	private int hgncSize;
+
+	public static synchronized SymbolDictionary get()
+	{
+		if (instance == null) instance = new SymbolDictionary();
+		return instance;
+	}
+
+	public static void setEnabled(boolean enabled)
+	{
+		SymbolDictionary.enabled = enabled;
+	}
+
+	public static boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * Resources use the shared instance. Separate instances are for tests.
+	 */
+	SymbolDictionary()
+	{
+	}
+
+	/**
+	 * Adds the approved HGNC symbols in alphabetical order. If the dictionary is empty, they take the IDs in
+	 * [0, getHGNCSize()). Otherwise they are added after the existing symbols, and getHGNCSize stays 0. Seeding more
+	 * than once only adds the symbols that are new.
+	 */
+	public synchronized void seedApproved(Collection<String> approved)
+	{
+		boolean empty = size == 0;
+
+		List<String> sorted = new ArrayList<>(approved);
+		Collections.sort(sorted);
+		sorted.forEach(this::getID);
+
+		if (empty) hgncSize = size;
+	}
+
+	/**
+	 * Gets the shared instance of the given symbol, adding it to the dictionary if it is new.
+	 */
+	public static String intern(String symbol)
+	{
+		if (!enabled || symbol == null) return symbol;
+		SymbolDictionary dict = get();
+		Entry entry = dict.entries.get(symbol);
+		if (entry != null) return entry.symbol;
+
+		// The array can be replaced while the ID is added, so it is read only after that
+		int id = dict.getID(symbol);
+		return dict.getSymbol(id);
+	}
+
+	/**
+	 * Replaces the symbols in the given collection with their shared instances.
+	 */
+	public static Set<String> internAll(Collection<String> symbols)
+	{
+		Set<String> set = new HashSet<>((int) (symbols.size() / 0.75) + 1);
+		for (String symbol : symbols)
+		{
+			set.add(intern(symbol));
+		}
+		return set;
+	}
+
+	/**
+	 * Gets the ID of the given symbol, adding it to the dictionary if it is new.
+	 */
+	public int getID(String symbol)
+	{
+		Entry entry = entries.get(symbol);
+		if (entry != null) return entry.id;
+
+		synchronized (this)
+		{
+			entry = entries.get(symbol);
+			if (entry != null) return entry.id;
+
+			if (size == symbols.length) symbols = Arrays.copyOf(symbols, size * 2);
+			String[] arr = symbols;
+			arr[size] = symbol;
+			symbols = arr;
+
+			entries.put(symbol, new Entry(size, symbol));
+			return size++;
+		}
+	}
+
+	/**
+	 * Gets the ID of the given symbol without adding it.
+	 * @return the ID, or -1 if the symbol is not in the dictionary
+	 */
+	public int lookup(String symbol)
+	{
+		Entry entry = entries.get(symbol);
+		return entry == null ? -1 : entry.id;
+	}
+
+	public String getSymbol(int id)
+	{
+		return symbols[id];
+	}
+
+	/**
+	 * Converts the given symbols to a sorted array of distinct IDs. Symbols that are not in the dictionary are
+	 * skipped.
+	 */
+	public int[] toSortedIDs(Collection<String> symbols)
+	{
+		int[] ids = new int[symbols.size()];
+		int n = 0;
+		for (String symbol : symbols)
+		{
+			int id = lookup(symbol);
+			if (id >= 0) ids[n++] = id;
+		}
+		return distinctSorted(ids, n);
+	}
+
+	public Set<String> toSymbols(int[] ids)
+	{
+		Set<String> set = new HashSet<>((int) (ids.length / 0.75) + 1);
+		for (int id : ids)
+		{
+			set.add(symbols[id]);
+		}
+		return set;
+	}
+
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Number of the IDs that belong to approved HGNC symbols. These are the IDs in [0, getHGNCSize()). It is 0 if
+	 * the dictionary was not empty when HGNC seeded it.
+	 */
+	public synchronized int getHGNCSize()
+	{
+		return hgncSize;
+	}
+
+	static int[] distinctSorted(int[] ids, int n)
+	{
+		Arrays.sort(ids, 0, n);
+		int m = 0;
+		for (int i = 0; i < n; i++)
+		{
+			if (m == 0 || ids[i] != ids[m - 1]) ids[m++] = ids[i];
+		}
+		return m == ids.length ? ids : Arrays.copyOf(ids, m);
+	}
+
+	private static class Entry
+	{
+		final int id;
+		final String symbol;
+
+		Entry(int id, String symbol)
+		{
+			this.id = id;
+			this.symbol = symbol;
+		}
+	}
+
+	// Section: Heap footprint comparison
+
+	/**
+	 * Loads the gene-keyed resources and prints the used heap. Run once as is, and once with -Dpanda.intern=false
+	 * to see the reduction.
+	 */
+	public static void main(String[] args)
+	{
+		ResourceRegistry.setParallelism(1);
+		ResourceRegistry.preload(HGNC.class, GO.class, MSigDB.class, PCPathway.class,
+			org.panda.resource.siteeffect.PhosphoSitePlus.class, org.panda.resource.siteeffect.Signor.class).join();
+		ResourceRegistry.printReports();
+
+		GeneSetCollection msig = MSigDB.get().getGeneSetCollection();
+		GeneSetCollection go = GO.get().getGeneSetCollection();
+		GeneSetCollection pc = PCPathway.get().getGeneSetCollection();
+
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) System.gc();
+
+		System.out.println("Interning " + (enabled ? "on" : "off") + ", symbols in dictionary: " +
+			(enabled ? get().size() : 0));
+		System.out.println("Used heap: " + (rt.totalMemory() - rt.freeMemory()) / 1048576 + " MB");
+		System.out.println("Int-keyed gene set footprints: MSigDB " + msig.estimateBytes() / 1024 + " KB, GO " +
+			go.estimateBytes() / 1024 + " KB, PCPathway " + pc.estimateBytes() / 1024 + " KB");
+	}
+}
@@ -6,19 +6,40 @@
 package org.panda.resource;
 
 import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.IntPredicate;
 
 import org.panda.utility.TermCounter;
 
 public class UniProtSequence extends FileServer {
     private static UniProtSequence instance;
+
+    /**
+     * One-letter strings of the ASCII characters, so that single residue lookups do not allocate.
+     */
+    private static final String[] AMINO_ACIDS = new String[128];
+    static {
+        for (int i = 0; i < AMINO_ACIDS.length; i++) {
+            AMINO_ACIDS[i] = String.valueOf((char) i);
+        }
+    }
     private Map<String, String> nameToID;
     private Map<String, String> idToName;
     private Map<String, String> nameToSymbol;
     private Map<String, Map<String, String>> symbolToNames;
-    private Map<String, String> idToSeq;
+
+    /**
+     * Sequences in a memory-mapped residue file, indexed by UniProt ID.
+     */
+    private SequenceStore store;
+    private PeptideIndex peptideIndex;
 
     public UniProtSequence() {
     }
@@ -39,40 +60,53 @@ public class UniProtSequence extends FileServer {
         return new String[]{"ftp://ftp.uniprot.org/pub/databases/uniprot/current_release/knowledgebase/complete/uniprot_sprot.fasta.gz"};
     }
 
-    public int getStartLocation(String nameOrID, String peptide) {
+    /**
+     * Gets the index of the protein in the sequence store.
+     *
+     * @return the index, or -1 if the protein is not known
+     */
+    public int getIndex(String nameOrID) {
         String id = this.nameToID.get(nameOrID);
-        if (id == null && this.idToSeq.containsKey(nameOrID)) {
-            id = nameOrID;
-        }
+        return this.store.indexOf(id != null ? id : nameOrID);
+    }
 
-        if (id != null) {
-            String seq = this.idToSeq.get(id);
+    public SequenceStore getStore() {
+        return this.store;
+    }
 
-            assert seq != null;
+    /**
+     * Gets the proteome-wide peptide and motif index, which is built at the first call.
+     */
+    public synchronized PeptideIndex getPeptideIndex() {
+        if (this.peptideIndex == null) {
+            this.peptideIndex = new PeptideIndex(this.store);
+        }
+        return this.peptideIndex;
+    }
 
-            return seq.indexOf(peptide) + 1;
-        } else {
-            return -1;
+    /**
+     * Finds the UniProt IDs of the proteins that contain the peptide, mapped to the 1-based start locations.
+     */
+    public Map<String, List<Integer>> getLocationsOfPeptide(String peptide) {
+        Map<String, List<Integer>> map = new HashMap<>();
+        for (PeptideIndex.Match match : this.getPeptideIndex().find(peptide)) {
+            map.computeIfAbsent(this.store.getID(match.protein), k -> new ArrayList<>()).add(match.position);
         }
+        return map;
+    }
+
+    public int getStartLocation(String nameOrID, String peptide) {
+        int idx = this.getIndex(nameOrID);
+        return idx < 0 ? -1 : this.store.find(idx, peptide);
     }
 
     public String getAminoacidAt(String nameOrID, int loc) {
         if (loc < 1) {
             throw new IllegalArgumentException("Location cannot be smaller than 1. loc = " + loc);
         } else {
-            String id = this.nameToID.get(nameOrID);
-            if (id == null && this.idToSeq.containsKey(nameOrID)) {
-                id = nameOrID;
-            }
-
-            if (id != null) {
-                String seq = this.idToSeq.get(id);
-
-                assert seq != null;
-
-                if (loc <= seq.length()) {
-                    return seq.substring(loc - 1, loc);
-                }
+            int idx = this.getIndex(nameOrID);
+            if (idx >= 0 && loc <= this.store.length(idx)) {
+                return AMINO_ACIDS[this.store.aminoAcidAt(idx, loc) & 0x7F];
             }
 
             return null;
@@ -81,17 +115,8 @@ public class UniProtSequence extends FileServer {
 
     public String getSequence(String nameOrID)
     {
-        String id = this.nameToID.get(nameOrID);
-        if (id == null && this.idToSeq.containsKey(nameOrID))
-        {
-            id = nameOrID;
-        }
-
-        if (id != null)
-        {
-            return this.idToSeq.get(id);
-        }
-        return null;
+        int idx = this.getIndex(nameOrID);
+        return idx < 0 ? null : this.store.getSequence(idx);
     }
 
     public String getSeqAround(String nameOrID, int loc, int width) {
@@ -102,19 +127,13 @@ public class UniProtSequence extends FileServer {
         } else if (loc <= width / 2) {
             throw new IllegalArgumentException("The location has to be greater than width/2. width = " + width + ", loc = " + loc);
         } else {
-            String id = (String) this.nameToID.get(nameOrID);
-            if (id == null && this.idToSeq.containsKey(nameOrID)) {
-                id = nameOrID;
-            }
-
-            if (id != null) {
-                String seq = this.idToSeq.get(id);
-
-                assert seq != null;
-
+            int idx = this.getIndex(nameOrID);
+            if (idx >= 0) {
                 int halfW = width / 2;
-                if (loc <= seq.length() - halfW) {
-                    return seq.substring(loc - halfW - 1, loc + halfW);
+                if (loc <= this.store.length(idx) - halfW) {
+                    byte[] buf = new byte[width];
+                    this.store.copyWindow(idx, loc, halfW, halfW, buf, 0, (byte) 'X');
+                    return new String(buf, StandardCharsets.US_ASCII);
                 }
             }
 
@@ -122,19 +141,9 @@ public class UniProtSequence extends FileServer {
         }
     }
     public String getAAAt(String nameOrID, int loc) {
-        String id = this.nameToID.get(nameOrID);
-        if (id == null && this.idToSeq.containsKey(nameOrID)) {
-            id = nameOrID;
-        }
-
-        if (id != null) {
-            String seq = this.idToSeq.get(id);
-
-            assert seq != null;
-
-            if (loc <= seq.length()) {
-                return Character.toString(seq.charAt(loc - 1));
-            }
+        int idx = this.getIndex(nameOrID);
+        if (idx >= 0 && loc <= this.store.length(idx)) {
+            return AMINO_ACIDS[this.store.aminoAcidAt(idx, loc) & 0x7F];
         }
 
         return null;
@@ -199,6 +208,20 @@ public class UniProtSequence extends FileServer {
         return this.symbolToNames.containsKey(symbol) ? (String) ((Map) this.symbolToNames.get(symbol)).getOrDefault(organism, (Object) null) : null;
     }
 
+    public String getNameOfID(String id) {
+        return this.idToName.get(id);
+    }
+
+    /**
+     * Selects the human proteins of the sequence store, by their UniProt names.
+     */
+    public IntPredicate getHumanFilter() {
+        return idx -> {
+            String name = this.idToName.get(this.store.getID(idx));
+            return name != null && name.endsWith("_HUMAN");
+        };
+    }
+
     public String getSymbolOfID(String id)
     {
         String name = this.idToName.get(id);
@@ -214,26 +237,19 @@ public class UniProtSequence extends FileServer {
         this.idToName = new HashMap();
         this.nameToSymbol = new HashMap();
         this.symbolToNames = new HashMap();
-        this.idToSeq = new HashMap();
+        SequenceStore.Writer writer = new SequenceStore.Writer(this.getResidueFile());
         String name = null;
         String id = null;
-        StringBuilder sequence = null;
         BufferedReader reader = this.getResourceReader(this.getLocalFilenames()[0]);
 
         for (String line = reader.readLine(); line != null; line = reader.readLine()) {
             if (line.startsWith(">")) {
-                if (sequence != null) {
-                    assert id != null && name != null;
-
-                    this.idToSeq.put(id, sequence.toString());
-                }
-
                 String[] t = line.split("\\|| ");
                 id = t[1];
                 name = t[2];
                 this.nameToID.put(name, id);
                 this.idToName.put(id, name);
-                sequence = new StringBuilder();
+                writer.start(id);
                 int oInd = line.indexOf(" OX=");
                 String organism = line.substring(oInd + 4, line.indexOf(" ", oInd + 4));
                 int sInd = line.indexOf(" GN=");
@@ -247,14 +263,62 @@ public class UniProtSequence extends FileServer {
                     ((Map) this.symbolToNames.get(symbol)).put(organism, name);
                 }
             } else {
-                sequence.append(line);
+                writer.append(line);
             }
         }
 
         reader.close();
+        this.store = writer.finish();
+        this.peptideIndex = null;
+        return true;
+    }
+
+    /**
+     * The residues are kept in this file, next to the FASTA file.
+     */
+    private String getResidueFile() {
+        return this.locateInBase("uniprot-sequence.residues");
+    }
+
+    @Override
+    protected boolean usesSnapshot() {
         return true;
     }
 
+    @Override
+    protected void writeSnapshot(DataOutput out) throws IOException {
+        Snapshot.writeStringMap(out, this.nameToID);
+        Snapshot.writeStringMap(out, this.nameToSymbol);
+
+        out.writeInt(this.symbolToNames.size());
+        for (String symbol : this.symbolToNames.keySet()) {
+            out.writeUTF(symbol);
+            Snapshot.writeStringMap(out, this.symbolToNames.get(symbol));
+        }
+
+        this.store.writeIndex(out);
+    }
+
+    @Override
+    protected void readSnapshot(DataInput in) throws IOException {
+        this.nameToID = Snapshot.readStringMap(in);
+        this.nameToSymbol = Snapshot.readStringMap(in);
+
+        this.idToName = new HashMap<>();
+        this.nameToID.forEach((name, id) -> this.idToName.put(id, name));
+
+        this.symbolToNames = new HashMap<>();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            String symbol = in.readUTF();
+            this.symbolToNames.put(symbol, Snapshot.readStringMap(in));
+        }
+
+        // Throws if the residue file is missing or does not match, then the FASTA is parsed again
+        this.store = SequenceStore.read(in, this.getResidueFile());
+        this.peptideIndex = null;
+    }
+
     public static void main(String[] args) {
 //        String sym = "TP53";
 //        Map<String, String> names = get().getNamesOfSymbol(sym);
@@ -267,13 +331,12 @@ public class UniProtSequence extends FileServer {
 
     private static void countAAs() {
         TermCounter tc = new TermCounter();
-        get().idToSeq.values().stream().forEach((s) -> {
-            for (int i = 0; i < s.length(); ++i) {
-                String aa = s.substring(i, i + 1);
-                tc.addTerm(aa);
+        SequenceStore store = get().store;
+        for (int p = 0; p < store.size(); p++) {
+            for (int i = 1; i <= store.length(p); ++i) {
+                tc.addTerm(AMINO_ACIDS[store.aminoAcidAt(p, i)]);
             }
-
-        });
+        }
         tc.print();
     }
 }
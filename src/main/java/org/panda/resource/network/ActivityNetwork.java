@@ -33,7 +33,7 @@ public class ActivityNetwork extends FileServer
 	static DirectedGraph posGraph;
 	static DirectedGraph negGraph;
 
-	public static ActivityNetwork get()
+	public static synchronized ActivityNetwork get()
 	{
 		if (instance == null) instance = new ActivityNetwork();
 		return instance;
@@ -98,35 +98,13 @@ public class ActivityNetwork extends FileServer
 			})));
 	}
 
+	/**
+	 * Gets the effect of the site, or of the nearby and the S/T swapped sites if the site has no known effect.
+	 */
 	private int getEffect(String site, String gene, SiteEffectCollective sec)
 	{
-		Integer e = sec.getEffect(gene, site, Feature.PHOSPHORYLATION);
-		if (e != null && e != 0) return e;
-
-		String aa = site.substring(0, 1);
-		int loc = Integer.valueOf(site.substring(1));
-
-		e = sec.getEffect(gene, aa + (loc + 1), Feature.PHOSPHORYLATION);
-		if (e != null && e != 0) return e;
-
-		e = sec.getEffect(gene, aa + (loc - 1), Feature.PHOSPHORYLATION);
-		if (e != null && e != 0) return e;
-
-		if (aa.equals("T") || aa.equals("S"))
-		{
-			aa = aa.equals("T") ? "S" : "T";
-
-			e = sec.getEffect(gene, aa + (loc), Feature.PHOSPHORYLATION);
-			if (e != null && e != 0) return e;
-
-			e = sec.getEffect(gene, aa + (loc + 1), Feature.PHOSPHORYLATION);
-			if (e != null && e != 0) return e;
-
-			e = sec.getEffect(gene, aa + (loc - 1), Feature.PHOSPHORYLATION);
-			if (e != null && e != 0) return e;
-		}
-
-		return 0;
+		Integer e = sec.getNeighborhoodEffect(gene, site, Feature.PHOSPHORYLATION);
+		return e == null ? 0 : e;
 	}
 
 	private static void parseSPIKE() throws IOException, SAXException, ParserConfigurationException
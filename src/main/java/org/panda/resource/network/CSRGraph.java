@@ -0,0 +1,741 @@
+package org.panda.resource.network;
+
+import org.biopax.paxtools.pattern.miner.SIFEnum;
+import org.biopax.paxtools.pattern.miner.SIFType;
+import org.panda.utility.graph.DirectedGraph;
+import org.panda.utility.graph.Graph;
+import org.panda.utility.graph.SiteSpecificGraph;
+import org.panda.utility.graph.UndirectedGraph;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * An immutable graph in compressed sparse row (CSR) form. Nodes are numbered 0..n-1 in the order of their sorted
+ * names. Outgoing edges of a node are a sorted slice of a single target array, and a reverse index gives the incoming
+ * edges. Mediators and sites of edges are kept as int references to pools of distinct strings.
+ *
+ * Relations of an undirected graph are kept in the direction they are read, and both directions are used in queries.
+ */
+public class CSRGraph
+{
+	public enum Direction
+	{
+		DOWNSTREAM,
+		UPSTREAM,
+		BOTH
+	}
+
+	private final String name;
+	private final String edgeType;
+	private final boolean directed;
+
+	private final String[] nodes;
+	private final Map<String, Integer> index;
+
+	private final int[] outOffset;
+	private final int[] outTarget;
+
+	private final int[] inOffset;
+	private final int[] inSource;
+
+	private final String[] mediatorPool;
+	private final int[] mediatorOffset;
+	private final int[] mediatorRef;
+
+	/**
+	 * Null if the graph is not site specific.
+	 */
+	private final String[] sitePool;
+	private final int[] siteOffset;
+	private final int[] siteRef;
+
+	private CSRGraph(String name, String edgeType, boolean directed, String[] nodes, int[] outOffset,
+		int[] outTarget, String[] mediatorPool, int[] mediatorOffset, int[] mediatorRef, String[] sitePool,
+		int[] siteOffset, int[] siteRef)
+	{
+		this.name = name;
+		this.edgeType = edgeType;
+		this.directed = directed;
+		this.nodes = nodes;
+		this.outOffset = outOffset;
+		this.outTarget = outTarget;
+		this.mediatorPool = mediatorPool;
+		this.mediatorOffset = mediatorOffset;
+		this.mediatorRef = mediatorRef;
+		this.sitePool = sitePool;
+		this.siteOffset = siteOffset;
+		this.siteRef = siteRef;
+
+		index = new HashMap<>((int) (nodes.length / 0.75) + 1);
+		for (int i = 0; i < nodes.length; i++)
+		{
+			index.put(nodes[i], i);
+		}
+
+		// Reverse index. Sources come out sorted since the edges are visited in source order.
+		int n = nodes.length;
+		inOffset = new int[n + 1];
+		for (int t : outTarget) inOffset[t + 1]++;
+		for (int i = 0; i < n; i++) inOffset[i + 1] += inOffset[i];
+
+		inSource = new int[outTarget.length];
+		int[] fill = Arrays.copyOf(inOffset, n);
+		for (int s = 0; s < n; s++)
+		{
+			for (int e = outOffset[s]; e < outOffset[s + 1]; e++)
+			{
+				inSource[fill[outTarget[e]]++] = s;
+			}
+		}
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public String getEdgeType()
+	{
+		return edgeType;
+	}
+
+	public boolean isDirected()
+	{
+		return directed;
+	}
+
+	public boolean isSiteSpecific()
+	{
+		return sitePool != null;
+	}
+
+	public int getNodeCount()
+	{
+		return nodes.length;
+	}
+
+	public int getEdgeCount()
+	{
+		return outTarget.length;
+	}
+
+	/**
+	 * @return ID of the node, or -1 if it is not in the graph
+	 */
+	public int getNodeID(String node)
+	{
+		Integer i = index.get(node);
+		return i == null ? -1 : i;
+	}
+
+	public String getNodeName(int id)
+	{
+		return nodes[id];
+	}
+
+	public Set<String> getSymbols()
+	{
+		return new HashSet<>(Arrays.asList(nodes));
+	}
+
+	// Section: Adjacency
+
+	/**
+	 * Sorted IDs of the targets of the node. For an undirected graph these are only the relations that are read in
+	 * this direction.
+	 */
+	public int[] getOutIDs(int node)
+	{
+		return Arrays.copyOfRange(outTarget, outOffset[node], outOffset[node + 1]);
+	}
+
+	/**
+	 * Sorted IDs of the sources of the node.
+	 */
+	public int[] getInIDs(int node)
+	{
+		return Arrays.copyOfRange(inSource, inOffset[node], inOffset[node + 1]);
+	}
+
+	/**
+	 * Sorted, distinct IDs of the nodes that are related to the node in either direction.
+	 */
+	public int[] getNeighborIDs(int node)
+	{
+		return union(outTarget, outOffset[node], outOffset[node + 1], inSource, inOffset[node], inOffset[node + 1]);
+	}
+
+	public Set<String> getDownstream(String node)
+	{
+		int id = getNodeID(node);
+		if (id < 0) return Collections.emptySet();
+		return toNames(directed ? getOutIDs(id) : getNeighborIDs(id));
+	}
+
+	public Set<String> getUpstream(String node)
+	{
+		int id = getNodeID(node);
+		if (id < 0) return Collections.emptySet();
+		return toNames(directed ? getInIDs(id) : getNeighborIDs(id));
+	}
+
+	public Set<String> getNeighbors(String node)
+	{
+		int id = getNodeID(node);
+		if (id < 0) return Collections.emptySet();
+		return toNames(getNeighborIDs(id));
+	}
+
+	/**
+	 * Number of distinct nodes that are related to the node in either direction.
+	 */
+	public int getDegree(String node)
+	{
+		int id = getNodeID(node);
+		return id < 0 ? 0 : getNeighborIDs(id).length;
+	}
+
+	public int getOutDegree(String node)
+	{
+		int id = getNodeID(node);
+		return id < 0 ? 0 : directed ? outOffset[id + 1] - outOffset[id] : getNeighborIDs(id).length;
+	}
+
+	public int getInDegree(String node)
+	{
+		int id = getNodeID(node);
+		return id < 0 ? 0 : directed ? inOffset[id + 1] - inOffset[id] : getNeighborIDs(id).length;
+	}
+
+	public boolean hasRelation(String source, String target)
+	{
+		return findEdge(source, target) >= 0;
+	}
+
+	public Set<String> getMediators(String source, String target)
+	{
+		int e = findEdge(source, target);
+		return e < 0 ? Collections.emptySet() : getMediators(e);
+	}
+
+	/**
+	 * @return sites on the target, or an empty set if the graph is not site specific or there is no such relation
+	 */
+	public Set<String> getSites(String source, String target)
+	{
+		int e = findEdge(source, target);
+		return e < 0 || sitePool == null ? Collections.emptySet() : getSites(e);
+	}
+
+	/**
+	 * Index of the edge in outTarget. For an undirected graph the reverse direction is also searched.
+	 */
+	private int findEdge(String source, String target)
+	{
+		int s = getNodeID(source);
+		int t = getNodeID(target);
+		if (s < 0 || t < 0) return -1;
+
+		int e = Arrays.binarySearch(outTarget, outOffset[s], outOffset[s + 1], t);
+		if (e < 0 && !directed) e = Arrays.binarySearch(outTarget, outOffset[t], outOffset[t + 1], s);
+		return e < 0 ? -1 : e;
+	}
+
+	private Set<String> getMediators(int edge)
+	{
+		return toStrings(mediatorPool, mediatorRef, mediatorOffset[edge], mediatorOffset[edge + 1]);
+	}
+
+	private Set<String> getSites(int edge)
+	{
+		return toStrings(sitePool, siteRef, siteOffset[edge], siteOffset[edge + 1]);
+	}
+
+	// Section: Neighborhood
+
+	/**
+	 * Nodes that are reachable from the seeds in at most k steps, including the seeds that are in the graph.
+	 */
+	public Set<String> getNeighborhood(Collection<String> seeds, int k, Direction direction)
+	{
+		return toNames(getNeighborhoodIDs(seeds.stream().mapToInt(this::getNodeID).filter(i -> i >= 0).toArray(), k,
+			direction));
+	}
+
+	/**
+	 * Breadth-first search from the seeds, up to k steps.
+	 * @return sorted IDs of the visited nodes
+	 */
+	public int[] getNeighborhoodIDs(int[] seeds, int k, Direction direction)
+	{
+		boolean down = direction != Direction.UPSTREAM || !directed;
+		boolean up = direction != Direction.DOWNSTREAM || !directed;
+
+		boolean[] visited = new boolean[nodes.length];
+		int[] queue = new int[nodes.length];
+		int tail = 0;
+		for (int s : seeds)
+		{
+			if (!visited[s])
+			{
+				visited[s] = true;
+				queue[tail++] = s;
+			}
+		}
+
+		int head = 0;
+		for (int step = 0; step < k && head < tail; step++)
+		{
+			int end = tail;
+			while (head < end)
+			{
+				int v = queue[head++];
+				if (down)
+				{
+					for (int e = outOffset[v]; e < outOffset[v + 1]; e++)
+					{
+						int t = outTarget[e];
+						if (!visited[t])
+						{
+							visited[t] = true;
+							queue[tail++] = t;
+						}
+					}
+				}
+				if (up)
+				{
+					for (int e = inOffset[v]; e < inOffset[v + 1]; e++)
+					{
+						int s = inSource[e];
+						if (!visited[s])
+						{
+							visited[s] = true;
+							queue[tail++] = s;
+						}
+					}
+				}
+			}
+		}
+
+		int[] result = Arrays.copyOf(queue, tail);
+		Arrays.sort(result);
+		return result;
+	}
+
+	// Section: Adapter to the Graph API
+
+	/**
+	 * Creates a mutable Graph with the relations of this graph. A site specific graph becomes a SiteSpecificGraph.
+	 */
+	public Graph toGraph()
+	{
+		Graph graph = !directed ? new UndirectedGraph(name, edgeType) :
+			sitePool != null ? new SiteSpecificGraph(name, edgeType) : new DirectedGraph(name, edgeType);
+		addTo(graph);
+		return graph;
+	}
+
+	/**
+	 * Puts the relations of this graph to the given graph. Sites are added only if the given graph is site specific.
+	 */
+	public void addTo(Graph graph)
+	{
+		boolean ss = sitePool != null && graph instanceof SiteSpecificGraph;
+
+		for (int s = 0; s < nodes.length; s++)
+		{
+			for (int e = outOffset[s]; e < outOffset[s + 1]; e++)
+			{
+				String target = nodes[outTarget[e]];
+				boolean hasMed = mediatorOffset[e] < mediatorOffset[e + 1];
+
+				if (ss && siteOffset[e] < siteOffset[e + 1])
+				{
+					((SiteSpecificGraph) graph).putRelation(nodes[s], target,
+						hasMed ? join(mediatorPool, mediatorRef, mediatorOffset[e], mediatorOffset[e + 1]) : "",
+						join(sitePool, siteRef, siteOffset[e], siteOffset[e + 1]));
+				}
+				else if (hasMed)
+				{
+					graph.putRelation(nodes[s], target,
+						join(mediatorPool, mediatorRef, mediatorOffset[e], mediatorOffset[e + 1]));
+				}
+				else graph.putRelation(nodes[s], target);
+			}
+		}
+	}
+
+	/**
+	 * Approximate heap size of the graph in bytes, including the node name index.
+	 */
+	public long estimateBytes()
+	{
+		long bytes = 0;
+		for (int[] a : new int[][]{outOffset, outTarget, inOffset, inSource, mediatorOffset, mediatorRef,
+			siteOffset, siteRef})
+		{
+			if (a != null) bytes += 16 + 4L * a.length;
+		}
+		for (String[] pool : new String[][]{nodes, mediatorPool, sitePool})
+		{
+			if (pool == null) continue;
+			bytes += 16 + 4L * pool.length;
+			for (String s : pool) bytes += 40 + s.length();
+		}
+		// Entries of the name index
+		bytes += 48L * nodes.length;
+		return bytes;
+	}
+
+	/**
+	 * Rough heap size in bytes of the Graph that toGraph creates. Each relation is in the hash maps of both its
+	 * nodes, and carries its mediators and sites as strings.
+	 */
+	public long estimateGraphBytes()
+	{
+		return 200L * nodes.length + 160L * outTarget.length + 60L * mediatorRef.length +
+			(siteRef == null ? 0 : 60L * siteRef.length);
+	}
+
+	// Section: Helpers
+
+	private Set<String> toNames(int[] ids)
+	{
+		Set<String> set = new HashSet<>((int) (ids.length / 0.75) + 1);
+		for (int id : ids) set.add(nodes[id]);
+		return set;
+	}
+
+	private static Set<String> toStrings(String[] pool, int[] ref, int from, int to)
+	{
+		Set<String> set = new HashSet<>();
+		for (int i = from; i < to; i++) set.add(pool[ref[i]]);
+		return set;
+	}
+
+	private static String join(String[] pool, int[] ref, int from, int to)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = from; i < to; i++)
+		{
+			if (i > from) sb.append(";");
+			sb.append(pool[ref[i]]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Sorted, distinct union of two sorted slices.
+	 */
+	private static int[] union(int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo)
+	{
+		int[] c = new int[aTo - aFrom + bTo - bFrom];
+		int i = aFrom, j = bFrom, k = 0;
+		while (i < aTo || j < bTo)
+		{
+			int v = j >= bTo || (i < aTo && a[i] <= b[j]) ? a[i++] : b[j++];
+			if (k == 0 || c[k - 1] != v) c[k++] = v;
+		}
+		return Arrays.copyOf(c, k);
+	}
+
+	// Section: Building
+
+	/**
+	 * Builds a graph from tokenized SIF rows in the form of source, target, and optionally mediators and sites, where
+	 * mediators and sites are separated with semicolons. Repeated relations are merged.
+	 *
+	 * @param siteSpecific whether the fourth column should be read as sites
+	 */
+	public static CSRGraph fromRows(String name, String edgeType, boolean directed, boolean siteSpecific,
+		Stream<String[]> rows)
+	{
+		Builder b = new Builder(siteSpecific);
+		rows.forEach(token ->
+			b.addRelation(token[0], token[1], token.length > 2 ? token[2] : null,
+				siteSpecific && token.length > 3 ? token[3] : null));
+		return b.build(name, edgeType, directed);
+	}
+
+	/**
+	 * Collects relations before the graph is built.
+	 */
+	public static class Builder
+	{
+		private final boolean siteSpecific;
+
+		private final Map<String, Integer> nodeIndex = new HashMap<>();
+		private final Map<String, Integer> mediatorIndex = new HashMap<>();
+		private final Map<String, Integer> siteIndex = new HashMap<>();
+
+		private int[] sources = new int[1024];
+		private int[] targets = new int[1024];
+		private final List<int[]> mediators = new ArrayList<>();
+		private final List<int[]> sites = new ArrayList<>();
+		private int size;
+
+		public Builder(boolean siteSpecific)
+		{
+			this.siteSpecific = siteSpecific;
+		}
+
+		public void addRelation(String source, String target, String mediators, String sites)
+		{
+			if (size == sources.length)
+			{
+				sources = Arrays.copyOf(sources, size * 2);
+				targets = Arrays.copyOf(targets, size * 2);
+			}
+			sources[size] = intern(nodeIndex, source);
+			targets[size] = intern(nodeIndex, target);
+			this.mediators.add(internAll(mediatorIndex, mediators));
+			this.sites.add(siteSpecific ? internAll(siteIndex, sites) : null);
+			size++;
+		}
+
+		public CSRGraph build(String name, String edgeType, boolean directed)
+		{
+			// Renumber nodes in name order
+			String[] names = toPool(nodeIndex);
+			int[] order = new int[names.length];
+			Integer[] byName = new Integer[names.length];
+			for (int i = 0; i < names.length; i++) byName[i] = i;
+			Arrays.sort(byName, Comparator.comparing(i -> names[i]));
+			String[] nodes = new String[names.length];
+			for (int i = 0; i < byName.length; i++)
+			{
+				order[byName[i]] = i;
+				nodes[i] = names[byName[i]];
+			}
+
+			long[] keys = new long[size];
+			for (int i = 0; i < size; i++)
+			{
+				keys[i] = ((long) order[sources[i]] << 32) | order[targets[i]];
+			}
+			Integer[] edges = new Integer[size];
+			for (int i = 0; i < size; i++) edges[i] = i;
+			Arrays.sort(edges, Comparator.comparingLong(i -> keys[i]));
+
+			int[] outOffset = new int[nodes.length + 1];
+			int[] outTarget = new int[size];
+			int[][] meds = new int[size][];
+			int[][] sts = new int[size][];
+			int m = 0;
+
+			for (int i = 0; i < size; i++)
+			{
+				int e = edges[i];
+				if (m > 0 && keys[edges[i - 1]] == keys[e])
+				{
+					meds[m - 1] = merge(meds[m - 1], mediators.get(e));
+					if (siteSpecific) sts[m - 1] = merge(sts[m - 1], sites.get(e));
+					continue;
+				}
+
+				outTarget[m] = order[targets[e]];
+				outOffset[order[sources[e]] + 1]++;
+				meds[m] = mediators.get(e);
+				sts[m] = sites.get(e);
+				m++;
+			}
+			for (int i = 0; i < nodes.length; i++) outOffset[i + 1] += outOffset[i];
+
+			int[][] mediatorArrays = flatten(meds, m);
+			int[][] siteArrays = siteSpecific ? flatten(sts, m) : new int[2][];
+
+			return new CSRGraph(name, edgeType, directed, nodes, outOffset, Arrays.copyOf(outTarget, m),
+				toPool(mediatorIndex), mediatorArrays[0], mediatorArrays[1], siteSpecific ? toPool(siteIndex) : null,
+				siteArrays[0], siteArrays[1]);
+		}
+
+		private static int intern(Map<String, Integer> pool, String s)
+		{
+			Integer i = pool.get(s);
+			if (i == null)
+			{
+				i = pool.size();
+				pool.put(s, i);
+			}
+			return i;
+		}
+
+		private static int[] internAll(Map<String, Integer> pool, String joined)
+		{
+			if (joined == null || joined.isEmpty()) return new int[0];
+
+			String[] parts = joined.split(";");
+			int[] ids = new int[parts.length];
+			int n = 0;
+			for (String part : parts)
+			{
+				if (!part.isEmpty()) ids[n++] = intern(pool, part);
+			}
+			ids = Arrays.copyOf(ids, n);
+			Arrays.sort(ids);
+			return ids;
+		}
+
+		private static int[] merge(int[] a, int[] b)
+		{
+			return union(a, 0, a.length, b, 0, b.length);
+		}
+
+		private static String[] toPool(Map<String, Integer> index)
+		{
+			String[] pool = new String[index.size()];
+			index.forEach((s, i) -> pool[i] = s);
+			return pool;
+		}
+
+		/**
+		 * @return offsets and the concatenated references
+		 */
+		private static int[][] flatten(int[][] lists, int n)
+		{
+			int[] offset = new int[n + 1];
+			for (int i = 0; i < n; i++) offset[i + 1] = offset[i] + lists[i].length;
+			int[] ref = new int[offset[n]];
+			for (int i = 0; i < n; i++) System.arraycopy(lists[i], 0, ref, offset[i], lists[i].length);
+			return new int[][]{offset, ref};
+		}
+	}
+
+	// Section: Serialization
+
+	public void write(DataOutput out) throws IOException
+	{
+		out.writeUTF(name);
+		out.writeUTF(edgeType);
+		out.writeBoolean(directed);
+		writeStrings(out, nodes);
+		writeInts(out, outOffset);
+		writeInts(out, outTarget);
+		writeStrings(out, mediatorPool);
+		writeInts(out, mediatorOffset);
+		writeInts(out, mediatorRef);
+		out.writeBoolean(sitePool != null);
+		if (sitePool != null)
+		{
+			writeStrings(out, sitePool);
+			writeInts(out, siteOffset);
+			writeInts(out, siteRef);
+		}
+	}
+
+	public static CSRGraph read(DataInput in) throws IOException
+	{
+		String name = in.readUTF();
+		String edgeType = in.readUTF();
+		boolean directed = in.readBoolean();
+		String[] nodes = readStrings(in);
+		int[] outOffset = readInts(in);
+		int[] outTarget = readInts(in);
+		String[] mediatorPool = readStrings(in);
+		int[] mediatorOffset = readInts(in);
+		int[] mediatorRef = readInts(in);
+		boolean ss = in.readBoolean();
+		return new CSRGraph(name, edgeType, directed, nodes, outOffset, outTarget, mediatorPool, mediatorOffset,
+			mediatorRef, ss ? readStrings(in) : null, ss ? readInts(in) : null, ss ? readInts(in) : null);
+	}
+
+	private static void writeStrings(DataOutput out, String[] s) throws IOException
+	{
+		out.writeInt(s.length);
+		for (String str : s) out.writeUTF(str);
+	}
+
+	private static String[] readStrings(DataInput in) throws IOException
+	{
+		String[] s = new String[in.readInt()];
+		for (int i = 0; i < s.length; i++) s[i] = in.readUTF();
+		return s;
+	}
+
+	private static void writeInts(DataOutput out, int[] a) throws IOException
+	{
+		out.writeInt(a.length);
+		for (int v : a) out.writeInt(v);
+	}
+
+	private static int[] readInts(DataInput in) throws IOException
+	{
+		int[] a = new int[in.readInt()];
+		for (int i = 0; i < a.length; i++) a[i] = in.readInt();
+		return a;
+	}
+
+	// Section: Benchmark
+
+	/**
+	 * Compares memory and query latency of the CSR graphs of Pathway Commons to the Graph objects that are built from
+	 * them, as getGraph returns.
+	 */
+	public static void main(String[] args)
+	{
+		PathwayCommons pc = PathwayCommons.get();
+		Set<SIFEnum> types = new HashSet<>(Arrays.asList(SIFEnum.values()));
+		types.remove(SIFEnum.NEIGHBOR_OF);
+
+		Runtime rt = Runtime.getRuntime();
+
+		System.gc();
+		long before = rt.totalMemory() - rt.freeMemory();
+		long t = System.currentTimeMillis();
+		List<CSRGraph> csrs = new ArrayList<>();
+		for (SIFType type : types)
+		{
+			csrs.add(pc.getCSRGraph(type));
+		}
+		long csrTime = System.currentTimeMillis() - t;
+		System.gc();
+		long csrBytes = rt.totalMemory() - rt.freeMemory() - before;
+
+		before = rt.totalMemory() - rt.freeMemory();
+		t = System.currentTimeMillis();
+		List<Graph> graphs = new ArrayList<>();
+		for (CSRGraph csr : csrs)
+		{
+			graphs.add(csr.toGraph());
+		}
+		long graphTime = System.currentTimeMillis() - t;
+		System.gc();
+		long graphBytes = rt.totalMemory() - rt.freeMemory() - before;
+
+		long estimate = csrs.stream().mapToLong(CSRGraph::estimateBytes).sum();
+		System.out.println("Graph: built in " + graphTime + " ms, heap " + (graphBytes >> 20) + " MB");
+		System.out.println("CSR: read in " + csrTime + " ms, heap " + (csrBytes >> 20) + " MB (estimate " +
+			(estimate >> 20) + " MB), edges " + csrs.stream().mapToInt(CSRGraph::getEdgeCount).sum());
+
+		CSRGraph csr = pc.getCSRGraph(SIFEnum.CONTROLS_STATE_CHANGE_OF);
+		DirectedGraph graph = (DirectedGraph) csr.toGraph();
+		List<String> nodes = new ArrayList<>(csr.getSymbols());
+		Collections.shuffle(nodes, new Random(1));
+		nodes = nodes.subList(0, Math.min(10000, nodes.size()));
+
+		long sum = 0;
+		t = System.nanoTime();
+		for (String node : nodes) sum += graph.getDownstream(node).size();
+		long graphQuery = System.nanoTime() - t;
+
+		t = System.nanoTime();
+		for (String node : nodes) sum -= csr.getDownstream(node).size();
+		long csrQuery = System.nanoTime() - t;
+
+		t = System.nanoTime();
+		for (String node : nodes.subList(0, Math.min(1000, nodes.size())))
+		{
+			sum += csr.getNeighborhood(Collections.singleton(node), 2, Direction.DOWNSTREAM).size();
+		}
+		long twoHop = System.nanoTime() - t;
+
+		System.out.println("Downstream query, Graph: " + (graphQuery / nodes.size()) + " ns, CSR: " +
+			(csrQuery / nodes.size()) + " ns");
+		System.out.println("2-hop downstream on CSR: " + (twoHop / Math.min(1000, nodes.size())) + " ns (" + sum +
+			")");
+	}
+}
@@ -0,0 +1,146 @@
+package org.panda.resource.network;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * A least-recently-used cache of graphs with a memory budget. Each entry is kept together with its estimated size in
+ * bytes, and the least recently used entries are evicted when the total goes over the budget. The most recently added
+ * entry is never evicted, even if it is larger than the budget by itself.
+ *
+ * Cached values are shared by all callers, so they should not be modified.
+ *
+ * The default budget is 1024 MB, and can be changed with the system property panda.graphCacheMB.
+ */
+public class GraphCache<V>
+{
+	private final LinkedHashMap<String, V> map = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, Long> sizes = new LinkedHashMap<>();
+
+	private long budget;
+	private long bytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public GraphCache()
+	{
+		this(Long.getLong("panda.graphCacheMB", 1024L) << 20);
+	}
+
+	public GraphCache(long budget)
+	{
+		this.budget = budget;
+	}
+
+	/**
+	 * Gets the cached value, or loads and caches it. Loading runs outside the lock, so two threads that miss the same
+	 * key at the same time may both load it, and then the first one to finish is kept.
+	 *
+	 * @param sizer estimates the bytes that the loaded value takes
+	 */
+	public V get(String key, Supplier<V> loader, ToLongFunction<V> sizer)
+	{
+		synchronized (this)
+		{
+			V v = map.get(key);
+			if (v != null)
+			{
+				hits++;
+				return v;
+			}
+			misses++;
+		}
+
+		V v = loader.get();
+		if (v == null) return null;
+		long size = sizer.applyAsLong(v);
+
+		synchronized (this)
+		{
+			V other = map.get(key);
+			if (other != null) return other;
+
+			map.put(key, v);
+			sizes.put(key, size);
+			bytes += size;
+			evict(key);
+			return v;
+		}
+	}
+
+	private void evict(String keep)
+	{
+		Iterator<Map.Entry<String, V>> iter = map.entrySet().iterator();
+		while (bytes > budget && iter.hasNext())
+		{
+			String key = iter.next().getKey();
+			if (key.equals(keep)) continue;
+
+			iter.remove();
+			bytes -= sizes.remove(key);
+			evictions++;
+		}
+	}
+
+	public synchronized void setBudget(long budget)
+	{
+		this.budget = budget;
+		evict(null);
+	}
+
+	public synchronized void clear()
+	{
+		map.clear();
+		sizes.clear();
+		bytes = 0;
+	}
+
+	public synchronized long getBytes()
+	{
+		return bytes;
+	}
+
+	public synchronized Stats getStats()
+	{
+		return new Stats(map.size(), bytes, budget, hits, misses, evictions);
+	}
+
+	/**
+	 * A snapshot of the cache metrics.
+	 */
+	public static class Stats
+	{
+		public final int entries;
+		public final long bytes;
+		public final long budget;
+		public final long hits;
+		public final long misses;
+		public final long evictions;
+
+		Stats(int entries, long bytes, long budget, long hits, long misses, long evictions)
+		{
+			this.entries = entries;
+			this.bytes = bytes;
+			this.budget = budget;
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+		}
+
+		public double getHitRate()
+		{
+			return hits + misses == 0 ? 0 : hits / (double) (hits + misses);
+		}
+
+		@Override
+		public String toString()
+		{
+			return entries + " graphs, " + (bytes >> 20) + " of " + (budget >> 20) + " MB, hits " + hits +
+				", misses " + misses + ", evictions " + evictions;
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package org.panda.resource.network;
+
+import org.panda.resource.FileServer;
+import org.panda.resource.HGNC;
+import org.panda.resource.KinaseLibrary;
+import org.panda.resource.KinaseSitePredictor;
+import org.panda.resource.UniProtSequence;
+import org.panda.resource.signednetwork.SignedType;
+import org.panda.utility.graph.SiteSpecificGraph;
+
+import java.io.IOException;
+
+/**
+ * Serves the kinase-site predictions of the kinase library over the human proteome, as a site-specific
+ * phosphorylation graph. The predictions are not downloaded but generated with KinaseSitePredictor, from the
+ * KinaseLibrary matrices and the UniProtSequence sequences. Each site keeps its best scoring kinases.
+ */
+public class KinaseLibraryNetwork extends FileServer
+{
+	private static KinaseLibraryNetwork instance;
+
+	/**
+	 * Number of kinases that are kept for each site.
+	 */
+	public static final int KINASES_PER_SITE = 10;
+
+	private SiteSpecificGraph graph;
+
+	public static synchronized KinaseLibraryNetwork get()
+	{
+		if (instance == null) instance = new KinaseLibraryNetwork();
+		return instance;
+	}
+
+	public SiteSpecificGraph getGraph()
+	{
+		return graph;
+	}
+
+	@Override
+	public String[] getLocalFilenames()
+	{
+		return new String[]{"KinaseLibraryPredictions.bin"};
+	}
+
+	/**
+	 * Generates the predictions instead of downloading them.
+	 */
+	@Override
+	public boolean downloadResources()
+	{
+		try
+		{
+			createPredictor().run(locateInBase(getLocalFilenames()[0]));
+			return true;
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Brings the predictions up to date with the current kinase library and sequences, and reloads the graph if they
+	 * changed. When only some kinase matrices changed, only those kinases are scored again.
+	 *
+	 * @return true if the predictions changed
+	 */
+	public synchronized boolean update() throws IOException
+	{
+		if (!createPredictor().update(locateInBase(getLocalFilenames()[0]))) return false;
+		load();
+		return true;
+	}
+
+	private static KinaseSitePredictor createPredictor()
+	{
+		UniProtSequence ups = UniProtSequence.get();
+
+		return new KinaseSitePredictor(new KinaseLibrary().getMatrix(), ups.getStore(), ups.getHumanFilter(),
+			KINASES_PER_SITE);
+	}
+
+	@Override
+	public boolean load() throws IOException
+	{
+		SiteSpecificGraph graph = new SiteSpecificGraph("Kinase Library", SignedType.PHOSPHORYLATES.getTag());
+
+		KinaseSitePredictor.read(locateInBase(getLocalFilenames()[0]), (protein, position, residue, kinase, score) ->
+		{
+			String target = UniProtSequence.get().getSymbolOfID(protein);
+			if (target == null) return;
+
+			// Kinase library names that are not HGNC symbols are kept as they are
+			String source = HGNC.get().getSymbol(kinase);
+			if (source == null) source = kinase;
+
+			String site = residue + String.valueOf(position);
+
+			if (!graph.hasRelation(source, target))
+			{
+				graph.putRelation(source, target, "", site);
+			}
+			else
+			{
+				graph.addSite(source, target, site);
+			}
+		});
+
+		this.graph = graph;
+		return true;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length > 0 && args[0].equals("update"))
+		{
+			System.out.println("Changed = " + get().update());
+		}
+
+		get().getGraph().printStats();
+	}
+}
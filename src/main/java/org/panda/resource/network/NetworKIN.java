@@ -20,11 +20,11 @@ import java.util.Scanner;
  */
 public class NetworKIN extends FileServer
 {
-	static NetworKIN instance;
+	private static NetworKIN instance;
 
-	static SiteSpecificGraph graph;
+	private SiteSpecificGraph graph;
 
-	static Map<String, String> exceptionMapping;
+	private static final Map<String, String> exceptionMapping;
 
 	public static synchronized NetworKIN get()
 	{
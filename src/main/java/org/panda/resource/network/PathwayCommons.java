@@ -5,16 +5,17 @@ import org.biopax.paxtools.pattern.miner.SIFType;
 import org.panda.resource.FileServer;
 import org.panda.resource.ResourceDirectory;
 import org.panda.utility.StringUtil;
-import org.panda.utility.graph.DirectedGraph;
 import org.panda.utility.graph.Graph;
 import org.panda.utility.graph.GraphList;
-import org.panda.utility.graph.UndirectedGraph;
 
 import java.io.*;
 import java.net.URL;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.stream.Stream;
 
 /**
  * Serves Pathway Commons SIF graphs.
@@ -25,14 +26,27 @@ public class PathwayCommons extends FileServer
 {
 	private static PathwayCommons instance;
 
-	public static PathwayCommons get()
+	/**
+	 * Prefix of the cache keys of the compact graphs, to tell them from the keys of the graphs built from them.
+	 */
+	private static final String CSR_KEY_PREFIX = "csr:";
+
+	/**
+	 * The compact graphs that are read from the type files, and the shared graphs that are built from them, under one
+	 * memory budget. Created on first use, since subclasses fill it while loading, which runs in the FileServer
+	 * constructor before the field initializers.
+	 */
+	private GraphCache<Object> graphCache;
+
+	public static synchronized PathwayCommons get()
 	{
 		if (instance == null) instance = new PathwayCommons();
 		return instance;
 	}
 
 	/**
-	 * Gets a phospGraph that is a merge of the desired SIF types.
+	 * Gets a phospGraph that is a merge of the desired SIF types. The result is a new graph that the caller can
+	 * modify. Use getSharedGraph to avoid building the graph again on each call.
 	 */
 	public Graph getGraph(SIFType... types)
 	{
@@ -54,6 +68,30 @@ public class PathwayCommons extends FileServer
 		return null;
 	}
 
+	/**
+	 * Gets a merge of the desired SIF types like getGraph, but the single type graphs are cached and shared by all
+	 * callers, and a multi-type request is a GraphList over them. The result should not be modified.
+	 */
+	public Graph getSharedGraph(SIFType... types)
+	{
+		if (fileExists(types))
+		{
+			if (types.length == 1) return getSharedSingleGraph(types[0]);
+			else if (types.length > 1)
+			{
+				GraphList graph = new GraphList("Pathway Commons");
+
+				for (SIFType type : types)
+				{
+					graph.addGraph(getSharedSingleGraph(type));
+				}
+
+				return graph;
+			}
+		}
+		return null;
+	}
+
 	protected String getPrivateDirectory()
 	{
 		return ResourceDirectory.get() + File.separator + "PC/";
@@ -63,79 +101,213 @@ public class PathwayCommons extends FileServer
 	{
 		for (SIFType type : types)
 		{
-			if (!Files.exists(Paths.get(getPrivateDirectory() + type.getTag() + ".txt")))
+			if (!Files.exists(Paths.get(getPrivateDirectory() + type.getTag() + SIFSplitter.TEXT_EXTENSION)) &&
+				!Files.exists(Paths.get(getPrivateDirectory() + type.getTag() + SIFSplitter.BINARY_EXTENSION)))
 				return false;
 		}
 		return true;
 	}
 
 	/**
-	 * Returns the phospGraph for the given SIF type.
+	 * Returns the phospGraph for the given SIF type, as a new graph.
 	 */
 	public Graph getSingleGraph(SIFType type)
-	{try{
-		String edgeType = type.getTag();
-		Graph graph = type.isDirected() ?
-			new DirectedGraph("Pathway Commons", edgeType) : new UndirectedGraph("Pathway Commons", edgeType);
+	{
+		return getCSRGraph(type).toGraph();
+	}
 
-		Files.lines(Paths.get(getPrivateDirectory() + type.getTag() + ".txt"))
-			.map(line -> line.split("\t")).forEach(token -> {
-			if (token.length > 2)
-			{
-				graph.putRelation(token[0], token[1], token[2]);
-			}
-			else
+	private Graph getSharedSingleGraph(SIFType type)
+	{
+		return (Graph) getGraphCache().get(type.getTag(), () -> getCSRGraph(type).toGraph(),
+			g -> getCSRGraph(type).estimateGraphBytes());
+	}
+
+	/**
+	 * Gets the compact graph of the given SIF type. It is read from the type file on first use, and then kept in the
+	 * graph cache, unless the memory budget needs its space.
+	 */
+	public CSRGraph getCSRGraph(SIFType type)
+	{
+		return (CSRGraph) getGraphCache().get(CSR_KEY_PREFIX + type.getTag(), () -> readCSRGraph(type),
+			g -> ((CSRGraph) g).estimateBytes());
+	}
+
+	/**
+	 * Keeps a compact graph that is read by other means, like from a snapshot, in place of reading its type file.
+	 */
+	protected void putCSRGraph(String tag, CSRGraph graph)
+	{
+		getGraphCache().get(CSR_KEY_PREFIX + tag, () -> graph, g -> graph.estimateBytes());
+	}
+
+	/**
+	 * Reads the type file of the given SIF type, which is either a serialized CSR graph or tab-delimited text.
+	 */
+	protected CSRGraph readCSRGraph(SIFType type)
+	{try{
+		String binary = getPrivateDirectory() + type.getTag() + SIFSplitter.BINARY_EXTENSION;
+		if (Files.exists(Paths.get(binary)))
+		{
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(binary), 1 << 20)))
 			{
-				graph.putRelation(token[0], token[1]);
+				return CSRGraph.read(in);
 			}
-		});
+		}
 
-		return graph;
+		try (Stream<String> lines = Files.lines(Paths.get(getPrivateDirectory() + type.getTag() +
+			SIFSplitter.TEXT_EXTENSION)))
+		{
+			return buildCSRGraph(type, lines.map(line -> line.split("\t")));
+		}
 	}
 	catch (IOException e){throw new RuntimeException(e);}}
 
+	/**
+	 * Builds the compact graph of the given SIF type from the tokenized lines of its text type file.
+	 */
+	protected CSRGraph buildCSRGraph(SIFType type, Stream<String[]> rows)
+	{
+		return CSRGraph.fromRows("Pathway Commons", type.getTag(), type.isDirected(), false, rows);
+	}
+
+	protected synchronized GraphCache<Object> getGraphCache()
+	{
+		if (graphCache == null) graphCache = new GraphCache<>();
+		return graphCache;
+	}
+
+	/**
+	 * Sets the memory budget of the cached graphs, in bytes. Both the compact CSR graphs and the shared graphs built
+	 * from them are counted.
+	 */
+	public void setGraphCacheBudget(long bytes)
+	{
+		getGraphCache().setBudget(bytes);
+	}
+
+	public GraphCache.Stats getGraphCacheStats()
+	{
+		return getGraphCache().getStats();
+	}
+
+	/**
+	 * Total estimated bytes of the compact CSR graphs and the shared graphs.
+	 */
+	public long getBytesHeld()
+	{
+		return getGraphCache().getBytes();
+	}
+
+	/**
+	 * Forgets the compact graphs and the graphs built from them, so that they are read again from the type files.
+	 */
+	protected synchronized void clearGraphCaches()
+	{
+		if (graphCache != null) graphCache.clear();
+	}
 
 	public boolean processTheDownloadedFiles()
 	{try{
 		File file = new File(locateInBase(getLocalFilenames()[0]));
-		Scanner sc = new Scanner(file);
-		sc.nextLine(); // skip header
+		try (InputStream in = new FileInputStream(file))
+		{
+			splitSIF(in);
+		}
+		commitStagingDirectory();
+		return file.delete();
+	}
+	catch (IOException e){throw new RuntimeException(e);}}
 
-		Map<String, Writer> writers = new HashMap<>();
+	/**
+	 * The SIF file is split into type files right while it is downloaded, without writing it to disk as a whole.
+	 */
+	@Override
+	protected boolean streamsDownloads()
+	{
+		return true;
+	}
 
-		Files.createDirectories(Paths.get(getPrivateDirectory()));
+	@Override
+	protected boolean processDownloadStream(int index, InputStream in) throws IOException
+	{
+		splitSIF(in);
+		return true;
+	}
 
-		while (sc.hasNextLine())
-		{
-			String line = sc.nextLine();
-			if (line.isEmpty()) break;
+	/**
+	 * The type files are moved to the private directory only after the download stream is closed, which verifies it.
+	 */
+	@Override
+	protected boolean finishDownloadStreams() throws IOException
+	{
+		commitStagingDirectory();
+		return true;
+	}
 
-			String[] token = line.split("\t");
+	/**
+	 * Writes the edges in the given SIF content to a separate file for each edge type, in the staging directory.
+	 */
+	private void splitSIF(InputStream in) throws IOException
+	{
+		prepareStagingDirectory();
+		new SIFSplitter(getStagingDirectory(), writesBinaryGraphs()).split(in);
+	}
 
-			if (token.length > 2)
-			{
-				if (!writers.containsKey(token[1])) writers.put(token[1],
-					new BufferedWriter(new FileWriter(getPrivateDirectory() + token[1] + ".txt")));
+	// Section: Staging
 
-				writers.get(token[1]).write(token[0] + "\t" + token[2]);
+	/**
+	 * Directory where the type files are written while the distant files are processed. It replaces the private
+	 * directory only when the processing is complete, so a download that breaks midway does not leave partial type
+	 * files that the next start takes as complete.
+	 */
+	protected String getStagingDirectory()
+	{
+		String dir = getPrivateDirectory();
+		return dir.substring(0, dir.length() - 1) + ".part" + File.separator;
+	}
 
-				if (token.length > 6)
-				{
-					writers.get(token[1]).write("\t" + token[6]);
-				}
+	/**
+	 * Creates an empty staging directory, removing the leftovers of an earlier broken run.
+	 */
+	protected void prepareStagingDirectory() throws IOException
+	{
+		deleteDirectory(Paths.get(getStagingDirectory()));
+		Files.createDirectories(Paths.get(getStagingDirectory()));
+	}
 
-				writers.get(token[1]).write("\n");
-			}
-		}
+	/**
+	 * Replaces the private directory with the staging directory. If this is interrupted, the private directory is
+	 * missing rather than partial, so the resource is downloaded again on the next start.
+	 */
+	protected void commitStagingDirectory() throws IOException
+	{
+		clearGraphCaches();
+		Path target = Paths.get(getPrivateDirectory());
+		deleteDirectory(target);
+		Files.move(Paths.get(getStagingDirectory()), target, StandardCopyOption.ATOMIC_MOVE);
+	}
 
-		for (Writer writer : writers.values())
+	private static void deleteDirectory(Path dir) throws IOException
+	{
+		if (!Files.exists(dir)) return;
+
+		try (Stream<Path> paths = Files.walk(dir))
 		{
-			writer.close();
+			for (Path path : paths.sorted(Comparator.reverseOrder()).toArray(Path[]::new))
+			{
+				Files.delete(path);
+			}
 		}
+	}
 
-		return file.delete();
+	/**
+	 * Whether the type files are written as serialized CSR graphs instead of text. Can be turned on with the system
+	 * property panda.binaryGraphs.
+	 */
+	protected boolean writesBinaryGraphs()
+	{
+		return Boolean.getBoolean("panda.binaryGraphs");
 	}
-	catch (IOException e){throw new RuntimeException(e);}}
 
 	public static void main(String[] args)
 	{
@@ -207,6 +379,9 @@ public class PathwayCommons extends FileServer
 		return true;
 	}
 
+	/**
+	 * The private directory appears only after the type files are completely written in the staging directory.
+	 */
 	@Override
 	public boolean localResourceExists()
 	{
@@ -0,0 +1,267 @@
+package org.panda.resource.network;
+
+import org.biopax.paxtools.pattern.miner.SIFEnum;
+import org.panda.resource.ChunkedLineReader;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Splits a Pathway Commons SIF stream into a file for each interaction type. Lines are parsed at byte level on worker
+ * threads, and the rows of each chunk are routed to per-type buffers, which are then written in the order of the
+ * input. Each type file has the source, target and mediators columns.
+ *
+ * In text mode the type files are tab-delimited, named as the type tag with ".txt". In binary mode each type is
+ * written as a serialized CSRGraph, named as the type tag with ".csr". A type file of the other format is removed, so
+ * that it does not shadow the new one.
+ */
+public class SIFSplitter
+{
+	public static final String TEXT_EXTENSION = ".txt";
+	public static final String BINARY_EXTENSION = ".csr";
+
+	private final String directory;
+	private final boolean binary;
+	private final ChunkedLineReader reader;
+
+	public SIFSplitter(String directory, boolean binary)
+	{
+		this(directory, binary, Runtime.getRuntime().availableProcessors());
+	}
+
+	public SIFSplitter(String directory, boolean binary, int threads)
+	{
+		this.directory = directory;
+		this.binary = binary;
+		reader = new ChunkedLineReader(8 << 20, threads);
+	}
+
+	/**
+	 * Reads the SIF content up to its first empty line, which ends the edges section of the extended SIF format.
+	 * @return tags of the types that are written
+	 */
+	public Set<String> split(InputStream in) throws IOException
+	{
+		// Skip header
+		for (int b = in.read(); b >= 0 && b != '\n'; b = in.read());
+
+		Files.createDirectories(Paths.get(directory));
+
+		Map<String, OutputStream> outs = new HashMap<>();
+		Map<String, CSRGraph.Builder> builders = new HashMap<>();
+
+		try
+		{
+			reader.read(in, this::parse, chunk ->
+			{try{
+				if (binary)
+				{
+					for (String type : chunk.rows.keySet())
+					{
+						CSRGraph.Builder builder = builders.computeIfAbsent(type, t -> new CSRGraph.Builder(false));
+						for (String[] row : chunk.rows.get(type))
+						{
+							builder.addRelation(row[0], row[1], row[2], null);
+						}
+					}
+				}
+				else
+				{
+					for (String type : chunk.text.keySet())
+					{
+						OutputStream out = outs.get(type);
+						if (out == null)
+						{
+							Files.deleteIfExists(Paths.get(directory + type + BINARY_EXTENSION));
+							out = new BufferedOutputStream(new FileOutputStream(directory + type + TEXT_EXTENSION),
+								1 << 20);
+							outs.put(type, out);
+						}
+						ByteSink sink = chunk.text.get(type);
+						out.write(sink.bytes, 0, sink.length);
+					}
+				}
+				return !chunk.stopped;
+			}
+			catch (IOException e){throw new UncheckedIOException(e);}});
+		}
+		catch (UncheckedIOException e)
+		{
+			throw e.getCause();
+		}
+		finally
+		{
+			for (OutputStream out : outs.values())
+			{
+				out.close();
+			}
+		}
+
+		if (!binary) return outs.keySet();
+
+		for (String type : builders.keySet())
+		{
+			SIFEnum sifType = SIFEnum.typeOf(type);
+			CSRGraph graph = builders.get(type).build("Pathway Commons", type, sifType == null || sifType.isDirected());
+
+			Files.deleteIfExists(Paths.get(directory + type + TEXT_EXTENSION));
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(directory + type + BINARY_EXTENSION), 1 << 20)))
+			{
+				graph.write(out);
+			}
+		}
+		return builders.keySet();
+	}
+
+	/**
+	 * Rows of a chunk, grouped by type.
+	 */
+	private static class Chunk
+	{
+		final Map<String, ByteSink> text = new HashMap<>();
+		final Map<String, List<String[]>> rows = new HashMap<>();
+
+		/**
+		 * Whether the chunk has the empty line that ends the edges.
+		 */
+		boolean stopped;
+	}
+
+	private Chunk parse(byte[] b, int from, int to)
+	{
+		Chunk chunk = new Chunk();
+
+		// Type tags seen in this chunk, compared at byte level to avoid creating a string for each line
+		List<byte[]> tagBytes = new ArrayList<>();
+		List<String> tags = new ArrayList<>();
+
+		int pos = from;
+		while (pos < to)
+		{
+			int nl = ChunkedLineReader.indexOf(b, pos, to, (byte) '\n');
+			int end = nl > pos && b[nl - 1] == '\r' ? nl - 1 : nl;
+
+			if (end == pos)
+			{
+				chunk.stopped = true;
+				break;
+			}
+
+			int t1 = ChunkedLineReader.indexOf(b, pos, end, (byte) '\t');
+			int t2 = ChunkedLineReader.indexOf(b, t1 + 1, end, (byte) '\t');
+
+			if (t2 < end)
+			{
+				int t3 = ChunkedLineReader.indexOf(b, t2 + 1, end, (byte) '\t');
+
+				// Mediators are in the seventh column
+				int m = t3;
+				for (int i = 0; i < 3 && m < end; i++)
+				{
+					m = ChunkedLineReader.indexOf(b, m + 1, end, (byte) '\t');
+				}
+				int mEnd = m < end ? ChunkedLineReader.indexOf(b, m + 1, end, (byte) '\t') : end;
+				boolean hasMed = m < end && mEnd > m + 1;
+
+				String tag = getTag(b, t1 + 1, t2, tagBytes, tags);
+
+				if (binary)
+				{
+					chunk.rows.computeIfAbsent(tag, k -> new ArrayList<>()).add(new String[]{
+						new String(b, pos, t1 - pos, StandardCharsets.UTF_8),
+						new String(b, t2 + 1, t3 - t2 - 1, StandardCharsets.UTF_8),
+						hasMed ? new String(b, m + 1, mEnd - m - 1, StandardCharsets.UTF_8) : null});
+				}
+				else
+				{
+					ByteSink sink = chunk.text.computeIfAbsent(tag, k -> new ByteSink());
+					sink.append(b, pos, t1 - pos);
+					sink.append((byte) '\t');
+					sink.append(b, t2 + 1, t3 - t2 - 1);
+					if (hasMed)
+					{
+						sink.append((byte) '\t');
+						sink.append(b, m + 1, mEnd - m - 1);
+					}
+					sink.append((byte) '\n');
+				}
+			}
+
+			pos = nl + 1;
+		}
+		return chunk;
+	}
+
+	private static String getTag(byte[] b, int from, int to, List<byte[]> tagBytes, List<String> tags)
+	{
+		int len = to - from;
+		for (int i = 0; i < tagBytes.size(); i++)
+		{
+			byte[] t = tagBytes.get(i);
+			if (t.length != len) continue;
+
+			int j = 0;
+			while (j < len && t[j] == b[from + j]) j++;
+			if (j == len) return tags.get(i);
+		}
+
+		tagBytes.add(Arrays.copyOfRange(b, from, to));
+		String tag = new String(b, from, len, StandardCharsets.UTF_8);
+		tags.add(tag);
+		return tag;
+	}
+
+	/**
+	 * A growable byte buffer.
+	 */
+	private static class ByteSink
+	{
+		byte[] bytes = new byte[1 << 16];
+		int length;
+
+		void append(byte[] b, int from, int len)
+		{
+			ensure(len);
+			System.arraycopy(b, from, bytes, length, len);
+			length += len;
+		}
+
+		void append(byte b)
+		{
+			ensure(1);
+			bytes[length++] = b;
+		}
+
+		private void ensure(int len)
+		{
+			if (length + len > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + len));
+		}
+	}
+
+	/**
+	 * Splits the given SIF file with one thread and with all cores, and prints the throughput of both.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		String input = args[0];
+		String outDir = args.length > 1 ? args[1] : System.getProperty("java.io.tmpdir") + "/sif-split/";
+		boolean binary = args.length > 2 && args[2].equals("binary");
+		double mb = new File(input).length() / (double) (1 << 20);
+
+		for (int threads : new int[]{1, Runtime.getRuntime().availableProcessors()})
+		{
+			long t = System.currentTimeMillis();
+			Set<String> types;
+			try (InputStream in = new FileInputStream(input))
+			{
+				types = new SIFSplitter(outDir, binary, threads).split(in);
+			}
+			double sec = (System.currentTimeMillis() - t) / 1000D;
+			System.out.printf("%d threads: %d types in %.1f s, %.0f MB/s%n", threads, types.size(), sec, mb / sec);
+		}
+	}
+}
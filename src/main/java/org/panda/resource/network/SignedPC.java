@@ -1,6 +1,7 @@
 package org.panda.resource.network;
 
 import org.biopax.paxtools.pattern.miner.SIFType;
+import org.panda.resource.ChunkedLineReader;
 import org.panda.resource.ResourceDirectory;
 import org.panda.resource.SignedInteractionText;
 import org.panda.resource.signednetwork.SignedType;
@@ -10,10 +11,12 @@ import org.panda.utility.graph.Graph;
 import org.panda.utility.graph.SiteSpecificGraph;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Serves the signed and directed version of Pathway Commons that contains edges: phosphorylates, dephosphorylates,
@@ -47,8 +50,12 @@ public class SignedPC extends PathwayCommons
 		return ResourceDirectory.get() + File.separator + "SignedPC/";
 	}
 
+	/**
+	 * Gets a new graph that is a merge of the desired types, which the caller can modify. Use getSharedGraph to avoid
+	 * building the graph again on each call.
+	 */
 	public DirectedGraph getGraph(SIFType... types)
-	{try{
+	{
 		String edgeType = CollectionUtil.merge(
 			Arrays.stream(types).map(SIFType::getTag).collect(Collectors.toList()), ",");
 
@@ -61,100 +68,236 @@ public class SignedPC extends PathwayCommons
 
 			for (SIFType type : types)
 			{
-				Files.lines(Paths.get(getPrivateDirectory() + type.getTag() + ".txt"))
-					.map(line -> line.split("\t")).forEach(token -> {
-					if (token.length > 2)
-					{
-						if (ss && token.length > 3)
-						{
-							((SiteSpecificGraph) graph).putRelation(token[0], token[1], token[2], token[3]);
-						} else
-						{
-							graph.putRelation(token[0], token[1], token[2]);
-						}
-					} else
-					{
-						graph.putRelation(token[0], token[1]);
-					}
-				});
+				getCSRGraph(type).addTo(graph);
 			}
 
 			return graph;
 		}
 		return null;
-	} catch (IOException e){throw new RuntimeException(e);}}
+	}
+
+	/**
+	 * Gets the merge of the desired types like getGraph, but the result is cached and shared by all callers, so it
+	 * should not be modified.
+	 */
+	@Override
+	public DirectedGraph getSharedGraph(SIFType... types)
+	{
+		if (!fileExists(types)) return null;
+
+		String key = Arrays.stream(types).map(SIFType::getTag).collect(Collectors.joining(","));
+		return (DirectedGraph) getGraphCache().get(key, () -> getGraph(types),
+			g -> Arrays.stream(types).mapToLong(type -> getCSRGraph(type).estimateGraphBytes()).sum());
+	}
+
+	@Override
+	protected CSRGraph buildCSRGraph(SIFType type, Stream<String[]> rows)
+	{
+		boolean ss = (type instanceof SignedType) && ((SignedType) type).isSiteSpecific();
+		return CSRGraph.fromRows("Signed PC", type.getTag(), true, ss, rows);
+	}
 
 	public Graph getSingleGraph(SIFType type)
 	{
 		return getGraph(type);
 	}
 
+	/**
+	 * Reads the type files that are generated by processTheDownloadedFiles into compact graphs. The lines are streamed
+	 * into the graphs, and only the graphs are kept.
+	 */
 	@Override
-	public boolean processTheDownloadedFiles()
-	{try{
+	public boolean load() throws IOException
+	{
+		clearGraphCaches();
+		for (SignedType type : getLoadedTypes())
+		{
+			getCSRGraph(type);
+		}
+		return true;
+	}
+
+	/**
+	 * The types that have a type file in the private directory.
+	 */
+	private List<SignedType> getLoadedTypes()
+	{
+		return Arrays.stream(SignedType.values()).filter(this::fileExists).collect(Collectors.toList());
+	}
 
-		Map<String, Map<String, SignedInteractionText>> mapmap = new HashMap<>();
+	@Override
+	protected boolean usesSnapshot()
+	{
+		return true;
+	}
 
-		Files.createDirectories(Paths.get(getPrivateDirectory()));
+	@Override
+	protected int getSnapshotVersion()
+	{
+		return 2;
+	}
 
-		// interaction key to sites
-		Map<String, Set<String>> falseMap = new HashMap<>();
+	@Override
+	protected String[] getSnapshotSourceFiles()
+	{
+		return Arrays.stream(SignedType.values())
+			.flatMap(type -> Stream.of(SIFSplitter.TEXT_EXTENSION, SIFSplitter.BINARY_EXTENSION)
+				.map(ext -> getPrivateDirectory() + type.getTag() + ext))
+			.filter(file -> Files.exists(Paths.get(file))).toArray(String[]::new);
+	}
 
-		for (String localFilename : getLocalFilenames())
+	/**
+	 * The snapshot is the serialized compact graph of each type.
+	 */
+	@Override
+	protected void writeSnapshot(DataOutput out) throws IOException
+	{
+		List<SignedType> types = getLoadedTypes();
+		out.writeInt(types.size());
+		for (SignedType type : types)
 		{
-			Scanner sc = new Scanner(new File(locateInBase(localFilename)));
+			out.writeUTF(type.getTag());
+			getCSRGraph(type).write(out);
+		}
+	}
 
-			if (localFilename.contains("false"))
-			{
-				while (sc.hasNextLine())
-				{
-					String line = sc.nextLine();
-					if (line.startsWith("#") || line.isEmpty()) continue;
+	@Override
+	protected void readSnapshot(DataInput in) throws IOException
+	{
+		clearGraphCaches();
+		int size = in.readInt();
+		for (int i = 0; i < size; i++)
+		{
+			String tag = in.readUTF();
+			putCSRGraph(tag, CSRGraph.read(in));
+		}
+	}
 
-					SignedInteractionText sit = new SignedInteractionText(line);
-					falseMap.put(sit.key(), sit.getSites() == null ? Collections.emptySet() : sit.getSites());
-				}
-			}
-			else
-			{
-				while (sc.hasNextLine())
-				{
-					String line = sc.nextLine();
-					if (line.isEmpty() || line.startsWith("#")) continue;
+	/**
+	 * Signed relations collected during processing, from type tag to interaction key to the relation.
+	 */
+	private Map<String, Map<String, SignedInteractionText>> mapmap;
 
-					SignedInteractionText sit = new SignedInteractionText(line);
+	/**
+	 * Interaction keys of the relations that are curated as false, mapped to their false sites.
+	 */
+	private Map<String, Set<String>> falseMap;
 
-					// Do not consider the relation if it is in the false set
-					Set<String> falseSites = falseMap.get(sit.key());
-					if (falseSites != null)
-					{
-						if (falseSites.isEmpty()) continue;
-						if (sit.getSites() == null || sit.getSites().isEmpty()) continue;
+	@Override
+	public boolean processTheDownloadedFiles()
+	{try{
+		String[] filenames = getLocalFilenames();
+		for (int i = 0; i < filenames.length; i++)
+		{
+			try (InputStream in = new FileInputStream(locateInBase(filenames[i])))
+			{
+				processDownloadStream(i, in);
+			}
+		}
+		return finishDownloadStreams();
+	}catch (IOException e){throw new RuntimeException(e);}}
 
-						sit.getSites().removeAll(falseSites);
-						if (sit.getSites().isEmpty()) continue;
-					}
+	@Override
+	protected boolean processDownloadStream(int index, InputStream in) throws IOException
+	{
+		if (index == 0)
+		{
+			mapmap = new HashMap<>();
+			falseMap = new HashMap<>();
+		}
 
-					if (!mapmap.containsKey(sit.getType().getTag()))
-					{
-						mapmap.put(sit.getType().getTag(), new HashMap<>());
-					}
+		if (getLocalFilenames()[index].contains("false"))
+		{
+			Scanner sc = new Scanner(in);
+			while (sc.hasNextLine())
+			{
+				String line = sc.nextLine();
+				if (line.startsWith("#") || line.isEmpty()) continue;
 
-					if (mapmap.get(sit.getType().getTag()).containsKey(sit.key()))
-					{
-						mapmap.get(sit.getType().getTag()).get(sit.key()).merge(sit);
-					}
-					else
+				SignedInteractionText sit = new SignedInteractionText(line);
+				falseMap.put(sit.key(), sit.getSites() == null ? Collections.emptySet() : sit.getSites());
+			}
+			if (sc.ioException() != null) throw sc.ioException();
+		}
+		else
+		{
+			// Lines are parsed in parallel, and collected in their order in the file
+			new ChunkedLineReader().read(in, (b, from, to) ->
+			{
+				List<SignedInteractionText> list = new ArrayList<>();
+				int pos = from;
+				while (pos < to)
+				{
+					int nl = ChunkedLineReader.indexOf(b, pos, to, (byte) '\n');
+					int end = nl > pos && b[nl - 1] == '\r' ? nl - 1 : nl;
+					if (end > pos && b[pos] != '#')
 					{
-						mapmap.get(sit.getType().getTag()).put(sit.key(), sit);
+						list.add(new SignedInteractionText(new String(b, pos, end - pos, StandardCharsets.UTF_8)));
 					}
+					pos = nl + 1;
 				}
-			}
+				return list;
+			}, list ->
+			{
+				list.forEach(this::collect);
+				return true;
+			});
+		}
+		return true;
+	}
+
+	private void collect(SignedInteractionText sit)
+	{
+		// Do not consider the relation if it is in the false set
+		Set<String> falseSites = falseMap.get(sit.key());
+		if (falseSites != null)
+		{
+			if (falseSites.isEmpty()) return;
+			if (sit.getSites() == null || sit.getSites().isEmpty()) return;
+
+			sit.getSites().removeAll(falseSites);
+			if (sit.getSites().isEmpty()) return;
+		}
+
+		if (!mapmap.containsKey(sit.getType().getTag()))
+		{
+			mapmap.put(sit.getType().getTag(), new HashMap<>());
+		}
+
+		if (mapmap.get(sit.getType().getTag()).containsKey(sit.key()))
+		{
+			mapmap.get(sit.getType().getTag()).get(sit.key()).merge(sit);
+		}
+		else
+		{
+			mapmap.get(sit.getType().getTag()).put(sit.key(), sit);
 		}
+	}
+
+	@Override
+	protected boolean finishDownloadStreams() throws IOException
+	{
+		prepareStagingDirectory();
+		boolean binary = writesBinaryGraphs();
 
 		for (String type : mapmap.keySet())
 		{
-			BufferedWriter writer = new BufferedWriter(new FileWriter(getPrivateDirectory() + type + ".txt"));
+			if (binary)
+			{
+				SignedType sifType = SignedType.typeOf(type);
+				CSRGraph graph = CSRGraph.fromRows("Signed PC", type, true, sifType != null && sifType.isSiteSpecific(),
+					mapmap.get(type).values().stream().map(sit -> sit.toStringWOType().split("\t")));
+
+				try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+					getStagingDirectory() + type + SIFSplitter.BINARY_EXTENSION), 1 << 20)))
+				{
+					graph.write(out);
+				}
+				continue;
+			}
+
+			BufferedWriter writer = new BufferedWriter(new FileWriter(getStagingDirectory() + type +
+				SIFSplitter.TEXT_EXTENSION));
 
 			for (String key : mapmap.get(type).keySet())
 			{
@@ -165,8 +308,11 @@ public class SignedPC extends PathwayCommons
 			writer.close();
 		}
 
+		commitStagingDirectory();
+		mapmap = null;
+		falseMap = null;
 		return true;
-	}catch (IOException e){throw new RuntimeException(e);}}
+	}
 
 	@Override
 	public String[] getLocalFilenames()
@@ -19,7 +19,7 @@ public class SignedPCNoTransfac extends SignedPC
 {
 	private static SignedPCNoTransfac instance;
 
-	public static SignedPCNoTransfac get()
+	public static synchronized SignedPCNoTransfac get()
 	{
 		if (instance == null) instance = new SignedPCNoTransfac();
 		return instance;
@@ -31,7 +31,7 @@ public class UniProt extends FileServer
 
 	static SiteSpecificGraph graph;
 
-	public static UniProt get()
+	public static synchronized UniProt get()
 	{
 		if (instance == null) instance = new UniProt();
 		return instance;
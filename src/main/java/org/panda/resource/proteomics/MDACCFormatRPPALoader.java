@@ -1,10 +1,9 @@
 package org.panda.resource.proteomics;
 
 import org.panda.resource.HGNC;
+import org.panda.resource.NumericTableReader;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.*;
 import java.util.*;
 
 /**
@@ -16,59 +15,76 @@ public class MDACCFormatRPPALoader
 {
 	public static Map<String, Map<String, Double>> load(String filename) throws IOException
 	{
-		String[] abs = Files.lines(Paths.get(filename)).filter(l -> l.contains("\tAntibody Name\t")).findFirst().get().split("\t");
-		String[] geneNames = Files.lines(Paths.get(filename)).filter(l -> l.contains("\tGene Name\t")).findFirst().get().split("\t");
-		List<String> colNames = Arrays.asList(Files.lines(Paths.get(filename)).filter(l -> l.contains("\tSample description\t")).findFirst().get().split("\t"));
+		NumericTableReader reader = new NumericTableReader('\t');
 
-		int sampleIndex = colNames.indexOf("Sample description");
-		if (sampleIndex < 0) throw new RuntimeException("Sample description not found.");
+		try (InputStream in = new BufferedInputStream(new FileInputStream(filename), 1 << 16))
+		{
+			// The first 11 lines are the header
+			List<String> head = new ArrayList<>();
+			for (int i = 0; i < 11; i++)
+			{
+				String line = NumericTableReader.readLine(in);
+				if (line != null) head.add(line);
+			}
 
-		int startCol = Arrays.asList(abs).indexOf("Antibody Name") + 1;
-		if (sampleIndex < 1) throw new RuntimeException("Antibody Name not found.");
+			String[] abs = head.stream().filter(l -> l.contains("\tAntibody Name\t")).findFirst().get().split("\t");
+			String[] geneNames = head.stream().filter(l -> l.contains("\tGene Name\t")).findFirst().get().split("\t");
+			List<String> colNames = Arrays.asList(head.stream().filter(l -> l.contains("\tSample description\t")).findFirst().get().split("\t"));
 
-		boolean halt = false;
-		// check if there is missing ab
-		List<Integer> inds = new ArrayList<>();
-		for (int i = startCol; i < abs.length; i++)
-		{
-			String preferredID = RPPAIDMapper.get().getPreferredID(abs[i]);
-			if (preferredID == null)
+			int sampleIndex = colNames.indexOf("Sample description");
+			if (sampleIndex < 0) throw new RuntimeException("Sample description not found.");
+
+			int startCol = Arrays.asList(abs).indexOf("Antibody Name") + 1;
+			if (sampleIndex < 1) throw new RuntimeException("Antibody Name not found.");
+			if (sampleIndex >= startCol) throw new RuntimeException("Sample description is not before the antibodies.");
+
+			boolean halt = false;
+			// check if there is missing ab
+			List<Integer> inds = new ArrayList<>();
+			for (int i = startCol; i < abs.length; i++)
 			{
-				halt = true;
-				if (abs[i].contains("_p") || HGNC.get().getSymbol(geneNames[i]) == null)
-					System.err.println("Not found: " + abs[i] + "   gene = " + geneNames[i]);
-				else inds.add(i);
+				String preferredID = RPPAIDMapper.get().getPreferredID(abs[i]);
+				if (preferredID == null)
+				{
+					halt = true;
+					if (abs[i].contains("_p") || HGNC.get().getSymbol(geneNames[i]) == null)
+						System.err.println("Not found: " + abs[i] + "   gene = " + geneNames[i]);
+					else inds.add(i);
+				}
 			}
-		}
-		if (!inds.isEmpty()) System.out.println("\nAdd these to the ID mapper file:\n");
-		inds.forEach(i -> System.out.println(abs[i] + "\t" + abs[i] + "\t" + geneNames[i]));
+			if (!inds.isEmpty()) System.out.println("\nAdd these to the ID mapper file:\n");
+			inds.forEach(i -> System.out.println(abs[i] + "\t" + abs[i] + "\t" + geneNames[i]));
 
-		halt = halt || !inds.isEmpty();
+			halt = halt || !inds.isEmpty();
 
-		if (halt)
-		{
-			System.out.println();
-			throw new RuntimeException("There we unrecognized antibodies. See above lines.");
-		}
-		//--------
+			if (halt)
+			{
+				System.out.println();
+				throw new RuntimeException("There we unrecognized antibodies. See above lines.");
+			}
+			//--------
 
-		Map<String, Map<String, Double>> map = new HashMap<>();
+			String[] preferred = new String[abs.length];
+			for (int i = startCol; i < abs.length; i++) preferred[i] = RPPAIDMapper.get().getPreferredID(abs[i]);
 
-		Files.lines(Paths.get(filename)).skip(11).map(l -> l.split("\t")).forEach(t ->
-		{
-			String sample = t[sampleIndex];
+			Map<String, Map<String, Double>> map = new HashMap<>();
 
-			for (int i = startCol; i < t.length; i++)
+			reader.readRows(in, startCol, null, (labels, values) ->
 			{
-				String ab = RPPAIDMapper.get().getPreferredID(abs[i]);
-				Double val = Double.valueOf(t[i]);
+				String sample = labels[sampleIndex];
 
-				if (!map.containsKey(ab)) map.put(ab, new HashMap<>());
-				map.get(ab).put(sample, val);
-			}
-		});
+				for (int j = 0; j < values.length && startCol + j < preferred.length; j++)
+				{
+					String ab = preferred[startCol + j];
+
+					if (!map.containsKey(ab)) map.put(ab, new HashMap<>());
+					map.get(ab).put(sample, values[j]);
+				}
+				return true;
+			});
 
-		return map;
+			return map;
+		}
 	}
 
 	public static void main(String[] args) throws IOException
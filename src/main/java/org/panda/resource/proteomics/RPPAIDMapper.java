@@ -28,7 +28,7 @@ public class RPPAIDMapper extends FileServer
 
 	private static final String RESOURCE_FILE = "MDACC-RPPA-ID-guide.txt";
 
-	public static RPPAIDMapper get()
+	public static synchronized RPPAIDMapper get()
 	{
 		if (instance == null) instance = new RPPAIDMapper();
 		return instance;
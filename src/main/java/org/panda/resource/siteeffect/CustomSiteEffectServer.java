@@ -1,5 +1,7 @@
 package org.panda.resource.siteeffect;
 
+import org.panda.resource.SymbolDictionary;
+
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -20,7 +22,7 @@ public class CustomSiteEffectServer extends SiteEffectServer
 
 		Files.lines(Paths.get(file)).map(l -> l.split("\t")).forEach(t ->
 		{
-			String gene = t[0];
+			String gene = SymbolDictionary.intern(t[0]);
 			String site = t[1];
 			Integer effect = Integer.valueOf(t[2]);
 
@@ -28,6 +30,7 @@ public class CustomSiteEffectServer extends SiteEffectServer
 			typeMap.get(mod).get(gene).put(site, effect);
 		});
 
+		indexSites();
 		return true;
 	}
 
@@ -0,0 +1,121 @@
+package org.panda.resource.siteeffect;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The sites of a gene that have known effects for a feature, in primitive arrays sorted by position. Finding the
+ * closest site to a position is a binary search that does not allocate.
+ */
+class GeneSites
+{
+	final int[] positions;
+	final char[] residues;
+	final int[] effects;
+
+	/**
+	 * @param siteEffects effects of the sites, like "S15" -> 1. Sites without a numeric position are left out.
+	 */
+	GeneSites(Map<String, Integer> siteEffects)
+	{
+		int n = 0;
+		long[] keys = new long[siteEffects.size()];
+		int[] effs = new int[siteEffects.size()];
+		char[] res = new char[siteEffects.size()];
+
+		for (Map.Entry<String, Integer> entry : siteEffects.entrySet())
+		{
+			String site = entry.getKey();
+			int pos = parsePosition(site);
+			if (pos < 0 || entry.getValue() == null) continue;
+
+			// Sort on the position, and keep the entry index in the lower bits
+			keys[n] = ((long) pos << 32) | n;
+			effs[n] = entry.getValue();
+			res[n] = site.charAt(0);
+			n++;
+		}
+
+		keys = Arrays.copyOf(keys, n);
+		Arrays.sort(keys);
+
+		positions = new int[n];
+		residues = new char[n];
+		effects = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			int j = (int) keys[i];
+			positions[i] = (int) (keys[i] >>> 32);
+			residues[i] = res[j];
+			effects[i] = effs[j];
+		}
+	}
+
+	int size()
+	{
+		return positions.length;
+	}
+
+	/**
+	 * Effect of the closest sites to the position. If the closest sites have different effects, the effect is 0.
+	 *
+	 * @return the effect, or null if there is no site within the distance threshold
+	 */
+	Integer getClosestEffect(int position, int distanceThreshold)
+	{
+		int n = positions.length;
+		if (n == 0) return null;
+
+		// First site at or after the position
+		int lo = 0, hi = n;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (positions[mid] < position) lo = mid + 1;
+			else hi = mid;
+		}
+
+		int dist = Integer.MAX_VALUE;
+		if (lo < n) dist = positions[lo] - position;
+		if (lo > 0) dist = Math.min(dist, position - positions[lo - 1]);
+		if (dist > distanceThreshold) return null;
+
+		// Sites at the closest distance are on both sides, and may share a position
+		int effect = 0;
+		boolean first = true;
+		for (int i = lo - 1; i >= 0 && position - positions[i] == dist; i--)
+		{
+			if (first) effect = effects[i];
+			else if (effect != effects[i]) return 0;
+			first = false;
+		}
+		for (int i = lo; i < n && positions[i] - position == dist; i++)
+		{
+			if (first) effect = effects[i];
+			else if (effect != effects[i]) return 0;
+			first = false;
+		}
+		return effect;
+	}
+
+	/**
+	 * Parses the position of a site like "S15", without creating a substring.
+	 *
+	 * @return the position, or -1 if the site does not have a numeric position
+	 */
+	static int parsePosition(String site)
+	{
+		int n = site.length();
+		if (n < 2 || n > 11) return -1;
+
+		int pos = 0;
+		for (int i = 1; i < n; i++)
+		{
+			char c = site.charAt(i);
+			if (c < '0' || c > '9') return -1;
+			pos = pos * 10 + (c - '0');
+			if (pos < 0) return -1;
+		}
+		return pos;
+	}
+}
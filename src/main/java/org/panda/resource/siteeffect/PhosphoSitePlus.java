@@ -1,6 +1,7 @@
 package org.panda.resource.siteeffect;
 
 import org.panda.resource.HGNC;
+import org.panda.resource.SymbolDictionary;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -159,7 +160,7 @@ public class PhosphoSitePlus extends SiteEffectServer
 		Files.lines(Paths.get(locateInBase(getLocalFilenames()[1]))).filter(l -> !l.startsWith("#"))
 			.map(line -> line.split("\\s+")).filter(token -> token.length > 2).forEach(token ->
 		{
-			String gene = token[0];
+			String gene = SymbolDictionary.intern(token[0]);
 
 			if (!typeMap.get(Feature.PHOSPHORYLATION).containsKey(gene)) typeMap.get(Feature.PHOSPHORYLATION).put(gene, new HashMap<>());
 			if (!actualMap.get(Feature.PHOSPHORYLATION).containsKey(gene)) actualMap.get(Feature.PHOSPHORYLATION).put(gene, new HashMap<>());
@@ -171,6 +172,7 @@ public class PhosphoSitePlus extends SiteEffectServer
 			actualMap.get(Feature.PHOSPHORYLATION).get(gene).put(site, "manual curation");
 		});
 
+		indexSites();
 		return true;
 	}
 
@@ -181,11 +183,13 @@ public class PhosphoSitePlus extends SiteEffectServer
 		resourceStream.map(l -> l.split("\t")).forEach(t ->
 		{
 			Feature mod = Feature.valueOf(t[2]);
-			if (typeMap.containsKey(mod)) typeMap.put(mod, new HashMap<>());
+			if (!typeMap.containsKey(mod)) typeMap.put(mod, new HashMap<>());
 
-			if (!typeMap.get(mod).containsKey(t[0])) typeMap.get(mod).put(t[0], new HashMap<>());
+			if (!typeMap.get(mod).containsKey(t[0])) typeMap.get(mod).put(SymbolDictionary.intern(t[0]), new HashMap<>());
 			typeMap.get(mod).get(t[0]).put(t[1], Integer.valueOf(t[3]));
 		});
+
+		indexSites();
 	}
 
 	public static void main(String[] args)
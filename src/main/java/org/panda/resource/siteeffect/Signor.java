@@ -1,5 +1,7 @@
 package org.panda.resource.siteeffect;
 
+import org.panda.resource.SymbolDictionary;
+
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -14,7 +16,7 @@ public class Signor extends SiteEffectServer
 {
 	static Signor instance;
 
-	public static Signor get()
+	public static synchronized Signor get()
 	{
 		if (instance == null) instance = new Signor();
 		return instance;
@@ -32,6 +34,7 @@ public class Signor extends SiteEffectServer
 		};
 
 		instance.typeMap = new HashMap<>();
+		instance.indexSites();
 	}
 
 	@Override
@@ -54,7 +57,7 @@ public class Signor extends SiteEffectServer
 			.filter(t -> !t[10].isEmpty())
 			.forEach(t ->
 		{
-			String gene = t[4];
+			String gene = SymbolDictionary.intern(t[4]);
 			String effect = t[8];
 			String mechanism = t[9];
 			String residue = t[10];
@@ -75,6 +78,7 @@ public class Signor extends SiteEffectServer
 			typeMap.get(mod).get(gene).put(residue, sign);
 		});
 
+		indexSites();
 		return true;
 	}
 
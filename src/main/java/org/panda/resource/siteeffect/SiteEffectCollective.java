@@ -12,10 +12,15 @@ import java.util.*;
 /**
  * @author Ozgun Babur
  */
-public class SiteEffectCollective
+public class SiteEffectCollective implements SiteEffectSource
 {
 	private List<SiteEffectServer> servers;
 
+	/**
+	 * Effects of the servers merged into one index.
+	 */
+	private volatile SiteEffectIndex index;
+
 	public SiteEffectCollective()
 	{
 		servers = new ArrayList<>();
@@ -23,6 +28,21 @@ public class SiteEffectCollective
 		servers.add(Signor.get());
 	}
 
+	/**
+	 * Gets the merged index, building it again if the servers changed or one of them loaded again since it was built.
+	 */
+	private SiteEffectIndex getIndex()
+	{
+		SiteEffectIndex idx = index;
+		if (idx != null && idx.isCurrent(servers)) return idx;
+
+		synchronized (this)
+		{
+			if (index == null || !index.isCurrent(servers)) index = new SiteEffectIndex(servers);
+			return index;
+		}
+	}
+
 	public Integer getEffect(String gene, Collection<String> sites, Feature mod)
 	{
 		Integer eff = null;
@@ -42,16 +62,27 @@ public class SiteEffectCollective
 		else return 0;
 	}
 
+	/**
+	 * Gets the effect of the first server that has a non-zero effect for the site, or 0 if the servers that know the
+	 * site have only 0.
+	 *
+	 * @return the effect, or null if no server knows the site
+	 */
+	@Override
 	public Integer getEffect(String gene, String site, Feature mod)
 	{
-		Integer effect = null;
-		for (SiteEffectServer server : servers)
-		{
-			Integer e = server.getEffect(gene, site, mod);
-			if (e != null && e != 0) return e;
-			else if (effect == null) effect = e;
-		}
-		return effect;
+		return getIndex().getEffect(gene, site, mod);
+	}
+
+	/**
+	 * Gets the first non-zero effect at the site, then at the next and the previous positions with the same residue.
+	 * For S and T sites, the same three positions are then tried with the other residue.
+	 *
+	 * @return the effect, 0 if none of those sites has a non-zero effect, or null if the gene has no known sites
+	 */
+	public Integer getNeighborhoodEffect(String gene, String site, Feature mod)
+	{
+		return getIndex().getNeighborhoodEffect(gene, site, mod);
 	}
 
 	public Integer getClosestEffect(String gene, String site, Feature mod, int distanceThreshold)
@@ -114,23 +145,103 @@ public class SiteEffectCollective
 		return false;
 	}
 
-	public void clearEffects()
+	public synchronized void clearEffects()
 	{
 		servers.clear();
+		index = null;
 	}
 
-	public void loadCustomEffectsFromFile(String file) throws IOException
+	public synchronized void loadCustomEffectsFromFile(String file) throws IOException
 	{
 		CustomSiteEffectServer csec = new CustomSiteEffectServer();
 		csec.load(file);
 		servers.add(csec);
+		index = null;
 	}
 
 	public static void main(String[] args) throws IOException
 	{
 //		SiteEffectCollective sec = new SiteEffectCollective();
 //		System.out.println(sec.getEffect("SMAD3", "T8", Feature.PHOSPHORYLATION));
-		writeToFile();
+//		writeToFile();
+		printLookupSpeed();
+	}
+
+	/**
+	 * Compares the neighborhood lookups of the merged index with the same lookups made by asking each server in turn.
+	 */
+	public static void printLookupSpeed()
+	{
+		SiteEffectCollective sec = new SiteEffectCollective();
+		Feature mod = Feature.PHOSPHORYLATION;
+
+		List<String[]> queries = new ArrayList<>();
+		Random r = new Random(1);
+		for (SiteEffectServer server : sec.servers)
+		{
+			for (String gene : server.getAllGenes(mod))
+			{
+				for (String site : server.getSites(gene, mod))
+				{
+					int pos = GeneSites.parsePosition(site);
+					if (pos < 0) continue;
+
+					// The known site, and a site near it that may not be known
+					queries.add(new String[]{gene, site});
+					queries.add(new String[]{gene, site.charAt(0) + String.valueOf(Math.max(1, pos + r.nextInt(5) - 2))});
+				}
+			}
+		}
+
+		long t = System.nanoTime();
+		int sum = 0;
+		for (String[] q : queries)
+		{
+			Integer e = sec.getNeighborhoodEffect(q[0], q[1], mod);
+			if (e != null) sum += e;
+		}
+		long indexed = System.nanoTime() - t;
+
+		t = System.nanoTime();
+		int sum2 = 0;
+		for (String[] q : queries)
+		{
+			sum2 += sec.getNeighborhoodEffectFromServers(q[0], q[1], mod);
+		}
+		long perServer = System.nanoTime() - t;
+
+		System.out.println(queries.size() + " queries. Merged index: " + (indexed / queries.size()) +
+			" ns per query. Servers in turn: " + (perServer / queries.size()) + " ns per query. (" + sum + ", " +
+			sum2 + ")");
+	}
+
+	/**
+	 * The neighborhood lookup made with the servers in turn, for comparison.
+	 */
+	private int getNeighborhoodEffectFromServers(String gene, String site, Feature mod)
+	{
+		String aa = site.substring(0, 1);
+		int loc = Integer.parseInt(site.substring(1));
+
+		for (String a : aa.equals("S") ? new String[]{"S", "T"} : aa.equals("T") ? new String[]{"T", "S"} :
+			new String[]{aa})
+		{
+			for (int l : new int[]{loc, loc + 1, loc - 1})
+			{
+				Integer effect = null;
+				for (SiteEffectServer server : servers)
+				{
+					Integer e = server.getEffect(gene, a + l, mod);
+					if (e != null && e != 0)
+					{
+						effect = e;
+						break;
+					}
+				}
+				if (effect != null) return effect;
+			}
+		}
+		return 0;
 	}
 
 	public static void writeToFile() throws IOException
@@ -0,0 +1,188 @@
+package org.panda.resource.siteeffect;
+
+import java.util.*;
+
+/**
+ * Site effects of a list of servers, merged into a single lookup structure. For each site, the first non-zero effect
+ * in the server order wins, and a zero effect is kept only if no server has a non-zero one, which is the precedence of
+ * querying the servers in turn. The sites of each feature and gene are kept in sorted primitive arrays, so a lookup
+ * is one map access and a binary search, and the nearby and residue-swapped sites are found the same way.
+ */
+class SiteEffectIndex
+{
+	private final Map<Feature, Map<String, Sites>> index;
+
+	/**
+	 * The servers and their versions that the index is built on.
+	 */
+	private final SiteEffectServer[] servers;
+	private final int[] versions;
+
+	SiteEffectIndex(List<SiteEffectServer> servers)
+	{
+		this.servers = servers.toArray(new SiteEffectServer[0]);
+		versions = new int[this.servers.length];
+		for (int i = 0; i < versions.length; i++) versions[i] = this.servers[i].getVersion();
+
+		// Merge the effects with the server precedence
+		Map<Feature, Map<String, Map<String, Integer>>> merged = new EnumMap<>(Feature.class);
+
+		for (SiteEffectServer server : servers)
+		{
+			if (server.typeMap == null) continue;
+
+			server.typeMap.forEach((mod, genes) -> genes.forEach((gene, sites) ->
+			{
+				Map<String, Integer> target = merged.computeIfAbsent(mod, k -> new HashMap<>())
+					.computeIfAbsent(gene, k -> new HashMap<>());
+
+				sites.forEach((site, effect) ->
+				{
+					if (effect == null) return;
+					Integer current = target.get(site);
+					if (current == null || (current == 0 && effect != 0)) target.put(site, effect);
+				});
+			}));
+		}
+
+		index = new EnumMap<>(Feature.class);
+		merged.forEach((mod, genes) ->
+		{
+			Map<String, Sites> map = new HashMap<>();
+			genes.forEach((gene, sites) -> map.put(gene, new Sites(sites)));
+			index.put(mod, map);
+		});
+	}
+
+	/**
+	 * Whether the index is built on the same servers, and none of them loaded again since.
+	 */
+	boolean isCurrent(List<SiteEffectServer> servers)
+	{
+		if (servers.size() != this.servers.length) return false;
+
+		for (int i = 0; i < versions.length; i++)
+		{
+			SiteEffectServer server = this.servers[i];
+			if (servers.get(i) != server || server.getVersion() != versions[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the merged effect of the site, or null if no server knows the site
+	 */
+	Integer getEffect(String gene, String site, Feature mod)
+	{
+		Sites sites = getSites(gene, mod);
+		if (sites == null) return null;
+
+		int pos = GeneSites.parsePosition(site);
+		return pos < 0 ? sites.getOther(site) : sites.get(site.charAt(0), pos);
+	}
+
+	/**
+	 * Looks for a non-zero effect at the site, then at the positions after and before it with the same residue. For S
+	 * and T sites, it then looks at the same three positions with the other residue.
+	 *
+	 * @return the first non-zero effect in that order, 0 if there is none, or null if the gene has no known sites
+	 */
+	Integer getNeighborhoodEffect(String gene, String site, Feature mod)
+	{
+		Sites sites = getSites(gene, mod);
+		if (sites == null) return null;
+
+		int pos = GeneSites.parsePosition(site);
+		if (pos < 0)
+		{
+			Integer e = sites.getOther(site);
+			return e == null ? 0 : e;
+		}
+
+		char aa = site.charAt(0);
+		int e = sites.getNonZero(aa, pos);
+		if (e != 0) return e;
+
+		if (aa == 'S' || aa == 'T') e = sites.getNonZero(aa == 'S' ? 'T' : 'S', pos);
+		return e;
+	}
+
+	private Sites getSites(String gene, Feature mod)
+	{
+		Map<String, Sites> map = index.get(mod);
+		return map == null ? null : map.get(gene);
+	}
+
+	/**
+	 * Merged sites of a gene, sorted on the position and then the residue.
+	 */
+	private static class Sites
+	{
+		final long[] keys;
+		final int[] effects;
+
+		/**
+		 * Sites that do not have a numeric position, null if there is none.
+		 */
+		Map<String, Integer> others;
+
+		Sites(Map<String, Integer> siteEffects)
+		{
+			long[] k = new long[siteEffects.size()];
+			int n = 0;
+			Map<Long, Integer> effectOf = new HashMap<>();
+
+			for (Map.Entry<String, Integer> entry : siteEffects.entrySet())
+			{
+				String site = entry.getKey();
+				int pos = GeneSites.parsePosition(site);
+				if (pos < 0)
+				{
+					if (others == null) others = new HashMap<>();
+					others.put(site, entry.getValue());
+					continue;
+				}
+				k[n] = key(site.charAt(0), pos);
+				effectOf.put(k[n++], entry.getValue());
+			}
+
+			keys = Arrays.copyOf(k, n);
+			Arrays.sort(keys);
+			effects = new int[n];
+			for (int i = 0; i < n; i++) effects[i] = effectOf.get(keys[i]);
+		}
+
+		private static long key(char aa, int pos)
+		{
+			return ((long) pos << 16) | aa;
+		}
+
+		Integer get(char aa, int pos)
+		{
+			int i = Arrays.binarySearch(keys, key(aa, pos));
+			return i < 0 ? null : effects[i];
+		}
+
+		Integer getOther(String site)
+		{
+			return others == null ? null : others.get(site);
+		}
+
+		/**
+		 * @return the first non-zero effect at the position, after it and before it, or 0
+		 */
+		int getNonZero(char aa, int pos)
+		{
+			int e = getNonZeroAt(aa, pos);
+			if (e == 0) e = getNonZeroAt(aa, pos + 1);
+			if (e == 0 && pos > 0) e = getNonZeroAt(aa, pos - 1);
+			return e;
+		}
+
+		private int getNonZeroAt(char aa, int pos)
+		{
+			int i = Arrays.binarySearch(keys, key(aa, pos));
+			return i < 0 ? 0 : effects[i];
+		}
+	}
+}
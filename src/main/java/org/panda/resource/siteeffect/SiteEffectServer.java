@@ -5,16 +5,29 @@ import org.panda.resource.tcga.ProteomicsFileRow;
 import org.panda.utility.TermCounter;
 
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Base class for providing site effects.
  *
  * @author Ozgun Babur
  */
-public abstract class SiteEffectServer extends FileServer
+public abstract class SiteEffectServer extends FileServer implements SiteEffectSource
 {
 	Map<Feature, Map<String, Map<String, Integer>>> typeMap;
 
+	/**
+	 * Sites of each feature and gene in sorted primitive arrays, for the closest site lookups.
+	 */
+	private volatile Map<Feature, Map<String, GeneSites>> siteIndex;
+
+	/**
+	 * Counts the loads, so that indices over several servers know when to rebuild.
+	 */
+	private volatile int version;
+
+	@Override
 	public Integer getEffect(String gene, String site, Feature mod)
 	{
 		if (typeMap.containsKey(mod) && typeMap.get(mod).containsKey(gene))
@@ -24,38 +37,66 @@ public abstract class SiteEffectServer extends FileServer
 		return null;
 	}
 
+	/**
+	 * Effect of the closest known site of the gene to the given site. If the closest sites have different effects,
+	 * the effect is 0.
+	 *
+	 * @return the effect, or null if there is no known site within the distance threshold
+	 */
 	public Integer getClosestEffect(String gene, String site, Feature mod, int distanceThreshold)
 	{
-		Map<String, Map<String, Integer>> map = typeMap.get(mod);
+		Map<String, GeneSites> map = getSiteIndex().get(mod);
 		if (map == null) return null;
 
-		if (map.containsKey(gene))
-		{
-			int s0 = Integer.parseInt(site.substring(1));
+		GeneSites sites = map.get(gene);
+		if (sites == null) return null;
 
-			Integer effect = null;
-			int closestDist = Integer.MAX_VALUE;
+		int s0 = GeneSites.parsePosition(site);
+		return s0 < 0 ? null : sites.getClosestEffect(s0, distanceThreshold);
+	}
 
-			for (String ss : map.get(gene).keySet())
+	/**
+	 * Builds the sorted site arrays from typeMap. Subclasses call this at the end of loading. It is also built on first
+	 * use if they do not.
+	 */
+	protected void indexSites()
+	{
+		Map<Feature, Map<String, GeneSites>> index = new EnumMap<>(Feature.class);
+
+		if (typeMap != null)
+		{
+			typeMap.forEach((mod, genes) ->
 			{
-				Integer eff = map.get(gene).get(ss);
+				Map<String, GeneSites> map = new HashMap<>();
+				genes.forEach((gene, sites) -> map.put(gene, new GeneSites(sites)));
+				index.put(mod, map);
+			});
+		}
 
-				int s1 = Integer.parseInt(ss.substring(1));
+		siteIndex = index;
+		version++;
+	}
 
-				int dist = Math.abs(s0 - s1);
-				if (dist == closestDist && !eff.equals(effect))
-				{
-					effect = 0;
-				}
-				else if (dist < closestDist)
-				{
-					effect = eff;
-					closestDist = dist;
-				}
+	/**
+	 * Changes each time the server loads its effects.
+	 */
+	int getVersion()
+	{
+		return version;
+	}
+
+	private Map<Feature, Map<String, GeneSites>> getSiteIndex()
+	{
+		Map<Feature, Map<String, GeneSites>> index = siteIndex;
+		if (index == null)
+		{
+			synchronized (this)
+			{
+				if (siteIndex == null) indexSites();
+				index = siteIndex;
 			}
-			if (closestDist <= distanceThreshold) return effect;
 		}
-		return null;
+		return index;
 	}
 
 	protected List<String> sortSites(Set<String> sites)
@@ -119,17 +160,34 @@ public abstract class SiteEffectServer extends FileServer
 
 	public void fillInMissingEffect(Collection<ProteomicsFileRow> datas, int proximityThreshold)
 	{
-		for (ProteomicsFileRow data : datas)
-		{
-			if (data.effect != null && data.effect != ProteomicsFileRow.SiteEffect.COMPLEX) continue;
-			if (data.sites == null || data.sites.isEmpty()) continue;
+		List<ProteomicsFileRow> missing = datas.stream()
+			.filter(data -> data.effect == null || data.effect == ProteomicsFileRow.SiteEffect.COMPLEX)
+			.filter(data -> data.sites != null && !data.sites.isEmpty())
+			.collect(Collectors.toList());
 
-			Set<Integer> found = getEffects(data, data.mod, proximityThreshold);
-			ProteomicsFileRow.SiteEffect e = aggregateEffects(found);
-			if (e != null) data.effect = e;
+		List<Set<Integer>> effects = getEffects(missing, proximityThreshold);
+
+		for (int i = 0; i < missing.size(); i++)
+		{
+			ProteomicsFileRow.SiteEffect e = aggregateEffects(effects.get(i));
+			if (e != null) missing.get(i).effect = e;
 		}
 	}
 
+	/**
+	 * Resolves the effects of the rows in parallel, each for its own feature.
+	 *
+	 * @return the found effects of each row, in the order of the rows
+	 */
+	public List<Set<Integer>> getEffects(List<ProteomicsFileRow> datas, int proximityThreshold)
+	{
+		getSiteIndex();
+
+		return IntStream.range(0, datas.size()).parallel()
+			.mapToObj(i -> getEffects(datas.get(i), datas.get(i).mod, proximityThreshold))
+			.collect(Collectors.toList());
+	}
+
 	public Set<Integer> getEffects(ProteomicsFileRow data, Feature mod, int proximityThreshold)
 	{
 		Set<Integer> found = new HashSet<>();
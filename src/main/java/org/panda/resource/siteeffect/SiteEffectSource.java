@@ -0,0 +1,14 @@
+package org.panda.resource.siteeffect;
+
+/**
+ * Anything that knows the effects of modification sites on their proteins, like a single SiteEffectServer or a
+ * SiteEffectCollective that combines several.
+ */
+public interface SiteEffectSource
+{
+	/**
+	 * @return the effect of the site, 1 for activating, -1 for inhibiting and 0 for complex, or null if it is not
+	 * known
+	 */
+	Integer getEffect(String gene, String site, Feature mod);
+}
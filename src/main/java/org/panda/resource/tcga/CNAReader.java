@@ -1,11 +1,15 @@
 package org.panda.resource.tcga;
 
+import org.panda.resource.LazyRowCache;
+import org.panda.resource.MatrixRowIndex;
+import org.panda.resource.NumericMatrix;
+import org.panda.resource.NumericTableReader;
+import org.panda.resource.SymbolDictionary;
 import org.panda.utility.ArrayUtil;
 import org.panda.utility.statistics.Summary;
 import org.panda.utility.statistics.TTest;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.*;
 import java.util.*;
 
 /**
@@ -17,7 +21,10 @@ public class CNAReader
 {
 	private String filename;
 
-	private Map<String, Map<String, Integer>> data;
+	/**
+	 * Copy number states in byte rows. When reduce is true, they are reduced to -1, 0 and 1 at load time.
+	 */
+	private NumericMatrix data;
 
 	boolean reduce;
 
@@ -25,6 +32,11 @@ public class CNAReader
 
 	int idLength;
 
+	/**
+	 * Rows that are read on demand in the lazy mode, null otherwise.
+	 */
+	private LazyRowCache<byte[]> lazyRows;
+
 	public static final int NO_DATA = -Integer.MAX_VALUE;
 
 	public CNAReader(String filename) throws FileNotFoundException
@@ -47,7 +59,61 @@ public class CNAReader
 		this(filename, genes, reduce, threshold, 12);
 	}
 
+	/**
+	 * Loading a subset of genes seeks to their rows with a MatrixRowIndex, which is saved next to the file on the
+	 * first subset load.
+	 */
 	public CNAReader(String filename, Set<String> genes, boolean reduce, int threshold, int idLength) throws FileNotFoundException
+	{
+		init(filename, reduce, threshold, idLength);
+		load(genes);
+	}
+
+	public CNAReader(String filename, int cacheSize) throws FileNotFoundException
+	{
+		this(filename, true, 2, 12, cacheSize);
+	}
+
+	/**
+	 * Creates a lazy reader, which reads only the header at construction, and reads each gene row with a seek when it
+	 * is first asked for. At most cacheSize rows are kept in memory, dropping the least recently used ones.
+	 */
+	public CNAReader(String filename, boolean reduce, int threshold, int idLength, int cacheSize) throws FileNotFoundException
+	{
+		init(filename, reduce, threshold, idLength);
+
+		InputStream in = new BufferedInputStream(new FileInputStream(filename), 1 << 16);
+		NumericTableReader reader = new NumericTableReader('\t');
+
+		try (InputStream is = in)
+		{
+			String[] header = reader.readHeader(is);
+			int ss = initMatrix(header);
+			int[] cols = data.mapColumns(header, ss);
+			int n = data.getSampleCount();
+
+			MatrixRowIndex index = MatrixRowIndex.get(filename, 1, '\t', CNAReader::getID);
+
+			lazyRows = new LazyRowCache<>(index, reader, ss, cacheSize, values ->
+			{
+				toStates(values);
+				byte[] row = new byte[n];
+				Arrays.fill(row, NumericMatrix.NO_DATA);
+				for (int j = 0; j < values.length && ss + j < cols.length; j++)
+				{
+					int col = cols[ss + j];
+					if (col >= 0 && !Double.isNaN(values[j])) row[col] = (byte) values[j];
+				}
+				return row;
+			});
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void init(String filename, boolean reduce, int threshold, int idLength)
 	{
 		this.filename = filename;
 		this.reduce = reduce;
@@ -56,19 +122,51 @@ public class CNAReader
 			throw new IllegalArgumentException("Threshold has to be positive integer");
 
 		this.threshold = threshold;
-		this.data = new HashMap<>();
 		this.idLength = idLength;
-		load(genes);
 	}
 
 	private void load(Set<String> genes) throws FileNotFoundException
 	{
-		Scanner sc = new Scanner(new File(filename));
-		String line = sc.nextLine();
-		while (line.startsWith("#")) line = sc.nextLine();
+		InputStream in = new BufferedInputStream(new FileInputStream(filename), 1 << 16);
+		NumericTableReader reader = new NumericTableReader('\t');
+
+		try (InputStream is = in)
+		{
+			String[] header = reader.readHeader(is);
+			int ss = initMatrix(header);
+			int[] cols = data.mapColumns(header, ss);
+
+			NumericTableReader.RowConsumer consumer = (labels, values) ->
+			{
+				toStates(values);
+				int row = data.addRow(SymbolDictionary.intern(getID(labels[0])));
+				data.set(row, values, cols, ss);
 
-		String[] header = line.split("\t");
+				return genes == null || data.size() < genes.size();
+			};
+
+			if (genes != null)
+			{
+				MatrixRowIndex.get(filename, 1, '\t', CNAReader::getID).readRows(genes, reader, ss, consumer);
+			}
+			else
+			{
+				reader.readRows(is, ss, null, consumer);
+			}
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
 
+	/**
+	 * Creates the matrix with the samples in the header, with their IDs shortened to idLength.
+	 *
+	 * @return index of the first sample column
+	 */
+	private int initMatrix(String[] header)
+	{
 		int ss = 0;
 		while (!header[ss].startsWith("TCGA")) ss++;
 
@@ -77,69 +175,92 @@ public class CNAReader
 			if (header[i].length() > idLength) header[i] = header[i].substring(0, idLength);
 		}
 
-		while (sc.hasNextLine())
-		{
-			line = sc.nextLine();
-			String id = line.substring(0, line.indexOf("\t"));
-			if (id.contains("|")) id = id.substring(0, id.indexOf("|"));
+		data = new NumericMatrix(Arrays.copyOfRange(header, ss, header.length), true);
+		return ss;
+	}
 
-			if (genes != null && !genes.contains(id)) continue;
+	/**
+	 * Reduces the copy number values in place to -1, 0 and 1 if reduce is true, or checks that they fit in a byte.
+	 */
+	private void toStates(double[] values)
+	{
+		for (int i = 0; i < values.length; i++)
+		{
+			double val = values[i];
+			if (Double.isNaN(val)) continue;
 
-			String[] token = line.split("\t");
+			if (reduce) values[i] = val >= threshold ? 1 : val <= -threshold ? -1 : 0;
+			else if (val <= NumericMatrix.NO_DATA || val > Byte.MAX_VALUE)
+				throw new IllegalArgumentException("Copy number value out of range: " + val);
+		}
+	}
 
+	private static String getID(String label)
+	{
+		int i = label.indexOf("|");
+		return i < 0 ? label : label.substring(0, i);
+	}
 
-			for (int i = ss; i < header.length; i++)
-			{
-				Integer val = Integer.parseInt(token[i]);
+	public boolean isLazy()
+	{
+		return lazyRows != null;
+	}
 
-//				if (val != 0)
-				{
-					if (!data.containsKey(id)) data.put(id, new HashMap<String, Integer>());
-					data.get(id).put(header[i], val);
-				}
-			}
+	/**
+	 * Reads the rows of the genes that are not in the cache with one pass over the file, in the lazy mode. Does
+	 * nothing otherwise.
+	 */
+	public void prefetch(Collection<String> genes)
+	{
+		if (lazyRows != null) lazyRows.prefetch(genes);
+	}
 
-			if (genes != null && genes.size() == data.size()) break;
-		}
+	/**
+	 * In the lazy mode, the matrix has the samples but no rows.
+	 */
+	public NumericMatrix getMatrix()
+	{
+		return data;
 	}
 
 	public Set<String> getSamples()
 	{
-		Set<String> samples = new HashSet<String>();
-		for (Map<String, Integer> map : data.values())
-		{
-			samples.addAll(map.keySet());
-		}
-		return samples;
+		return new HashSet<>(data.getSamples());
 	}
 
 	public Set<String> getGenes()
 	{
-		return data.keySet();
+		return lazyRows != null ? lazyRows.getIndex().getIDs() : data.getIDs();
 	}
 
 	public int[] getGeneAlterationArray(String id, String[] samples)
 	{
-		if (data.containsKey(id))
+		byte[] vals = getGeneAlterationRow(id);
+		if (vals == null) return null;
+
+		boolean inOrder = data.isMatrixOrder(samples);
+
+		int[] b = new int[samples.length];
+		for (int i = 0; i < samples.length; i++)
 		{
-			int[] b = new int[samples.length];
-			Arrays.fill(b, 0);
-			for (int i = 0; i < samples.length; i++)
-			{
-				if (data.get(id).containsKey(samples[i]))
-				{
-					Integer val = data.get(id).get(samples[i]);
-					if (reduce) b[i] = val >= threshold ? 1 : val <= -threshold ? -1 : 0;
-					else b[i] = val;
-				}
-				else
-				{
-					b[i] = NO_DATA;
-				}
-			}
-			return b;
+			int col = inOrder ? i : data.sampleIndexOf(samples[i]);
+			b[i] = col < 0 || vals[col] == NumericMatrix.NO_DATA ? NO_DATA : vals[col];
 		}
-		return null;
+		return b;
+	}
+
+	/**
+	 * Gets the copy number states of the gene in the order of the sample array of the matrix, without copying. The
+	 * returned array must not be modified. Missing values are NumericMatrix.NO_DATA.
+	 *
+	 * @return the row, or null if the gene is not in the data
+	 */
+	public byte[] getGeneAlterationRow(String id)
+	{
+		if (lazyRows != null) return lazyRows.get(id);
+
+		int row = data.indexOf(id);
+		return row < 0 ? null : data.getByteRow(row);
 	}
 
 	private boolean[] getAmplified(int[] alterations)
@@ -1,10 +1,9 @@
 package org.panda.resource.tcga;
 
-import org.panda.utility.statistics.Histogram;
-import org.panda.utility.statistics.Summary;
+import org.panda.resource.NumericMatrix;
+import org.panda.resource.NumericTableReader;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.*;
 import java.util.*;
 
 /**
@@ -26,34 +25,29 @@ public class CustomExpressionReader extends ExpressionReader
 
 	protected void load(Set<String> genes) throws FileNotFoundException
 	{
-		Scanner sc = new Scanner(new File(filename));
-		String line = sc.nextLine();
-		while (line.startsWith("#")) line = sc.nextLine();
+		InputStream in = new BufferedInputStream(new FileInputStream(filename), 1 << 16);
+		NumericTableReader reader = new NumericTableReader('\t');
 
-		String[] header = line.split("\t");
-
-		int ss = 1;
-
-		while (sc.hasNextLine())
+		try (InputStream is = in)
 		{
-			line = sc.nextLine();
-			String id = line.substring(0, line.indexOf("\t"));
+			String[] header = reader.readHeader(is);
 
-			if (genes != null && !genes.contains(id)) continue;
+			int ss = 1;
 
-			String[] token = line.split("\t");
+			data = new NumericMatrix(Arrays.copyOfRange(header, ss, header.length), false);
+			int[] cols = data.mapColumns(header, ss);
 
-			for (int i = ss; i < header.length; i++)
+			reader.readRows(is, ss, labels -> genes == null || genes.contains(labels[0]), (labels, values) ->
 			{
-				if (token[i].equals("NA")) token[i] = "NaN";
-
-				Double val = Double.parseDouble(token[i]);
+				int row = data.addRow(labels[0]);
+				data.set(row, values, cols, ss);
 
-				if (!data.containsKey(id)) data.put(id, new HashMap<>());
-				data.get(id).put(header[i], val);
-			}
-
-			if (genes != null && data.size() == genes.size()) break;
+				return genes == null || data.size() < genes.size();
+			});
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
 		}
 	}
 }
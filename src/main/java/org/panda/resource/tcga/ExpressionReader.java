@@ -1,10 +1,14 @@
 package org.panda.resource.tcga;
 
+import org.panda.resource.LazyRowCache;
+import org.panda.resource.MatrixRowIndex;
+import org.panda.resource.NumericMatrix;
+import org.panda.resource.NumericTableReader;
+import org.panda.resource.SymbolDictionary;
 import org.panda.utility.statistics.Histogram;
 import org.panda.utility.statistics.Summary;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.*;
 import java.util.*;
 
 /**
@@ -16,12 +20,20 @@ public class ExpressionReader
 {
 	protected String filename;
 
-	protected Map<String, Map<String, Double>> data;
+	/**
+	 * Values as they are in the file. The log transformation is applied in getGeneAlterationArray.
+	 */
+	protected NumericMatrix data;
 
 	protected double LOG2 = Math.log(2);
 
 	protected int idLength;
 
+	/**
+	 * Rows that are read on demand in the lazy mode, null otherwise.
+	 */
+	protected LazyRowCache<double[]> lazyRows;
+
 	public ExpressionReader(String filename) throws FileNotFoundException
 	{
 		this (filename, null);
@@ -32,31 +44,105 @@ public class ExpressionReader
 		this(filename, genes, 12);
 	}
 
+	/**
+	 * Loading a subset of genes seeks to their rows with a MatrixRowIndex, which is saved next to the file on the
+	 * first subset load.
+	 */
 	public ExpressionReader(String filename, Set<String> genes, int idLength) throws FileNotFoundException
 	{
 		this.filename = filename;
-		this.data = new HashMap<>();
 		this.idLength = idLength;
 		load(genes);
 	}
 
-	protected void load(Set<String> genes) throws FileNotFoundException
+	public ExpressionReader(String filename, int cacheSize) throws FileNotFoundException
+	{
+		this(filename, 12, cacheSize);
+	}
+
+	/**
+	 * Creates a lazy reader, which reads only the header at construction, and reads each gene row with a seek when it
+	 * is first asked for. At most cacheSize rows are kept in memory, dropping the least recently used ones.
+	 */
+	public ExpressionReader(String filename, int idLength, int cacheSize) throws FileNotFoundException
 	{
-		Scanner sc = new Scanner(new File(filename));
-		String line = sc.nextLine();
-		while (line.startsWith("#")) line = sc.nextLine();
+		this.filename = filename;
+		this.idLength = idLength;
 
-		String[] header = line.split("\t");
+		InputStream in = new BufferedInputStream(new FileInputStream(filename), 1 << 16);
+		NumericTableReader reader = new NumericTableReader('\t');
 
-		// Remove possible quotes
-		for (int i = 0; i < header.length; i++)
+		try (InputStream is = in)
 		{
-			if (header[i].startsWith("\"") && header[i].endsWith("\""))
+			String[] header = reader.readHeader(is);
+			int ss = initMatrix(header);
+			int[] cols = data.mapColumns(header, ss);
+			int n = data.getSampleCount();
+
+			MatrixRowIndex index = MatrixRowIndex.get(filename, 2, '\t', ExpressionReader::getID);
+
+			lazyRows = new LazyRowCache<>(index, reader, ss, cacheSize, values ->
 			{
-				header[i] = header[i].substring(1, header[i].length() - 1);
+				double[] row = new double[n];
+				Arrays.fill(row, Double.NaN);
+				for (int j = 0; j < values.length && ss + j < cols.length; j++)
+				{
+					int col = cols[ss + j];
+					if (col >= 0) row[col] = values[j];
+				}
+				return row;
+			});
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	protected void load(Set<String> genes) throws FileNotFoundException
+	{
+		InputStream in = new BufferedInputStream(new FileInputStream(filename), 1 << 16);
+		NumericTableReader reader = new NumericTableReader('\t');
+
+		try (InputStream is = in)
+		{
+			String[] header = reader.readHeader(is);
+			int ss = initMatrix(header);
+			int[] cols = data.mapColumns(header, ss);
+
+			NumericTableReader.RowConsumer consumer = (labels, values) ->
+			{
+				int row = data.addRow(SymbolDictionary.intern(getID(labels[0])));
+				data.set(row, values, cols, ss);
+
+				return genes == null || data.size() < genes.size();
+			};
+
+			if (genes != null)
+			{
+				MatrixRowIndex.get(filename, 2, '\t', ExpressionReader::getID).readRows(genes, reader, ss, consumer);
+			}
+			else
+			{
+				// skip second line
+				NumericTableReader.readLine(is);
+
+				reader.readRows(is, ss, labels -> getID(labels[0]) != null, consumer);
 			}
 		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
 
+	/**
+	 * Creates the matrix with the samples in the header, with their IDs shortened to idLength.
+	 *
+	 * @return index of the first sample column
+	 */
+	private int initMatrix(String[] header)
+	{
 		int ss = 0;
 		while (!header[ss].startsWith("TCGA")) ss++;
 
@@ -65,77 +151,101 @@ public class ExpressionReader
 			if (header[i].length() > idLength) header[i] = header[i].substring(0, idLength);
 		}
 
-		// skip second line
-		sc.nextLine();
-
-		while (sc.hasNextLine())
-		{
-			line = sc.nextLine();
-			String id = line.substring(0, line.indexOf("|"));
-			if (id.startsWith("\"")) id = id.substring(1);
-
-			if (genes != null && !genes.contains(id)) continue;
-			if (id.equals("?")) continue;
-
-			String[] token = line.split("\t");
+		data = new NumericMatrix(Arrays.copyOfRange(header, ss, header.length), false);
+		return ss;
+	}
 
-			for (int i = ss; i < header.length; i++)
-			{
-				if (token[i].equals("NA")) token[i] = "NaN";
+	/**
+	 * Gets the gene symbol from the first column, which is in the form symbol|entrezID.
+	 *
+	 * @return the symbol, or null for the rows without a symbol
+	 */
+	private static String getID(String label)
+	{
+		int i = label.indexOf("|");
+		String id = i < 0 ? label : label.substring(0, i);
+		return id.equals("?") ? null : id;
+	}
 
-				Double val = Double.parseDouble(token[i]);
+	public boolean isLazy()
+	{
+		return lazyRows != null;
+	}
 
-				if (!data.containsKey(id)) data.put(id, new HashMap<>());
-				data.get(id).put(header[i], val);
-			}
+	/**
+	 * Reads the rows of the genes that are not in the cache with one pass over the file, in the lazy mode. Does
+	 * nothing otherwise.
+	 */
+	public void prefetch(Collection<String> genes)
+	{
+		if (lazyRows != null) lazyRows.prefetch(genes);
+	}
 
-			if (genes != null && data.size() == genes.size()) break;
-		}
+	/**
+	 * In the lazy mode, the matrix has the samples but no rows.
+	 */
+	public NumericMatrix getMatrix()
+	{
+		return data;
 	}
 
 	public Set<String> getSamples()
 	{
-		Set<String> samples = new HashSet<>();
-		for (Map<String, Double> map : data.values())
-		{
-			samples.addAll(map.keySet());
-		}
-		return samples;
+		return new HashSet<>(data.getSamples());
 	}
 
 	public Set<String> getGenes()
 	{
-		return data.keySet();
+		return lazyRows != null ? lazyRows.getIndex().getIDs() : data.getIDs();
 	}
 
 	public boolean hasGene(String gene)
 	{
-		return data.containsKey(gene);
+		return lazyRows != null ? lazyRows.getIndex().hasID(gene) : data.hasID(gene);
 	}
 
+	/**
+	 * Gets the log2(1 + v) transformed values of the gene. Each call copies the row into a new array, which the caller
+	 * can modify. Use getGeneAlterationRow to read the values without copying.
+	 */
 	public double[] getGeneAlterationArray(String id, String[] samples)
 	{
-		if (data.containsKey(id))
-		{
-			double[] d = new double[samples.length];
+		double[] row = lazyRows == null ? data.getRow(id, samples) : lazyRows.get(id);
+		if (row == null) return null;
+		if (lazyRows != null) row = data.project(row, samples);
 
-			for (int i = 0; i < samples.length; i++)
-			{
-				if (data.get(id).containsKey(samples[i])) d[i] = Math.log1p(data.get(id).get(samples[i])) / LOG2;
-				else d[i] = Double.NaN;
-			}
-			return d;
+		double[] d = new double[row.length];
+		for (int i = 0; i < d.length; i++)
+		{
+			d[i] = Math.log1p(row[i]) / LOG2;
 		}
-		return null;
+		return d;
 	}
 
+	/**
+	 * Gets the values of the gene as they are in the file, without the log transformation, in the order of the sample
+	 * array of the matrix. The returned array is the row itself, which must not be modified.
+	 *
+	 * @return the row, or null if the gene is not in the data
+	 */
+	public double[] getGeneAlterationRow(String id)
+	{
+		if (lazyRows != null) return lazyRows.get(id);
+
+		int row = data.indexOf(id);
+		return row < 0 ? null : data.getRow(row);
+	}
+
+	/**
+	 * Gets the value in the file, without the log transformation.
+	 */
 	public double getGeneAlteration(String id, String sample)
 	{
-		if (data.containsKey(id) && data.get(id).containsKey(sample))
-		{
-			return data.get(id).get(sample);
-		}
-		return Double.NaN;
+		if (lazyRows == null) return data.get(id, sample);
+
+		double[] row = lazyRows.get(id);
+		int col = data.sampleIndexOf(sample);
+		return row == null || col < 0 ? Double.NaN : row[col];
 	}
 
 	public void printStdevHistogram(double binSize)
@@ -143,7 +253,7 @@ public class ExpressionReader
 		Histogram h1 = new Histogram(binSize);
 		Histogram h2 = new Histogram(binSize);
 		h1.setBorderAtZero(true);
-		String[] samples = getSamples().toArray(new String[0]);
+		String[] samples = data.getSampleArray();
 		for (String gene : getGenes())
 		{
 			double[] vals = getGeneAlterationArray(gene, samples);
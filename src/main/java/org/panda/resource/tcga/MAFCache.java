@@ -0,0 +1,297 @@
+package org.panda.resource.tcga;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * The parsed mutations of a MAF file in a compact binary form, saved next to the file. Genes, samples, variant
+ * classifications and protein changes are each kept once in a string table, and the mutations are four columns of
+ * indices to those tables. Loading the cache maps the file to memory and copies the columns in bulk, instead of
+ * splitting millions of text lines.
+ *
+ * The cache has all mutations of the file, without the filters of the reader, so one cache serves all readers of the
+ * file. It records the length and the modification time of the MAF file, and is rebuilt when the file changes.
+ */
+class MAFCache
+{
+	private static final int MAGIC = 0x4D414631;
+	private static final int VERSION = 1;
+
+	final String[] genes;
+	final String[] samples;
+	final String[] types;
+	final String[] changes;
+
+	/**
+	 * Table indices of the mutations, in the order of the file.
+	 */
+	final int[] gene;
+	final int[] sample;
+	final int[] type;
+	final int[] change;
+
+	private MAFCache(String[] genes, String[] samples, String[] types, String[] changes, int[] gene, int[] sample,
+		int[] type, int[] change)
+	{
+		this.genes = genes;
+		this.samples = samples;
+		this.types = types;
+		this.changes = changes;
+		this.gene = gene;
+		this.sample = sample;
+		this.type = type;
+		this.change = change;
+	}
+
+	int size()
+	{
+		return gene.length;
+	}
+
+	static File getCacheFile(String filename)
+	{
+		return new File(filename + ".mafcache");
+	}
+
+	/**
+	 * Reads the cache of the MAF file, or parses the file and saves its cache if the cache is missing or out of date.
+	 * If the cache cannot be saved, like in a read-only directory, the parsed data is still returned.
+	 */
+	static MAFCache get(String filename) throws IOException
+	{
+		File maf = new File(filename);
+		File cache = getCacheFile(filename);
+
+		if (cache.exists())
+		{
+			try
+			{
+				MAFCache c = read(cache, maf);
+				if (c != null) return c;
+			}
+			catch (IOException | RuntimeException e)
+			{
+				// An unreadable cache is built again
+			}
+		}
+
+		MAFCache c = parse(filename);
+
+		try
+		{
+			File tmp = new File(cache.getPath() + ".tmp");
+			c.write(tmp, maf);
+			Files.move(tmp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e)
+		{
+			// The parsed data is used without a cache
+		}
+
+		return c;
+	}
+
+	// Section: Parsing
+
+	/**
+	 * Parses the MAF file in a single pass. Only the needed columns of each line are extracted.
+	 */
+	static MAFCache parse(String filename) throws IOException
+	{
+		Pool genes = new Pool();
+		Pool samples = new Pool();
+		Pool types = new Pool();
+		Pool changes = new Pool();
+		int[][] cols = new int[4][1 << 16];
+		int n = 0;
+
+		try (BufferedReader reader = new BufferedReader(new FileReader(filename), 1 << 20))
+		{
+			String line = reader.readLine();
+			while (line != null && !line.startsWith("Hugo_Symbol")) line = reader.readLine();
+			if (line == null) throw new IOException("No MAF header in file " + filename);
+
+			String[] header = line.split("\t");
+			int typeInd = indexOf(header, "Variant_Classification");
+			int sampleInd = indexOf(header, "Tumor_Sample_Barcode");
+			int protChInd = indexOf(header, "Protein_Change");
+			if (protChInd < 0) protChInd = indexOf(header, "amino_acid_change_WU");
+			if (protChInd < 0) protChInd = indexOf(header, "AAChange");
+			if (protChInd < 0) protChInd = indexOf(header, "amino_acid_change");
+			if (protChInd < 0) protChInd = indexOf(header, "HGVSp_Short");
+
+			if (typeInd < 0 || sampleInd < 0)
+			{
+				throw new IOException("MAF file has no variant classification or sample column: " + filename);
+			}
+			if (protChInd < 0)
+			{
+				System.out.println("No protein change in file " + filename);
+			}
+
+			int last = Math.max(Math.max(typeInd, sampleInd), protChInd);
+			int[] starts = new int[last + 2];
+
+			for (line = reader.readLine(); line != null; line = reader.readLine())
+			{
+				if (line.startsWith("#") || line.startsWith("Hugo_Symbol")) continue;
+
+				// Start positions of the fields up to the last needed one
+				int fields = 1;
+				for (int i = 0; i < line.length() && fields <= last; i++)
+				{
+					if (line.charAt(i) == '\t') starts[fields++] = i + 1;
+				}
+
+				String id = field(line, starts, fields, 0);
+				if (id.isEmpty() || id.equals(".")) continue;
+
+				String type = field(line, starts, fields, typeInd);
+				String sample = field(line, starts, fields, sampleInd);
+				if (type == null || sample == null) continue;
+
+				String protCh = protChInd < 0 ? null : field(line, starts, fields, protChInd);
+				if (protCh == null) protCh = "";
+				else if (protCh.startsWith("p.")) protCh = protCh.substring(2);
+				else if (protCh.equals(".") || protCh.equals("NULL")) protCh = "";
+
+				if (n == cols[0].length)
+				{
+					for (int c = 0; c < cols.length; c++) cols[c] = Arrays.copyOf(cols[c], n * 2);
+				}
+				cols[0][n] = genes.add(id);
+				cols[1][n] = samples.add(sample);
+				cols[2][n] = types.add(type);
+				cols[3][n] = changes.add(protCh);
+				n++;
+			}
+		}
+
+		return new MAFCache(genes.toArray(), samples.toArray(), types.toArray(), changes.toArray(),
+			Arrays.copyOf(cols[0], n), Arrays.copyOf(cols[1], n), Arrays.copyOf(cols[2], n), Arrays.copyOf(cols[3], n));
+	}
+
+	/**
+	 * @return the field, or null if the line has fewer fields
+	 */
+	private static String field(String line, int[] starts, int fields, int index)
+	{
+		if (index >= fields) return null;
+		int end = index + 1 < fields ? starts[index + 1] - 1 : line.indexOf('\t', starts[index]);
+		if (end < 0) end = line.length();
+		return line.substring(starts[index], end);
+	}
+
+	private static int indexOf(String[] array, String val)
+	{
+		for (int i = 0; i < array.length; i++)
+		{
+			if (array[i].equals(val)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Assigns consecutive indices to distinct strings.
+	 */
+	private static class Pool
+	{
+		final Map<String, Integer> index = new HashMap<>();
+		final List<String> list = new ArrayList<>();
+
+		int add(String s)
+		{
+			Integer i = index.get(s);
+			if (i == null)
+			{
+				i = list.size();
+				index.put(s, i);
+				list.add(s);
+			}
+			return i;
+		}
+
+		String[] toArray()
+		{
+			return list.toArray(new String[0]);
+		}
+	}
+
+	// Section: Persistence
+
+	private void write(File file, File maf) throws IOException
+	{
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 20)))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(maf.length());
+			out.writeLong(maf.lastModified());
+
+			for (String[] table : new String[][]{genes, samples, types, changes})
+			{
+				out.writeInt(table.length);
+				for (String s : table)
+				{
+					byte[] b = s.getBytes(StandardCharsets.UTF_8);
+					out.writeInt(b.length);
+					out.write(b);
+				}
+			}
+
+			out.writeInt(size());
+			for (int[] col : new int[][]{gene, sample, type, change})
+			{
+				ByteBuffer bb = ByteBuffer.allocate(col.length * 4);
+				bb.asIntBuffer().put(col);
+				out.write(bb.array());
+			}
+		}
+	}
+
+	/**
+	 * @return the cache, or null if it is not of the current version of the MAF file
+	 */
+	private static MAFCache read(File file, File maf) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+			if (buf.getLong() != maf.length() || buf.getLong() != maf.lastModified()) return null;
+
+			String[][] tables = new String[4][];
+			for (int t = 0; t < tables.length; t++)
+			{
+				tables[t] = new String[buf.getInt()];
+				byte[] b = new byte[64];
+				for (int i = 0; i < tables[t].length; i++)
+				{
+					int len = buf.getInt();
+					if (b.length < len) b = new byte[len];
+					buf.get(b, 0, len);
+					tables[t][i] = new String(b, 0, len, StandardCharsets.UTF_8);
+				}
+			}
+
+			int n = buf.getInt();
+			int[][] cols = new int[4][n];
+			for (int[] col : cols)
+			{
+				buf.asIntBuffer().get(col);
+				buf.position(buf.position() + n * 4);
+			}
+
+			return new MAFCache(tables[0], tables[1], tables[2], tables[3], cols[0], cols[1], cols[2], cols[3]);
+		}
+	}
+}
@@ -1,11 +1,11 @@
 package org.panda.resource.tcga;
 
+import org.panda.resource.CompressedBitSet;
+import org.panda.resource.SymbolDictionary;
 import org.panda.utility.statistics.Histogram;
 import org.panda.utility.statistics.Summary;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.*;
 
 /**
@@ -15,9 +15,39 @@ import java.util.*;
  */
 public class MutationReader
 {
-	private Map<String, Map<String, List<MutTuple>>> mutMap;
+	private final Map<String, Integer> geneIndex;
+	private final List<String> geneNames;
 
-	private Set<String> sampleSet;
+	private final Map<String, Integer> sampleIndex;
+
+	private final Map<String, Integer> typeIndex;
+	private final List<String> typeNames;
+
+	/**
+	 * Pool of the protein changes.
+	 */
+	private final Map<String, Integer> changeIndex;
+	private final List<String> changeNames;
+
+	/**
+	 * Gene, sample, variant classification and protein change indices of the mutations. After each load, the
+	 * mutations are sorted by gene and then by sample, keeping their file order otherwise.
+	 */
+	private int[] mutGene;
+	private int[] mutSample;
+	private int[] mutType;
+	private int[] mutChange;
+	private int size;
+
+	/**
+	 * Mutations of gene g are between geneStart[g] and geneStart[g + 1].
+	 */
+	private int[] geneStart;
+
+	/**
+	 * Mutated samples of each gene.
+	 */
+	private CompressedBitSet[] geneSamples;
 
 	int idLength;
 
@@ -33,74 +63,163 @@ public class MutationReader
 
 	public MutationReader(String filename, int idLength, Set<String> genes, String... mutTypes) throws IOException
 	{
-		this.mutMap = new LinkedHashMap<>();
-		this.sampleSet = new HashSet<>();
+		this.geneIndex = new LinkedHashMap<>();
+		this.geneNames = new ArrayList<>();
+		this.sampleIndex = new LinkedHashMap<>();
+		this.typeIndex = new HashMap<>();
+		this.typeNames = new ArrayList<>();
+		this.changeIndex = new HashMap<>();
+		this.changeNames = new ArrayList<>();
+		this.mutGene = new int[0];
+		this.mutSample = new int[0];
+		this.mutType = new int[0];
+		this.mutChange = new int[0];
 		this.idLength = idLength;
+		index();
+
 		if (filename != null) load(filename, genes,
 			mutTypes == null || mutTypes.length == 0 || (mutTypes.length == 1 && mutTypes[0] == null) ? null :
 				new HashSet<>(Arrays.asList(mutTypes)));
 	}
 
+	/**
+	 * Adds the mutations of the MAF file. The file is parsed once and kept in a binary cache next to it, which makes
+	 * the later loads fast. The gene and mutation type filters are applied while adding.
+	 */
 	public void load(String filename, Set<String> genes, Set<String> mutTypes) throws IOException
 	{
-		int typeInd = -1;
-		int sampleInd = -1;
-		int protChInd = -1;
+		MAFCache maf = MAFCache.get(filename);
+
+		// Indices of the tables of the file in the tables of the reader, resolved on first use. -1 is unresolved and
+		// -2 is filtered out.
+		int[] geneMap = new int[maf.genes.length];
+		int[] sampleMap = new int[maf.samples.length];
+		int[] typeMap = new int[maf.types.length];
+		int[] changeMap = new int[maf.changes.length];
+		Arrays.fill(geneMap, -1);
+		Arrays.fill(sampleMap, -1);
+		Arrays.fill(changeMap, -1);
+		for (int i = 0; i < typeMap.length; i++)
+		{
+			typeMap[i] = mutTypes == null || mutTypes.contains(maf.types[i]) ?
+				add(maf.types[i], typeIndex, typeNames) : -2;
+		}
 
-		Optional<String> opt = Files.lines(Paths.get(filename)).filter(l -> !l.startsWith("#"))
-			.filter(l -> l.startsWith("Hugo_Symbol")).findFirst();
+		int n = maf.size();
+		ensureCapacity(size + n);
 
-		if (opt.isPresent())
+		for (int i = 0; i < n; i++)
 		{
-			String[] header = opt.get().split("\t");
-			typeInd = indexOf(header, "Variant_Classification");
-			sampleInd = indexOf(header, "Tumor_Sample_Barcode");
-			protChInd = indexOf(header, "Protein_Change");
-			if (protChInd < 0) protChInd = indexOf(header, "amino_acid_change_WU");
-			if (protChInd < 0) protChInd = indexOf(header, "AAChange");
-			if (protChInd < 0) protChInd = indexOf(header, "amino_acid_change");
-			if (protChInd < 0) protChInd = indexOf(header, "HGVSp_Short");
-
-			if (protChInd < 0)
+			int t = typeMap[maf.type[i]];
+			if (t < 0) continue;
+
+			int s = sampleMap[maf.sample[i]];
+			if (s < 0)
+			{
+				String sample = maf.samples[maf.sample[i]];
+				if (sample.length() > idLength) sample = sample.substring(0, idLength);
+				s = sampleIndex.computeIfAbsent(sample, k -> sampleIndex.size());
+				sampleMap[maf.sample[i]] = s;
+			}
+
+			int g = geneMap[maf.gene[i]];
+			if (g == -2) continue;
+			if (g < 0)
 			{
-				System.out.println("No protein change in file " + filename);
-//				return;
+				String id = maf.genes[maf.gene[i]];
+				g = genes != null && !genes.contains(id) ? -2 :
+					add(SymbolDictionary.intern(id), geneIndex, geneNames);
+				geneMap[maf.gene[i]] = g;
+				if (g < 0) continue;
 			}
 
+			int c = changeMap[maf.change[i]];
+			if (c < 0) c = changeMap[maf.change[i]] = add(maf.changes[maf.change[i]], changeIndex, changeNames);
+
+			mutGene[size] = g;
+			mutSample[size] = s;
+			mutType[size] = t;
+			mutChange[size] = c;
+			size++;
 		}
 
-		processLines(filename, typeInd, sampleInd, protChInd, mutTypes, genes);
+		index();
 	}
 
-	private void processLines(String filename, int typeInd, int sampleInd, int protChInd,
-		Set<String> mutTypes, Set<String> genes) throws IOException
+	private static int add(String s, Map<String, Integer> index, List<String> list)
 	{
-		Files.lines(Paths.get(filename)).filter(l -> !l.startsWith("#")).filter(l -> !l.startsWith("Hugo_Symbol"))
-			.map(l -> l.split("\t"))
-			.filter(t -> !t[0].isEmpty() && !t[0].equals("."))
-			.filter(t -> mutTypes == null || mutTypes.contains(t[typeInd]))
-			.forEach(token ->
+		Integer i = index.get(s);
+		if (i == null)
 		{
-			String id = token[0];
+			i = list.size();
+			index.put(s, i);
+			list.add(s);
+		}
+		return i;
+	}
 
-			String sample = token[sampleInd];
-			if (sample.length() > idLength) sample = sample.substring(0, idLength);
-			sampleSet.add(sample);
+	private void ensureCapacity(int capacity)
+	{
+		if (mutGene.length >= capacity) return;
+		mutGene = Arrays.copyOf(mutGene, capacity);
+		mutSample = Arrays.copyOf(mutSample, capacity);
+		mutType = Arrays.copyOf(mutType, capacity);
+		mutChange = Arrays.copyOf(mutChange, capacity);
+	}
 
-			if (genes != null && !genes.contains(id)) return;
+	/**
+	 * Sorts the mutations by gene and then by sample, with two stable counting sorts, and builds the mutated sample
+	 * sets of the genes.
+	 */
+	private void index()
+	{
+		int genes = geneNames.size();
 
-			String type = token[typeInd];
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++) order[i] = i;
+		order = countingSort(order, mutSample, sampleIndex.size());
+		order = countingSort(order, mutGene, genes);
 
-			String protCh = protChInd < 0 || token.length <= protChInd ? "" : token[protChInd];
-			if (protCh.startsWith("p.")) protCh = protCh.substring(2);
-			else if (protCh.equals(".") || protCh.equals("NULL")) protCh = "";
+		mutGene = permute(mutGene, order);
+		mutSample = permute(mutSample, order);
+		mutType = permute(mutType, order);
+		mutChange = permute(mutChange, order);
 
-			MutTuple mut = new MutTuple(type, protCh);
+		geneStart = new int[genes + 1];
+		for (int i = 0; i < size; i++) geneStart[mutGene[i] + 1]++;
+		for (int g = 0; g < genes; g++) geneStart[g + 1] += geneStart[g];
 
-			if (!mutMap.containsKey(id)) mutMap.put(id, new HashMap<>());
-			if (!mutMap.get(id).containsKey(sample)) mutMap.get(id).put(sample, new ArrayList<>());
-			mutMap.get(id).get(sample).add(mut);
-		});
+		geneSamples = new CompressedBitSet[genes];
+		int[] buf = new int[16];
+		for (int g = 0; g < genes; g++)
+		{
+			int n = 0;
+			for (int i = geneStart[g]; i < geneStart[g + 1]; i++)
+			{
+				if (n > 0 && buf[n - 1] == mutSample[i]) continue;
+				if (n == buf.length) buf = Arrays.copyOf(buf, n * 2);
+				buf[n++] = mutSample[i];
+			}
+			geneSamples[g] = new CompressedBitSet(Arrays.copyOf(buf, n));
+		}
+	}
+
+	private static int[] countingSort(int[] order, int[] keys, int range)
+	{
+		int[] start = new int[range + 1];
+		for (int i : order) start[keys[i] + 1]++;
+		for (int k = 0; k < range; k++) start[k + 1] += start[k];
+
+		int[] sorted = new int[order.length];
+		for (int i : order) sorted[start[keys[i]]++] = i;
+		return sorted;
+	}
+
+	private int[] permute(int[] values, int[] order)
+	{
+		int[] p = new int[order.length];
+		for (int i = 0; i < order.length; i++) p[i] = values[order[i]];
+		return p;
 	}
 
 	private boolean multiCenter (String val)
@@ -110,21 +229,12 @@ public class MutationReader
 
 	public Set<String> getSamples()
 	{
-		return sampleSet;
+		return Collections.unmodifiableSet(sampleIndex.keySet());
 	}
 
 	public Set<String> getGenes()
 	{
-		return mutMap.keySet();
-	}
-
-	private int indexOf(String[] array, String val)
-	{
-		for (int i = 0; i < array.length; i++)
-		{
-			if (array[i].equals(val)) return i;
-		}
-		return -1;
+		return Collections.unmodifiableSet(geneIndex.keySet());
 	}
 
 	/**
@@ -132,39 +242,58 @@ public class MutationReader
 	 */
 	public boolean[] getGeneAlterationArray(String id, String[] samples)
 	{
-		if (mutMap.containsKey(id))
+		Integer g = geneIndex.get(id);
+		boolean[] b = new boolean[samples.length];
+		if (g == null) return b;
+
+		CompressedBitSet mutated = geneSamples[g];
+		for (int i = 0; i < samples.length; i++)
 		{
-			boolean[] b = new boolean[samples.length];
-			Arrays.fill(b, false);
-			for (int i = 0; i < samples.length; i++)
-			{
-				if (!sampleSet.contains(samples[i]))
-					throw new IllegalArgumentException("Sample " + samples[i] + " does not have mutation data.");
+			Integer s = sampleIndex.get(samples[i]);
+			if (s == null) throw new IllegalArgumentException("Sample " + samples[i] + " does not have mutation data.");
 
-				if (mutMap.get(id).containsKey(samples[i])) b[i] = true;
-			}
-			return b;
+			b[i] = mutated.get(s);
 		}
-		return new boolean[samples.length];
+		return b;
 	}
 
 	/**
 	 * @return Array of mutation tuples list. Returns null if id is not recognized. If a sample is not recognized, the
-	 * array contains null. An empty list as array element means no mutations in that sample. Do not modify the returned
-	 * lists. They are original.
+	 * array contains null. An empty list as array element means no mutations in that sample. The lists are created for
+	 * each call, in the order of the mutations in the file.
 	 */
 	public List<MutTuple>[] getMutations(String id, String[] samples)
 	{
-		if (!mutMap.containsKey(id)) return null;
+		Integer g = geneIndex.get(id);
+		if (g == null) return null;
 
 		List<MutTuple>[] list = new List[samples.length];
 
-		Map<String, List<MutTuple>> stm = mutMap.get(id);
-
 		for (int i = 0; i < samples.length; i++)
 		{
-			list[i] = stm.get(samples[i]);
-			if (list[i] == null && sampleSet.contains(samples[i])) list[i] = Collections.emptyList();
+			Integer s = sampleIndex.get(samples[i]);
+			if (s == null) continue;
+
+			if (!geneSamples[g].get(s))
+			{
+				list[i] = Collections.emptyList();
+				continue;
+			}
+
+			// First mutation of the sample in the range of the gene
+			int lo = geneStart[g], hi = geneStart[g + 1];
+			while (lo < hi)
+			{
+				int mid = (lo + hi) >>> 1;
+				if (mutSample[mid] < s) lo = mid + 1;
+				else hi = mid;
+			}
+
+			list[i] = new ArrayList<>();
+			for (int j = lo; j < geneStart[g + 1] && mutSample[j] == s; j++)
+			{
+				list[i].add(new MutTuple(typeNames.get(mutType[j]), changeNames.get(mutChange[j])));
+			}
 		}
 
 		return list;
@@ -182,50 +311,56 @@ public class MutationReader
 			writer.write("\t" + sample);
 		}
 
-		for (String gene : mutMap.keySet())
+		for (int g = 0; g < geneNames.size(); g++)
 		{
-			writer.write("\n" + gene);
-			Map<String, List<MutTuple>> map = mutMap.get(gene);
+			writer.write("\n" + geneNames.get(g));
 
 			for (String sample : samples)
 			{
-				writer.write("\t" + (map.containsKey(sample) ? "1" : "0"));
+				writer.write("\t" + (geneSamples[g].get(sampleIndex.get(sample)) ? "1" : "0"));
 			}
 		}
 
 		writer.close();
 	}
 
+	private boolean isDeleterious(int mut)
+	{
+		String value = changeNames.get(mutChange[mut]);
+		return value.contains("*") || value.contains("fs") || typeNames.get(mutType[mut]).equals("Nonsense");
+	}
+
+	/**
+	 * Number of the most frequent protein change of the gene.
+	 */
+	private int getHighestRecurrenceCount(int g)
+	{
+		int[] changes = Arrays.copyOfRange(mutChange, geneStart[g], geneStart[g + 1]);
+		Arrays.sort(changes);
+
+		int best = 0;
+		for (int i = 0, j; i < changes.length; i = j)
+		{
+			for (j = i + 1; j < changes.length && changes[j] == changes[i]; j++);
+			best = Math.max(best, j - i);
+		}
+		return best;
+	}
+
 	private void printRecurrenceCounts()
 	{
-		int totalMut = 0;
 		int delMut = 0;
-		Map<String, Map<String, Integer>> cnt = new HashMap<>();
-		for (String gene : mutMap.keySet())
+		for (int i = 0; i < size; i++)
 		{
-			for (String sample : mutMap.get(gene).keySet())
-			{
-				List<MutTuple> list = mutMap.get(gene).get(sample);
-				for (MutTuple mut : list)
-				{
-					totalMut++;
-					if (mut.value.contains("*") || mut.value.contains("fs")) delMut++;
-					if (!cnt.containsKey(gene)) cnt.put(gene, new HashMap<>());
-					if (cnt.get(gene).containsKey(mut.value)) cnt.get(gene).put(mut.value, cnt.get(gene).get(mut.value) + 1);
-					else cnt.get(gene).put(mut.value, 1);
-				}
-			}
+			String value = changeNames.get(mutChange[i]);
+			if (value.contains("*") || value.contains("fs")) delMut++;
 		}
 
-		System.out.println("Global ratio of deleterious mutations = " + (delMut / (double) totalMut));
+		System.out.println("Global ratio of deleterious mutations = " + (delMut / (double) size));
 
-		final Map<String, Integer> best = new HashMap<>();
-		for (String gene : cnt.keySet())
-		{
-			best.put(gene, Summary.max(cnt.get(gene).values()));
-		}
+		final Map<String, Integer> best = getHighestRecurrenceCounts();
 
-		List<String> genes = new ArrayList<>(cnt.keySet());
+		List<String> genes = new ArrayList<>(best.keySet());
 		Collections.sort(genes, (o1, o2) -> best.get(o2).compareTo(best.get(o1)));
 
 		Map<String, Double> dRat = getRatiosOfDeleteriousMutations();
@@ -245,25 +380,10 @@ public class MutationReader
 
 	public Map<String, Integer> getHighestRecurrenceCounts()
 	{
-		Map<String, Map<String, Integer>> cnt = new HashMap<>();
-		for (String gene : mutMap.keySet())
-		{
-			for (String sample : mutMap.get(gene).keySet())
-			{
-				List<MutTuple> mutTuples = mutMap.get(gene).get(sample);
-				for (MutTuple mut : mutTuples)
-				{
-					if (!cnt.containsKey(gene)) cnt.put(gene, new HashMap<>());
-					if (cnt.get(gene).containsKey(mut.value)) cnt.get(gene).put(mut.value, cnt.get(gene).get(mut.value) + 1);
-					else cnt.get(gene).put(mut.value, 1);
-				}
-			}
-		}
-
 		Map<String, Integer> highest = new HashMap<>();
-		for (String gene : cnt.keySet())
+		for (int g = 0; g < geneNames.size(); g++)
 		{
-			highest.put(gene, Summary.max(cnt.get(gene).values()));
+			if (geneStart[g + 1] > geneStart[g]) highest.put(geneNames.get(g), getHighestRecurrenceCount(g));
 		}
 		return highest;
 	}
@@ -271,52 +391,38 @@ public class MutationReader
 	public Map<String, Double> getRatiosOfDeleteriousMutations()
 	{
 		Map<String, Double> rat = new HashMap<>();
-		for (String gene : mutMap.keySet())
+		for (int g = 0; g < geneNames.size(); g++)
 		{
-			int total = 0;
+			int total = geneStart[g + 1] - geneStart[g];
 			int del = 0;
-			for (String sample : mutMap.get(gene).keySet())
+			for (int i = geneStart[g]; i < geneStart[g + 1]; i++)
 			{
-				List<MutTuple> list = mutMap.get(gene).get(sample);
-				for (MutTuple mut : list)
-				{
-					total++;
-					if (mut.isDeleterious()) del++;
-				}
+				if (isDeleterious(i)) del++;
 			}
 			double r = del / (double) total;
-			rat.put(gene, r);
+			rat.put(geneNames.get(g), r);
 		}
 		return rat;
 	}
 
 	public double getOverallDelMutRatio()
 	{
-		int total = 0;
 		int del = 0;
 
-		for (String gene : mutMap.keySet())
+		for (int i = 0; i < size; i++)
 		{
-			for (String sample : mutMap.get(gene).keySet())
-			{
-				List<MutTuple> list = mutMap.get(gene).get(sample);
-				for (MutTuple mut : list)
-				{
-					total++;
-					if (mut.isDeleterious()) del++;
-				}
-			}
+			if (isDeleterious(i)) del++;
 		}
-		double r = del / (double) total;
+		double r = del / (double) size;
 		return r;
 	}
 
 	public Map<String, Integer> getMutatedSampleCounts()
 	{
 		Map<String, Integer> cnt = new HashMap<>();
-		for (String gene : mutMap.keySet())
+		for (int g = 0; g < geneNames.size(); g++)
 		{
-			cnt.put(gene, mutMap.get(gene).keySet().size());
+			cnt.put(geneNames.get(g), geneSamples[g].cardinality());
 		}
 		return cnt;
 	}
@@ -327,7 +433,16 @@ public class MutationReader
 //		MutationReader reader = new MutationReader(dir + "tcga_pancancer_082115.vep.filter_whitelisted.maf");
 //		reader.writeAsAlterationMatrix(dir + "DataMatrix.txt");
 
-		MutationReader reader = new MutationReader("/home/babur/Documents/TCGA/SKCM/mutation.maf");
+		String file = args.length > 0 ? args[0] : "/home/babur/Documents/TCGA/SKCM/mutation.maf";
+
+		// The first load parses the MAF and writes the binary cache, the second reads the cache
+		for (int i = 0; i < 2; i++)
+		{
+			long t = System.currentTimeMillis();
+			MutationReader reader = new MutationReader(file);
+			System.out.println("Loaded " + reader.getGenes().size() + " genes and " + reader.getSamples().size() +
+				" samples in " + (System.currentTimeMillis() - t) + " ms");
+		}
 //		reader.printRecurrenceCounts();
 	}
 }
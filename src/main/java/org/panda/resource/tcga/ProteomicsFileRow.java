@@ -1,7 +1,7 @@
 package org.panda.resource.tcga;
 
-import org.panda.resource.siteeffect.PhosphoSitePlus;
 import org.panda.resource.siteeffect.Feature;
+import org.panda.resource.siteeffect.SiteEffectSource;
 import org.panda.utility.statistics.Summary;
 
 import java.io.BufferedWriter;
@@ -39,39 +39,31 @@ public class ProteomicsFileRow implements Cloneable
 		else if (mod == Feature.METABOLITE) type = Type.METABOLITE;
 		else type = Type.GLOBAL_PROTEIN;
 
-		if (sites == null) return;
-
-		this.mod = mod == null ? Feature.PHOSPHORYLATION : mod;
+		if (sites != null) this.mod = mod == null ? Feature.PHOSPHORYLATION : mod;
+	}
 
-		for (String gene : sites.keySet())
+	/**
+	 * Sets the effects of the site-specific rows that do not have an effect yet, using the effect of the first site
+	 * that the source knows. Rows are resolved in parallel. Row construction does not look up the effects, so this
+	 * has to be called for the rows that need them.
+	 */
+	public static void annotateEffects(Collection<ProteomicsFileRow> rows, SiteEffectSource source)
+	{
+		rows.parallelStream().filter(row -> row.sites != null && row.effect == null).forEach(row ->
 		{
-			for (String site : sites.get(gene))
+			for (String gene : row.sites.keySet())
 			{
-				Integer eff = PhosphoSitePlus.get().getEffect(gene, site, this.mod);
-				if (eff != null)
+				for (String site : row.sites.get(gene))
 				{
-					effect = SiteEffect.getValue(eff);
-					break;
+					Integer eff = source.getEffect(gene, site, row.mod);
+					if (eff != null)
+					{
+						row.effect = SiteEffect.getValue(eff);
+						return;
+					}
 				}
 			}
-			if (effect != null) break;
-		}
-
-//		if (effect == null && !sites.isEmpty())
-//		{
-//			for (String site : sites)
-//			{
-//				for (String gene : genes)
-//				{
-//					Integer eff = PhosphoSitePlus.getClosestEffect(gene, site);
-//					if (eff != null)
-//					{
-//						effect = SiteEffect.getValue(eff);
-//						break;
-//					}
-//				}
-//			}
-//		}
+		});
 	}
 
 	public boolean isSiteSpecific()
@@ -1,9 +1,12 @@
 package org.panda.resource.tcga;
 
+import org.panda.resource.NumericMatrix;
+import org.panda.resource.NumericTableReader;
+import org.panda.resource.siteeffect.PhosphoSitePlus;
+import org.panda.resource.siteeffect.SiteEffectSource;
 import org.panda.utility.CollectionUtil;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.*;
 import java.util.*;
 
 /**
@@ -17,7 +20,7 @@ public class RPPAReader
 
 	private static Map<String, Set<String>> additionalAnnotation;
 
-	private Map<String, Map<String, Double>> data;
+	private NumericMatrix data;
 
 	private Map<String, Map<String, Set<String>>> symbolToIDs;
 
@@ -31,83 +34,96 @@ public class RPPAReader
 	}
 
 	public RPPAReader(String filename, Set<String> genes, int idLength) throws FileNotFoundException
+	{
+		this(filename, genes, idLength, PhosphoSitePlus.get());
+	}
+
+	/**
+	 * @param effects source of the effects of the phospho-sites of the rows, which are resolved in a batch after
+	 *                loading. Can be null to skip the effects.
+	 */
+	public RPPAReader(String filename, Set<String> genes, int idLength, SiteEffectSource effects)
+		throws FileNotFoundException
 	{
 		this.filename = filename;
-		this.data = new HashMap<>();
 		this.symbolToIDs = new HashMap<>();
 		this.idToData = new HashMap<>();
 		this.idLength = idLength;
 		load(genes);
+		if (effects != null) ProteomicsFileRow.annotateEffects(idToData.values(), effects);
 	}
 
 	private void load(Set<String> genes) throws FileNotFoundException
 	{
-		Scanner sc = new Scanner(new File(filename));
-		String line = sc.nextLine();
-		while (line.startsWith("#")) line = sc.nextLine();
+		InputStream in = new BufferedInputStream(new FileInputStream(filename), 1 << 16);
+		NumericTableReader reader = new NumericTableReader('\t');
 
-		String[] header = line.split("\t");
+		try (InputStream is = in)
+		{
+			String[] header = reader.readHeader(is);
 
-		int ss = 0;
-		while (!header[ss].startsWith("TCGA")) ss++;
+			int ss = 0;
+			while (!header[ss].startsWith("TCGA")) ss++;
 
-		for (int i = ss; i < header.length; i++)
-		{
-			header[i] = header[i].substring(0, idLength);
-		}
+			for (int i = ss; i < header.length; i++)
+			{
+				header[i] = header[i].substring(0, idLength);
+			}
 
-		while (sc.hasNextLine())
-		{
-			line = sc.nextLine();
-			String id = line.substring(0, line.indexOf("\t"));
+			data = new NumericMatrix(Arrays.copyOfRange(header, ss, header.length), false);
+			int[] cols = data.mapColumns(header, ss);
+			int from = ss;
 
-			Set<String> pGenes = parseID(id);
-			id = id.substring(id.indexOf("|") + 1);
+			reader.readRows(is, ss, null, (labels, values) ->
+			{
+				String id = labels[0];
 
+				Set<String> pGenes = parseID(id);
+				id = id.substring(id.indexOf("|") + 1);
 
-			Map<String, String> map = mapSymbols(pGenes);
 
-			if (genes != null && !CollectionUtil.intersects(map.keySet(), genes)) continue;
+				Map<String, String> map = mapSymbols(pGenes);
 
-			List<String> geneList = new ArrayList<>(map.keySet());
-			Collections.sort(geneList);
+				if (genes != null && !CollectionUtil.intersects(map.keySet(), genes)) return true;
 
-			Map<String, List<String>> sitesMap = new HashMap<>();
-			for (String g : geneList)
-			{
-				String pGene = map.get(g);
-				if (!pGene.contains("_"))
+				List<String> geneList = new ArrayList<>(map.keySet());
+				Collections.sort(geneList);
+
+				Map<String, List<String>> sitesMap = new HashMap<>();
+				for (String g : geneList)
 				{
-					sitesMap = null;
-					break;
+					String pGene = map.get(g);
+					if (!pGene.contains("_"))
+					{
+						sitesMap = null;
+						break;
+					}
+					pGene = pGene.substring(pGene.indexOf("_") + 1);
+					List<String> sites = new ArrayList<>();
+					Collections.addAll(sites, pGene.split("_"));
+					sitesMap.put(g, sites);
 				}
-				pGene = pGene.substring(pGene.indexOf("_") + 1);
-				List<String> sites = new ArrayList<>();
-				Collections.addAll(sites, pGene.split("_"));
-				sitesMap.put(g, sites);
-			}
-
-			ProteomicsFileRow d = new ProteomicsFileRow(id, null, geneList, sitesMap, null);
 
-			idToData.put(id, d);
-
-			for (String sym : map.keySet())
-			{
-				if (!symbolToIDs.containsKey(sym)) symbolToIDs.put(sym, new HashMap<>());
-				if (!symbolToIDs.get(sym).containsKey(map.get(sym)))
-					symbolToIDs.get(sym).put(map.get(sym), new HashSet<>());
-				symbolToIDs.get(sym).get(map.get(sym)).add(id);
-			}
+				ProteomicsFileRow d = new ProteomicsFileRow(id, null, geneList, sitesMap, null);
 
-			String[] token = line.split("\t");
+				idToData.put(id, d);
 
-			for (int i = ss; i < header.length; i++)
-			{
-				double val = token[i].equals("NA") ? Double.NaN : Double.parseDouble(token[i]);
+				for (String sym : map.keySet())
+				{
+					if (!symbolToIDs.containsKey(sym)) symbolToIDs.put(sym, new HashMap<>());
+					if (!symbolToIDs.get(sym).containsKey(map.get(sym)))
+						symbolToIDs.get(sym).put(map.get(sym), new HashSet<>());
+					symbolToIDs.get(sym).get(map.get(sym)).add(id);
+				}
 
-				if (!data.containsKey(id)) data.put(id, new HashMap<>());
-				data.get(id).put(header[i], val);
-			}
+				int row = data.addRow(id);
+				data.set(row, values, cols, from);
+				return true;
+			});
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
 		}
 	}
 
@@ -124,12 +140,7 @@ public class RPPAReader
 
 	public Set<String> getSamples()
 	{
-		Set<String> samples = new HashSet<>();
-		for (Map<String, Double> map : data.values())
-		{
-			samples.addAll(map.keySet());
-		}
-		return samples;
+		return new HashSet<>(data.getSamples());
 	}
 
 	public Set<String> getGenes()
@@ -137,24 +148,14 @@ public class RPPAReader
 		return symbolToIDs.keySet();
 	}
 
+	/**
+	 * When the samples are the sample array of the matrix, the returned array is the row of the matrix, which must not
+	 * be modified.
+	 */
 	public double[] getValues(String id, String[] samples)
 	{
-		double[] b = new double[samples.length];
-		if (data.containsKey(id))
-		{
-			for (int i = 0; i < samples.length; i++)
-			{
-				if (data.get(id).containsKey(samples[i]))
-				{
-					b[i] = data.get(id).get(samples[i]);
-				}
-				else
-				{
-					b[i] = Double.NaN;
-				}
-			}
-		}
-		return b;
+		double[] b = data.getRow(id, samples);
+		return b == null ? new double[samples.length] : b;
 	}
 
 	private Set<String> parseID(String id)
@@ -219,7 +220,7 @@ public class RPPAReader
 		for (ProteomicsFileRow stub : stubs)
 		{
 			ProteomicsFileRow d = (ProteomicsFileRow) stub.clone();
-			d.vals = getValues(d.id, samples);
+			d.vals = getValues(d.id, samples).clone();
 			set.add(d);
 		}
 
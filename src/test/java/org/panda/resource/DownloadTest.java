@@ -0,0 +1,441 @@
+package org.panda.resource;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the resume, retry and checksum logic of Download, and of the streamed resources, against a local HTTP server.
+ */
+public class DownloadTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private HttpServer server;
+	private byte[] content;
+
+	/**
+	 * What the server does for each request, in order. The last one repeats.
+	 */
+	private List<Behavior> behaviors;
+
+	/**
+	 * The Range header of each request, null if there is none.
+	 */
+	private List<String> ranges;
+
+	/**
+	 * The If-Range header of each request, null if there is none.
+	 */
+	private List<String> ifRanges;
+
+	/**
+	 * ETag of the served content.
+	 */
+	private volatile String etag;
+
+	private enum Behavior
+	{
+		SERVE,
+		TRUNCATE,
+		FAIL,
+
+		/**
+		 * Sends the whole file for a range request.
+		 */
+		IGNORE_RANGE,
+
+		/**
+		 * Sends a range that starts before the requested one.
+		 */
+		WRONG_RANGE
+	}
+
+	@Before
+	public void setUp() throws IOException
+	{
+		content = new byte[300000];
+		new Random(1).nextBytes(content);
+		behaviors = new ArrayList<>(Collections.singletonList(Behavior.SERVE));
+		ranges = Collections.synchronizedList(new ArrayList<>());
+		ifRanges = Collections.synchronizedList(new ArrayList<>());
+		etag = "\"v1\"";
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/file", this::handle);
+		server.start();
+
+		// A truncated response is detected when the read times out
+		Download.setMaxAttempts(3);
+		Download.setTimeouts(5000, 1000);
+	}
+
+	@After
+	public void tearDown()
+	{
+		server.stop(0);
+		Download.setTimeouts(30000, 120000);
+		Download.setMaxAttempts(3);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+		int request = ranges.size();
+		ranges.add(range);
+		ifRanges.add(ifRange);
+		Behavior behavior = behaviors.get(Math.min(request, behaviors.size() - 1));
+
+		if (behavior == Behavior.FAIL)
+		{
+			exchange.sendResponseHeaders(500, -1);
+			exchange.close();
+			return;
+		}
+
+		// A range of a changed file is not sent
+		boolean partial = range != null && behavior != Behavior.IGNORE_RANGE &&
+			(ifRange == null || ifRange.equals(etag));
+
+		int from = partial ? Integer.parseInt(range.substring(6, range.length() - 1)) : 0;
+		if (partial && behavior == Behavior.WRONG_RANGE) from /= 2;
+		int length = content.length - from;
+
+		exchange.getResponseHeaders().set("ETag", etag);
+		if (partial)
+		{
+			exchange.getResponseHeaders().set("Content-Range",
+				"bytes " + from + "-" + (content.length - 1) + "/" + content.length);
+		}
+		exchange.sendResponseHeaders(partial ? 206 : 200, length);
+
+		// A truncated response promises the full length, but sends only a part of it
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			out.write(content, from, behavior == Behavior.TRUNCATE ? length / 3 : length);
+		}
+		catch (IOException e)
+		{
+			// The client may drop the connection of a truncated response
+		}
+	}
+
+	private String getAddress()
+	{
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/file";
+	}
+
+	private String getSHA256(byte[] b) throws Exception
+	{
+		StringBuilder sb = new StringBuilder("sha256:");
+		for (byte x : MessageDigest.getInstance("SHA-256").digest(b))
+		{
+			sb.append(String.format("%02x", x));
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testDownload() throws IOException
+	{
+		Path target = folder.getRoot().toPath().resolve("data.bin");
+
+		Download.Stats stats = Download.download(getAddress(), target.toString(), null);
+
+		assertNotNull(stats);
+		assertFalse(stats.isResumed());
+		assertArrayEquals(content, Files.readAllBytes(target));
+		assertFalse(Files.exists(Paths.get(target + ".part")));
+	}
+
+	@Test
+	public void testResumeAfterTruncatedTransfer() throws IOException
+	{
+		behaviors = Arrays.asList(Behavior.TRUNCATE, Behavior.SERVE);
+		Path target = folder.getRoot().toPath().resolve("data.bin");
+
+		Download.Stats stats = Download.download(getAddress(), target.toString(), null);
+
+		assertNotNull(stats);
+		assertTrue(stats.isResumed());
+		assertArrayEquals(content, Files.readAllBytes(target));
+
+		// The second request continues from where the first one broke, if the file is still the same
+		assertEquals(2, ranges.size());
+		assertNull(ranges.get(0));
+		assertEquals("bytes=" + content.length / 3 + "-", ranges.get(1));
+		assertEquals(etag, ifRanges.get(1));
+	}
+
+	@Test
+	public void testRestartWhenFileChanged() throws IOException
+	{
+		behaviors = Arrays.asList(Behavior.TRUNCATE, Behavior.SERVE);
+		Download.setMaxAttempts(1);
+		Path target = folder.getRoot().toPath().resolve("data.bin");
+
+		// The broken transfer leaves a part file of the first version
+		assertNull(Download.download(getAddress(), target.toString(), null));
+		assertTrue(Files.exists(Paths.get(target + ".part")));
+
+		etag = "\"v2\"";
+		new Random(2).nextBytes(content);
+
+		Download.Stats stats = Download.download(getAddress(), target.toString(), null);
+
+		assertNotNull(stats);
+		assertFalse(stats.isResumed());
+		assertEquals(content.length, stats.getBytes());
+		assertEquals("\"v1\"", ifRanges.get(1));
+		assertArrayEquals(content, Files.readAllBytes(target));
+	}
+
+	@Test
+	public void testRestartWhenRangeIsIgnored() throws IOException
+	{
+		behaviors = Collections.singletonList(Behavior.IGNORE_RANGE);
+		Path target = folder.getRoot().toPath().resolve("data.bin");
+		Files.write(Paths.get(target + ".part"), new byte[1000]);
+
+		Download.Stats stats = Download.download(getAddress(), target.toString(), null);
+
+		assertNotNull(stats);
+		assertFalse(stats.isResumed());
+		assertEquals(content.length, stats.getBytes());
+		assertEquals(Collections.singletonList("bytes=1000-"), ranges);
+		assertArrayEquals(content, Files.readAllBytes(target));
+	}
+
+	@Test
+	public void testRestartWhenContentRangeDoesNotMatch() throws IOException
+	{
+		behaviors = Arrays.asList(Behavior.WRONG_RANGE, Behavior.SERVE);
+		Path target = folder.getRoot().toPath().resolve("data.bin");
+		Files.write(Paths.get(target + ".part"), Arrays.copyOf(content, 1000));
+
+		Download.Stats stats = Download.download(getAddress(), target.toString(), null);
+
+		assertNotNull(stats);
+		assertFalse(stats.isResumed());
+		assertEquals(Arrays.asList("bytes=1000-", null), ranges);
+		assertArrayEquals(content, Files.readAllBytes(target));
+	}
+
+	@Test
+	public void testResumeFromPartFile() throws IOException
+	{
+		Path target = folder.getRoot().toPath().resolve("data.bin");
+		Files.write(Paths.get(target + ".part"), Arrays.copyOf(content, 1000));
+
+		Download.Stats stats = Download.download(getAddress(), target.toString(), null);
+
+		assertNotNull(stats);
+		assertTrue(stats.isResumed());
+		assertEquals(content.length - 1000, stats.getBytes());
+		assertEquals(Collections.singletonList("bytes=1000-"), ranges);
+		assertArrayEquals(content, Files.readAllBytes(target));
+	}
+
+	@Test
+	public void testRetryOnFailure() throws IOException
+	{
+		behaviors = Arrays.asList(Behavior.FAIL, Behavior.FAIL, Behavior.SERVE);
+		Path target = folder.getRoot().toPath().resolve("data.bin");
+
+		assertNotNull(Download.download(getAddress(), target.toString(), null));
+		assertEquals(3, ranges.size());
+		assertArrayEquals(content, Files.readAllBytes(target));
+	}
+
+	@Test
+	public void testGiveUpAfterMaxAttempts()
+	{
+		behaviors = Collections.singletonList(Behavior.FAIL);
+		Path target = folder.getRoot().toPath().resolve("data.bin");
+
+		assertNull(Download.download(getAddress(), target.toString(), null));
+		assertEquals(3, ranges.size());
+		assertFalse(Files.exists(target));
+	}
+
+	@Test
+	public void testChecksumMatch() throws Exception
+	{
+		Path target = folder.getRoot().toPath().resolve("data.bin");
+
+		assertNotNull(Download.download(getAddress(), target.toString(), getSHA256(content)));
+		assertArrayEquals(content, Files.readAllBytes(target));
+	}
+
+	@Test
+	public void testChecksumMismatch() throws Exception
+	{
+		Path target = folder.getRoot().toPath().resolve("data.bin");
+
+		assertNull(Download.download(getAddress(), target.toString(), getSHA256(new byte[]{1})));
+
+		// Neither the target nor a part file that would be resumed later is left
+		assertFalse(Files.exists(target));
+		assertFalse(Files.exists(Paths.get(target + ".part")));
+	}
+
+	// Section: Streams
+
+	private byte[] readAll(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = in.read(buf)) >= 0) out.write(buf, 0, n);
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testStreamResumesAfterTruncatedTransfer() throws Exception
+	{
+		behaviors = Arrays.asList(Behavior.TRUNCATE, Behavior.SERVE);
+
+		try (InputStream in = Download.openStream(getAddress(), null, getSHA256(content)))
+		{
+			assertArrayEquals(content, readAll(in));
+		}
+		assertEquals("bytes=" + content.length / 3 + "-", ranges.get(1));
+	}
+
+	@Test(expected = IOException.class)
+	public void testStreamChecksumMismatch() throws Exception
+	{
+		InputStream in = Download.openStream(getAddress(), null, getSHA256(new byte[]{1}));
+		readAll(in);
+		in.close();
+	}
+
+	@Test
+	public void testStreamChecksumIsVerifiedOnEarlyClose() throws Exception
+	{
+		InputStream in = Download.openStream(getAddress(), null, getSHA256(new byte[]{1}));
+		in.read(new byte[100]);
+
+		try
+		{
+			in.close();
+			fail("Closing the stream has to verify the rest of the distant file");
+		}
+		catch (IOException e)
+		{
+			assertTrue(e.getMessage().contains("Checksum mismatch"));
+		}
+	}
+
+	/**
+	 * Address and checksum of the streaming server, set before it is constructed.
+	 */
+	private static String streamAddress;
+	private static String streamChecksum;
+
+	/**
+	 * A resource that writes its local file only in finishDownloadStreams.
+	 */
+	private static class StreamingServer extends FileServer
+	{
+		@Override
+		public String[] getLocalFilenames()
+		{
+			return new String[]{"streamed.bin"};
+		}
+
+		@Override
+		public String[] getDistantURLs()
+		{
+			return new String[]{streamAddress};
+		}
+
+		@Override
+		public String[] getDistantChecksums()
+		{
+			return new String[]{streamChecksum};
+		}
+
+		@Override
+		protected boolean streamsDownloads()
+		{
+			return true;
+		}
+
+		private byte[] received;
+
+		@Override
+		protected boolean processDownloadStream(int index, InputStream in) throws IOException
+		{
+			received = new byte[100];
+			return in.read(received) > 0;
+		}
+
+		@Override
+		protected boolean finishDownloadStreams() throws IOException
+		{
+			Files.write(Paths.get(locateInBase(getLocalFilenames()[0])), received);
+			return true;
+		}
+
+		@Override
+		public boolean load()
+		{
+			return true;
+		}
+	}
+
+	@Test
+	public void testStreamedResourceIsNotCommittedOnChecksumMismatch() throws Exception
+	{
+		String dir = ResourceDirectory.get();
+		ResourceDirectory.set(folder.getRoot().getPath());
+		streamAddress = getAddress();
+
+		try
+		{
+			streamChecksum = getSHA256(new byte[]{1});
+			try
+			{
+				new StreamingServer();
+				fail("The resource has to fail with the wrong checksum");
+			}
+			catch (RuntimeException e)
+			{
+				assertFalse(Files.exists(folder.getRoot().toPath().resolve("streamed.bin")));
+			}
+
+			streamChecksum = getSHA256(content);
+			new StreamingServer();
+			assertArrayEquals(Arrays.copyOf(content, 100),
+				Files.readAllBytes(folder.getRoot().toPath().resolve("streamed.bin")));
+		}
+		finally
+		{
+			ResourceDirectory.set(dir);
+		}
+	}
+}
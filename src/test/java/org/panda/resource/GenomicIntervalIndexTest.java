@@ -0,0 +1,178 @@
+package org.panda.resource;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the queries of GenomicIntervalIndex to a linear scan over random intervals.
+ */
+public class GenomicIntervalIndexTest
+{
+	private static final int N = 2000;
+
+	private final String[] chrs = new String[N];
+	private final int[] starts = new int[N];
+	private final int[] ends = new int[N];
+	private final String[] names = new String[N];
+
+	private GenomicIntervalIndex createIndex()
+	{
+		Random r = new Random(1);
+		for (int i = 0; i < N; i++)
+		{
+			chrs[i] = r.nextBoolean() ? "1" : "chr2";
+			starts[i] = 1 + r.nextInt(100000);
+
+			// Mostly gene sized intervals, with a few long ones that hide shorter ones
+			ends[i] = starts[i] + (r.nextInt(50) == 0 ? r.nextInt(20000) : r.nextInt(500));
+			names[i] = "G" + i;
+		}
+		return new GenomicIntervalIndex(chrs, starts, ends, names);
+	}
+
+	private List<String> scan(String chr, int start, int end)
+	{
+		List<String> list = new ArrayList<>();
+		for (int i = 0; i < N; i++)
+		{
+			if (GenomicIntervalIndex.normalize(chrs[i]).equals(chr) && starts[i] <= end && ends[i] >= start)
+			{
+				list.add(names[i]);
+			}
+		}
+		Collections.sort(list);
+		return list;
+	}
+
+	private int distance(int i, int position)
+	{
+		return Math.max(0, Math.max(starts[i] - position, position - ends[i]));
+	}
+
+	@Test
+	public void testOverlapping()
+	{
+		GenomicIntervalIndex index = createIndex();
+		assertEquals(N, index.size());
+
+		Random r = new Random(2);
+		for (int k = 0; k < 3000; k++)
+		{
+			String chr = r.nextBoolean() ? "1" : "2";
+			int start = r.nextInt(105000);
+			int end = start + (r.nextBoolean() ? 0 : r.nextInt(2000));
+
+			List<String> found = new ArrayList<>(index.getOverlapping(r.nextBoolean() ? chr : "chr" + chr, start, end));
+			Collections.sort(found);
+			assertEquals(scan(chr, start, end), found);
+		}
+	}
+
+	@Test
+	public void testOrderOfStarts()
+	{
+		GenomicIntervalIndex index = createIndex();
+		Map<String, Integer> ids = new HashMap<>();
+		for (int i = 0; i < N; i++) ids.put(names[i], i);
+
+		List<String> found = index.getOverlapping("1", 40000, 60000);
+		for (int k = 1; k < found.size(); k++)
+		{
+			assertTrue(starts[ids.get(found.get(k - 1))] <= starts[ids.get(found.get(k))]);
+		}
+	}
+
+	@Test
+	public void testNearest()
+	{
+		GenomicIntervalIndex index = createIndex();
+		Map<String, Integer> ids = new HashMap<>();
+		for (int i = 0; i < N; i++) ids.put(names[i], i);
+
+		Random r = new Random(3);
+		for (int k = 0; k < 3000; k++)
+		{
+			String chr = r.nextBoolean() ? "1" : "2";
+			int position = r.nextInt(125000);
+
+			int best = Integer.MAX_VALUE;
+			for (int i = 0; i < N; i++)
+			{
+				if (GenomicIntervalIndex.normalize(chrs[i]).equals(chr)) best = Math.min(best, distance(i, position));
+			}
+
+			String nearest = index.getNearest(chr, position);
+			assertEquals(best, distance(ids.get(nearest), position));
+			assertEquals(best, index.getDistanceToNearest(chr, position));
+		}
+
+		assertNull(index.getNearest("3", 100));
+		assertEquals(-1, index.getDistanceToNearest("3", 100));
+	}
+
+	@Test
+	public void testAnnotate()
+	{
+		GenomicIntervalIndex index = createIndex();
+		String[] qChrs = {"1", "chr2", "X"};
+		int[] positions = {50000, 70000, 100};
+
+		String[][] annotated = index.annotate(qChrs, positions, 1000);
+		String[] nearest = index.annotateNearest(qChrs, positions);
+
+		for (int i = 0; i < qChrs.length; i++)
+		{
+			String chr = GenomicIntervalIndex.normalize(qChrs[i]);
+			List<String> found = new ArrayList<>(Arrays.asList(annotated[i]));
+			Collections.sort(found);
+			assertEquals(scan(chr, positions[i] - 1000, positions[i] + 1000), found);
+			assertEquals(index.getNearest(qChrs[i], positions[i]), nearest[i]);
+		}
+	}
+
+	/**
+	 * A long interval at the start of the chromosome, and indexes of every small size, so that the implicit tree has
+	 * nodes beyond the last index.
+	 */
+	@Test
+	public void testLongEarlyIntervalAndSmallSizes()
+	{
+		Random r = new Random(4);
+		for (int n = 1; n <= 40; n++)
+		{
+			String[] c = new String[n];
+			int[] s = new int[n];
+			int[] e = new int[n];
+			String[] g = new String[n];
+			for (int i = 0; i < n; i++)
+			{
+				c[i] = "1";
+				s[i] = i == 0 ? 1 : 2 + r.nextInt(1000);
+				e[i] = i == 0 ? 2000 : s[i] + r.nextInt(30);
+				g[i] = "G" + i;
+			}
+			GenomicIntervalIndex index = new GenomicIntervalIndex(c, s, e, g);
+
+			for (int start = 0; start <= 2010; start += 7)
+			{
+				int end = start + r.nextInt(20);
+				List<String> expected = new ArrayList<>();
+				for (int i = 0; i < n; i++)
+				{
+					if (s[i] <= end && e[i] >= start) expected.add(g[i]);
+				}
+				Collections.sort(expected);
+
+				List<String> found = new ArrayList<>(index.getOverlapping("1", start, end));
+				Collections.sort(found);
+				assertEquals(expected, found);
+
+				// Long interval starts first, so it is the nearest of every position it contains
+				if (start >= 1 && start <= 2000) assertEquals("G0", index.getNearest("1", start));
+			}
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package org.panda.resource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the sites near the termini, whose windows are padded, are scored on the residues they have.
+ */
+public class KinaseSitePredictorTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * A single kinase that multiplies the score by 2 for each known residue, with the acceptor in the middle of a
+	 * peptide of length 10.
+	 */
+	private KinaseMatrix createMatrix()
+	{
+		Map<Integer, Map<String, Double>> byLoc = new HashMap<>();
+		for (int loc = -5; loc <= 4; loc++)
+		{
+			Map<String, Double> byRes = new HashMap<>();
+			for (String res : new String[]{"A", "S", "T"}) byRes.put(res, 2D);
+			byLoc.put(loc, byRes);
+		}
+		return new KinaseMatrix(Collections.singletonMap("K1", byLoc), 5, 10);
+	}
+
+	private SequenceStore createStore() throws IOException
+	{
+		SequenceStore.Writer writer = new SequenceStore.Writer(folder.newFile("seq.bin").getPath());
+		writer.start("P1");
+		writer.append("SAAAAAAAAAAAAT");
+		return writer.finish();
+	}
+
+	@Test
+	public void testTerminalSites() throws IOException
+	{
+		KinaseMatrix matrix = createMatrix();
+		String file = folder.getRoot().getPath() + "/sites.bin";
+
+		new KinaseSitePredictor(matrix, createStore(), p -> true, 1).run(file);
+
+		Map<Integer, Double> scores = new HashMap<>();
+		KinaseSitePredictor.read(file, (protein, position, residue, kinase, score) -> scores.put(position, score));
+
+		// The first site has 4 residues after it, and the last one has 5 residues before it
+		assertEquals(2, scores.size());
+		assertEquals(16, scores.get(1), 1e-9);
+		assertEquals(32, scores.get(14), 1e-9);
+	}
+
+	@Test
+	public void testTerminalSitesInBackground() throws IOException
+	{
+		KinaseMatrix matrix = createMatrix();
+		KinaseBackground bg = KinaseBackground.build(matrix, createStore(), p -> true);
+
+		assertEquals(2, bg.getSiteCount());
+		assertEquals(0, bg.percentile("K1", 15), 1e-9);
+		assertEquals(100, bg.percentile("K1", 32), 1e-9);
+		assertFalse(Double.isNaN(bg.percentile("K1", 20)));
+	}
+
+	@Test
+	public void testUnscorableSitesAreNotCounted() throws IOException
+	{
+		SequenceStore.Writer writer = new SequenceStore.Writer(folder.newFile("seq2.bin").getPath());
+		writer.start("P1");
+		writer.append("AAAAASAAAA");
+		writer.start("P2");
+		writer.append("AAXAASAAAA");
+		KinaseBackground bg = KinaseBackground.build(createMatrix(), writer.finish(), p -> true);
+
+		// The X in the window of the second site makes all its scores NaN
+		assertEquals(1, bg.getSiteCount());
+		assertEquals(100, bg.percentile("K1", 512), 1e-9);
+	}
+
+	@Test
+	public void testPadIsNeutral()
+	{
+		KinaseMatrix matrix = createMatrix();
+
+		assertEquals(Math.pow(2, 9), matrix.score(0, "AAAAASAAAA"), 1e-9);
+		assertEquals(Math.pow(2, 4), matrix.score(0, "_____SAAAA"), 1e-9);
+		assertTrue(Double.isNaN(matrix.score(0, "AAAAASAAAX")));
+	}
+}
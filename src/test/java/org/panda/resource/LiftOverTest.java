@@ -0,0 +1,147 @@
+package org.panda.resource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests LiftOver on a small chain file with a gap, a reverse strand chain, and two overlapping chains.
+ */
+public class LiftOverTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private String resourceDir;
+
+	/**
+	 * Source positions are 0-based in the chain file.
+	 * <ul>
+	 * <li>Chain 1 maps chr1 [100, 150) to chr1 [500, 550), leaves the source [150, 170) unmapped, and maps [170, 300)
+	 * to [560, 690).</li>
+	 * <li>Chain 2 maps chr1 [400, 460) to the reverse strand of chr2, starting at 100 on that strand.</li>
+	 * <li>Chain 3 maps chr1 [90, 160) to chr3 [0, 70), with a lower score than chain 1.</li>
+	 * </ul>
+	 */
+	private static final String[] CHAINS = {
+		"chain 1000 chr1 1000 + 100 300 chr1 1000 + 500 690 1",
+		"50 20 10",
+		"130",
+		"",
+		"chain 500 chr1 1000 + 400 460 chr2 2000 - 100 160 2",
+		"60",
+		"",
+		"chain 10 chr1 1000 + 90 160 chr3 500 + 0 70 3",
+		"70",
+		""};
+
+	private static class TestLiftOver extends LiftOver
+	{
+		@Override
+		public String getSourceAssembly()
+		{
+			return "A";
+		}
+
+		@Override
+		public String getTargetAssembly()
+		{
+			return "B";
+		}
+
+		@Override
+		public String[] getLocalFilenames()
+		{
+			return new String[]{"test.over.chain"};
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException
+	{
+		resourceDir = ResourceDirectory.get();
+		ResourceDirectory.set(folder.getRoot().getPath());
+		Files.write(folder.getRoot().toPath().resolve("test.over.chain"), Arrays.asList(CHAINS));
+	}
+
+	@After
+	public void tearDown()
+	{
+		ResourceDirectory.set(resourceDir);
+	}
+
+	private void assertPosition(LiftOver lift, String chr, int position, String expChr, int expPosition,
+		boolean expReverse)
+	{
+		LiftOver.Position p = lift.convert(chr, position);
+		assertNotNull(chr + ":" + position, p);
+		assertEquals(expChr, p.chr);
+		assertEquals(expPosition, p.position);
+		assertEquals(expReverse, p.reverse);
+	}
+
+	private void check(LiftOver lift)
+	{
+		// Forward blocks on both sides of the gap
+		assertPosition(lift, "chr1", 101, "1", 501, false);
+		assertPosition(lift, "1", 150, "1", 550, false);
+		assertPosition(lift, "1", 171, "1", 561, false);
+		assertPosition(lift, "1", 300, "1", 690, false);
+
+		// The gap of chain 1 after the end of chain 3, and the positions out of all chains
+		for (int pos : new int[]{161, 165, 170, 301, 400, 461, 1})
+		{
+			assertNull("1:" + pos, lift.convert("1", pos));
+		}
+		assertNull(lift.convert("5", 101));
+
+		// Only the lower scoring chain covers these
+		assertPosition(lift, "1", 91, "3", 1, false);
+		assertPosition(lift, "1", 155, "3", 65, false);
+
+		// Reverse strand of the target, counted from the end of chr2
+		assertPosition(lift, "1", 401, "2", 1900, true);
+		assertPosition(lift, "1", 460, "2", 1841, true);
+
+		// Ranges
+		LiftOver.Position[] range = lift.convertRange("1", 401, 410);
+		assertEquals(1891, range[0].position);
+		assertEquals(1900, range[1].position);
+		assertEquals(561, lift.convertRange("chr1", 171, 200)[0].position);
+		assertNull(lift.convertRange("1", 101, 401));
+		assertNull(lift.convertRange("1", 101, 165));
+
+		// The batch conversion gives the same results
+		String[] chrs = {"1", "chr1", "1", "1", "2"};
+		int[] positions = {101, 165, 401, 91, 101};
+		String[] targetChrs = new String[chrs.length];
+		int[] converted = lift.convert(chrs, positions, targetChrs);
+		assertArrayEquals(new int[]{501, -1, 1900, 1, -1}, converted);
+		assertArrayEquals(new String[]{"1", null, "2", "3", null}, targetChrs);
+	}
+
+	@Test
+	public void testConvert()
+	{
+		LiftOver lift = new TestLiftOver();
+		assertEquals(Collections.singleton("1"), lift.getChromosomes());
+		check(lift);
+	}
+
+	@Test
+	public void testConvertFromSnapshot()
+	{
+		new TestLiftOver();
+		assertTrue(Files.exists(folder.getRoot().toPath().resolve("TestLiftOver.snapshot")));
+		check(new TestLiftOver());
+	}
+}
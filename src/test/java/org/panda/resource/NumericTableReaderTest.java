@@ -0,0 +1,101 @@
+package org.panda.resource;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the byte level number parser to Double.parseDouble.
+ */
+public class NumericTableReaderTest
+{
+	private static double parse(String s)
+	{
+		byte[] b = ("\t" + s + "\t").getBytes(StandardCharsets.US_ASCII);
+		return NumericTableReader.parseDouble(b, 1, b.length - 1);
+	}
+
+	private static void assertSameAsJDK(String s)
+	{
+		assertEquals(s, Double.doubleToLongBits(Double.parseDouble(s)), Double.doubleToLongBits(parse(s)));
+	}
+
+	@Test
+	public void testRandomNumbers()
+	{
+		Random r = new Random(1);
+		for (int i = 0; i < 200000; i++)
+		{
+			double d = r.nextGaussian() * Math.pow(10, r.nextInt(40) - 20);
+			assertSameAsJDK(Double.toString(d));
+			assertSameAsJDK(String.format(Locale.US, "%." + r.nextInt(12) + "f", d));
+			assertSameAsJDK(String.format(Locale.US, "%." + r.nextInt(18) + "e", d));
+		}
+	}
+
+	@Test
+	public void testRandomDigitStrings()
+	{
+		Random r = new Random(2);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200000; i++)
+		{
+			sb.setLength(0);
+			if (r.nextBoolean()) sb.append(r.nextBoolean() ? '-' : '+');
+
+			int intDigits = r.nextInt(22);
+			int fracDigits = r.nextInt(22);
+			if (intDigits + fracDigits == 0) intDigits = 1;
+
+			for (int j = 0; j < intDigits; j++) sb.append((char) ('0' + r.nextInt(10)));
+			if (fracDigits > 0 || r.nextInt(10) == 0) sb.append('.');
+			for (int j = 0; j < fracDigits; j++) sb.append((char) ('0' + r.nextInt(10)));
+			if (r.nextInt(3) == 0) sb.append(r.nextBoolean() ? 'e' : 'E').append(r.nextInt(80) - 40);
+
+			assertSameAsJDK(sb.toString());
+		}
+	}
+
+	@Test
+	public void testEdgeCases()
+	{
+		for (String s : new String[]{"0", "-0", "0.0", ".5", "5.", "-.5", "1e22", "1e23", "1e-22", "1e-23",
+			"9007199254740992", "9007199254740993", "123456789012345678901234567890", "0.000000000000000000001",
+			"4.9e-324", "1.7976931348623157e308", "1e400", "Infinity", "-Infinity", "NaN", "00012.5000"})
+		{
+			assertSameAsJDK(s);
+		}
+	}
+
+	@Test
+	public void testSpecialFields()
+	{
+		assertTrue(Double.isNaN(parse("NA")));
+		assertTrue(Double.isNaN(parse("")));
+		assertTrue(Double.isNaN(parse("\"\"")));
+		assertEquals(Double.POSITIVE_INFINITY, parse("Inf"), 0);
+		assertEquals(Double.NEGATIVE_INFINITY, parse("-Inf"), 0);
+		assertEquals(1.5, parse(" \"1.5\" "), 0);
+	}
+
+	@Test
+	public void testInvalidFields()
+	{
+		for (String s : new String[]{"abc", "1.2.3", "1e", "--1", "1e+"})
+		{
+			try
+			{
+				parse(s);
+				fail("Parsed " + s);
+			}
+			catch (NumberFormatException e)
+			{
+				// Expected
+			}
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package org.panda.resource;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the peptide and motif queries of PeptideIndex against a brute-force scan of a few random sequences.
+ */
+public class PeptideIndexTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private List<String> sequences;
+	private SequenceStore store;
+
+	/**
+	 * Sequences are mostly from a small alphabet so that short motifs match often, with a few other residues.
+	 */
+	@Before
+	public void setUp() throws IOException
+	{
+		Random r = new Random(7);
+		String common = "RSTPAK";
+		String all = "ACDEFGHIKLMNPQRSTVWY";
+
+		sequences = new ArrayList<>();
+		SequenceStore.Writer writer = new SequenceStore.Writer(folder.newFile("residues").getPath());
+		for (int p = 0; p < 6; p++)
+		{
+			int len = p == 0 ? 3 : 50 + r.nextInt(300);
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < len; i++)
+			{
+				String alphabet = r.nextInt(10) == 0 ? all : common;
+				sb.append(alphabet.charAt(r.nextInt(alphabet.length())));
+			}
+			sequences.add(sb.toString());
+			writer.start("P" + p);
+			writer.append(sb);
+		}
+		store = writer.finish();
+	}
+
+	@Test
+	public void testFind()
+	{
+		Random r = new Random(11);
+		int[][] params = {{4, 4}, {3, 1}, {2, 3}};
+
+		for (int[] kStep : params)
+		{
+			PeptideIndex index = new PeptideIndex(store, kStep[0], kStep[1]);
+
+			for (int q = 0; q < 200; q++)
+			{
+				// Take peptides from the sequences so that most queries have matches
+				String seq = sequences.get(1 + r.nextInt(sequences.size() - 1));
+				int len = 1 + r.nextInt(12);
+				int start = r.nextInt(seq.length() - len);
+				String peptide = seq.substring(start, start + len);
+
+				assertEquals(peptide, bruteForce(peptide), toStrings(index.find(peptide)));
+				assertEquals(peptide, bruteForce(peptide), toStrings(index.find(peptide.toLowerCase())));
+			}
+
+			assertTrue(index.find("RSTPAKRSTPAKRSTPAKRSTPAK").isEmpty());
+			assertTrue(index.find("RS1").isEmpty());
+		}
+	}
+
+	@Test
+	public void testFindMotif()
+	{
+		PeptideIndex index = new PeptideIndex(store);
+
+		String[] motifs = {"R.R..[ST]", "RA", "[ST]P", "[^RK]P", "xSP", "R{2}.S", "RA{0}K", "R.{0,2}K", "[ST]P{0,1}",
+			"K{0,3}RS", "A{1,2}[^P]{0,1}T", "W"};
+
+		for (String motif : motifs)
+		{
+			assertEquals(motif, bruteForceMotif(motif), toStrings(index.findMotif(motif)));
+		}
+	}
+
+	@Test
+	public void testCompileMotif()
+	{
+		assertEquals(1, PeptideIndex.compileMotif("RA{0}K").size());
+		assertEquals(2, PeptideIndex.compileMotif("RA{0}K").get(0).length);
+		assertEquals(3, PeptideIndex.compileMotif("R.{0,2}K").size());
+		assertEquals(6, PeptideIndex.compileMotif("R{1,2}.{0,2}K").size());
+
+		for (String bad : new String[]{"A{0}", "S{0,2}", "[ST", "{2}A", "A{2,1}", "A{x}", "A{1,2,3}", "A1",
+			".{0,9}.{0,9}.{0,9}.{0,9}"})
+		{
+			try
+			{
+				PeptideIndex.compileMotif(bad);
+				fail(bad);
+			}
+			catch (IllegalArgumentException e)
+			{
+				// expected
+			}
+		}
+	}
+
+	private List<String> bruteForce(String peptide)
+	{
+		List<String> list = new ArrayList<>();
+		for (int p = 0; p < sequences.size(); p++)
+		{
+			String seq = sequences.get(p);
+			for (int i = seq.indexOf(peptide); i >= 0; i = seq.indexOf(peptide, i + 1))
+			{
+				list.add(p + ":" + (i + 1));
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * The motif syntax is that of regular expressions, except for "x".
+	 */
+	private List<String> bruteForceMotif(String motif)
+	{
+		Pattern pattern = Pattern.compile(motif.replace('x', '.'));
+		List<String> list = new ArrayList<>();
+		for (int p = 0; p < sequences.size(); p++)
+		{
+			String seq = sequences.get(p);
+			Matcher m = pattern.matcher(seq);
+			for (int i = 0; i < seq.length(); i++)
+			{
+				m.region(i, seq.length());
+				if (m.lookingAt()) list.add(p + ":" + (i + 1));
+			}
+		}
+		return list;
+	}
+
+	private List<String> toStrings(List<PeptideIndex.Match> matches)
+	{
+		List<String> list = new ArrayList<>();
+		for (PeptideIndex.Match m : matches)
+		{
+			list.add(m.protein + ":" + m.position);
+		}
+		return list;
+	}
+}
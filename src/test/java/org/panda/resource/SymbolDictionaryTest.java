@@ -0,0 +1,66 @@
+package org.panda.resource;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the seeding of the dictionary with approved symbols, and interning past its initial capacity. None of the
+ * tests need HGNC.
+ */
+public class SymbolDictionaryTest
+{
+	@Test
+	public void testInternBeyondInitialCapacity()
+	{
+		SymbolDictionary dict = SymbolDictionary.get();
+		int n = (1 << 16) * 2 + 10;
+
+		for (int i = 0; i < n; i++)
+		{
+			String symbol = "TEST-SYMBOL-" + i;
+			String interned = SymbolDictionary.intern(new String(symbol));
+			assertEquals(symbol, interned);
+			assertSame(interned, SymbolDictionary.intern(new String(symbol)));
+		}
+
+		int id = dict.lookup("TEST-SYMBOL-" + (n - 1));
+		assertTrue(id >= 0);
+		assertEquals("TEST-SYMBOL-" + (n - 1), dict.getSymbol(id));
+		assertEquals(Collections.singleton("TEST-SYMBOL-0"),
+			dict.toSymbols(new int[]{dict.lookup("TEST-SYMBOL-0")}));
+	}
+
+	@Test
+	public void testSeedApproved()
+	{
+		SymbolDictionary dict = new SymbolDictionary();
+		dict.seedApproved(Arrays.asList("TP53", "AKT1", "MTOR"));
+
+		assertEquals(3, dict.getHGNCSize());
+		assertEquals(0, dict.lookup("AKT1"));
+		assertEquals(1, dict.lookup("MTOR"));
+		assertEquals(2, dict.lookup("TP53"));
+
+		// Other symbols follow the approved block, and seeding again does not move it
+		assertEquals(3, dict.getID("LOC100"));
+		dict.seedApproved(Arrays.asList("TP53", "BRAF"));
+		assertEquals(3, dict.getHGNCSize());
+		assertEquals(2, dict.lookup("TP53"));
+		assertEquals(4, dict.lookup("BRAF"));
+	}
+
+	@Test
+	public void testSeedAfterInterning()
+	{
+		SymbolDictionary dict = new SymbolDictionary();
+		assertEquals(0, dict.getID("LOC100"));
+		dict.seedApproved(Collections.singleton("TP53"));
+
+		assertEquals(0, dict.getHGNCSize());
+		assertEquals(1, dict.lookup("TP53"));
+	}
+}
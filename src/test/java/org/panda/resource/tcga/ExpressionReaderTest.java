@@ -0,0 +1,73 @@
+package org.panda.resource.tcga;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the expression readers keep the values of the file, and log transform only the copied arrays.
+ */
+public class ExpressionReaderTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File write(String name, String... lines) throws IOException
+	{
+		File file = folder.newFile(name);
+		Files.write(file.toPath(), Arrays.asList(lines));
+		return file;
+	}
+
+	@Test
+	public void testCustomReaderKeepsValues() throws IOException
+	{
+		File file = write("custom.txt",
+			"Gene\tS1\tS2\tS3",
+			"G1\t-2.5\t0.1234567890123\t1000");
+
+		CustomExpressionReader reader = new CustomExpressionReader(file.getPath());
+
+		assertEquals(-2.5, reader.getGeneAlteration("G1", "S1"), 0);
+		assertEquals(0.1234567890123, reader.getGeneAlteration("G1", "S2"), 0);
+		assertEquals(1000, reader.getGeneAlteration("G1", "S3"), 0);
+	}
+
+	@Test
+	public void testTCGAReader() throws IOException
+	{
+		File file = write("tcga.txt",
+			"Hybridization REF\tTCGA-AA-0001-01\tTCGA-AA-0002-01",
+			"gene_id\tnormalized_count\tnormalized_count",
+			"TP53|7157\t3\t1023.75",
+			"?|100\t1\t1");
+
+		for (ExpressionReader reader : new ExpressionReader[]{
+			new ExpressionReader(file.getPath()), new ExpressionReader(file.getPath(), 10)})
+		{
+			assertEquals(1023.75, reader.getGeneAlteration("TP53", "TCGA-AA-0002"), 0);
+
+			String[] samples = {"TCGA-AA-0002", "TCGA-AA-0001"};
+			double[] log = reader.getGeneAlterationArray("TP53", samples);
+			assertEquals(Math.log1p(1023.75) / Math.log(2), log[0], 1e-12);
+			assertEquals(2, log[1], 1e-12);
+
+			// The array is a copy, so changing it does not change the reader
+			log = reader.getGeneAlterationArray("TP53", reader.getMatrix().getSampleArray());
+			log[0] = 0;
+			assertEquals(3, reader.getGeneAlteration("TP53", "TCGA-AA-0001"), 0);
+
+			// The row is not copied, and has the values of the file
+			assertArrayEquals(new double[]{3, 1023.75}, reader.getGeneAlterationRow("TP53"), 0);
+			assertSame(reader.getGeneAlterationRow("TP53"), reader.getGeneAlterationRow("TP53"));
+			assertNull(reader.getGeneAlterationRow("BRCA1"));
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package org.panda.resource.tcga;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares MutationReader, on both the parsed MAF and its binary cache, to a plain reading of a random MAF file.
+ */
+public class MutationReaderTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final String[] TYPES = {"Missense_Mutation", "Nonsense_Mutation", "Silent"};
+
+	/**
+	 * Writes a MAF with a comment line, and rows of random genes, samples, types and protein changes. Sample barcodes
+	 * are longer than the sample IDs of the reader.
+	 */
+	private File writeMAF(String name, int rows, long seed) throws IOException
+	{
+		Random r = new Random(seed);
+		List<String> lines = new ArrayList<>();
+		lines.add("#version 2.4");
+		lines.add("Hugo_Symbol\tEntrez_Gene_Id\tVariant_Classification\tTumor_Sample_Barcode\tProtein_Change");
+
+		for (int i = 0; i < rows; i++)
+		{
+			String gene = r.nextInt(50) == 0 ? "." : "G" + r.nextInt(20);
+			String sample = String.format("TCGA-AA-%04d-01A-11D", r.nextInt(30));
+			String change = "p.A" + r.nextInt(40) + "V";
+			lines.add(gene + "\t" + i + "\t" + TYPES[r.nextInt(TYPES.length)] + "\t" + sample + "\t" + change);
+		}
+
+		File file = folder.newFile(name);
+		Files.write(file.toPath(), lines);
+		return file;
+	}
+
+	/**
+	 * Gene to sample to the type and change of the mutations, in file order, read with split.
+	 */
+	private Map<String, Map<String, List<String>>> readPlain(File file, Set<String> genes, Set<String> types,
+		Set<String> samples) throws IOException
+	{
+		Map<String, Map<String, List<String>>> map = new HashMap<>();
+		for (String line : Files.readAllLines(file.toPath()))
+		{
+			if (line.startsWith("#") || line.startsWith("Hugo_Symbol")) continue;
+
+			String[] t = line.split("\t");
+			if (t[0].equals(".") || !types.contains(t[2])) continue;
+
+			String sample = t[3].substring(0, 12);
+			samples.add(sample);
+
+			if (genes != null && !genes.contains(t[0])) continue;
+			map.computeIfAbsent(t[0], k -> new HashMap<>()).computeIfAbsent(sample, k -> new ArrayList<>())
+				.add(t[2] + " " + t[4].substring(2));
+		}
+		return map;
+	}
+
+	private void assertSameWithPlain(MutationReader reader, File file, Set<String> genes, Set<String> types)
+		throws IOException
+	{
+		Set<String> samples = new HashSet<>();
+		Map<String, Map<String, List<String>>> expected = readPlain(file, genes, types, samples);
+
+		assertEquals(samples, reader.getSamples());
+		assertEquals(expected.keySet(), reader.getGenes());
+
+		String[] sampleArray = samples.toArray(new String[0]);
+		for (String gene : expected.keySet())
+		{
+			List<MutTuple>[] muts = reader.getMutations(gene, sampleArray);
+			boolean[] mutated = reader.getGeneAlterationArray(gene, sampleArray);
+
+			for (int i = 0; i < sampleArray.length; i++)
+			{
+				List<String> exp = expected.get(gene).getOrDefault(sampleArray[i], Collections.emptyList());
+				List<String> found = new ArrayList<>();
+				for (MutTuple mut : muts[i]) found.add(mut.type + " " + mut.value);
+
+				assertEquals(gene + " " + sampleArray[i], exp, found);
+				assertEquals(!exp.isEmpty(), mutated[i]);
+			}
+		}
+	}
+
+	@Test
+	public void testParseAndCache() throws IOException
+	{
+		File file = writeMAF("test.maf", 2000, 1);
+		File cache = MAFCache.getCacheFile(file.getPath());
+		Set<String> types = new HashSet<>(Arrays.asList(TYPES));
+
+		assertFalse(cache.exists());
+		assertSameWithPlain(new MutationReader(file.getPath()), file, null, types);
+		assertTrue(cache.exists());
+
+		// The next reader uses the cache instead of writing it again
+		long time = cache.lastModified() - 100000;
+		assertTrue(cache.setLastModified(time));
+		assertSameWithPlain(new MutationReader(file.getPath()), file, null, types);
+		assertEquals(time, cache.lastModified());
+	}
+
+	@Test
+	public void testCacheHasParsedData() throws IOException
+	{
+		File file = writeMAF("test.maf", 500, 2);
+		MAFCache parsed = MAFCache.parse(file.getPath());
+		MAFCache.get(file.getPath());
+		MAFCache cached = MAFCache.get(file.getPath());
+
+		assertNotSame(parsed, cached);
+		assertArrayEquals(parsed.genes, cached.genes);
+		assertArrayEquals(parsed.samples, cached.samples);
+		assertArrayEquals(parsed.types, cached.types);
+		assertArrayEquals(parsed.changes, cached.changes);
+		assertArrayEquals(parsed.gene, cached.gene);
+		assertArrayEquals(parsed.sample, cached.sample);
+		assertArrayEquals(parsed.type, cached.type);
+		assertArrayEquals(parsed.change, cached.change);
+	}
+
+	@Test
+	public void testCacheIsRebuiltWhenFileChanges() throws IOException
+	{
+		File file = writeMAF("test.maf", 500, 3);
+		new MutationReader(file.getPath());
+
+		List<String> lines = new ArrayList<>(Files.readAllLines(file.toPath()));
+		lines.add("NEWGENE\t0\tSilent\tTCGA-BB-0001-01A-11D\tp.S1S");
+		Files.write(file.toPath(), lines);
+
+		MutationReader reader = new MutationReader(file.getPath());
+		assertTrue(reader.getGenes().contains("NEWGENE"));
+		assertTrue(reader.getSamples().contains("TCGA-BB-0001"));
+	}
+
+	@Test
+	public void testFilters() throws IOException
+	{
+		File file = writeMAF("test.maf", 2000, 4);
+		Set<String> genes = new HashSet<>(Arrays.asList("G1", "G2", "G3"));
+
+		// The samples of the rows whose genes are filtered out are still in the sample set
+		MutationReader reader = new MutationReader(file.getPath(), 12, genes, "Missense_Mutation", "Silent");
+		assertSameWithPlain(reader, file, genes, new HashSet<>(Arrays.asList("Missense_Mutation", "Silent")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownSample() throws IOException
+	{
+		File file = writeMAF("test.maf", 100, 5);
+		MutationReader reader = new MutationReader(file.getPath());
+		assertTrue(reader.getGenes().contains("G1"));
+		reader.getGeneAlterationArray("G1", new String[]{"TCGA-ZZ-0000"});
+	}
+}